@@ -27,13 +27,10 @@
 package com.shixincube.app.model;
 
 import com.google.gson.annotations.SerializedName;
-import com.shixincube.app.util.PinyinUtils;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.util.Locale;
-
 import cube.contact.model.Contact;
 import cube.util.JSONable;
 
@@ -91,60 +88,6 @@ public class Account implements JSONable {
         }
     }
 
-    /**
-     * 设置用户名拼写。
-     *
-     * @param contact
-     */
-    public static String setNameSpelling(Contact contact) {
-        if (null == contact) {
-            return "";
-        }
-
-        String pinyin = contact.getPriorityName();
-        try {
-            if (null != contact.getContext()) {
-                JSONObject context = contact.getContext();
-                if (context.has("nameSpelling")) {
-                    return context.getString("nameSpelling");
-                }
-
-                pinyin = PinyinUtils.getPinyin(contact.getPriorityName());
-                context.put("nameSpelling", pinyin);
-            }
-        } catch (JSONException e) {
-            e.printStackTrace();
-        }
-        return pinyin;
-    }
-
-    /**
-     * 获取用户的拼写形式。
-     *
-     * @param contact
-     * @return
-     */
-    public static String getNameSpelling(Contact contact) {
-        String pinyin = contact.getPriorityName();
-        try {
-            if (null != contact.getContext()) {
-                JSONObject context = contact.getContext();
-                if (context.has("nameSpelling")) {
-                    pinyin = context.getString("nameSpelling");
-                }
-                else {
-                    pinyin = PinyinUtils.getPinyin(contact.getPriorityName());
-                }
-            }
-            else {
-                pinyin = PinyinUtils.getPinyin(contact.getPriorityName());
-            }
-        } catch (JSONException e) {
-            e.printStackTrace();
-        }
-        return pinyin.toUpperCase(Locale.ROOT);
-    }
-
     @Override
     public JSONObject toJSON() {
         JSONObject json = new JSONObject();
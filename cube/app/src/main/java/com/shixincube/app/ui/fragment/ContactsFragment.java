@@ -35,7 +35,6 @@ import android.widget.TextView;
 import androidx.annotation.Nullable;
 
 import com.shixincube.app.R;
-import com.shixincube.app.model.Account;
 import com.shixincube.app.ui.activity.ContactDetailsActivity;
 import com.shixincube.app.ui.activity.GroupListActivity;
 import com.shixincube.app.ui.activity.MainActivity;
@@ -45,14 +44,9 @@ import com.shixincube.app.ui.presenter.ContactsPresenter;
 import com.shixincube.app.ui.view.ContactsView;
 import com.shixincube.app.util.UIUtils;
 import com.shixincube.app.widget.QuickIndexBar;
-import com.shixincube.app.widget.adapter.AdapterForRecyclerView;
-import com.shixincube.app.widget.adapter.HeaderAndFooterAdapter;
 import com.shixincube.app.widget.recyclerview.RecyclerView;
 
-import java.util.List;
-
 import butterknife.BindView;
-import cube.contact.model.Contact;
 
 /**
  * 联系人清单。
@@ -122,14 +116,9 @@ public class ContactsFragment extends BaseFragment<ContactsView, ContactsPresent
                     contactsView.moveToPosition(0);
                 }
                 else {
-                    List<Contact> data = ((AdapterForRecyclerView) ((HeaderAndFooterAdapter) contactsView.getAdapter()).getInnerAdapter()).getData();
-                    for (int i = 0; i < data.size(); ++i) {
-                        Contact contact = data.get(i);
-                        String firstLetter = String.valueOf(Account.getNameSpelling(contact).charAt(0));
-                        if (firstLetter.equalsIgnoreCase(letter)) {
-                            contactsView.moveToPosition(i);
-                            break;
-                        }
+                    int position = presenter.getPositionForLetter(letter);
+                    if (position >= 0) {
+                        contactsView.moveToPosition(position);
                     }
                 }
             }
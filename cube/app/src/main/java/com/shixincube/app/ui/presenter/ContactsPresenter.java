@@ -34,7 +34,6 @@ import android.widget.ImageView;
 
 import com.bumptech.glide.Glide;
 import com.shixincube.app.R;
-import com.shixincube.app.model.Account;
 import com.shixincube.app.ui.activity.ContactDetailsActivity;
 import com.shixincube.app.ui.base.BaseActivity;
 import com.shixincube.app.ui.base.BasePresenter;
@@ -54,6 +53,7 @@ import java.util.List;
 import cube.contact.ContactService;
 import cube.contact.ContactZoneListener;
 import cube.contact.model.Contact;
+import cube.contact.model.ContactIndex;
 import cube.contact.model.ContactZone;
 import cube.contact.model.ContactZoneParticipantState;
 import cube.engine.CubeEngine;
@@ -72,11 +72,17 @@ public class ContactsPresenter extends BasePresenter<ContactsView> implements Co
      */
     private List<Contact> contacts;
 
+    /**
+     * 按排序键有序的联系人索引。
+     */
+    private ContactIndex contactIndex;
+
     private HeaderAndFooterAdapter adapter;
 
     public ContactsPresenter(BaseActivity activity) {
         super(activity);
         this.contacts = new ArrayList<>();
+        this.contactIndex = new ContactIndex();
     }
 
     public synchronized void loadContacts() {
@@ -90,13 +96,11 @@ public class ContactsPresenter extends BasePresenter<ContactsView> implements Co
 
                 synchronized (contacts) {
                     if (null != contactZone) {
-                        // 排序
-                        contacts.clear();
-
+                        // 增量更新索引，索引保持按排序键有序
                         List<Contact> contactList = contactZone.getParticipantContacts(ContactZoneParticipantState.Normal);
-                        for (Contact contact : contactList) {
-                            Account.setNameSpelling(contact);
-                            contacts.add(contact);
+                        if (contactIndex.update(contactList)) {
+                            contacts.clear();
+                            contacts.addAll(contactIndex.getList());
                         }
 
                         promise.resolve(contactZone);
@@ -139,13 +143,13 @@ public class ContactsPresenter extends BasePresenter<ContactsView> implements Co
 
                     // 判断是否显示索引字母
                     String indexLetter = "";
-                    String currentLetter = String.valueOf(Account.getNameSpelling(item).charAt(0));
+                    String currentLetter = String.valueOf(ContactIndex.getLetter(item));
                     if (0 == position) {
                         indexLetter = currentLetter;
                     }
                     else {
                         // 获取上一个字母
-                        String preLetter = String.valueOf(Account.getNameSpelling(contacts.get(position - 1)).charAt(0));
+                        String preLetter = String.valueOf(ContactIndex.getLetter(contacts.get(position - 1)));
                         // 如果和上一个字母的首字母不同则显示字母栏
                         if (!preLetter.equalsIgnoreCase(currentLetter)) {
                             indexLetter = currentLetter;
@@ -156,7 +160,7 @@ public class ContactsPresenter extends BasePresenter<ContactsView> implements Co
                     int nextIndex = position + 1;
                     if (nextIndex < contacts.size() - 1) {
                         // 得到下一个字母
-                        String nextLetter = String.valueOf(Account.getNameSpelling(contacts.get(nextIndex)).charAt(0));
+                        String nextLetter = String.valueOf(ContactIndex.getLetter(contacts.get(nextIndex)));
                         // 如果和下一个字母的首字母不同则隐藏下划线
                         if (!nextLetter.equalsIgnoreCase(currentLetter)) {
                             helper.setViewVisibility(R.id.vLine, View.INVISIBLE);
@@ -202,6 +206,26 @@ public class ContactsPresenter extends BasePresenter<ContactsView> implements Co
         }
     }
 
+    /**
+     * 获取指定索引字母的第一个联系人的位置。
+     *
+     * @param letter 指定索引字母。
+     * @return 返回联系人在列表里的位置，没有该字母的联系人时返回 {@code -1} 。
+     */
+    public int getPositionForLetter(String letter) {
+        return this.contactIndex.getPositionForLetter(letter.charAt(0));
+    }
+
+    /**
+     * 按全拼、拼音首字母或名称检索联系人。
+     *
+     * @param keyword 检索关键词。
+     * @return 返回匹配的联系人列表。
+     */
+    public List<Contact> searchContacts(String keyword) {
+        return this.contactIndex.search(keyword);
+    }
+
     private void jumpToContactDetails(ViewHolder helper, ViewGroup parent, View itemView, int position) {
         Intent intent = new Intent(activity, ContactDetailsActivity.class);
         // position 需要 -1 ，0 位置是 Header View
@@ -60,7 +60,9 @@ import cube.engine.util.Future;
 import cube.engine.util.Promise;
 import cube.engine.util.PromiseFuture;
 import cube.engine.util.PromiseHandler;
+import cube.messaging.ConversationChangeSet;
 import cube.messaging.ConversationEventListener;
+import cube.messaging.ConversationList;
 import cube.messaging.MessagingService;
 import cube.messaging.handler.DefaultConversationHandler;
 import cube.messaging.model.Conversation;
@@ -80,9 +82,27 @@ public class ConversationPresenter extends BasePresenter<ConversationView> imple
 
     private AdapterForRecyclerView<MessageConversation> adapter;
 
+    /**
+     * 当前列表对应的会话清单版本，{@code -1} 表示列表与会话清单不同步。
+     */
+    private long listVersion;
+
+    /**
+     * 是否正在重新加载列表。
+     */
+    private boolean reloading;
+
+    /**
+     * 重新加载期间收到的变更集。
+     */
+    private List<ConversationChangeSet> pendingChangeSets;
+
     public ConversationPresenter(BaseActivity activity) {
         super(activity);
         this.messageConversations = new ArrayList<>();
+        this.listVersion = -1;
+        this.reloading = false;
+        this.pendingChangeSets = new ArrayList<>();
     }
 
     public void loadConversations() {
@@ -189,7 +209,7 @@ public class ConversationPresenter extends BasePresenter<ConversationView> imple
                                 CubeEngine.getInstance().getMessagingService().focusOnConversation(item.conversation, new DefaultConversationHandler(true) {
                                     @Override
                                     public void handleConversation(Conversation conversation) {
-                                        loadConversations();
+                                        // 列表位置由变更集更新
                                     }
                                 }, new DefaultFailureHandler(true) {
                                     @Override
@@ -202,7 +222,7 @@ public class ConversationPresenter extends BasePresenter<ConversationView> imple
                                 CubeEngine.getInstance().getMessagingService().focusOutConversation(item.conversation, new DefaultConversationHandler(true) {
                                     @Override
                                     public void handleConversation(Conversation conversation) {
-                                        loadConversations();
+                                        // 列表位置由变更集更新
                                     }
                                 }, new DefaultFailureHandler(true) {
                                     @Override
@@ -242,9 +262,11 @@ public class ConversationPresenter extends BasePresenter<ConversationView> imple
     }
 
     private void reloadData() {
-        Promise.create(new PromiseHandler<List<MessageConversation>>() {
+        this.reloading = true;
+
+        Promise.create(new PromiseHandler<Snapshot>() {
             @Override
-            public void emit(PromiseFuture<List<MessageConversation>> promise) {
+            public void emit(PromiseFuture<Snapshot> promise) {
                 MessagingService messaging = CubeEngine.getInstance().getMessagingService();
 
                 // 从引擎获取最近会话列表
@@ -254,29 +276,46 @@ public class ConversationPresenter extends BasePresenter<ConversationView> imple
                     return;
                 }
 
-                if (!list.isEmpty()) {
-                    synchronized (messageConversations) {
-                        messageConversations.clear();
-
-                        for (Conversation conversation : list) {
-                            messageConversations.add(new MessageConversation(conversation));
-                        }
-                    }
+                // 复制列表和读取版本需要是原子操作
+                Snapshot snapshot = new Snapshot();
+                List<Conversation> conversations = new ArrayList<>();
+                if (list instanceof ConversationList.View) {
+                    snapshot.version = ((ConversationList.View) list).snapshot(conversations);
                 }
                 else {
+                    snapshot.version = -1;
+                    conversations.addAll(list);
+                }
+                for (Conversation conversation : conversations) {
+                    snapshot.list.add(new MessageConversation(conversation));
+                }
+
+                if (snapshot.list.isEmpty()) {
                     // TODO 没有会话，修改背景图片
                 }
 
-                promise.resolve(messageConversations);
+                promise.resolve(snapshot);
             }
-        }).thenOnMainThread(new Future<List<MessageConversation>>() {
+        }).thenOnMainThread(new Future<Snapshot>() {
             @Override
-            public void come(List<MessageConversation> data) {
+            public void come(Snapshot data) {
+                messageConversations.clear();
+                messageConversations.addAll(data.list);
+                listVersion = data.version;
+                reloading = false;
+
                 adapter.notifyDataSetChangedWrapper();
+
+                // 应用加载期间收到的变更
+                List<ConversationChangeSet> list = new ArrayList<>(pendingChangeSets);
+                pendingChangeSets.clear();
+                for (ConversationChangeSet changeSet : list) {
+                    applyChangeSet(changeSet);
+                }
             }
-        }).catchReject(new Future<List<MessageConversation>>() {
+        }).catchReject(new Future<Snapshot>() {
             @Override
-            public void come(List<MessageConversation> data) {
+            public void come(Snapshot data) {
                 LogUtils.w("ConversationPresenter", "#reloadData - Get conversation error");
                 UIUtils.postTaskDelay(() -> {
                     reloadData();
@@ -290,6 +329,54 @@ public class ConversationPresenter extends BasePresenter<ConversationView> imple
         }).launch();
     }
 
+    private void applyChangeSet(ConversationChangeSet changeSet) {
+        if (this.reloading) {
+            this.pendingChangeSets.add(changeSet);
+            return;
+        }
+
+        if (changeSet.getToVersion() <= this.listVersion) {
+            // 快照里已包含这些变更
+            return;
+        }
+
+        if (changeSet.getFromVersion() != this.listVersion) {
+            // 与会话清单不同步
+            reloadData();
+            return;
+        }
+
+        for (ConversationChangeSet.Change change : changeSet.getChanges()) {
+            switch (change.type) {
+                case Inserted:
+                    this.adapter.addItem(change.toIndex, new MessageConversation(change.conversation));
+                    break;
+                case Removed:
+                    this.adapter.removeItem(change.fromIndex);
+                    break;
+                case Moved:
+                    this.adapter.moveItem(change.fromIndex, change.toIndex);
+                    break;
+                case Changed:
+                    this.adapter.notifyItemChangedWrapper(change.toIndex);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        this.listVersion = changeSet.getToVersion();
+    }
+
+    private int indexOfMessageConversation(Conversation conversation) {
+        for (int i = 0; i < this.messageConversations.size(); ++i) {
+            if (this.messageConversations.get(i).conversation.id.longValue() == conversation.id.longValue()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     @Override
     public void onConversationMessageUpdated(Conversation conversation, MessagingService service) {
         if (LogUtils.isDebugLevel()) {
@@ -297,7 +384,10 @@ public class ConversationPresenter extends BasePresenter<ConversationView> imple
                     + " - " + conversation.getDisplayName());
         }
 
-        this.adapter.notifyDataSetChangedWrapper();
+        int index = this.indexOfMessageConversation(conversation);
+        if (index >= 0) {
+            this.adapter.notifyItemChangedWrapper(index);
+        }
     }
 
     @Override
@@ -309,7 +399,9 @@ public class ConversationPresenter extends BasePresenter<ConversationView> imple
 
         if (conversation.getState() == ConversationState.Deleted ||
             conversation.getState() == ConversationState.Destroyed) {
+            // 正常情况下变更集已经移除了会话
             if (removeMessageConversation(conversation)) {
+                this.listVersion = -1;
                 this.adapter.notifyDataSetChangedWrapper();
             }
         }
@@ -317,14 +409,26 @@ public class ConversationPresenter extends BasePresenter<ConversationView> imple
 
     @Override
     public void onConversationListUpdated(List<Conversation> conversationList, MessagingService service) {
-        synchronized (this.messageConversations) {
-            this.messageConversations.clear();
-            for (Conversation conversation : conversationList) {
-                this.messageConversations.add(new MessageConversation(conversation));
-            }
+        setAdapter();
+        reloadData();
+    }
+
+    @Override
+    public void onConversationListChanged(ConversationChangeSet changeSet, MessagingService service) {
+        if (null == this.adapter) {
+            return;
         }
 
-        setAdapter();
-        adapter.notifyDataSetChangedWrapper();
+        this.applyChangeSet(changeSet);
+    }
+
+    /**
+     * 会话列表快照。
+     */
+    private static class Snapshot {
+
+        protected List<MessageConversation> list = new ArrayList<>();
+
+        protected long version = -1;
     }
 }
@@ -74,6 +74,7 @@ import cube.engine.util.Promise;
 import cube.engine.util.PromiseFuture;
 import cube.engine.util.PromiseHandler;
 import cube.engine.util.SimpleMediaPlayer;
+import cube.messaging.MessageCursor;
 import cube.messaging.MessageEventListener;
 import cube.messaging.MessageListResult;
 import cube.messaging.MessagingService;
@@ -87,7 +88,6 @@ import cube.messaging.extension.VoiceMessage;
 import cube.messaging.handler.DefaultConversationHandler;
 import cube.messaging.handler.DefaultEraseMessageHandler;
 import cube.messaging.handler.DefaultMessageHandler;
-import cube.messaging.handler.DefaultMessageListResultHandler;
 import cube.messaging.handler.DefaultSendHandler;
 import cube.messaging.handler.SimpleSendHandler;
 import cube.messaging.model.Conversation;
@@ -112,7 +112,9 @@ public class MessagePanelPresenter extends BasePresenter<MessagePanelView>
 
     private int pageSize = 10;
 
-    private boolean hasMoreMessage = true;
+    private volatile boolean hasMoreMessage = true;
+
+    private MessageCursor messageCursor;
 
     private MessagePanelAdapter adapter;
 
@@ -186,6 +188,8 @@ public class MessagePanelPresenter extends BasePresenter<MessagePanelView>
     }
 
     public void loadMessages() {
+        this.closeMessageCursor();
+
         this.messageList.clear();
         MessageListResult result = CubeEngine.getInstance().getMessagingService()
                 .getRecentMessages(this.conversation, this.pageSize);
@@ -240,30 +244,52 @@ public class MessagePanelPresenter extends BasePresenter<MessagePanelView>
             }
         }
 
-        int max = this.pageSize + this.pageSize;
-        CubeEngine.getInstance().getMessagingService().queryMessages(conversation, message, max,
-                new DefaultMessageListResultHandler(true) {
-                    @Override
-                    public void handleMessageList(List<Message> newMessageList, boolean hasMore) {
-                        // 结束刷新
-                        getView().getRefreshLayout().endRefreshing();
-
-                        hasMoreMessage = hasMore;
+        final Message anchor = message;
+        final int max = this.pageSize + this.pageSize;
+        Promise.create(new PromiseHandler<List<Message>>() {
+            @Override
+            public void emit(PromiseFuture<List<Message>> promise) {
+                MessageCursor cursor = null;
+                synchronized (MessagePanelPresenter.this) {
+                    if (null == messageCursor) {
+                        // 从列表里最早的消息开始向前翻页
+                        messageCursor = CubeEngine.getInstance().getMessagingService()
+                                .openMessageCursor(conversation, anchor, max);
+                    }
+                    cursor = messageCursor;
+                }
 
-                        if (newMessageList.isEmpty()) {
-                            return;
-                        }
+                List<Message> list = cursor.next(max);
+                hasMoreMessage = cursor.hasNext();
+                promise.resolve(list);
+            }
+        }).thenOnMainThread(new Future<List<Message>>() {
+            @Override
+            public void come(List<Message> newMessageList) {
+                // 结束刷新
+                getView().getRefreshLayout().endRefreshing();
 
-                        // Result 清单里的消息是从旧到新的，时间正序，因此倒着插入到列表
-                        synchronized (messageList) {
-                            for (int i = newMessageList.size() - 1; i >= 0; --i) {
-                                messageList.add(0, newMessageList.get(i));
-                            }
-                        }
+                if (newMessageList.isEmpty()) {
+                    return;
+                }
 
-                        getView().getMessageListView().moveToPosition(newMessageList.size() - 1);
+                // 清单里的消息是从旧到新的，时间正序，因此倒着插入到列表
+                synchronized (messageList) {
+                    for (int i = newMessageList.size() - 1; i >= 0; --i) {
+                        messageList.add(0, newMessageList.get(i));
                     }
-                });
+                }
+
+                getView().getMessageListView().moveToPosition(newMessageList.size() - 1);
+            }
+        }).launch();
+    }
+
+    private synchronized void closeMessageCursor() {
+        if (null != this.messageCursor) {
+            this.messageCursor.close();
+            this.messageCursor = null;
+        }
     }
 
     private boolean checkState() {
@@ -663,6 +689,8 @@ public class MessagePanelPresenter extends BasePresenter<MessagePanelView>
     public void destroy() {
         SimpleMediaPlayer.getInstance().stop();
 
+        this.closeMessageCursor();
+
         CubeEngine.getInstance().getMessagingService().removeEventListener(this.conversation, this);
     }
 
@@ -36,7 +36,6 @@ import android.widget.ImageView;
 
 import com.bumptech.glide.Glide;
 import com.shixincube.app.R;
-import com.shixincube.app.model.Account;
 import com.shixincube.app.ui.activity.MessagePanelActivity;
 import com.shixincube.app.ui.activity.OperateContactActivity;
 import com.shixincube.app.ui.base.BaseActivity;
@@ -53,6 +52,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import cube.contact.model.Contact;
+import cube.contact.model.ContactIndex;
 import cube.contact.model.ContactZone;
 import cube.contact.model.Group;
 import cube.contact.model.Self;
@@ -173,10 +173,7 @@ public class OperateContactPresenter extends BasePresenter<OperateContactView> {
                 }
                 else {
                     ContactZone contactZone = CubeEngine.getInstance().getContactService().getDefaultContactZone();
-                    for (Contact contact : contactZone.getParticipantContacts()) {
-                        Account.setNameSpelling(contact);
-                        allContacts.add(contact);
-                    }
+                    allContacts.addAll(contactZone.getParticipantContacts());
                 }
 
                 promise.resolve(allContacts);
@@ -232,13 +229,13 @@ public class OperateContactPresenter extends BasePresenter<OperateContactView> {
 
                     // 判断是否显示索引字母
                     String indexLetter = "";
-                    String currentLetter = String.valueOf(Account.getNameSpelling(item).charAt(0));
+                    String currentLetter = String.valueOf(ContactIndex.getLetter(item));
                     if (0 == position) {
                         indexLetter = currentLetter;
                     }
                     else {
                         // 获取上一个字母
-                        String preLetter = String.valueOf(Account.getNameSpelling(allContacts.get(position - 1)).charAt(0));
+                        String preLetter = String.valueOf(ContactIndex.getLetter(allContacts.get(position - 1)));
                         // 如果和上一个字母的首字母不同则显示字母栏
                         if (!preLetter.equalsIgnoreCase(currentLetter)) {
                             indexLetter = currentLetter;
@@ -249,7 +246,7 @@ public class OperateContactPresenter extends BasePresenter<OperateContactView> {
                     int nextIndex = position + 1;
                     if (nextIndex < allContacts.size() - 1) {
                         // 得到下一个字母
-                        String nextLetter = String.valueOf(Account.getNameSpelling(allContacts.get(nextIndex)).charAt(0));
+                        String nextLetter = String.valueOf(ContactIndex.getLetter(allContacts.get(nextIndex)));
                         // 如果和下一个字母的首字母不同则隐藏下划线
                         if (!nextLetter.equalsIgnoreCase(currentLetter)) {
                             helper.setViewVisibility(R.id.vLine, View.INVISIBLE);
@@ -1,83 +0,0 @@
-/*
- * This file is part of Cube.
- *
- * The MIT License (MIT)
- *
- * Copyright (c) 2020-2022 Cube Team.
- *
- * Permission is hereby granted, free of charge, to any person obtaining a copy
- * of this software and associated documentation files (the "Software"), to deal
- * in the Software without restriction, including without limitation the rights
- * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
- * copies of the Software, and to permit persons to whom the Software is
- * furnished to do so, subject to the following conditions:
- *
- * The above copyright notice and this permission notice shall be included in all
- * copies or substantial portions of the Software.
- *
- * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
- * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
- * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
- * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
- * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
- * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
- * SOFTWARE.
- */
-
-package com.shixincube.app.util;
-
-import net.sourceforge.pinyin4j.PinyinHelper;
-import net.sourceforge.pinyin4j.format.HanyuPinyinCaseType;
-import net.sourceforge.pinyin4j.format.HanyuPinyinOutputFormat;
-import net.sourceforge.pinyin4j.format.HanyuPinyinToneType;
-import net.sourceforge.pinyin4j.format.exception.BadHanyuPinyinOutputFormatCombination;
-
-/**
- * 拼音实用函数。
- */
-public final class PinyinUtils {
-
-    private PinyinUtils() {
-    }
-
-    /**
-     * 获取字符串拼音。
-     *
-     * @param string
-     * @return
-     */
-    public static String getPinyin(String string) {
-        HanyuPinyinOutputFormat format = new HanyuPinyinOutputFormat();
-        format.setCaseType(HanyuPinyinCaseType.UPPERCASE);
-        format.setToneType(HanyuPinyinToneType.WITHOUT_TONE);
-
-        StringBuilder sb = new StringBuilder();
-
-        char[] charArray = string.toCharArray();
-        for (int i = 0; i < charArray.length; i++) {
-            char c = charArray[i];
-            // 如果是空格, 跳过
-            if (Character.isWhitespace(c)) {
-                continue;
-            }
-
-            if (c >= -127 && c < 128 || !(c >= 0x4E00 && c <= 0x9FA5)) {
-                // 肯定不是汉字
-                sb.append(c);
-            }
-            else {
-                String s = "";
-                try {
-                    // 通过 char 得到拼音集合. 单 -> dan, shan
-                    s = PinyinHelper.toHanyuPinyinStringArray(c, format)[0];
-                    sb.append(s);
-                } catch (BadHanyuPinyinOutputFormatCombination e) {
-                    e.printStackTrace();
-                    sb.append(s);
-                }
-            }
-        }
-
-        return sb.toString();
-    }
-}
@@ -0,0 +1,157 @@
+/*
+ * This file is part of Cube.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2022 Cube Team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package cube.contact;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import cube.contact.model.Contact;
+import cube.contact.model.Group;
+import cube.contact.model.GroupState;
+import cube.contact.model.GroupTag;
+
+import static org.junit.Assert.*;
+
+/**
+ * 首次登录同步的存储基准测试。
+ * 模拟 10,000 个联系人和 200 个群组的首次同步写入，对比批量写入和逐条写入的耗时。
+ */
+@RunWith(AndroidJUnit4.class)
+public class ContactStorageSyncBenchmark {
+
+    private final static String TAG = "ContactSyncBenchmark";
+
+    private final static long SELF_ID = 10000L;
+
+    private final static int NUM_CONTACTS = 10000;
+
+    /**
+     * 逐条写入的联系人数量。逐条写入每条一个事务，只取部分数据估算。
+     */
+    private final static int NUM_SINGLE_WRITES = 1000;
+
+    private final static int NUM_GROUPS = 200;
+
+    private final static int NUM_GROUP_MEMBERS = 50;
+
+    private Context context;
+
+    private ContactStorage storage;
+
+    @Before
+    public void setUp() {
+        this.context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        this.context.deleteDatabase("CubeContact_test_" + SELF_ID + ".db");
+
+        this.storage = new ContactStorage(null);
+        this.storage.open(this.context, SELF_ID, "test");
+    }
+
+    @After
+    public void tearDown() {
+        this.storage.close();
+        this.context.deleteDatabase("CubeContact_test_" + SELF_ID + ".db");
+    }
+
+    @Test
+    public void firstSyncContacts() {
+        List<Contact> contacts = makeContacts(NUM_CONTACTS, 20001L);
+
+        long start = System.nanoTime();
+        assertTrue(this.storage.writeContacts(contacts));
+        long bulk = System.nanoTime() - start;
+
+        List<Contact> singles = makeContacts(NUM_SINGLE_WRITES, 20001L + NUM_CONTACTS);
+        start = System.nanoTime();
+        for (Contact contact : singles) {
+            this.storage.writeContact(contact);
+        }
+        long single = System.nanoTime() - start;
+
+        List<Long> idList = new ArrayList<>();
+        for (Contact contact : contacts) {
+            idList.add(contact.id);
+        }
+        start = System.nanoTime();
+        Map<Long, Contact> result = this.storage.readContacts(idList);
+        long read = System.nanoTime() - start;
+        assertEquals(NUM_CONTACTS, result.size());
+
+        Log.i(TAG, NUM_CONTACTS + " contacts bulk write: " + (bulk / 1000000) + " ms");
+        Log.i(TAG, NUM_SINGLE_WRITES + " contacts single writes: " + (single / 1000000) + " ms (~"
+                + (single / NUM_SINGLE_WRITES * NUM_CONTACTS / 1000000) + " ms for " + NUM_CONTACTS + ")");
+        Log.i(TAG, NUM_CONTACTS + " contacts read: " + (read / 1000000) + " ms");
+    }
+
+    @Test
+    public void firstSyncGroups() {
+        List<Group> groups = new ArrayList<>(NUM_GROUPS);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < NUM_GROUPS; ++i) {
+            Group group = new Group(40001L + i, "Group " + i, SELF_ID, GroupTag.Public,
+                    now, now, GroupState.Normal);
+            for (int n = 0; n < NUM_GROUP_MEMBERS; ++n) {
+                group.addMember(20001L + ((i * 31L + n) % NUM_CONTACTS));
+            }
+            groups.add(group);
+        }
+
+        long start = System.nanoTime();
+        this.storage.writeGroups(groups);
+        long first = System.nanoTime() - start;
+
+        // 再次同步时群组已存在，走更新路径
+        start = System.nanoTime();
+        this.storage.writeGroups(groups);
+        long second = System.nanoTime() - start;
+
+        Log.i(TAG, NUM_GROUPS + " groups x " + NUM_GROUP_MEMBERS + " members, first write: "
+                + (first / 1000000) + " ms, rewrite: " + (second / 1000000) + " ms");
+    }
+
+    private static List<Contact> makeContacts(int num, long firstId) {
+        List<Contact> list = new ArrayList<>(num);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < num; ++i) {
+            String name = (i % 2 == 0) ? "联系人" + i : "Contact " + i;
+            list.add(new Contact(firstId + i, name, "test", now));
+        }
+        return list;
+    }
+}
@@ -36,9 +36,18 @@ import org.json.JSONObject;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import cube.auth.AuthToken;
 import cube.contact.handler.ContactAppendixHandler;
@@ -69,7 +78,6 @@ import cube.contact.model.Group;
 import cube.contact.model.GroupAppendix;
 import cube.contact.model.GroupBundle;
 import cube.contact.model.GroupState;
-import cube.contact.model.MutableContact;
 import cube.contact.model.MutableContactZone;
 import cube.contact.model.MutableGroup;
 import cube.contact.model.Self;
@@ -77,6 +85,7 @@ import cube.core.Module;
 import cube.core.ModuleError;
 import cube.core.Packet;
 import cube.core.PipelineState;
+import cube.core.SegmentedCache;
 import cube.core.handler.CompletionHandler;
 import cube.core.handler.DefaultCompletionHandler;
 import cube.core.handler.DefaultFailureHandler;
@@ -84,9 +93,11 @@ import cube.core.handler.FailureHandler;
 import cube.core.handler.PipelineHandler;
 import cube.core.handler.StableCompletionHandler;
 import cube.core.handler.StableFailureHandler;
+import cube.pipeline.BatchingPipeline;
 import cube.util.FileUtils;
 import cube.util.LogUtils;
 import cube.util.ObservableEvent;
+import cube.util.ResultFuture;
 
 /**
  * 联系人模块。
@@ -113,6 +124,8 @@ public class ContactService extends Module {
 
     private ContactStorage storage;
 
+    private DeltaSynchronizer deltaSynchronizer;
+
     private ContactPipelineListener pipelineListener;
 
     protected AtomicBoolean signInReady;
@@ -129,9 +142,14 @@ public class ContactService extends Module {
 
     private ContactDataProvider contactDataProvider;
 
-    protected ConcurrentHashMap<Long, AbstractContact> cache;
+    protected SegmentedCache<Long, AbstractContact> cache;
+
+    protected SegmentedCache<String, ContactZone> zoneCache;
 
-    protected ConcurrentHashMap<String, ContactZone> zoneCache;
+    /**
+     * 正在加载的联系人，用于合并对同一联系人的并发查询。
+     */
+    private final Map<Long, ResultFuture<Contact>> contactFlightMap = new ConcurrentHashMap<>();
 
     private List<ContactZoneListener> contactZoneListenerList;
 
@@ -143,8 +161,8 @@ public class ContactService extends Module {
     public ContactService() {
         super(ContactService.NAME);
         this.signInReady = new AtomicBoolean(false);
-        this.cache = new ConcurrentHashMap<>();
-        this.zoneCache = new ConcurrentHashMap<>();
+        this.cache = new SegmentedCache<>("Contacts");
+        this.zoneCache = new SegmentedCache<>("ContactZones");
         this.firstSignIn = false;
     }
 
@@ -156,11 +174,19 @@ public class ContactService extends Module {
 
         this.storage = new ContactStorage(this);
 
+        this.deltaSynchronizer = new DeltaSynchronizer(this.pipeline, this.storage, this.cache);
+
         this.pipelineListener = new ContactPipelineListener(this);
         this.pipeline.addListener(NAME, this.pipelineListener);
 
-        this.kernel.getInspector().depositMap(this.cache);
-        this.kernel.getInspector().depositMap(this.zoneCache);
+        if (this.pipeline instanceof BatchingPipeline) {
+            // 合并相同的在途查询请求
+            ((BatchingPipeline) this.pipeline).addCoalescingAction(NAME, ContactServiceAction.GetContact);
+            ((BatchingPipeline) this.pipeline).addCoalescingAction(NAME, ContactServiceAction.GetGroup);
+        }
+
+        this.kernel.registerCache(this.cache);
+        this.kernel.registerCache(this.zoneCache);
 
         return true;
     }
@@ -169,11 +195,16 @@ public class ContactService extends Module {
     public void stop() {
         super.stop();
 
-        this.kernel.getInspector().withdrawMap(this.cache);
-        this.kernel.getInspector().withdrawMap(this.zoneCache);
+        this.kernel.unregisterCache(this.cache);
+        this.kernel.unregisterCache(this.zoneCache);
         this.cache.clear();
         this.zoneCache.clear();
 
+        // 结束在途的查询
+        for (Long id : new ArrayList<>(this.contactFlightMap.keySet())) {
+            this.completeContactFlight(id, null);
+        }
+
         this.signInHandler = null;
 
         if (null != this.pipelineListener) {
@@ -702,7 +733,7 @@ public class ContactService extends Module {
      * @param contactId 指定联系人 ID 。
      * @return 返回联系人实例。如果没有获取到数据返回 {@code null} 值。
      */
-    public synchronized Contact getContact(Long contactId) {
+    public Contact getContact(Long contactId) {
         if (null == this.self) {
             return null;
         }
@@ -719,9 +750,162 @@ public class ContactService extends Module {
             return (Contact) abstractContact;
         }
 
-        // 从数据库读取
-        final Contact contact = this.storage.readContact(contactId);
-        if (null != contact) {
+        List<Contact> list = this.waitContacts(Collections.singletonList(contactId));
+        return list.isEmpty() ? null : list.get(0);
+    }
+
+    /**
+     * 批量获取联系人。该方法不阻塞调用线程。
+     * 缓存未命中的联系人通过一次数据库查询读取，数据库里没有的联系人通过一次服务器请求获取。
+     * 对同一联系人的并发查询只会加载一次。
+     *
+     * @param contactIds 指定联系人 ID 列表。
+     * @return 返回联系人列表的 Future 。列表按参数顺序排列，不包含未能获取到的联系人。
+     */
+    public ResultFuture<List<Contact>> getContacts(Collection<Long> contactIds) {
+        return this.getContacts(contactIds, false);
+    }
+
+    /**
+     * 批量获取联系人。
+     *
+     * @param contactIds 指定联系人 ID 列表。
+     * @param inline 是否在调用线程上读取数据库。仅服务器请求异步执行。
+     * @return 返回联系人列表的 Future 。
+     */
+    private ResultFuture<List<Contact>> getContacts(Collection<Long> contactIds, boolean inline) {
+        final ResultFuture<List<Contact>> result = new ResultFuture<>();
+        if (null == this.self) {
+            result.complete(new ArrayList<>());
+            return result;
+        }
+
+        final List<Long> idList = new ArrayList<>(new LinkedHashSet<>(contactIds));
+        final Contact[] contacts = new Contact[idList.size()];
+        // 多计一次，避免在登记完所有查询前完成
+        final AtomicInteger remaining = new AtomicInteger(idList.size() + 1);
+        final Runnable countDown = () -> {
+            if (remaining.decrementAndGet() == 0) {
+                List<Contact> list = new ArrayList<>(contacts.length);
+                for (Contact contact : contacts) {
+                    if (null != contact) {
+                        list.add(contact);
+                    }
+                }
+                result.complete(list);
+            }
+        };
+
+        List<Long> missingIds = new ArrayList<>();
+
+        for (int i = 0; i < idList.size(); ++i) {
+            final int index = i;
+            Long id = idList.get(i);
+
+            if (id.longValue() == this.self.id.longValue()) {
+                contacts[index] = this.self;
+                countDown.run();
+                continue;
+            }
+
+            // 从缓存里读取
+            AbstractContact abstractContact = this.cache.get(id);
+            if (null != abstractContact && abstractContact instanceof Contact) {
+                // 更新缓存寿命
+                abstractContact.entityLifeExpiry += LIFESPAN;
+                contacts[index] = (Contact) abstractContact;
+                countDown.run();
+                continue;
+            }
+
+            // 合并在途的查询
+            ResultFuture<Contact> flight = new ResultFuture<>();
+            ResultFuture<Contact> current = this.contactFlightMap.putIfAbsent(id, flight);
+            if (null != current) {
+                flight = current;
+            }
+            else {
+                missingIds.add(id);
+            }
+
+            flight.addListener((contact) -> {
+                contacts[index] = contact;
+                countDown.run();
+            });
+        }
+
+        if (!missingIds.isEmpty()) {
+            if (inline) {
+                this.loadContacts(missingIds);
+            }
+            else {
+                execute(() -> {
+                    loadContacts(missingIds);
+                });
+            }
+        }
+
+        countDown.run();
+        return result;
+    }
+
+    /**
+     * 在本地检索联系人。按名称和备注名的原文、全拼或拼音首字母匹配，不访问服务器。
+     *
+     * @param keyword 检索关键词。
+     * @param offset 结果偏移量。
+     * @param limit 最大结果数量。
+     * @return 返回按相关度排列的联系人列表的 Future 。
+     */
+    public ResultFuture<List<Contact>> searchLocalContacts(String keyword, int offset, int limit) {
+        final ResultFuture<List<Contact>> result = new ResultFuture<>();
+        if (null == this.self) {
+            result.complete(new ArrayList<>());
+            return result;
+        }
+
+        this.execute(() -> {
+            List<Long> idList = storage.searchContacts(keyword, offset, limit);
+            getContacts(idList).addListener((list) -> {
+                result.complete((null != list) ? list : new ArrayList<>());
+            });
+        });
+
+        return result;
+    }
+
+    /**
+     * 批量获取联系人，阻塞当前线程直到获取完成或者超时。
+     * 数据库在当前线程上读取，不占用执行器的线程，只有服务器请求需要等待应答。
+     *
+     * @param contactIds 指定联系人 ID 列表。
+     * @return 返回获取到的联系人列表。
+     */
+    private List<Contact> waitContacts(Collection<Long> contactIds) {
+        try {
+            return this.getContacts(contactIds, true).get(this.blockingTimeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException | ExecutionException | TimeoutException e) {
+            LogUtils.w(TAG, "#waitContacts - " + e.getClass().getSimpleName());
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * 从数据库读取联系人，数据库里没有的联系人和已过期的联系人从服务器获取。
+     *
+     * @param contactIds 指定联系人 ID 列表。
+     */
+    private void loadContacts(List<Long> contactIds) {
+        Map<Long, Contact> contactMap = this.storage.readContacts(contactIds);
+
+        List<Long> fetchIds = new ArrayList<>();
+        for (Long id : contactIds) {
+            Contact contact = contactMap.get(id);
+            if (null == contact) {
+                fetchIds.add(id);
+                continue;
+            }
+
             // 检查上下文
             if (null == contact.getContext() && null != this.contactDataProvider) {
                 contact.setContext(this.contactDataProvider.needContactContext(contact));
@@ -732,58 +916,140 @@ public class ContactService extends Module {
             }
 
             // 写入缓存
-            this.cache.put(contactId, contact);
+            contact.entityLifeExpiry += LIFESPAN;
+            this.cache.put(id, contact);
 
             if (!contact.isValid()) {
-                execute(() -> {
-                    // 过期数据，从服务器更新
-                    this.refreshContact(contact.id, new StableContactHandler() {
-                        @Override
-                        public void handleContact(Contact contact) {
-                            // Nothing
-                        }
-                    }, new StableFailureHandler() {
-                        @Override
-                        public void handleFailure(Module module, ModuleError error) {
-                            // Nothing
-                        }
-                    });
-                });
+                // 过期数据，从服务器更新
+                fetchIds.add(id);
             }
 
-            return contact;
+            this.completeContactFlight(id, contact);
         }
 
-        final MutableContact mutableContact = new MutableContact();
+        if (!fetchIds.isEmpty()) {
+            this.fetchContacts(fetchIds);
+        }
+    }
 
-        this.refreshContact(contactId, new StableContactHandler() {
-            @Override
-            public void handleContact(Contact contact) {
-                // 赋值
-                mutableContact.contact = contact;
+    /**
+     * 通过一次请求从服务器获取多个联系人。
+     * 如果服务器不支持批量获取，退回到逐个获取。
+     *
+     * @param contactIds 指定联系人 ID 列表。
+     */
+    private void fetchContacts(List<Long> contactIds) {
+        if (!this.pipeline.isReady()) {
+            // 数据通道未就绪
+            for (Long id : contactIds) {
+                this.completeContactFlight(id, null);
+            }
+            return;
+        }
 
-                synchronized (mutableContact) {
-                    mutableContact.notify();
-                }
+        JSONObject packetData = new JSONObject();
+        try {
+            JSONArray idArray = new JSONArray();
+            for (Long id : contactIds) {
+                idArray.put(id.longValue());
             }
-        }, new StableFailureHandler() {
+            packetData.put("idList", idArray);
+            packetData.put("domain", this.getAuthToken().domain);
+        } catch (JSONException e) {
+            LogUtils.w(TAG, "#fetchContacts", e);
+        }
+
+        Packet requestPacket = new Packet(ContactServiceAction.GetContact, packetData);
+        boolean sent = this.pipeline.send(ContactService.NAME, requestPacket, new PipelineHandler() {
             @Override
-            public void handleFailure(Module module, ModuleError error) {
-                synchronized (mutableContact) {
-                    mutableContact.notify();
+            public void handleResponse(Packet packet) {
+                JSONArray array = null;
+                if (packet.state.code == PipelineState.Ok.code
+                        && packet.extractServiceStateCode() == ContactServiceState.Ok.code) {
+                    JSONObject data = packet.extractServiceData();
+                    if (null != data) {
+                        array = data.optJSONArray("list");
+                    }
+                }
+
+                if (null == array) {
+                    // 逐个获取
+                    for (Long id : contactIds) {
+                        refreshContact(id, new StableContactHandler() {
+                            @Override
+                            public void handleContact(Contact contact) {
+                                completeContactFlight(id, contact);
+                            }
+                        }, new StableFailureHandler() {
+                            @Override
+                            public void handleFailure(Module module, ModuleError error) {
+                                completeContactFlight(id, null);
+                            }
+                        });
+                    }
+                    return;
+                }
+
+                List<Long> absentIds = new ArrayList<>(contactIds);
+                List<Contact> contacts = new ArrayList<>(array.length());
+                for (int i = 0; i < array.length(); ++i) {
+                    try {
+                        JSONObject json = array.getJSONObject(i);
+                        json.put("domain", getAuthToken().domain);
+                        Contact contact = new Contact(json);
+                        absentIds.remove(contact.id);
+
+                        if (null == contact.getContext() && null != contactDataProvider) {
+                            contact.setContext(contactDataProvider.needContactContext(contact));
+                        }
+
+                        contacts.add(contact);
+                    } catch (JSONException e) {
+                        LogUtils.w(TAG, e);
+                    }
+                }
+
+                // 写入数据库
+                storage.writeContacts(contacts);
+
+                for (Contact contact : contacts) {
+                    // 获取附录
+                    getAppendix(contact, new StableContactAppendixHandler() {
+                        @Override
+                        public void handleAppendix(Contact contact, ContactAppendix appendix) {
+                            // 写入缓存
+                            cache.put(contact.id, contact);
+                            completeContactFlight(contact.id, contact);
+                        }
+                    }, new StableFailureHandler() {
+                        @Override
+                        public void handleFailure(Module module, ModuleError error) {
+                            // 没有附录的联系人仍然可用
+                            cache.put(contact.id, contact);
+                            completeContactFlight(contact.id, contact);
+                        }
+                    });
+                }
+
+                for (Long id : absentIds) {
+                    completeContactFlight(id, null);
                 }
             }
         });
 
-        synchronized (mutableContact) {
-            try {
-                mutableContact.wait(this.blockingTimeout);
-            } catch (InterruptedException e) {
-                // Nothing
+        if (!sent) {
+            // 未发出的请求不会应答，结束在途的查询
+            for (Long id : contactIds) {
+                this.completeContactFlight(id, null);
             }
         }
+    }
 
-        return mutableContact.contact;
+    private void completeContactFlight(Long contactId, Contact contact) {
+        ResultFuture<Contact> flight = this.contactFlightMap.remove(contactId);
+        if (null != flight) {
+            flight.complete(contact);
+        }
     }
 
     /**
@@ -1147,7 +1413,7 @@ public class ContactService extends Module {
                 // 从服务器获取
                 final ContactZone curZone = zone;
                 execute(() -> {
-                    refreshContactZone(curZone, false, new StableContactZoneHandler() {
+                    syncContactZone(curZone, new StableContactZoneHandler() {
                         @Override
                         public void handleContactZone(ContactZone contactZone) {
                             // 填充数据
@@ -2688,11 +2954,26 @@ public class ContactService extends Module {
      *
      * @param zone
      */
-    private synchronized void fillContactZone(final ContactZone zone) {
+    private void fillContactZone(final ContactZone zone) {
+        // 一次获取所有缺失的联系人
+        List<Long> contactIds = new ArrayList<>();
+        for (ContactZoneParticipant participant : zone.getParticipants()) {
+            if (participant.getType() == ContactZoneParticipantType.Contact && null == participant.getContact()) {
+                contactIds.add(participant.getId());
+            }
+
+            Long inviterId = participant.getInviterId();
+            if (inviterId.longValue() > 0 && null == participant.getInviter()) {
+                contactIds.add(inviterId);
+            }
+        }
+
+        Map<Long, Contact> contactMap = this.mapContacts(contactIds);
+
         for (ContactZoneParticipant participant : zone.getParticipants()) {
             if (participant.getType() == ContactZoneParticipantType.Contact) {
                 if (null == participant.getContact()) {
-                    Contact contact = this.getContact(participant.getId());
+                    Contact contact = contactMap.get(participant.getId());
                     if (null == contact) {
                         contact = new Contact(participant.id, "");
                     }
@@ -2709,7 +2990,7 @@ public class ContactService extends Module {
             // 邀请人
             Long inviterId = participant.getInviterId();
             if (inviterId.longValue() > 0 && null == participant.getInviter()) {
-                participant.setInviter(this.getContact(inviterId), inviterId.longValue() == this.self.id.longValue());
+                participant.setInviter(contactMap.get(inviterId), inviterId.longValue() == this.self.id.longValue());
             }
         }
     }
@@ -2720,9 +3001,22 @@ public class ContactService extends Module {
      * @param group
      */
     private void fillGroup(final Group group) {
+        // 一次获取所有缺失的成员
+        List<Long> contactIds = new ArrayList<>();
+        for (Long memberId : group.getMemberIdList()) {
+            if (null == group.getMember(memberId)) {
+                contactIds.add(memberId);
+            }
+        }
+        if (null != group.getAppendix() && group.getAppendix().hasNotice()) {
+            contactIds.add(group.getAppendix().getNoticeOperatorId());
+        }
+
+        Map<Long, Contact> contactMap = this.mapContacts(contactIds);
+
         for (Long memberId : group.getMemberIdList()) {
             if (null == group.getMember(memberId)) {
-                Contact contact = this.getContact(memberId);
+                Contact contact = contactMap.get(memberId);
                 if (null != contact) {
                     group.updateMember(contact);
                 }
@@ -2732,10 +3026,28 @@ public class ContactService extends Module {
         group.setIsOwner(group.getOwnerId().equals(this.self.id));
 
         if (null != group.getAppendix() && group.getAppendix().hasNotice()) {
-            group.getAppendix().setNoticeOperator(this.getContact(group.getAppendix().getNoticeOperatorId()));
+            group.getAppendix().setNoticeOperator(contactMap.get(group.getAppendix().getNoticeOperatorId()));
         }
     }
 
+    /**
+     * 批量获取联系人并以 ID 为键返回。
+     *
+     * @param contactIds 指定联系人 ID 列表。
+     * @return 返回以联系人 ID 为键的联系人。
+     */
+    private Map<Long, Contact> mapContacts(List<Long> contactIds) {
+        Map<Long, Contact> result = new HashMap<>();
+        if (contactIds.isEmpty()) {
+            return result;
+        }
+
+        for (Contact contact : this.waitContacts(contactIds)) {
+            result.put(contact.id, contact);
+        }
+        return result;
+    }
+
     /**
      * 从服务器上刷新联系人分区数据。
      *
@@ -2836,6 +3148,42 @@ public class ContactService extends Module {
         });
     }
 
+    /**
+     * 同步联系人分区数据。优先进行增量同步，无法增量同步时从服务器获取完整的分区数据。
+     *
+     * @param zone
+     * @param successHandler
+     * @param failureHandler
+     */
+    private void syncContactZone(ContactZone zone, StableContactZoneHandler successHandler,
+                                 StableFailureHandler failureHandler) {
+        this.deltaSynchronizer.syncContactZone(zone, new DeltaSynchronizer.SyncHandler<ContactZone>() {
+            @Override
+            public void handleSynced(ContactZone contactZone) {
+                successHandler.handleContactZone(contactZone);
+
+                execute(() -> {
+                    ContactZoneBundle bundle = new ContactZoneBundle(contactZone, null, ContactZoneBundle.ACTION_UPDATE);
+                    ObservableEvent event = new ObservableEvent(ContactServiceEvent.ContactZoneUpdated, bundle);
+                    notifyObservers(event);
+                });
+            }
+
+            @Override
+            public void handleGap() {
+                // 全量同步
+                refreshContactZone(zone, false, successHandler, failureHandler);
+            }
+
+            @Override
+            public void handleFailure(int code) {
+                LogUtils.w(TAG, "#syncContactZone error : " + code);
+                // 增量同步失败时同样进行全量同步
+                refreshContactZone(zone, false, successHandler, failureHandler);
+            }
+        });
+    }
+
     /**
      * 从服务器更新分区信息。
      *
@@ -2916,7 +3264,58 @@ public class ContactService extends Module {
         }
 
         Packet packet = new Packet(ContactServiceAction.ListGroups, payload);
-        this.pipeline.send(ContactService.NAME, packet);
+        if (!this.pipeline.send(ContactService.NAME, packet)) {
+            // 不会收到应答，直接结束
+            this.workingGroupListHandler = null;
+            completionHandler.handleCompletion(this);
+        }
+    }
+
+    /**
+     * 处理群组增量同步结果。与全量同步一样获取群组附录并填充群组，然后通知群组更新；被移除的群组通知解散。
+     *
+     * @param delta
+     * @param completionHandler
+     */
+    private void applyGroupDelta(DeltaSynchronizer.GroupDelta delta, CompletionHandler completionHandler) {
+        for (Group group : delta.removedGroups) {
+            ObservableEvent event = new ObservableEvent(ContactServiceEvent.GroupDismissed, group);
+            notifyObservers(event);
+        }
+
+        if (delta.updatedGroups.isEmpty()) {
+            completionHandler.handleCompletion(this);
+            return;
+        }
+
+        AtomicInteger count = new AtomicInteger(delta.updatedGroups.size());
+        for (Group group : delta.updatedGroups) {
+            this.getAppendix(group, new StableGroupAppendixHandler() {
+                @Override
+                public void handleAppendix(Group group, GroupAppendix appendix) {
+                    fillGroup(group);
+
+                    ObservableEvent event = new ObservableEvent(ContactServiceEvent.GroupUpdated, group);
+                    notifyObservers(event);
+
+                    if (count.decrementAndGet() == 0) {
+                        completionHandler.handleCompletion(ContactService.this);
+                    }
+                }
+            }, new StableFailureHandler() {
+                @Override
+                public void handleFailure(Module module, ModuleError error) {
+                    fillGroup(group);
+
+                    ObservableEvent event = new ObservableEvent(ContactServiceEvent.GroupUpdated, group);
+                    notifyObservers(event);
+
+                    if (count.decrementAndGet() == 0) {
+                        completionHandler.handleCompletion(ContactService.this);
+                    }
+                }
+            });
+        }
     }
 
     private void listBlockList(ContactListHandler handler) {
@@ -3101,19 +3500,41 @@ public class ContactService extends Module {
         });
 
         // 更新群组列表
-        // 计算起始时间
-        long beginning = this.storage.queryLastGroupActiveTime();
-        if (beginning == 0) {
-            beginning = now - this.retrospectDuration;
-        }
-        this.listGroups(beginning, now, new DefaultCompletionHandler(false) {
+        CompletionHandler groupsCompletion = new DefaultCompletionHandler(false) {
             @Override
             public void handleCompletion(Module module) {
                 LogUtils.d(TAG, "#listGroups");
                 gotGroups.value = true;
                 completion.handleCompletion(null);
             }
-        });
+        };
+        long watermark = this.storage.queryLastGroupActiveTime();
+        if (watermark == 0) {
+            // 没有本地数据，全量同步
+            this.listGroups(now - this.retrospectDuration, now, groupsCompletion);
+        }
+        else {
+            this.deltaSynchronizer.syncGroups(watermark, new DeltaSynchronizer.SyncHandler<DeltaSynchronizer.GroupDelta>() {
+                @Override
+                public void handleSynced(DeltaSynchronizer.GroupDelta delta) {
+                    LogUtils.d(TAG, "#syncGroups : " + delta.updatedGroups.size() + "/" + delta.removedGroups.size());
+                    applyGroupDelta(delta, groupsCompletion);
+                }
+
+                @Override
+                public void handleGap() {
+                    // 全量同步
+                    listGroups(watermark, now, groupsCompletion);
+                }
+
+                @Override
+                public void handleFailure(int code) {
+                    LogUtils.w(TAG, "#syncGroups error : " + code);
+                    // 增量同步失败时同样进行全量同步
+                    listGroups(watermark, now, groupsCompletion);
+                }
+            });
+        }
 
         // 更新阻止清单
         this.listBlockList(new ContactListHandler() {
@@ -3141,13 +3562,20 @@ public class ContactService extends Module {
             }
 
             JSONArray array = data.getJSONArray("list");
+            List<Group> groups = new ArrayList<>(array.length());
             for (int i = 0; i < array.length(); ++i) {
-                JSONObject current = array.getJSONObject(i);
-                Group group = new Group(current);
+                groups.add(new Group(array.getJSONObject(i)));
+            }
 
-                // 保存到数据库
-                storage.writeGroup(group);
+            // 保存到数据库
+            long start = System.currentTimeMillis();
+            storage.writeGroups(groups);
+            if (LogUtils.isDebugLevel()) {
+                LogUtils.d(TAG, "#triggerListGroups - write " + groups.size() + " groups in "
+                        + (System.currentTimeMillis() - start) + " ms");
+            }
 
+            for (Group group : groups) {
                 if (null != this.workingGroupListHandler) {
                     // 添加待处理群组
                     this.workingGroupListHandler.addGroup(group);
@@ -176,6 +176,16 @@ public final class ContactServiceAction {
      */
     public final static String Search = "search";
 
+    /**
+     * 增量同步联系人分区。
+     */
+    public final static String SyncContactZone = "syncContactZone";
+
+    /**
+     * 增量同步群组。
+     */
+    public final static String SyncGroups = "syncGroups";
+
     private ContactServiceAction() {
     }
 }
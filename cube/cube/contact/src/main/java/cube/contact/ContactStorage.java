@@ -30,10 +30,18 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 import cube.contact.model.Contact;
 import cube.contact.model.ContactAppendix;
 import cube.contact.model.ContactZone;
@@ -46,21 +54,34 @@ import cube.contact.model.GroupAppendix;
 import cube.contact.model.GroupBundle;
 import cube.contact.model.GroupState;
 import cube.core.AbstractStorage;
+import cube.core.FullTextIndex;
+import cube.util.PinYinUtils;
 
 /**
  * 联系人模块存储器。
  */
 public class ContactStorage extends AbstractStorage {
 
-    private final static int VERSION = 1;
+    private final static int VERSION = 4;
+
+    /**
+     * 单条 {@code IN} 查询语句允许的最多参数数量。
+     */
+    private final static int MAX_QUERY_ARGS = 500;
 
     private ContactService service;
 
     private String domain;
 
+    /**
+     * 联系人名称的全文索引。
+     */
+    private final FullTextIndex contactIndex;
+
     public ContactStorage(ContactService service) {
         super();
         this.service = service;
+        this.contactIndex = new FullTextIndex("contact_fts");
     }
 
     /**
@@ -106,7 +127,7 @@ public class ContactStorage extends AbstractStorage {
     public Contact readContact(Long contactId) {
         Contact contact = null;
         SQLiteDatabase db = this.getReadableDatabase();
-        Cursor cursor = db.query("contact", new String[] { "name", "context", "timestamp", "last", "expiry" },
+        Cursor cursor = db.query("contact", new String[] { "name", "context", "timestamp", "last", "expiry", "sort_key" },
                 "id=?", new String[] { contactId.toString() }, null, null, null);
         if (cursor.moveToFirst()) {
             String name = cursor.getString(0);
@@ -114,6 +135,7 @@ public class ContactStorage extends AbstractStorage {
             long timestamp = cursor.getLong(2);
             long last = cursor.getLong(3);
             long expiry = cursor.getLong(4);
+            String sortKey = cursor.getString(5);
             // 实例化
             contact = new Contact(contactId, name, this.domain, timestamp);
             // 重置时间戳
@@ -145,6 +167,11 @@ public class ContactStorage extends AbstractStorage {
             }
 
             cursor.close();
+
+            // 排序键按附录里的备注名生成，需要在设置附录之后设置
+            if (null != sortKey) {
+                contact.setSortKey(sortKey);
+            }
         }
         else {
             cursor.close();
@@ -154,6 +181,87 @@ public class ContactStorage extends AbstractStorage {
         return contact;
     }
 
+    /**
+     * 批量读取联系人。
+     * 联系人数据和附录数据各通过一次 {@code IN} 查询读取，ID 较多时分批查询。
+     *
+     * @param contactIds 联系人 ID 列表。
+     * @return 返回以联系人 ID 为键的联系人实例，不包含数据库里没有的联系人。
+     */
+    public Map<Long, Contact> readContacts(Collection<Long> contactIds) {
+        Map<Long, Contact> result = new HashMap<>();
+        if (contactIds.isEmpty()) {
+            return result;
+        }
+
+        Map<Long, String> sortKeys = new HashMap<>();
+
+        List<Long> idList = new ArrayList<>(contactIds);
+        SQLiteDatabase db = this.getReadableDatabase();
+
+        for (int start = 0; start < idList.size(); start += MAX_QUERY_ARGS) {
+            List<Long> subList = idList.subList(start, Math.min(start + MAX_QUERY_ARGS, idList.size()));
+            String selection = makeInSelection("id", subList.size());
+            String[] args = new String[subList.size()];
+            for (int i = 0; i < args.length; ++i) {
+                args[i] = subList.get(i).toString();
+            }
+
+            Cursor cursor = db.query("contact", new String[] { "id", "name", "context", "timestamp", "last", "expiry", "sort_key" },
+                    selection, args, null, null, null);
+            while (cursor.moveToNext()) {
+                Long id = cursor.getLong(0);
+                String name = cursor.getString(1);
+                String contextString = cursor.getString(2);
+                // 实例化
+                Contact contact = new Contact(id, name, this.domain, cursor.getLong(3));
+                // 重置时间戳
+                contact.resetExpiry(cursor.getLong(5), cursor.getLong(4));
+                // 设置上下文数据
+                if (contextString.length() > 3) {
+                    try {
+                        contact.setContext(new JSONObject(contextString));
+                    } catch (JSONException e) {
+                        // Nothing
+                    }
+                }
+                result.put(id, contact);
+
+                if (!cursor.isNull(6)) {
+                    sortKeys.put(id, cursor.getString(6));
+                }
+            }
+            cursor.close();
+
+            // 查找附录
+            cursor = db.query("appendix", new String[] { "id", "data" }, selection, args, null, null, null);
+            while (cursor.moveToNext()) {
+                Contact contact = result.get(cursor.getLong(0));
+                if (null == contact) {
+                    continue;
+                }
+
+                try {
+                    ContactAppendix appendix = new ContactAppendix(this.service, contact,
+                            new JSONObject(cursor.getString(1)));
+                    contact.setAppendix(appendix);
+                } catch (JSONException e) {
+                    // Nothing
+                }
+            }
+            cursor.close();
+        }
+
+        this.closeReadableDatabase(db);
+
+        // 排序键按附录里的备注名生成，需要在设置附录之后设置
+        for (Map.Entry<Long, String> entry : sortKeys.entrySet()) {
+            result.get(entry.getKey()).setSortKey(entry.getValue());
+        }
+
+        return result;
+    }
+
     /**
      * 写入联系人数据。
      *
@@ -161,62 +269,107 @@ public class ContactStorage extends AbstractStorage {
      * @return
      */
     public boolean writeContact(Contact contact) {
-        boolean result = true;
+        return this.writeContacts(Collections.singletonList(contact));
+    }
 
-        String context = (null != contact.getContext()) ? contact.getContext().toString() : "";
+    /**
+     * 批量写入联系人数据。所有联系人在同一个事务里写入。
+     *
+     * @param contacts 联系人列表。
+     * @return 如果全部写入成功返回 {@code true} 。
+     */
+    public boolean writeContacts(Collection<Contact> contacts) {
+        if (contacts.isEmpty()) {
+            return true;
+        }
 
-        SQLiteDatabase db = this.getWritableDatabase();
-        Cursor cursor = db.query("contact", new String[] { "sn" },
-                "id=?", new String[] { contact.id.toString() }, null, null, null);
-        if (cursor.moveToFirst()) {
-            cursor.close();
+        return this.write((db) -> {
+            boolean result = true;
 
-            // 更新数据
-            ContentValues values = new ContentValues();
-            values.put("name", contact.getName());
-            values.put("context", context);
-            values.put("timestamp", contact.getTimestamp());
-            values.put("last", contact.getLast());
-            values.put("expiry", contact.getExpiry());
-            db.update("contact", values,
-                    "id=?", new String[] { contact.id.toString() });
-        }
-        else {
-            cursor.close();
+            SQLiteStatement insert = db.compileStatement("INSERT OR IGNORE INTO `contact` (`id`, `name`, `context`, `timestamp`, `last`, `expiry`, `sort_key`) VALUES (?, ?, ?, ?, ?, ?, ?)");
+            SQLiteStatement update = db.compileStatement("UPDATE `contact` SET `name`=?, `context`=?, `timestamp`=?, `last`=?, `expiry`=?, `sort_key`=? WHERE `id`=?");
+            SQLiteStatement appendix = db.compileStatement("INSERT OR REPLACE INTO `appendix` (`id`, `timestamp`, `data`) VALUES (?, ?, ?)");
 
-            // 插入数据
-            ContentValues values = new ContentValues();
-            values.put("id", contact.id);
-            values.put("name", contact.getName());
-            values.put("context", context);
-            values.put("timestamp", contact.getTimestamp());
-            values.put("last", contact.getLast());
-            values.put("expiry", contact.getExpiry());
-            db.insert("contact", null, values);
-        }
+            Map<Long, String> documents = new HashMap<>();
 
-        // 更新附录
-        ContactAppendix appendix = contact.getAppendix();
-        if (null != appendix) {
-            ContentValues values = new ContentValues();
-            values.put("data", appendix.toJSON().toString());
-            values.put("timestamp", contact.getLast());
-            int ret = db.update("appendix", values,
-                    "id=?", new String[] { contact.id.toString() });
-            if (ret == 0) {
-                // 尝试插入
-                values = new ContentValues();
-                values.put("id", contact.id);
-                values.put("data", appendix.toJSON().toString());
-                values.put("timestamp", contact.getLast());
-                long tid = db.insert("appendix", null, values);
-                if (tid < 0) {
-                    result = false;
+            try {
+                for (Contact contact : contacts) {
+                    String context = (null != contact.getContext()) ? contact.getContext().toString() : "";
+
+                    insert.bindLong(1, contact.id);
+                    bindStringOrNull(insert, 2, contact.getName());
+                    insert.bindString(3, context);
+                    insert.bindLong(4, contact.getTimestamp());
+                    insert.bindLong(5, contact.getLast());
+                    insert.bindLong(6, contact.getExpiry());
+                    insert.bindString(7, contact.getSortKey());
+                    if (insert.executeInsert() < 0) {
+                        // 已存在，更新数据
+                        bindStringOrNull(update, 1, contact.getName());
+                        update.bindString(2, context);
+                        update.bindLong(3, contact.getTimestamp());
+                        update.bindLong(4, contact.getLast());
+                        update.bindLong(5, contact.getExpiry());
+                        update.bindString(6, contact.getSortKey());
+                        update.bindLong(7, contact.id);
+                        update.executeUpdateDelete();
+                    }
+
+                    // 更新附录
+                    if (null != contact.getAppendix()) {
+                        appendix.bindLong(1, contact.id);
+                        appendix.bindLong(2, contact.getLast());
+                        appendix.bindString(3, contact.getAppendix().toJSON().toString());
+                        if (appendix.executeInsert() < 0) {
+                            result = false;
+                        }
+                    }
+
+                    documents.put(contact.id, makeSearchText(contact.getName(),
+                            (null != contact.getAppendix()) ? contact.getAppendix().getRemarkName() : null));
                 }
+            } finally {
+                insert.close();
+                update.close();
+                appendix.close();
             }
+
+            // 更新全文索引
+            this.contactIndex.put(db, documents);
+
+            return result;
+        });
+    }
+
+    /**
+     * 在本地全文索引里检索联系人。名称和备注名可以通过原文、全拼和拼音首字母检索。
+     *
+     * @param keyword 检索关键词。
+     * @param offset 结果偏移量。
+     * @param limit 最大结果数量。
+     * @return 返回按相关度排列的联系人 ID 列表。
+     */
+    public List<Long> searchContacts(String keyword, int offset, int limit) {
+        List<Long> result = new ArrayList<>();
+        String query = FullTextIndex.makeMatchQuery(keyword);
+        if (null == query) {
+            return result;
         }
 
-        this.closeWritableDatabase(db);
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor cursor = db.rawQuery("SELECT c.`id` FROM (" + this.contactIndex.makeMatchClause(db)
+                + ") AS f JOIN `contact` AS c ON c.`id`=f.`rowid` ORDER BY f.`score`, c.`name` LIMIT ? OFFSET ?",
+                new String[] {
+                        query,
+                        Integer.toString(limit),
+                        Integer.toString(offset)
+                });
+        while (cursor.moveToNext()) {
+            result.add(cursor.getLong(0));
+        }
+        cursor.close();
+        this.closeReadableDatabase(db);
+
         return result;
     }
 
@@ -226,17 +379,20 @@ public class ContactStorage extends AbstractStorage {
      * @param contact
      */
     public void updateContactName(Contact contact) {
-        SQLiteDatabase db = this.getWritableDatabase();
-
-        ContentValues values = new ContentValues();
-        values.put("name", contact.getName());
-        values.put("last", contact.getLast());
-        values.put("expiry", contact.getExpiry());
-        // update
-        db.update("contact", values,
-                "id=?", new String[] { contact.id.toString() });
+        this.write((db) -> {
+            ContentValues values = new ContentValues();
+            values.put("name", contact.getName());
+            values.put("last", contact.getLast());
+            values.put("expiry", contact.getExpiry());
+            values.put("sort_key", contact.getSortKey());
+            // update
+            db.update("contact", values,
+                    "id=?", new String[] { contact.id.toString() });
 
-        this.closeWritableDatabase(db);
+            this.contactIndex.put(db, contact.id, makeSearchText(contact.getName(),
+                    (null != contact.getAppendix()) ? contact.getAppendix().getRemarkName() : null));
+            return null;
+        });
     }
 
     /**
@@ -245,34 +401,34 @@ public class ContactStorage extends AbstractStorage {
      * @param contact
      */
     public void updateContactContext(Contact contact) {
-        SQLiteDatabase db = this.getWritableDatabase();
-
-        ContentValues values = new ContentValues();
-        values.put("context", contact.getContext().toString());
-        values.put("last", contact.getLast());
-        values.put("expiry", contact.getExpiry());
-        // 执行更新
-        int row = db.update("contact", values, "id=?", new String[] { contact.id.toString() });
-
-        if (row == 0) {
-            // 插入数据
-            this.service.execute(new Runnable() {
-                @Override
-                public void run() {
-                    writeContact(contact);
-                }
-            });
-        }
+        this.write((db) -> {
+            ContentValues values = new ContentValues();
+            values.put("context", contact.getContext().toString());
+            values.put("last", contact.getLast());
+            values.put("expiry", contact.getExpiry());
+            // 执行更新
+            int row = db.update("contact", values, "id=?", new String[] { contact.id.toString() });
 
-        this.closeWritableDatabase(db);
+            if (row == 0) {
+                // 插入数据
+                this.service.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        writeContact(contact);
+                    }
+                });
+            }
+            return null;
+        });
     }
 
     public void clearAllContactContexts() {
-        SQLiteDatabase db = this.getWritableDatabase();
-        ContentValues values = new ContentValues();
-        values.put("context", "");
-        db.update("contact", values, null, null);
-        this.closeWritableDatabase(db);
+        this.write((db) -> {
+            ContentValues values = new ContentValues();
+            values.put("context", "");
+            db.update("contact", values, null, null);
+            return null;
+        });
     }
 
     /**
@@ -348,67 +504,119 @@ public class ContactStorage extends AbstractStorage {
      * @param group
      */
     public void writeGroup(Group group) {
-        SQLiteDatabase db = this.getWritableDatabase();
-
-        ContentValues values = new ContentValues();
-        values.put("name", group.getName());
-        values.put("owner", group.getOwnerId());
-        values.put("tag", group.getTag());
-        values.put("creation", group.getCreationTime());
-        values.put("last_active", group.getLastActive());
-        values.put("state", group.getState().code);
-        values.put("last", group.getLast());
-        values.put("expiry", group.getExpiry());
-        if (null != group.getContext()) {
-            values.put("context", group.getContext().toString());
-        }
-
-        Cursor cursor = db.query("`group`", new String[]{ "sn" },
-                "id=?", new String[]{ group.id.toString() }, null, null, null);
-        if (cursor.moveToFirst()) {
-            cursor.close();
-
-            // 更新
-            db.update("`group`", values, "id=?", new String[]{ group.id.toString() });
+        this.writeGroups(Collections.singletonList(group));
+    }
 
-            // 删除群成员列表
-            db.delete("group_member", "`group`=?",
-                    new String[]{ group.id.toString() });
+    /**
+     * 批量写入群组数据，包括群组的成员列表和附录。所有群组在同一个事务里写入。
+     *
+     * @param groups 群组列表。
+     */
+    public void writeGroups(Collection<Group> groups) {
+        if (groups.isEmpty()) {
+            return;
         }
-        else {
-            cursor.close();
 
-            // 插入
-            values.put("id", group.id);
-            db.insert("`group`", null, values);
-        }
+        this.write((db) -> {
+            this.upsertGroups(db, groups);
+            return null;
+        });
+    }
 
-        // 处理成员列表
-        for (Long memberId : group.getMemberIdList()) {
-            cursor = db.query("group_member", new String[]{ "sn" },
-                    "`group`=? AND contact_id=?", new String[]{ group.id.toString(), memberId.toString() },
-                    null, null, null);
-            if (cursor.moveToFirst()) {
-                cursor.close();
+    /**
+     * 批量写入群组数据，包括群组删除和群组变更，所有操作在同一个事务里执行。
+     *
+     * @param upserts 新增或修改的群组。
+     * @param removedIds 被删除的群组 ID 。
+     */
+    public void applyGroupDelta(Collection<Group> upserts, Collection<Long> removedIds) {
+        this.write((db) -> {
+            this.upsertGroups(db, upserts);
+
+            if (!removedIds.isEmpty()) {
+                SQLiteStatement deleteGroup = db.compileStatement("DELETE FROM `group` WHERE `id`=?");
+                SQLiteStatement deleteMembers = db.compileStatement("DELETE FROM `group_member` WHERE `group`=?");
+                SQLiteStatement deleteAppendix = db.compileStatement("DELETE FROM `appendix` WHERE `id`=?");
+                try {
+                    for (Long id : removedIds) {
+                        deleteGroup.bindLong(1, id);
+                        deleteGroup.executeUpdateDelete();
+                        deleteMembers.bindLong(1, id);
+                        deleteMembers.executeUpdateDelete();
+                        deleteAppendix.bindLong(1, id);
+                        deleteAppendix.executeUpdateDelete();
+                    }
+                } finally {
+                    deleteGroup.close();
+                    deleteMembers.close();
+                    deleteAppendix.close();
+                }
             }
-            else {
-                cursor.close();
+            return null;
+        });
+    }
 
-                // 插入数据
-                ContentValues member = new ContentValues();
-                member.put("`group`", group.id);
-                member.put("contact_id", memberId);
-                member.put("timestamp", group.getLastActive());
-                db.insert("group_member", null, member);
-            }
-        }
+    private void upsertGroups(SQLiteDatabase db, Collection<Group> groups) {
+        SQLiteStatement insert = db.compileStatement("INSERT OR IGNORE INTO `group` (`id`, `name`, `owner`, `tag`, `creation`, `last_active`, `state`, `last`, `expiry`, `context`) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+        SQLiteStatement update = db.compileStatement("UPDATE `group` SET `name`=?, `owner`=?, `tag`=?, `creation`=?, `last_active`=?, `state`=?, `last`=?, `expiry`=?, `context`=COALESCE(?, `context`) WHERE `id`=?");
+        SQLiteStatement clearMembers = db.compileStatement("DELETE FROM `group_member` WHERE `group`=?");
+        SQLiteStatement insertMember = db.compileStatement("INSERT OR IGNORE INTO `group_member` (`group`, `contact_id`, `timestamp`) VALUES (?, ?, ?)");
+        SQLiteStatement appendix = db.compileStatement("INSERT OR REPLACE INTO `appendix` (`id`, `timestamp`, `data`) VALUES (?, ?, ?)");
+
+        try {
+            for (Group group : groups) {
+                String context = (null != group.getContext()) ? group.getContext().toString() : null;
+
+                insert.bindLong(1, group.id);
+                bindStringOrNull(insert, 2, group.getName());
+                insert.bindLong(3, group.getOwnerId());
+                bindStringOrNull(insert, 4, group.getTag());
+                insert.bindLong(5, group.getCreationTime());
+                insert.bindLong(6, group.getLastActive());
+                insert.bindLong(7, group.getState().code);
+                insert.bindLong(8, group.getLast());
+                insert.bindLong(9, group.getExpiry());
+                bindStringOrNull(insert, 10, context);
+                if (insert.executeInsert() < 0) {
+                    // 已存在，更新数据并重置成员列表
+                    bindStringOrNull(update, 1, group.getName());
+                    update.bindLong(2, group.getOwnerId());
+                    bindStringOrNull(update, 3, group.getTag());
+                    update.bindLong(4, group.getCreationTime());
+                    update.bindLong(5, group.getLastActive());
+                    update.bindLong(6, group.getState().code);
+                    update.bindLong(7, group.getLast());
+                    update.bindLong(8, group.getExpiry());
+                    bindStringOrNull(update, 9, context);
+                    update.bindLong(10, group.id);
+                    update.executeUpdateDelete();
+
+                    clearMembers.bindLong(1, group.id);
+                    clearMembers.executeUpdateDelete();
+                }
 
-        this.closeWritableDatabase(db);
+                // 成员列表
+                for (Long memberId : group.getMemberIdList()) {
+                    insertMember.bindLong(1, group.id);
+                    insertMember.bindLong(2, memberId);
+                    insertMember.bindLong(3, group.getLastActive());
+                    insertMember.executeInsert();
+                }
 
-        // 写入附录
-        GroupAppendix appendix = group.getAppendix();
-        if (null != appendix) {
-            this.writeAppendix(appendix);
+                // 附录
+                if (null != group.getAppendix()) {
+                    appendix.bindLong(1, group.id);
+                    appendix.bindLong(2, System.currentTimeMillis());
+                    appendix.bindString(3, group.getAppendix().toJSON().toString());
+                    appendix.executeInsert();
+                }
+            }
+        } finally {
+            insert.close();
+            update.close();
+            clearMembers.close();
+            insertMember.close();
+            appendix.close();
         }
     }
 
@@ -418,22 +626,23 @@ public class ContactStorage extends AbstractStorage {
      * @param group
      */
     public void updateGroupProperty(Group group) {
-        SQLiteDatabase db = this.getWritableDatabase();
-        ContentValues values = new ContentValues();
-        values.put("name", group.getName());
-        values.put("owner", group.getOwnerId());
-        values.put("tag", group.getTag());
-        values.put("last_active", group.getLastActive());
-        values.put("state", group.getState().code);
-        values.put("last", group.getLast());
-        values.put("expiry", group.getExpiry());
-        if (null != group.getContext()) {
-            values.put("context", group.getContext().toString());
-        }
+        this.write((db) -> {
+            ContentValues values = new ContentValues();
+            values.put("name", group.getName());
+            values.put("owner", group.getOwnerId());
+            values.put("tag", group.getTag());
+            values.put("last_active", group.getLastActive());
+            values.put("state", group.getState().code);
+            values.put("last", group.getLast());
+            values.put("expiry", group.getExpiry());
+            if (null != group.getContext()) {
+                values.put("context", group.getContext().toString());
+            }
 
-        // update
-        db.update("`group`", values, "id=?", new String[]{ group.id.toString() });
-        this.closeWritableDatabase(db);
+            // update
+            db.update("`group`", values, "id=?", new String[]{ group.id.toString() });
+            return null;
+        });
     }
 
     /**
@@ -442,14 +651,19 @@ public class ContactStorage extends AbstractStorage {
      * @param bundle
      */
     public void removeGroupMember(GroupBundle bundle) {
-        SQLiteDatabase db = this.getWritableDatabase();
-
-        for (Long memberId : bundle.modifiedIdList) {
-            db.delete("group_member", "`group`=? AND contact_id=?",
-                    new String[]{ bundle.group.id.toString(), memberId.toString() });
-        }
-
-        this.closeWritableDatabase(db);
+        this.write((db) -> {
+            SQLiteStatement delete = db.compileStatement("DELETE FROM `group_member` WHERE `group`=? AND `contact_id`=?");
+            try {
+                for (Long memberId : bundle.modifiedIdList) {
+                    delete.bindLong(1, bundle.group.id);
+                    delete.bindLong(2, memberId);
+                    delete.executeUpdateDelete();
+                }
+            } finally {
+                delete.close();
+            }
+            return null;
+        });
     }
 
     /**
@@ -458,35 +672,27 @@ public class ContactStorage extends AbstractStorage {
      * @param bundle
      */
     public void addGroupMember(GroupBundle bundle) {
-        SQLiteDatabase db = this.getWritableDatabase();
-
-        for (Long memberId : bundle.modifiedIdList) {
-            Cursor cursor = db.query("group_member", new String[]{ "sn" },
-                    "`group`=? AND `contact_id`=?",
-                    new String[]{ bundle.group.id.toString(), memberId.toString() },
-                    null, null, null);
-            if (cursor.moveToFirst()) {
-                Long sn = cursor.getLong(0);
-                cursor.close();
-
-                ContentValues member = new ContentValues();
-                member.put("timestamp", bundle.group.getLastActive());
-                // update
-                db.update("group_member", member, "`sn`=?", new String[]{ sn.toString() });
-            }
-            else {
-                cursor.close();
-
-                ContentValues member = new ContentValues();
-                member.put("`group`", bundle.group.id);
-                member.put("contact_id", memberId);
-                member.put("timestamp", bundle.group.getLastActive());
-                // insert
-                db.insert("group_member", null, member);
+        this.write((db) -> {
+            SQLiteStatement insert = db.compileStatement("INSERT OR IGNORE INTO `group_member` (`group`, `contact_id`, `timestamp`) VALUES (?, ?, ?)");
+            SQLiteStatement update = db.compileStatement("UPDATE `group_member` SET `timestamp`=? WHERE `group`=? AND `contact_id`=?");
+            try {
+                for (Long memberId : bundle.modifiedIdList) {
+                    insert.bindLong(1, bundle.group.id);
+                    insert.bindLong(2, memberId);
+                    insert.bindLong(3, bundle.group.getLastActive());
+                    if (insert.executeInsert() < 0) {
+                        update.bindLong(1, bundle.group.getLastActive());
+                        update.bindLong(2, bundle.group.id);
+                        update.bindLong(3, memberId);
+                        update.executeUpdateDelete();
+                    }
+                }
+            } finally {
+                insert.close();
+                update.close();
             }
-        }
-
-        this.closeWritableDatabase(db);
+            return null;
+        });
     }
 
     /**
@@ -495,31 +701,38 @@ public class ContactStorage extends AbstractStorage {
      * @param appendix
      */
     public synchronized void writeAppendix(ContactAppendix appendix) {
-        SQLiteDatabase db = this.getWritableDatabase();
+        this.write((db) -> {
+            Cursor cursor = db.query("appendix", new String[] { "id" },
+                    "id=?", new String[] { appendix.getContact().id.toString() }, null, null, null);
+            if (cursor.moveToFirst()) {
+                cursor.close();
 
-        Cursor cursor = db.query("appendix", new String[] { "id" },
-                "id=?", new String[] { appendix.getContact().id.toString() }, null, null, null);
-        if (cursor.moveToFirst()) {
-            cursor.close();
+                // 更新
+                ContentValues values = new ContentValues();
+                values.put("timestamp", System.currentTimeMillis());
+                values.put("data", appendix.toJSON().toString());
+                db.update("appendix", values, "id=?", new String[] { appendix.getContact().id.toString() });
+            }
+            else {
+                cursor.close();
 
-            // 更新
-            ContentValues values = new ContentValues();
-            values.put("timestamp", System.currentTimeMillis());
-            values.put("data", appendix.toJSON().toString());
-            db.update("appendix", values, "id=?", new String[] { appendix.getContact().id.toString() });
-        }
-        else {
-            cursor.close();
+                // 插入
+                ContentValues values = new ContentValues();
+                values.put("id", appendix.getContact().id);
+                values.put("timestamp", System.currentTimeMillis());
+                values.put("data", appendix.toJSON().toString());
+                db.insert("appendix", null, values);
+            }
 
-            // 插入
-            ContentValues values = new ContentValues();
-            values.put("id", appendix.getContact().id);
-            values.put("timestamp", System.currentTimeMillis());
-            values.put("data", appendix.toJSON().toString());
-            db.insert("appendix", null, values);
-        }
+            // 备注名参与检索和排序
+            Contact contact = appendix.getContact();
+            this.contactIndex.put(db, contact.id, makeSearchText(contact.getName(), appendix.getRemarkName()));
 
-        this.closeWritableDatabase(db);
+            ContentValues values = new ContentValues();
+            values.put("sort_key", PinYinUtils.getSortKey(appendix.hasRemarkName() ? appendix.getRemarkName() : contact.getName()));
+            db.update("contact", values, "id=?", new String[] { contact.id.toString() });
+            return null;
+        });
     }
 
     /**
@@ -528,31 +741,30 @@ public class ContactStorage extends AbstractStorage {
      * @param appendix
      */
     public synchronized void writeAppendix(GroupAppendix appendix) {
-        SQLiteDatabase db = this.getWritableDatabase();
-
-        Cursor cursor = db.query("appendix", new String[] { "id" },
-                "id=?", new String[] { appendix.getGroup().id.toString() }, null, null, null);
-        if (cursor.moveToFirst()) {
-            cursor.close();
-
-            // 更新
-            ContentValues values = new ContentValues();
-            values.put("timestamp", System.currentTimeMillis());
-            values.put("data", appendix.toJSON().toString());
-            db.update("appendix", values, "id=?", new String[] { appendix.getGroup().id.toString() });
-        }
-        else {
-            cursor.close();
+        this.write((db) -> {
+            Cursor cursor = db.query("appendix", new String[] { "id" },
+                    "id=?", new String[] { appendix.getGroup().id.toString() }, null, null, null);
+            if (cursor.moveToFirst()) {
+                cursor.close();
 
-            // 插入
-            ContentValues values = new ContentValues();
-            values.put("id", appendix.getGroup().id);
-            values.put("timestamp", System.currentTimeMillis());
-            values.put("data", appendix.toJSON().toString());
-            db.insert("appendix", null, values);
-        }
+                // 更新
+                ContentValues values = new ContentValues();
+                values.put("timestamp", System.currentTimeMillis());
+                values.put("data", appendix.toJSON().toString());
+                db.update("appendix", values, "id=?", new String[] { appendix.getGroup().id.toString() });
+            }
+            else {
+                cursor.close();
 
-        this.closeWritableDatabase(db);
+                // 插入
+                ContentValues values = new ContentValues();
+                values.put("id", appendix.getGroup().id);
+                values.put("timestamp", System.currentTimeMillis());
+                values.put("data", appendix.toJSON().toString());
+                db.insert("appendix", null, values);
+            }
+            return null;
+        });
     }
 
     /**
@@ -660,76 +872,121 @@ public class ContactStorage extends AbstractStorage {
      * @return 返回写入的分区是否已存在。
      */
     public boolean writeContactZone(ContactZone zone) {
-        boolean exists = false;
+        return this.write((db) -> {
+            boolean exists = false;
 
-        SQLiteDatabase db = this.getWritableDatabase();
+            String contextString = (null != zone.getContext()) ? zone.getContext().toString() : "";
 
-        String contextString = (null != zone.getContext()) ? zone.getContext().toString() : "";
+            Cursor cursor = db.query("contact_zone", new String[]{ "id" },
+                    "name=?", new String[]{ zone.name }, null, null, null);
 
-        Cursor cursor = db.query("contact_zone", new String[]{ "id" },
-                "name=?", new String[]{ zone.name }, null, null, null);
+            if (cursor.moveToFirst()) {
+                exists = true;
+                Long zoneId = cursor.getLong(0);
+                cursor.close();
 
-        if (cursor.moveToFirst()) {
-            exists = true;
-            Long zoneId = cursor.getLong(0);
-            cursor.close();
+                // 已存在，重置参与人数据，删除已存在数据
+                if (zone.getParticipants().size() > 0) {
+                    db.delete("contact_zone_participant", "contact_zone_id=?",
+                            new String[]{ zoneId.toString() });
+                }
 
-            // 已存在，重置参与人数据，删除已存在数据
-            if (zone.getParticipants().size() > 0) {
-                db.delete("contact_zone_participant", "contact_zone_id=?",
-                        new String[]{ zoneId.toString() });
+                // 更新数据
+                ContentValues values = new ContentValues();
+                values.put("id", zone.id);
+                values.put("display_name", zone.getDisplayName());
+                values.put("peer_mode", zone.isPeerMode() ? 1 : 0);
+                values.put("state", zone.getState().code);
+                values.put("timestamp", zone.getTimestamp());
+                values.put("last", zone.getLast());
+                values.put("expiry", zone.getExpiry());
+                values.put("context", contextString);
+                // update
+                db.update("contact_zone", values, "id=?", new String[]{ zoneId.toString() });
             }
+            else {
+                exists = false;
+                cursor.close();
 
-            // 更新数据
-            ContentValues values = new ContentValues();
-            values.put("id", zone.id);
-            values.put("display_name", zone.getDisplayName());
-            values.put("peer_mode", zone.isPeerMode() ? 1 : 0);
-            values.put("state", zone.getState().code);
-            values.put("timestamp", zone.getTimestamp());
-            values.put("last", zone.getLast());
-            values.put("expiry", zone.getExpiry());
-            values.put("context", contextString);
-            // update
-            db.update("contact_zone", values, "id=?", new String[]{ zoneId.toString() });
-        }
-        else {
-            exists = false;
-            cursor.close();
+                // 不存在，插入数据
+                ContentValues values = new ContentValues();
+                values.put("id", zone.id);
+                values.put("name", zone.name);
+                values.put("display_name", zone.getDisplayName());
+                values.put("peer_mode", zone.isPeerMode() ? 1 : 0);
+                values.put("state", zone.getState().code);
+                values.put("timestamp", zone.getTimestamp());
+                values.put("last", zone.getLast());
+                values.put("expiry", zone.getExpiry());
+                values.put("context", contextString);
+                // insert
+                db.insert("contact_zone", null, values);
+            }
 
-            // 不存在，插入数据
+            // 写入参与人数据
+            this.insertParticipants(db, zone.id, zone.getParticipants());
+
+            return exists;
+        });
+    }
+
+    /**
+     * 写入联系人分区的增量变更，所有操作在同一个事务里执行。
+     *
+     * @param zone 已更新属性的分区。
+     * @param upserts 新增或修改的参与人。
+     * @param removedIds 被移除的参与人 ID 。
+     */
+    public void applyContactZoneDelta(ContactZone zone, Collection<ContactZoneParticipant> upserts,
+                                      Collection<Long> removedIds) {
+        this.write((db) -> {
             ContentValues values = new ContentValues();
-            values.put("id", zone.id);
-            values.put("name", zone.name);
             values.put("display_name", zone.getDisplayName());
             values.put("peer_mode", zone.isPeerMode() ? 1 : 0);
             values.put("state", zone.getState().code);
             values.put("timestamp", zone.getTimestamp());
             values.put("last", zone.getLast());
             values.put("expiry", zone.getExpiry());
-            values.put("context", contextString);
-            // insert
-            db.insert("contact_zone", null, values);
-        }
+            db.update("contact_zone", values, "id=?", new String[]{ zone.id.toString() });
 
-        // 写入参与人数据
-        for (ContactZoneParticipant participant : zone.getParticipants()) {
-            ContentValues values = new ContentValues();
-            values.put("contact_zone_id", zone.id);
-            values.put("id", participant.getId());
-            values.put("type", participant.getType().code);
-            values.put("state", participant.getState().code);
-            values.put("timestamp", participant.getTimestamp());
-            values.put("inviter_id", participant.getInviterId());
-            values.put("postscript", participant.getPostscript());
-            values.put("context", (null != participant.getContext()) ? participant.getContext().toString() : "");
-            // insert
-            db.insert("contact_zone_participant", null, values);
-        }
+            SQLiteStatement delete = db.compileStatement("DELETE FROM `contact_zone_participant` WHERE `contact_zone_id`=? AND `id`=?");
+            try {
+                for (Long id : removedIds) {
+                    delete.bindLong(1, zone.id);
+                    delete.bindLong(2, id);
+                    delete.executeUpdateDelete();
+                }
+                for (ContactZoneParticipant participant : upserts) {
+                    delete.bindLong(1, zone.id);
+                    delete.bindLong(2, participant.id);
+                    delete.executeUpdateDelete();
+                }
+            } finally {
+                delete.close();
+            }
 
-        this.closeWritableDatabase(db);
+            this.insertParticipants(db, zone.id, upserts);
+            return null;
+        });
+    }
 
-        return exists;
+    private void insertParticipants(SQLiteDatabase db, Long zoneId, Collection<ContactZoneParticipant> participants) {
+        SQLiteStatement insert = db.compileStatement("INSERT INTO `contact_zone_participant` (`contact_zone_id`, `id`, `type`, `state`, `timestamp`, `inviter_id`, `postscript`, `context`) VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
+        try {
+            for (ContactZoneParticipant participant : participants) {
+                insert.bindLong(1, zoneId);
+                insert.bindLong(2, participant.getId());
+                insert.bindLong(3, participant.getType().code);
+                insert.bindLong(4, participant.getState().code);
+                insert.bindLong(5, participant.getTimestamp());
+                insert.bindLong(6, participant.getInviterId());
+                bindStringOrNull(insert, 7, participant.getPostscript());
+                insert.bindString(8, (null != participant.getContext()) ? participant.getContext().toString() : "");
+                insert.executeInsert();
+            }
+        } finally {
+            insert.close();
+        }
     }
 
     /**
@@ -738,26 +995,25 @@ public class ContactStorage extends AbstractStorage {
      * @param zoneName
      */
     public void removeContactZone(String zoneName) {
-        SQLiteDatabase db = this.getWritableDatabase();
-
-        Cursor cursor = db.query("contact_zone", new String[]{ "id" },
-                "name=?", new String[]{ zoneName }, null, null, null);
-        if (cursor.moveToFirst()) {
-            // 存在该分区
-
-            Long zoneId = cursor.getLong(0);
-            cursor.close();
+        this.write((db) -> {
+            Cursor cursor = db.query("contact_zone", new String[]{ "id" },
+                    "name=?", new String[]{ zoneName }, null, null, null);
+            if (cursor.moveToFirst()) {
+                // 存在该分区
 
-            // 删除 Contact Zone
-            db.delete("contact_zone", "id=?",
-                    new String[] { zoneId.toString() });
+                Long zoneId = cursor.getLong(0);
+                cursor.close();
 
-            // 删除参与者
-            db.delete("contact_zone_participant", "contact_zone_id=?",
-                    new String[]{ zoneId.toString() });
-        }
+                // 删除 Contact Zone
+                db.delete("contact_zone", "id=?",
+                        new String[] { zoneId.toString() });
 
-        this.closeWritableDatabase(db);
+                // 删除参与者
+                db.delete("contact_zone_participant", "contact_zone_id=?",
+                        new String[]{ zoneId.toString() });
+            }
+            return null;
+        });
     }
 
     /**
@@ -766,22 +1022,21 @@ public class ContactStorage extends AbstractStorage {
      * @param zone
      */
     public void updateContactZone(ContactZone zone) {
-        SQLiteDatabase db = this.getWritableDatabase();
-
-        String contextString = (null != zone.getContext()) ? zone.getContext().toString() : "";
-
-        ContentValues values = new ContentValues();
-        values.put("display_name", zone.getDisplayName());
-        values.put("peer_mode", zone.isPeerMode() ? 1 : 0);
-        values.put("state", zone.getState().code);
-        values.put("timestamp", zone.getTimestamp());
-        values.put("last", zone.getLast());
-        values.put("expiry", zone.getExpiry());
-        values.put("context", contextString);
-        // update
-        db.update("contact_zone", values, "`name`=?", new String[]{ zone.name });
+        this.write((db) -> {
+            String contextString = (null != zone.getContext()) ? zone.getContext().toString() : "";
 
-        this.closeWritableDatabase(db);
+            ContentValues values = new ContentValues();
+            values.put("display_name", zone.getDisplayName());
+            values.put("peer_mode", zone.isPeerMode() ? 1 : 0);
+            values.put("state", zone.getState().code);
+            values.put("timestamp", zone.getTimestamp());
+            values.put("last", zone.getLast());
+            values.put("expiry", zone.getExpiry());
+            values.put("context", contextString);
+            // update
+            db.update("contact_zone", values, "`name`=?", new String[]{ zone.name });
+            return null;
+        });
     }
 
     /**
@@ -791,34 +1046,33 @@ public class ContactStorage extends AbstractStorage {
      * @param participant
      */
     public void addParticipant(ContactZone zone, ContactZoneParticipant participant) {
-        SQLiteDatabase db = this.getWritableDatabase();
-
-        ContentValues values = new ContentValues();
-        values.put("timestamp", zone.getTimestamp());
-        values.put("last", zone.getLast());
-        values.put("expiry", zone.getExpiry());
-        // update
-        db.update("contact_zone", values,
-                "id=?", new String[] { zone.id.toString() });
-
-        // delete
-        db.delete("contact_zone_participant", "contact_zone_id=? AND id=?",
-                new String[]{ zone.id.toString(), participant.id.toString() });
+        this.write((db) -> {
+            ContentValues values = new ContentValues();
+            values.put("timestamp", zone.getTimestamp());
+            values.put("last", zone.getLast());
+            values.put("expiry", zone.getExpiry());
+            // update
+            db.update("contact_zone", values,
+                    "id=?", new String[] { zone.id.toString() });
 
-        // 添加
-        values = new ContentValues();
-        values.put("contact_zone_id", zone.id);
-        values.put("id", participant.getId());
-        values.put("type", participant.getType().code);
-        values.put("state", participant.getState().code);
-        values.put("timestamp", participant.getTimestamp());
-        values.put("inviter_id", participant.getInviterId());
-        values.put("postscript", participant.getPostscript());
-        values.put("context", (null != participant.getContext()) ? participant.getContext().toString() : "");
-        // insert
-        db.insert("contact_zone_participant", null, values);
+            // delete
+            db.delete("contact_zone_participant", "contact_zone_id=? AND id=?",
+                    new String[]{ zone.id.toString(), participant.id.toString() });
 
-        this.closeWritableDatabase(db);
+            // 添加
+            values = new ContentValues();
+            values.put("contact_zone_id", zone.id);
+            values.put("id", participant.getId());
+            values.put("type", participant.getType().code);
+            values.put("state", participant.getState().code);
+            values.put("timestamp", participant.getTimestamp());
+            values.put("inviter_id", participant.getInviterId());
+            values.put("postscript", participant.getPostscript());
+            values.put("context", (null != participant.getContext()) ? participant.getContext().toString() : "");
+            // insert
+            db.insert("contact_zone_participant", null, values);
+            return null;
+        });
     }
 
     /**
@@ -828,21 +1082,20 @@ public class ContactStorage extends AbstractStorage {
      * @param participant
      */
     public void removeParticipant(ContactZone zone, ContactZoneParticipant participant) {
-        SQLiteDatabase db = this.getWritableDatabase();
-
-        ContentValues values = new ContentValues();
-        values.put("timestamp", zone.getTimestamp());
-        values.put("last", zone.getLast());
-        values.put("expiry", zone.getExpiry());
-        // update
-        db.update("contact_zone", values,
-                "id=?", new String[] { zone.id.toString() });
-
-        // delete
-        db.delete("contact_zone_participant", "contact_zone_id=? AND id=?",
-                new String[]{ zone.id.toString(), participant.id.toString() });
+        this.write((db) -> {
+            ContentValues values = new ContentValues();
+            values.put("timestamp", zone.getTimestamp());
+            values.put("last", zone.getLast());
+            values.put("expiry", zone.getExpiry());
+            // update
+            db.update("contact_zone", values,
+                    "id=?", new String[] { zone.id.toString() });
 
-        this.closeWritableDatabase(db);
+            // delete
+            db.delete("contact_zone_participant", "contact_zone_id=? AND id=?",
+                    new String[]{ zone.id.toString(), participant.id.toString() });
+            return null;
+        });
     }
 
     /**
@@ -852,27 +1105,26 @@ public class ContactStorage extends AbstractStorage {
      * @param participant
      */
     public void updateParticipant(ContactZone zone, ContactZoneParticipant participant) {
-        SQLiteDatabase db = this.getWritableDatabase();
-
-        // 更新 participant
-        ContentValues values = new ContentValues();
-        values.put("state", participant.getState().code);
-        values.put("timestamp", participant.getTimestamp());
-        // update
-        db.update("contact_zone_participant", values,
-                "contact_zone_id=? AND id=?",
-                new String[]{ zone.id.toString(), participant.id.toString() });
-
-        // 更新 zone
-        values = new ContentValues();
-        values.put("timestamp", zone.getTimestamp());
-        values.put("last", zone.getLast());
-        values.put("expiry", zone.getExpiry());
-        // update
-        db.update("contact_zone", values,
-                "id=?", new String[] { zone.id.toString() });
+        this.write((db) -> {
+            // 更新 participant
+            ContentValues values = new ContentValues();
+            values.put("state", participant.getState().code);
+            values.put("timestamp", participant.getTimestamp());
+            // update
+            db.update("contact_zone_participant", values,
+                    "contact_zone_id=? AND id=?",
+                    new String[]{ zone.id.toString(), participant.id.toString() });
 
-        this.closeWritableDatabase(db);
+            // 更新 zone
+            values = new ContentValues();
+            values.put("timestamp", zone.getTimestamp());
+            values.put("last", zone.getLast());
+            values.put("expiry", zone.getExpiry());
+            // update
+            db.update("contact_zone", values,
+                    "id=?", new String[] { zone.id.toString() });
+            return null;
+        });
     }
 
     private Group readGroup(Cursor cursor) {
@@ -924,9 +1176,174 @@ public class ContactStorage extends AbstractStorage {
 
         // 联系人分区参与者
         database.execSQL("CREATE TABLE IF NOT EXISTS `contact_zone_participant` (`sn` INTEGER PRIMARY KEY AUTOINCREMENT, `contact_zone_id` BIGINT, `id` BIGINT, `type` INTEGER, `state` INTEGER, `timestamp` BIGINT, `inviter_id` BIGINT, `postscript` TEXT, `context` TEXT DEFAULT NULL)");
+
+        // 从初始版本开始执行迁移
+        this.migrate(database, 1, VERSION);
     }
 
     @Override
     protected void onDatabaseUpgrade(SQLiteDatabase database, int oldVersion, int newVersion) {
+        this.migrate(database, oldVersion, newVersion);
+    }
+
+    /**
+     * 按版本顺序逐级执行数据库迁移。
+     *
+     * @param database
+     * @param oldVersion 当前数据库版本。
+     * @param newVersion 目标数据库版本。
+     */
+    private void migrate(SQLiteDatabase database, int oldVersion, int newVersion) {
+        for (int version = oldVersion + 1; version <= newVersion; ++version) {
+            switch (version) {
+                case 2:
+                    this.migrateToVersion2(database);
+                    break;
+                case 3:
+                    this.migrateToVersion3(database);
+                    break;
+                case 4:
+                    this.migrateToVersion4(database);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * 版本 2 ：为群成员和分区参与人建立索引。
+     *
+     * @param database
+     */
+    private void migrateToVersion2(SQLiteDatabase database) {
+        // 清理重复的群成员记录，保留最早的一条
+        database.execSQL("DELETE FROM `group_member` WHERE `sn` NOT IN (SELECT MIN(`sn`) FROM `group_member` GROUP BY `group`, `contact_id`)");
+
+        // 群成员：`group`=? ，同时作为 INSERT OR IGNORE 的唯一约束
+        database.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS `idx_group_member_group_contact` ON `group_member` (`group`, `contact_id`)");
+
+        // 分区参与人：`contact_zone_id`=? 及 `contact_zone_id`=? AND `id`=?
+        database.execSQL("CREATE INDEX IF NOT EXISTS `idx_contact_zone_participant_zone` ON `contact_zone_participant` (`contact_zone_id`, `id`)");
+
+        // 更新查询优化器的统计信息
+        database.execSQL("ANALYZE");
+    }
+
+    /**
+     * 版本 3 ：建立联系人名称的全文索引，并为已有联系人建立索引。
+     *
+     * @param database
+     */
+    private void migrateToVersion3(SQLiteDatabase database) {
+        this.contactIndex.create(database);
+
+        Map<Long, String> documents = new HashMap<>();
+        Cursor cursor = database.rawQuery("SELECT c.`id`, c.`name`, a.`data` FROM `contact` AS c LEFT JOIN `appendix` AS a ON a.`id`=c.`id`", null);
+        while (cursor.moveToNext()) {
+            String remarkName = null;
+            if (!cursor.isNull(2)) {
+                try {
+                    JSONObject data = new JSONObject(cursor.getString(2));
+                    if (data.has("remarkName")) {
+                        remarkName = data.getString("remarkName");
+                    }
+                } catch (JSONException e) {
+                    // Nothing
+                }
+            }
+            documents.put(cursor.getLong(0), makeSearchText(cursor.getString(1), remarkName));
+        }
+        cursor.close();
+
+        this.contactIndex.put(database, documents);
+    }
+
+    /**
+     * 版本 4 ：增加联系人排序键，并为已有联系人生成排序键。
+     *
+     * @param database
+     */
+    private void migrateToVersion4(SQLiteDatabase database) {
+        database.execSQL("ALTER TABLE `contact` ADD COLUMN `sort_key` TEXT DEFAULT NULL");
+
+        SQLiteStatement update = database.compileStatement("UPDATE `contact` SET `sort_key`=? WHERE `id`=?");
+        Cursor cursor = database.rawQuery("SELECT c.`id`, c.`name`, a.`data` FROM `contact` AS c LEFT JOIN `appendix` AS a ON a.`id`=c.`id`", null);
+        try {
+            while (cursor.moveToNext()) {
+                String name = cursor.getString(1);
+                if (!cursor.isNull(2)) {
+                    try {
+                        JSONObject data = new JSONObject(cursor.getString(2));
+                        if (data.has("remarkName") && data.getString("remarkName").length() > 0) {
+                            name = data.getString("remarkName");
+                        }
+                    } catch (JSONException e) {
+                        // Nothing
+                    }
+                }
+
+                update.bindString(1, PinYinUtils.getSortKey(name));
+                update.bindLong(2, cursor.getLong(0));
+                update.executeUpdateDelete();
+            }
+        } finally {
+            cursor.close();
+            update.close();
+        }
+    }
+
+    /**
+     * 生成联系人的检索文本，包含名称和备注名的原文、全拼、拼音音节和拼音首字母。
+     *
+     * @param name
+     * @param remarkName
+     * @return
+     */
+    private static String makeSearchText(String name, String remarkName) {
+        StringBuilder buf = new StringBuilder();
+        appendSearchText(buf, name);
+        if (null != remarkName && remarkName.length() > 0) {
+            appendSearchText(buf, remarkName);
+        }
+        return buf.toString();
+    }
+
+    private static void appendSearchText(StringBuilder buf, String text) {
+        if (null == text) {
+            return;
+        }
+
+        List<String> syllables = PinYinUtils.getSyllables(text);
+        buf.append(text).append(' ');
+        for (String syllable : syllables) {
+            buf.append(syllable).append(' ');
+        }
+        if (syllables.size() > 1) {
+            buf.append(PinYinUtils.getPinyin(text)).append(' ');
+            buf.append(PinYinUtils.getInitials(text)).append(' ');
+        }
+    }
+
+    private static String makeInSelection(String column, int count) {
+        StringBuilder buf = new StringBuilder(column);
+        buf.append(" IN (");
+        for (int i = 0; i < count; ++i) {
+            if (i > 0) {
+                buf.append(",");
+            }
+            buf.append("?");
+        }
+        buf.append(")");
+        return buf.toString();
+    }
+
+    private static void bindStringOrNull(SQLiteStatement statement, int index, String value) {
+        if (null == value) {
+            statement.bindNull(index);
+        }
+        else {
+            statement.bindString(index, value);
+        }
     }
 }
@@ -0,0 +1,373 @@
+/*
+ * This file is part of Cube.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2022 Cube Team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package cube.contact;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import cube.contact.model.AbstractContact;
+import cube.contact.model.ContactZone;
+import cube.contact.model.ContactZoneParticipant;
+import cube.contact.model.Group;
+import cube.contact.model.GroupState;
+import cube.core.Packet;
+import cube.core.Pipeline;
+import cube.core.PipelineState;
+import cube.core.SegmentedCache;
+import cube.core.handler.PipelineHandler;
+import cube.util.LogUtils;
+
+/**
+ * 联系人分区和群组的增量同步器。
+ * 向服务器发送本地水位，服务器应答水位之后的新增、修改和删除记录。
+ * 同步器在一个事务里将变更写入存储，然后更新内存里的实例。
+ * 当服务器无法提供从本地水位开始的连续变更，或者不支持增量同步时，回调调用者进行全量同步。
+ *
+ * 应答数据格式：
+ * {@code {"from": 变更起始水位, "watermark": 新水位, "added": [...], "modified": [...], "removed": [ID...]}} ，
+ * 分区同步的应答还包含不带参与人列表的分区数据 {@code "zone"} 。
+ */
+public class DeltaSynchronizer {
+
+    private final static String TAG = "DeltaSynchronizer";
+
+    private final Pipeline pipeline;
+
+    private final ContactStorage storage;
+
+    private final SegmentedCache<Long, AbstractContact> cache;
+
+    /**
+     * 构造函数。
+     *
+     * @param pipeline 数据通道。
+     * @param storage 联系人存储器。
+     * @param cache 联系人和群组的缓存，群组变更同步更新到该缓存。
+     */
+    public DeltaSynchronizer(Pipeline pipeline, ContactStorage storage,
+                             SegmentedCache<Long, AbstractContact> cache) {
+        this.pipeline = pipeline;
+        this.storage = storage;
+        this.cache = cache;
+    }
+
+    /**
+     * 增量同步联系人分区。变更直接应用到指定的分区实例上。
+     *
+     * @param zone 本地的分区实例，分区时间戳作为水位。
+     * @param handler 同步结果句柄。
+     */
+    public void syncContactZone(final ContactZone zone, final SyncHandler<ContactZone> handler) {
+        if (!this.pipeline.isReady()) {
+            handler.handleFailure(ContactServiceState.NoNetwork.code);
+            return;
+        }
+
+        final long watermark = zone.getTimestamp();
+
+        JSONObject data = new JSONObject();
+        try {
+            data.put("name", zone.name);
+            data.put("watermark", watermark);
+        } catch (JSONException e) {
+            // Nothing
+        }
+
+        Packet request = new Packet(ContactServiceAction.SyncContactZone, data);
+        boolean sent = this.pipeline.send(ContactService.NAME, request, new PipelineHandler() {
+            @Override
+            public void handleResponse(Packet packet) {
+                JSONObject delta = extractDelta(packet, watermark, handler);
+                if (null == delta) {
+                    return;
+                }
+
+                try {
+                    applyContactZoneDelta(zone, delta);
+                } catch (JSONException e) {
+                    LogUtils.w(TAG, "#syncContactZone", e);
+                    handler.handleGap();
+                    return;
+                }
+
+                handler.handleSynced(zone);
+            }
+        });
+        if (!sent) {
+            // 管道不会回调句柄
+            handler.handleFailure(ContactServiceState.NoNetwork.code);
+        }
+    }
+
+    /**
+     * 增量同步群组。
+     *
+     * @param watermark 本地水位，即本地群组的最近活跃时间。
+     * @param handler 同步结果句柄，返回被更新和被移除的群组实例。
+     */
+    public void syncGroups(final long watermark, final SyncHandler<GroupDelta> handler) {
+        if (!this.pipeline.isReady()) {
+            handler.handleFailure(ContactServiceState.NoNetwork.code);
+            return;
+        }
+
+        JSONObject data = new JSONObject();
+        try {
+            data.put("watermark", watermark);
+        } catch (JSONException e) {
+            // Nothing
+        }
+
+        Packet request = new Packet(ContactServiceAction.SyncGroups, data);
+        boolean sent = this.pipeline.send(ContactService.NAME, request, new PipelineHandler() {
+            @Override
+            public void handleResponse(Packet packet) {
+                JSONObject delta = extractDelta(packet, watermark, handler);
+                if (null == delta) {
+                    return;
+                }
+
+                GroupDelta result;
+                try {
+                    result = applyGroupDelta(delta);
+                } catch (JSONException e) {
+                    LogUtils.w(TAG, "#syncGroups", e);
+                    handler.handleGap();
+                    return;
+                }
+
+                handler.handleSynced(result);
+            }
+        });
+        if (!sent) {
+            // 管道不会回调句柄
+            handler.handleFailure(ContactServiceState.NoNetwork.code);
+        }
+    }
+
+    /**
+     * 检查应答并提取变更数据。不能增量同步时回调句柄并返回 {@code null} 值。
+     */
+    private JSONObject extractDelta(Packet packet, long watermark, SyncHandler<?> handler) {
+        if (packet.state.code != PipelineState.Ok.code) {
+            handler.handleFailure(packet.state.code);
+            return null;
+        }
+
+        int stateCode = packet.extractServiceStateCode();
+        if (stateCode != ContactServiceState.Ok.code) {
+            // 服务器不支持增量同步，或者无法处理该水位
+            LogUtils.d(TAG, "#extractDelta - state : " + stateCode);
+            handler.handleGap();
+            return null;
+        }
+
+        JSONObject data = packet.extractServiceData();
+        if (null == data || data.optLong("from", -1) != watermark) {
+            // 变更不连续
+            LogUtils.d(TAG, "#extractDelta - gap from " + watermark);
+            handler.handleGap();
+            return null;
+        }
+
+        return data;
+    }
+
+    private void applyContactZoneDelta(ContactZone zone, JSONObject delta) throws JSONException {
+        List<ContactZoneParticipant> upserts = new ArrayList<>();
+        parseParticipants(delta.optJSONArray("added"), upserts);
+        parseParticipants(delta.optJSONArray("modified"), upserts);
+        List<Long> removedIds = parseIds(delta.optJSONArray("removed"));
+
+        // 分区属性，临时实例仅用于复制属性
+        if (delta.has("zone")) {
+            zone.update(new ContactZone(null, delta.getJSONObject("zone")));
+        }
+        zone.setTimestamp(delta.getLong("watermark"));
+        zone.resetLast(System.currentTimeMillis());
+
+        // 先写入存储
+        this.storage.applyContactZoneDelta(zone, upserts, removedIds);
+
+        // 更新内存实例
+        for (Long id : removedIds) {
+            ContactZoneParticipant participant = zone.getParticipant(id);
+            if (null != participant) {
+                zone.removeParticipant(participant);
+            }
+        }
+
+        for (ContactZoneParticipant participant : upserts) {
+            ContactZoneParticipant current = zone.getParticipant(participant.id);
+            if (null != current) {
+                // 保留已填充的实体数据
+                participant.setContact(current.getContact());
+                participant.setGroup(current.getGroup());
+                participant.setInviter(current.getInviter(), current.isInviter());
+                zone.removeParticipant(current);
+            }
+            zone.addParticipant(participant);
+        }
+    }
+
+    private GroupDelta applyGroupDelta(JSONObject delta) throws JSONException {
+        List<Group> upserts = new ArrayList<>();
+        parseGroups(delta.optJSONArray("added"), upserts);
+        parseGroups(delta.optJSONArray("modified"), upserts);
+        List<Long> removedIds = parseIds(delta.optJSONArray("removed"));
+
+        // 在删除存储数据之前找到被移除的群组实例，以便通知界面
+        GroupDelta result = new GroupDelta(upserts.size(), removedIds.size());
+        for (Long id : removedIds) {
+            AbstractContact current = this.cache.get(id);
+            Group group = (current instanceof Group) ? (Group) current : this.storage.readGroup(id);
+            if (null != group) {
+                group.setState(GroupState.Dismissed);
+                result.removedGroups.add(group);
+            }
+        }
+
+        // 先写入存储
+        this.storage.applyGroupDelta(upserts, removedIds);
+
+        // 更新内存实例
+        for (Long id : removedIds) {
+            this.cache.remove(id);
+        }
+
+        for (Group group : upserts) {
+            AbstractContact current = this.cache.get(group.id);
+            if (current instanceof Group) {
+                Group currentGroup = (Group) current;
+                currentGroup.update(group);
+                syncMembers(currentGroup, group.getMemberIdList());
+                result.updatedGroups.add(currentGroup);
+            }
+            else {
+                this.cache.put(group.id, group);
+                result.updatedGroups.add(group);
+            }
+        }
+        return result;
+    }
+
+    private static void syncMembers(Group group, List<Long> memberIdList) {
+        Set<Long> target = new HashSet<>(memberIdList);
+        for (Long id : new ArrayList<>(group.getMemberIdList())) {
+            if (!target.remove(id)) {
+                group.removeMember(id);
+            }
+        }
+        for (Long id : target) {
+            group.addMember(id);
+        }
+    }
+
+    private static void parseParticipants(JSONArray array, List<ContactZoneParticipant> output)
+            throws JSONException {
+        if (null == array) {
+            return;
+        }
+        for (int i = 0; i < array.length(); ++i) {
+            output.add(new ContactZoneParticipant(array.getJSONObject(i)));
+        }
+    }
+
+    private static void parseGroups(JSONArray array, List<Group> output) throws JSONException {
+        if (null == array) {
+            return;
+        }
+        for (int i = 0; i < array.length(); ++i) {
+            output.add(new Group(array.getJSONObject(i)));
+        }
+    }
+
+    private static List<Long> parseIds(JSONArray array) throws JSONException {
+        List<Long> result = new ArrayList<>();
+        if (null == array) {
+            return result;
+        }
+        for (int i = 0; i < array.length(); ++i) {
+            result.add(array.getLong(i));
+        }
+        return result;
+    }
+
+    /**
+     * 群组增量同步结果。
+     */
+    public static class GroupDelta {
+
+        /**
+         * 新增或修改的群组，已经更新到缓存。
+         */
+        public final List<Group> updatedGroups;
+
+        /**
+         * 被移除的群组，已经从存储和缓存中删除。
+         */
+        public final List<Group> removedGroups;
+
+        private GroupDelta(int numUpdated, int numRemoved) {
+            this.updatedGroups = new ArrayList<>(numUpdated);
+            this.removedGroups = new ArrayList<>(numRemoved);
+        }
+    }
+
+    /**
+     * 同步结果句柄。
+     *
+     * @param <T> 同步结果类型。
+     */
+    public interface SyncHandler<T> {
+
+        /**
+         * 增量变更已经写入存储和内存实例。
+         *
+         * @param result 同步结果。
+         */
+        void handleSynced(T result);
+
+        /**
+         * 无法进行增量同步，调用者应当执行全量同步。
+         */
+        void handleGap();
+
+        /**
+         * 请求失败，例如网络不可用。
+         *
+         * @param code 错误码。
+         */
+        void handleFailure(int code);
+    }
+}
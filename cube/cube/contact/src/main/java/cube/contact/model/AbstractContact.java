@@ -107,6 +107,7 @@ public class AbstractContact extends Entity {
      */
     public void setName(String name) {
         this.name = name;
+        this.resetEntityMemorySize();
     }
 
     @Override
@@ -33,6 +33,8 @@ import org.json.JSONObject;
 import java.util.ArrayList;
 import java.util.List;
 
+import cube.util.PinYinUtils;
+
 /**
  * 联系人实体。
  */
@@ -48,6 +50,16 @@ public class Contact extends AbstractContact {
      */
     private ContactAppendix appendix;
 
+    /**
+     * 按优先显示名称生成的排序键。
+     */
+    private String sortKey;
+
+    /**
+     * 生成排序键时的优先显示名称。
+     */
+    private String sortKeySource;
+
     public Contact(Long id, String name) {
         super(id, name);
         this.devices = new ArrayList<>();
@@ -117,6 +129,7 @@ public class Contact extends AbstractContact {
         if (!this.devices.contains(device)) {
             this.devices.add(device);
         }
+        this.resetEntityMemorySize();
     }
 
     /**
@@ -128,6 +141,38 @@ public class Contact extends AbstractContact {
      */
     public void removeDevice(Device device) {
         this.devices.remove(device);
+        this.resetEntityMemorySize();
+    }
+
+    /**
+     * 获取排序键。排序键由优先显示名称的全拼、拼音首字母和名称组成，名称变化后重新生成。
+     *
+     * @return 返回排序键。
+     * @see PinYinUtils#getSortKey(String)
+     */
+    public String getSortKey() {
+        String name = this.getPriorityName();
+        if (null == name) {
+            name = "";
+        }
+
+        if (null == this.sortKey || !name.equals(this.sortKeySource)) {
+            this.sortKey = PinYinUtils.getSortKey(name);
+            this.sortKeySource = name;
+        }
+        return this.sortKey;
+    }
+
+    /**
+     * 设置排序键。
+     *
+     * <b>Non-public API</b>
+     *
+     * @param sortKey 指定按当前优先显示名称生成的排序键。
+     */
+    public void setSortKey(String sortKey) {
+        this.sortKey = sortKey;
+        this.sortKeySource = this.getPriorityName();
     }
 
     /**
@@ -139,6 +184,7 @@ public class Contact extends AbstractContact {
      */
     public void setAppendix(ContactAppendix appendix) {
         this.appendix = appendix;
+        this.resetEntityMemorySize();
     }
 
     /**
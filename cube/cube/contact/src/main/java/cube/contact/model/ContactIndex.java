@@ -0,0 +1,317 @@
+/*
+ * This file is part of Cube.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2022 Cube Team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package cube.contact.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import cube.util.LongHashMap;
+import cube.util.PinYinUtils;
+
+/**
+ * 按排序键有序的联系人索引。
+ * 索引按首字母分桶计数，可以直接定位每个索引字母的起始位置。
+ * 联系人变化时只移动有变化的联系人，不对整个列表重新排序。
+ */
+public class ContactIndex {
+
+    /**
+     * 索引字母，{@code 'A'} 至 {@code 'Z'} 以及 {@link PinYinUtils#OTHER_LETTER} 。
+     */
+    public final static char[] LETTERS = "ABCDEFGHIJKLMNOPQRSTUVWXYZ#".toCharArray();
+
+    /**
+     * 变化数量超过列表长度的该比例时整体重新排序。
+     */
+    private final static int REBUILD_RATIO = 8;
+
+    private final List<Contact> list;
+
+    /**
+     * 联系人 ID 对应的已索引排序键。
+     */
+    private final LongHashMap<String> keys;
+
+    private final int[] bucketSizes;
+
+    private final Comparator<Contact> comparator;
+
+    public ContactIndex() {
+        this.list = new ArrayList<>();
+        this.keys = new LongHashMap<>();
+        this.bucketSizes = new int[LETTERS.length];
+        this.comparator = new Comparator<Contact>() {
+            @Override
+            public int compare(Contact contact1, Contact contact2) {
+                return compareKey(keys.get(contact1.id.longValue()), contact1.id.longValue(),
+                        keys.get(contact2.id.longValue()), contact2.id.longValue());
+            }
+        };
+    }
+
+    /**
+     * 使用指定的联系人集合更新索引。不在集合里的联系人被移除，排序键变化的联系人被移动到新位置。
+     *
+     * @param contacts 指定联系人集合。
+     * @return 如果索引发生变化返回 {@code true} 。
+     */
+    public synchronized boolean update(Collection<Contact> contacts) {
+        LongHashMap<Contact> incoming = new LongHashMap<>(contacts.size());
+        for (Contact contact : contacts) {
+            incoming.put(contact.id.longValue(), contact);
+        }
+
+        // 需要移除的联系人：已不在集合里、实例被替换或排序键发生变化
+        List<Contact> removed = new ArrayList<>();
+        LongHashMap<Contact> removedMap = new LongHashMap<>();
+        for (Contact contact : this.list) {
+            Contact current = incoming.get(contact.id.longValue());
+            if (null == current || current != contact
+                    || !current.getSortKey().equals(this.keys.get(contact.id.longValue()))) {
+                removed.add(contact);
+                removedMap.put(contact.id.longValue(), contact);
+            }
+        }
+
+        // 需要插入的联系人
+        List<Contact> added = new ArrayList<>();
+        for (Contact contact : contacts) {
+            if (!this.keys.containsKey(contact.id.longValue())
+                    || removedMap.containsKey(contact.id.longValue())) {
+                added.add(contact);
+            }
+        }
+
+        if (removed.isEmpty() && added.isEmpty()) {
+            return false;
+        }
+
+        if ((removed.size() + added.size()) * REBUILD_RATIO > this.list.size()) {
+            this.rebuild(contacts);
+        }
+        else {
+            for (Contact contact : removed) {
+                this.removeInternal(contact);
+            }
+            for (Contact contact : added) {
+                this.putInternal(contact);
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * 添加或更新联系人。
+     *
+     * @param contact 指定联系人。
+     */
+    public synchronized void put(Contact contact) {
+        if (this.keys.containsKey(contact.id.longValue())) {
+            this.removeInternal(contact);
+        }
+        this.putInternal(contact);
+    }
+
+    /**
+     * 移除联系人。
+     *
+     * @param contact 指定联系人。
+     */
+    public synchronized void remove(Contact contact) {
+        if (this.keys.containsKey(contact.id.longValue())) {
+            this.removeInternal(contact);
+        }
+    }
+
+    /**
+     * 获取有序的联系人列表快照。
+     *
+     * @return 返回按排序键排列的联系人列表。
+     */
+    public synchronized List<Contact> getList() {
+        return new ArrayList<>(this.list);
+    }
+
+    /**
+     * 获取联系人数量。
+     *
+     * @return 返回联系人数量。
+     */
+    public synchronized int size() {
+        return this.list.size();
+    }
+
+    /**
+     * 获取指定索引字母的第一个联系人在列表里的位置。
+     *
+     * @param letter 指定索引字母。
+     * @return 返回列表位置。如果没有该字母的联系人返回 {@code -1} 。
+     */
+    public synchronized int getPositionForLetter(char letter) {
+        int bucket = bucketOf(Character.toUpperCase(letter));
+        if (bucket < 0 || 0 == this.bucketSizes[bucket]) {
+            return -1;
+        }
+
+        int position = 0;
+        for (int i = 0; i < bucket; ++i) {
+            position += this.bucketSizes[i];
+        }
+        return position;
+    }
+
+    /**
+     * 获取指定索引字母的联系人数量。
+     *
+     * @param letter 指定索引字母。
+     * @return 返回联系人数量。
+     */
+    public synchronized int countLetter(char letter) {
+        int bucket = bucketOf(Character.toUpperCase(letter));
+        return (bucket < 0) ? 0 : this.bucketSizes[bucket];
+    }
+
+    /**
+     * 按全拼前缀、拼音首字母前缀或名称检索联系人。
+     *
+     * @param keyword 检索关键词。
+     * @return 返回按排序键排列的匹配联系人。
+     */
+    public synchronized List<Contact> search(String keyword) {
+        List<Contact> result = new ArrayList<>();
+        String trimmed = keyword.trim();
+        for (Contact contact : this.list) {
+            if (PinYinUtils.matchSortKey(this.keys.get(contact.id.longValue()), trimmed)) {
+                result.add(contact);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 清空索引。
+     */
+    public synchronized void clear() {
+        this.list.clear();
+        this.keys.clear();
+        for (int i = 0; i < this.bucketSizes.length; ++i) {
+            this.bucketSizes[i] = 0;
+        }
+    }
+
+    /**
+     * 获取联系人的索引字母。
+     *
+     * @param contact 指定联系人。
+     * @return 返回索引字母。
+     */
+    public static char getLetter(Contact contact) {
+        return PinYinUtils.getIndexLetter(contact.getSortKey());
+    }
+
+    private void rebuild(Collection<Contact> contacts) {
+        this.clear();
+
+        // 排序期间直接比较排序键，避免每次比较都查找
+        List<Entry> entries = new ArrayList<>(contacts.size());
+        for (Contact contact : contacts) {
+            String key = contact.getSortKey();
+            if (null == this.keys.put(contact.id.longValue(), key)) {
+                entries.add(new Entry(key, contact));
+            }
+        }
+
+        Collections.sort(entries, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry entry1, Entry entry2) {
+                return compareKey(entry1.key, entry1.contact.id.longValue(),
+                        entry2.key, entry2.contact.id.longValue());
+            }
+        });
+
+        for (Entry entry : entries) {
+            this.list.add(entry.contact);
+            ++this.bucketSizes[bucketOf(PinYinUtils.getIndexLetter(entry.key))];
+        }
+    }
+
+    private void putInternal(Contact contact) {
+        String key = contact.getSortKey();
+        this.keys.put(contact.id.longValue(), key);
+
+        int index = Collections.binarySearch(this.list, contact, this.comparator);
+        if (index >= 0) {
+            this.list.set(index, contact);
+            return;
+        }
+
+        this.list.add(-index - 1, contact);
+        ++this.bucketSizes[bucketOf(PinYinUtils.getIndexLetter(key))];
+    }
+
+    private void removeInternal(Contact contact) {
+        String key = this.keys.get(contact.id.longValue());
+        if (null == key) {
+            return;
+        }
+
+        int index = Collections.binarySearch(this.list, contact, this.comparator);
+        if (index >= 0) {
+            this.list.remove(index);
+            --this.bucketSizes[bucketOf(PinYinUtils.getIndexLetter(key))];
+        }
+        this.keys.remove(contact.id.longValue());
+    }
+
+    private static int compareKey(String key1, long id1, String key2, long id2) {
+        int result = key1.compareTo(key2);
+        return (0 != result) ? result : Long.compare(id1, id2);
+    }
+
+    private static int bucketOf(char letter) {
+        if (letter >= 'A' && letter <= 'Z') {
+            return letter - 'A';
+        }
+        return (letter == PinYinUtils.OTHER_LETTER) ? LETTERS.length - 1 : -1;
+    }
+
+    private static class Entry {
+
+        private final String key;
+
+        private final Contact contact;
+
+        private Entry(String key, Contact contact) {
+            this.key = key;
+            this.contact = contact;
+        }
+    }
+}
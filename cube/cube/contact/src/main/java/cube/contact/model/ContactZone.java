@@ -256,6 +256,7 @@ public class ContactZone extends Entity {
                 this.ordered = false;
             }
         }
+        this.resetEntityMemorySize();
     }
 
     /**
@@ -267,6 +268,23 @@ public class ContactZone extends Entity {
         synchronized (this.participants) {
             this.participants.remove(participant);
         }
+        this.resetEntityMemorySize();
+    }
+
+    /**
+     * 将指定分区的属性数据更新到当前分区实例，不包括参与人列表。
+     *
+     * <b>Non-public API</b>
+     *
+     * @param source
+     */
+    public void update(ContactZone source) {
+        this.displayName = source.displayName;
+        this.state = source.state;
+        this.peerMode = source.peerMode;
+        this.timestamp = source.timestamp;
+        this.ordered = false;
+        this.resetEntityMemorySize();
     }
 
     /**
@@ -442,8 +460,7 @@ public class ContactZone extends Entity {
         @Override
         public int compare(ContactZoneParticipant participant1, ContactZoneParticipant participant2) {
             if (null != participant1.getContact() && null != participant2.getContact()) {
-                return this.collator.compare(participant1.getContact().getPriorityName().toUpperCase(Locale.ROOT),
-                        participant2.getContact().getPriorityName().toUpperCase(Locale.ROOT));
+                return participant1.getContact().getSortKey().compareTo(participant2.getContact().getSortKey());
             }
             else if (null != participant1.getGroup() && null != participant2.getGroup()) {
                 return this.collator.compare(participant1.getGroup().getPriorityName().toUpperCase(Locale.ROOT),
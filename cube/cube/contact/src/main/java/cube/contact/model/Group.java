@@ -31,12 +31,12 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.nio.charset.StandardCharsets;
-import java.text.Collator;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
-import java.util.Locale;
+
+import cube.util.LongHashMap;
 
 /**
  * 群组描述。包含了多个联系人的集合。
@@ -74,14 +74,39 @@ public class Group extends AbstractContact implements Comparator<Group> {
     private GroupState state;
 
     /**
-     * 成员 ID 列表。
+     * 按加入顺序排列的成员 ID 列表。移除成员时不修改列表，已不在成员索引里的 ID 在生成视图时跳过。
+     */
+    private final List<Long> memberIdList;
+
+    /**
+     * 成员 ID 列表里已移除的 ID 数量。
+     */
+    private int removedCount;
+
+    /**
+     * 成员索引。值为已填充的成员联系人，未填充时为 {@code null} 值。
+     */
+    private final LongHashMap<Contact> memberIndex;
+
+    /**
+     * 已填充的成员数量。
      */
-    private List<Long> memberIdList;
+    private int filledCount;
 
     /**
-     * 成员列表。
+     * 成员 ID 列表的只读视图。成员变化时失效。
      */
-    private List<Contact> memberList;
+    private List<Long> memberIdListView;
+
+    /**
+     * 成员列表的只读视图。成员变化时失效。
+     */
+    private List<Contact> memberListView;
+
+    /**
+     * 按名称排序的成员列表的只读视图。成员变化时失效。
+     */
+    private List<Contact> orderedMemberListView;
 
     /**
      * 群组附录。
@@ -96,7 +121,8 @@ public class Group extends AbstractContact implements Comparator<Group> {
         this.lastActive = this.creation;
         this.state = GroupState.Normal;
         this.memberIdList = new ArrayList<>();
-        this.memberIdList.add(ownerId);
+        this.memberIndex = new LongHashMap<>();
+        this.putMember(ownerId);
     }
 
     public Group(Long id, String name, Long ownerId, String tag,
@@ -108,7 +134,8 @@ public class Group extends AbstractContact implements Comparator<Group> {
         this.lastActive = lastActiveTime;
         this.state = state;
         this.memberIdList = new ArrayList<>();
-        this.memberIdList.add(ownerId);
+        this.memberIndex = new LongHashMap<>();
+        this.putMember(ownerId);
     }
 
     public Group(JSONObject json) throws JSONException {
@@ -118,14 +145,18 @@ public class Group extends AbstractContact implements Comparator<Group> {
         this.creation = json.getLong("creation");
         this.lastActive = json.getLong("lastActive");
         this.state = GroupState.parse(json.getInt("state"));
-        this.memberIdList = new ArrayList<>();
-
         if (json.has("members")) {
             JSONArray array = json.getJSONArray("members");
+            this.memberIdList = new ArrayList<>(array.length());
+            this.memberIndex = new LongHashMap<>(array.length());
             for (int i = 0; i < array.length(); ++i) {
-                this.memberIdList.add(array.getLong(i));
+                this.putMember(array.getLong(i));
             }
         }
+        else {
+            this.memberIdList = new ArrayList<>();
+            this.memberIndex = new LongHashMap<>();
+        }
     }
 
     /**
@@ -147,17 +178,9 @@ public class Group extends AbstractContact implements Comparator<Group> {
      * @return 返回该群的群主。
      */
     public Contact getOwner() {
-        if (null == this.memberList) {
-            return null;
+        synchronized (this.memberIndex) {
+            return this.memberIndex.get(this.ownerId.longValue());
         }
-
-        for (Contact contact : this.memberList) {
-            if (contact.id.equals(this.ownerId)) {
-                return contact;
-            }
-        }
-
-        return null;
     }
 
     /**
@@ -213,7 +236,18 @@ public class Group extends AbstractContact implements Comparator<Group> {
      * @return 返回群组所有成员的 ID 列表。
      */
     public List<Long> getMemberIdList() {
-        return this.memberIdList;
+        synchronized (this.memberIndex) {
+            if (null == this.memberIdListView) {
+                List<Long> list = new ArrayList<>(this.memberIndex.size());
+                for (Long id : this.memberIdList) {
+                    if (this.memberIndex.containsKey(id.longValue())) {
+                        list.add(id);
+                    }
+                }
+                this.memberIdListView = Collections.unmodifiableList(list);
+            }
+            return this.memberIdListView;
+        }
     }
 
     /**
@@ -240,7 +274,9 @@ public class Group extends AbstractContact implements Comparator<Group> {
      * @return 返回群组的成员数量。
      */
     public int numMembers() {
-        return this.memberIdList.size();
+        synchronized (this.memberIndex) {
+            return this.memberIndex.size();
+        }
     }
 
     /**
@@ -250,13 +286,9 @@ public class Group extends AbstractContact implements Comparator<Group> {
      * @return 如果是该群组成员返回 {@code true} 。
      */
     public boolean isMember(Contact contact) {
-        for (Long id : this.memberIdList) {
-            if (id.longValue() == contact.id.longValue()) {
-                return true;
-            }
+        synchronized (this.memberIndex) {
+            return this.memberIndex.containsKey(contact.id.longValue());
         }
-
-        return false;
     }
 
     /**
@@ -265,9 +297,12 @@ public class Group extends AbstractContact implements Comparator<Group> {
      * @param memberId
      */
     public void addMember(Long memberId) {
-        if (!this.memberIdList.contains(memberId)) {
-            this.memberIdList.add(memberId);
+        synchronized (this.memberIndex) {
+            if (this.putMember(memberId)) {
+                this.invalidateViews();
+            }
         }
+        this.resetEntityMemorySize();
     }
 
     /**
@@ -276,41 +311,63 @@ public class Group extends AbstractContact implements Comparator<Group> {
      * @param memberId
      */
     public void removeMember(Long memberId) {
-        this.memberIdList.remove(memberId);
-        
-        if (null != this.memberList) {
-            for (int i = 0; i < this.memberList.size(); ++i) {
-                Contact contact = this.memberList.get(i);
-                if (contact.id.equals(memberId)) {
-                    this.memberList.remove(i);
-                    break;
-                }
+        synchronized (this.memberIndex) {
+            if (!this.memberIndex.containsKey(memberId.longValue())) {
+                return;
             }
+
+            Contact contact = this.memberIndex.remove(memberId.longValue());
+            if (null != contact) {
+                --this.filledCount;
+            }
+            // 延迟从列表中删除，已移除的 ID 多于成员数量时再整理列表
+            if (++this.removedCount > this.memberIndex.size()) {
+                this.compactMemberIdList();
+            }
+            this.invalidateViews();
         }
+        this.resetEntityMemorySize();
     }
 
     /**
      * 获取按照名称排序的成员列表。
      *
-     * @return 返回按照名称排序的成员列表。
+     * @return 返回按照名称排序的成员列表。如果还没有填充成员返回 {@code null} 值。
      */
     public List<Contact> getOrderedMemberList() {
-        if (null == this.memberList) {
-            return null;
-        }
+        synchronized (this.memberIndex) {
+            if (0 == this.filledCount) {
+                return null;
+            }
 
-        List<Contact> list = new ArrayList<>(this.memberList);
-        Collections.sort(list, new NameComparator());
-        return list;
+            if (null == this.orderedMemberListView) {
+                List<Contact> list = new ArrayList<>(this.getMemberList());
+                Collections.sort(list, new NameComparator());
+                this.orderedMemberListView = Collections.unmodifiableList(list);
+            }
+            return this.orderedMemberListView;
+        }
     }
 
     /**
-     * 获取群组成员列表。
+     * 获取群组成员列表。列表只包含已填充的成员，按加入顺序排列。
      *
      * @return 返回群组成员列表。
      */
     public List<Contact> getMemberList() {
-        return this.memberList;
+        synchronized (this.memberIndex) {
+            if (null == this.memberListView) {
+                List<Contact> list = new ArrayList<>(this.filledCount);
+                for (Long id : this.memberIdList) {
+                    Contact contact = this.memberIndex.get(id.longValue());
+                    if (null != contact) {
+                        list.add(contact);
+                    }
+                }
+                this.memberListView = Collections.unmodifiableList(list);
+            }
+            return this.memberListView;
+        }
     }
 
     /**
@@ -337,17 +394,9 @@ public class Group extends AbstractContact implements Comparator<Group> {
      * @return 返回联系人实例。
      */
     public Contact getMember(Long contactId) {
-        if (null == this.memberList) {
-            return null;
-        }
-
-        for (Contact contact : this.memberList) {
-            if (contact.id.equals(contactId)) {
-                return contact;
-            }
+        synchronized (this.memberIndex) {
+            return this.memberIndex.get(contactId.longValue());
         }
-
-        return null;
     }
 
     /**
@@ -357,6 +406,7 @@ public class Group extends AbstractContact implements Comparator<Group> {
      */
     public void setAppendix(GroupAppendix appendix) {
         this.appendix = appendix;
+        this.resetEntityMemorySize();
     }
 
     /**
@@ -393,19 +443,14 @@ public class Group extends AbstractContact implements Comparator<Group> {
      * @param contact
      */
     public void updateMember(Contact contact) {
-        if (null == this.memberList) {
-            this.memberList = new ArrayList<>();
-            this.memberList.add(contact);
-            return;
-        }
-
-        int index = this.memberList.indexOf(contact);
-        if (index >= 0) {
-            this.memberList.set(index, contact);
-        }
-        else {
-            this.memberList.add(contact);
+        synchronized (this.memberIndex) {
+            this.putMember(contact.id);
+            if (null == this.memberIndex.put(contact.id.longValue(), contact)) {
+                ++this.filledCount;
+            }
+            this.invalidateViews();
         }
+        this.resetEntityMemorySize();
     }
 
     /**
@@ -416,8 +461,10 @@ public class Group extends AbstractContact implements Comparator<Group> {
      * @return
      */
     public boolean isFilled() {
-        return (null != this.memberList && this.memberList.size() == this.memberIdList.size()
-            && (this.appendix.hasNotice() && null != this.appendix.getNoticeOperator()));
+        synchronized (this.memberIndex) {
+            return (this.filledCount > 0 && this.filledCount == this.memberIndex.size()
+                && (this.appendix.hasNotice() && null != this.appendix.getNoticeOperator()));
+        }
     }
 
     /**
@@ -433,6 +480,7 @@ public class Group extends AbstractContact implements Comparator<Group> {
         this.name = source.name;
         this.state = source.state;
         this.lastActive = source.lastActive;
+        this.resetEntityMemorySize();
     }
 
     @Override
@@ -441,10 +489,9 @@ public class Group extends AbstractContact implements Comparator<Group> {
         size += 8 * 8 + 1;
 
         size += this.tag.getBytes(StandardCharsets.UTF_8).length;
-        size += 16 * this.memberIdList.size();
-
-        if (null != this.memberList) {
-            size += 8 * this.memberList.size();
+        synchronized (this.memberIndex) {
+            size += 16 * this.memberIndex.size();
+            size += 8 * this.filledCount;
         }
 
         if (null != this.appendix) {
@@ -470,9 +517,10 @@ public class Group extends AbstractContact implements Comparator<Group> {
             json.put("lastActive", this.lastActive);
             json.put("state", this.state.code);
 
-            if (!this.memberIdList.isEmpty()) {
+            List<Long> idList = this.getMemberIdList();
+            if (!idList.isEmpty()) {
                 JSONArray array = new JSONArray();
-                for (Long memberId : this.memberIdList) {
+                for (Long memberId : idList) {
                     array.put(memberId.longValue());
                 }
                 json.put("members", array);
@@ -498,18 +546,56 @@ public class Group extends AbstractContact implements Comparator<Group> {
         return json;
     }
 
-    protected class NameComparator implements Comparator<Contact> {
+    /**
+     * 添加成员 ID 。调用者需要持有成员索引的锁。
+     *
+     * @param memberId
+     * @return 如果是新成员返回 {@code true} 。
+     */
+    private boolean putMember(Long memberId) {
+        if (this.memberIndex.containsKey(memberId.longValue())) {
+            return false;
+        }
+
+        if (this.removedCount > 0) {
+            // 列表里可能还保留着该 ID ，先整理列表避免重复
+            this.compactMemberIdList();
+        }
+
+        this.memberIndex.put(memberId.longValue(), null);
+        this.memberIdList.add(memberId);
+        return true;
+    }
 
-        private Collator collator;
+    /**
+     * 从成员 ID 列表里删除已移除的 ID 。调用者需要持有成员索引的锁。
+     */
+    private void compactMemberIdList() {
+        int size = 0;
+        for (int i = 0; i < this.memberIdList.size(); ++i) {
+            Long id = this.memberIdList.get(i);
+            if (this.memberIndex.containsKey(id.longValue())) {
+                this.memberIdList.set(size++, id);
+            }
+        }
+        this.memberIdList.subList(size, this.memberIdList.size()).clear();
+        this.removedCount = 0;
+    }
+
+    private void invalidateViews() {
+        this.memberIdListView = null;
+        this.memberListView = null;
+        this.orderedMemberListView = null;
+    }
+
+    protected class NameComparator implements Comparator<Contact> {
 
         public NameComparator() {
-            this.collator = Collator.getInstance(Locale.CHINESE);
         }
 
         @Override
         public int compare(Contact contact1, Contact contact2) {
-            return this.collator.compare(contact1.getPriorityName(),
-                    contact2.getPriorityName());
+            return contact1.getSortKey().compareTo(contact2.getSortKey());
         }
     }
 }
@@ -0,0 +1,131 @@
+/*
+ * This file is part of Cube.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2022 Cube Team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package cube.contact;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import cube.auth.AuthToken;
+import cube.contact.model.Contact;
+import cube.contact.model.Self;
+import cube.util.LogUtils;
+
+import static org.junit.Assert.*;
+
+/**
+ * 联系人服务获取联系人的测试。
+ */
+public class ContactServiceTest {
+
+    private FakePipeline pipeline;
+
+    private TestContactService service;
+
+    @Before
+    public void setUp() throws Exception {
+        LogUtils.setLevel(LogUtils.LEVEL_OFF);
+
+        this.pipeline = new FakePipeline();
+        this.service = new TestContactService(this.pipeline);
+        JSONObject self = new JSONObject();
+        self.put("id", 1L);
+        self.put("name", "Self");
+        JSONObject device = new JSONObject();
+        device.put("name", "Android");
+        device.put("platform", "Test");
+        self.put("device", device);
+        this.service.self = new Self(self);
+
+        Field field = ContactService.class.getDeclaredField("storage");
+        field.setAccessible(true);
+        field.set(this.service, new EmptyContactStorage(this.service));
+    }
+
+    @Test
+    public void refusedSendCompletesFlight() {
+        this.pipeline.accept = false;
+
+        long start = System.currentTimeMillis();
+        assertNull(this.service.getContact(100L));
+        assertTrue(System.currentTimeMillis() - start < 1000);
+
+        // 没有残留的在途查询，再次查询不会等待已失效的请求
+        start = System.currentTimeMillis();
+        assertNull(this.service.getContact(100L));
+        assertTrue(System.currentTimeMillis() - start < 1000);
+        assertTrue(this.pipeline.handlerMap.isEmpty());
+    }
+
+    private static class TestContactService extends ContactService {
+
+        private final AuthToken token;
+
+        TestContactService(FakePipeline pipeline) throws JSONException {
+            super();
+            this.pipeline = pipeline;
+            JSONObject json = new JSONObject();
+            json.put("code", "test");
+            json.put("domain", "shixincube.com");
+            json.put("appKey", "test");
+            json.put("cid", 1L);
+            json.put("issues", 0L);
+            json.put("expiry", Long.MAX_VALUE);
+            JSONObject description = new JSONObject();
+            description.put("address", "127.0.0.1");
+            description.put("primaryContent", new JSONObject());
+            json.put("description", description);
+            this.token = new AuthToken(json);
+        }
+
+        @Override
+        protected AuthToken getAuthToken() {
+            return this.token;
+        }
+    }
+
+    /**
+     * 没有数据的存储器，所有联系人都需要从服务器获取。
+     */
+    private static class EmptyContactStorage extends ContactStorage {
+
+        EmptyContactStorage(ContactService service) {
+            super(service);
+        }
+
+        @Override
+        public Map<Long, Contact> readContacts(Collection<Long> contactIds) {
+            return new HashMap<>();
+        }
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * This file is part of Cube.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2022 Cube Team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package cube.contact;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import cube.contact.model.AbstractContact;
+import cube.contact.model.ContactZone;
+import cube.contact.model.ContactZoneParticipant;
+import cube.contact.model.ContactZoneState;
+import cube.contact.model.Group;
+import cube.contact.model.GroupState;
+import cube.core.Packet;
+import cube.core.PipelineState;
+import cube.core.SegmentedCache;
+import cube.util.LogUtils;
+
+import static org.junit.Assert.*;
+
+/**
+ * 增量同步器的测试。
+ */
+public class DeltaSynchronizerTest {
+
+    private final static long WATERMARK = 1000L;
+
+    private FakePipeline pipeline;
+
+    private RecordingStorage storage;
+
+    private SegmentedCache<Long, AbstractContact> cache;
+
+    private DeltaSynchronizer synchronizer;
+
+    @Before
+    public void setUp() {
+        LogUtils.setLevel(LogUtils.LEVEL_OFF);
+
+        this.pipeline = new FakePipeline();
+        this.storage = new RecordingStorage();
+        this.cache = new SegmentedCache<>("Contacts", 1024 * 1024);
+        this.synchronizer = new DeltaSynchronizer(this.pipeline, this.storage, this.cache);
+    }
+
+    @Test
+    public void groupDeltaUpdatesCache() throws JSONException {
+        Group modified = new Group(makeGroup(10L, "Old", 1L, 2L, 3L));
+        Group removed = new Group(makeGroup(12L, "Removed", 1L));
+        this.cache.put(modified.id, modified);
+        this.cache.put(removed.id, removed);
+
+        RecordingHandler<DeltaSynchronizer.GroupDelta> handler = new RecordingHandler<>();
+        this.synchronizer.syncGroups(WATERMARK, handler);
+
+        JSONObject delta = makeDelta(WATERMARK, 2000L);
+        delta.put("added", new JSONArray().put(makeGroup(11L, "Added", 1L)));
+        delta.put("modified", new JSONArray().put(makeGroup(10L, "New", 1L, 3L, 4L)));
+        delta.put("removed", new JSONArray().put(12L));
+        respond(delta);
+
+        assertEquals(1, handler.synced.size());
+        DeltaSynchronizer.GroupDelta result = handler.synced.get(0);
+        assertEquals(2, result.updatedGroups.size());
+        assertEquals(1, result.removedGroups.size());
+
+        // 已缓存的实例原位更新
+        assertSame(modified, this.cache.get(10L));
+        assertEquals("New", modified.getName());
+        assertFalse(modified.getMemberIdList().contains(2L));
+        assertTrue(modified.getMemberIdList().contains(4L));
+
+        assertNotNull(this.cache.get(11L));
+
+        assertSame(removed, result.removedGroups.get(0));
+        assertEquals(GroupState.Dismissed, removed.getState());
+        assertNull(this.cache.get(12L));
+
+        assertEquals(2, this.storage.groupUpserts.size());
+        assertEquals(1, this.storage.groupRemovedIds.size());
+    }
+
+    @Test
+    public void contactZoneDeltaUpdatesZone() throws JSONException {
+        ContactZone zone = new ContactZone(null, 100L, "friends", "Friends", false,
+                WATERMARK, ContactZoneState.Normal);
+        zone.addParticipant(new ContactZoneParticipant(makeParticipant(20L)));
+        zone.addParticipant(new ContactZoneParticipant(makeParticipant(21L)));
+
+        RecordingHandler<ContactZone> handler = new RecordingHandler<>();
+        this.synchronizer.syncContactZone(zone, handler);
+
+        JSONObject delta = makeDelta(WATERMARK, 2000L);
+        delta.put("added", new JSONArray().put(makeParticipant(22L)));
+        delta.put("removed", new JSONArray().put(20L));
+        JSONObject zoneData = new JSONObject();
+        zoneData.put("id", 100L);
+        zoneData.put("name", "friends");
+        zoneData.put("displayName", "Best Friends");
+        zoneData.put("state", ContactZoneState.Normal.code);
+        zoneData.put("peerMode", false);
+        delta.put("zone", zoneData);
+        respond(delta);
+
+        assertEquals(1, handler.synced.size());
+        assertSame(zone, handler.synced.get(0));
+        assertEquals("Best Friends", zone.getDisplayName());
+        assertEquals(2000L, zone.getTimestamp());
+        assertNull(zone.getParticipant(20L));
+        assertNotNull(zone.getParticipant(21L));
+        assertNotNull(zone.getParticipant(22L));
+        assertEquals(1, this.storage.zoneDeltaCount);
+    }
+
+    @Test
+    public void gapRequestsFullSync() throws JSONException {
+        Group group = new Group(makeGroup(10L, "Old", 1L));
+        this.cache.put(group.id, group);
+
+        RecordingHandler<DeltaSynchronizer.GroupDelta> handler = new RecordingHandler<>();
+        this.synchronizer.syncGroups(WATERMARK, handler);
+
+        // 服务器的变更不是从本地水位开始
+        JSONObject delta = makeDelta(WATERMARK + 1, 2000L);
+        delta.put("modified", new JSONArray().put(makeGroup(10L, "New", 1L)));
+        respond(delta);
+
+        assertEquals(1, handler.gaps);
+        assertTrue(handler.synced.isEmpty());
+        assertEquals("Old", group.getName());
+        assertEquals(0, this.storage.groupUpserts.size());
+    }
+
+    @Test
+    public void refusedSendFallsBack() {
+        this.pipeline.accept = false;
+
+        RecordingHandler<DeltaSynchronizer.GroupDelta> handler = new RecordingHandler<>();
+        this.synchronizer.syncGroups(WATERMARK, handler);
+
+        assertEquals(1, handler.failures.size());
+        assertEquals(ContactServiceState.NoNetwork.code, handler.failures.get(0).intValue());
+        assertTrue(this.pipeline.handlerMap.isEmpty());
+    }
+
+    private void respond(JSONObject delta) throws JSONException {
+        assertEquals(1, this.pipeline.sentPackets.size());
+        Packet request = this.pipeline.sentPackets.get(0);
+
+        JSONObject payload = new JSONObject();
+        payload.put("code", ContactServiceState.Ok.code);
+        payload.put("data", delta);
+        Packet response = new Packet(request.sn, request.name, payload);
+        response.state = PipelineState.Ok;
+        response.response = true;
+        this.pipeline.respond(request, response);
+    }
+
+    private static JSONObject makeDelta(long from, long watermark) throws JSONException {
+        JSONObject delta = new JSONObject();
+        delta.put("from", from);
+        delta.put("watermark", watermark);
+        return delta;
+    }
+
+    private static JSONObject makeGroup(Long id, String name, Long ownerId, Long... members)
+            throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("id", id.longValue());
+        json.put("name", name);
+        json.put("domain", "shixincube.com");
+        json.put("tag", "public");
+        json.put("ownerId", ownerId.longValue());
+        json.put("creation", 0L);
+        json.put("lastActive", 1500L);
+        json.put("state", GroupState.Normal.code);
+        JSONArray array = new JSONArray();
+        array.put(ownerId.longValue());
+        for (Long member : members) {
+            array.put(member.longValue());
+        }
+        json.put("members", array);
+        return json;
+    }
+
+    private static JSONObject makeParticipant(Long id) throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("id", id.longValue());
+        json.put("timestamp", 1500L);
+        json.put("type", 1);
+        json.put("state", 0);
+        json.put("inviterId", 1L);
+        return json;
+    }
+
+    private static class RecordingHandler<T> implements DeltaSynchronizer.SyncHandler<T> {
+
+        final List<T> synced = new ArrayList<>();
+
+        final List<Integer> failures = new ArrayList<>();
+
+        int gaps = 0;
+
+        @Override
+        public void handleSynced(T result) {
+            this.synced.add(result);
+        }
+
+        @Override
+        public void handleGap() {
+            ++this.gaps;
+        }
+
+        @Override
+        public void handleFailure(int code) {
+            this.failures.add(code);
+        }
+    }
+
+    /**
+     * 记录变更的存储器，不访问数据库。
+     */
+    private static class RecordingStorage extends ContactStorage {
+
+        final List<Group> groupUpserts = new ArrayList<>();
+
+        final List<Long> groupRemovedIds = new ArrayList<>();
+
+        int zoneDeltaCount = 0;
+
+        RecordingStorage() {
+            super(null);
+        }
+
+        @Override
+        public Group readGroup(Long groupId) {
+            return null;
+        }
+
+        @Override
+        public void applyGroupDelta(Collection<Group> upserts, Collection<Long> removedIds) {
+            this.groupUpserts.addAll(upserts);
+            this.groupRemovedIds.addAll(removedIds);
+        }
+
+        @Override
+        public void applyContactZoneDelta(ContactZone zone, Collection<ContactZoneParticipant> upserts,
+                                          Collection<Long> removedIds) {
+            ++this.zoneDeltaCount;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * This file is part of Cube.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2022 Cube Team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package cube.contact;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import cube.core.Packet;
+import cube.core.Pipeline;
+import cube.core.handler.PipelineHandler;
+
+/**
+ * 用于测试的数据通道。记录发送的数据包，由测试用例决定何时应答。
+ */
+public class FakePipeline extends Pipeline {
+
+    public final List<Packet> sentPackets = Collections.synchronizedList(new ArrayList<>());
+
+    public final Map<Long, PipelineHandler> handlerMap = new ConcurrentHashMap<>();
+
+    public volatile boolean ready = true;
+
+    /**
+     * 发送是否成功。为 {@code false} 时模拟就绪状态在写入前改变的情况。
+     */
+    public volatile boolean accept = true;
+
+    @Override
+    public void open() {
+        this.ready = true;
+    }
+
+    @Override
+    public void close() {
+        this.ready = false;
+    }
+
+    @Override
+    public boolean isReady() {
+        return this.ready;
+    }
+
+    @Override
+    public boolean send(String destination, Packet packet) {
+        return this.send(destination, packet, null);
+    }
+
+    @Override
+    public boolean send(String destination, Packet packet, PipelineHandler handler) {
+        if (!this.ready || !this.accept) {
+            return false;
+        }
+
+        this.sentPackets.add(packet);
+        if (null != handler) {
+            this.handlerMap.put(packet.sn, handler);
+        }
+        return true;
+    }
+
+    @Override
+    public void fireNetworkStatusChanged(boolean connected) {
+        this.ready = connected;
+    }
+
+    /**
+     * 应答指定的请求。
+     *
+     * @param request 指定请求数据包。
+     * @param response 指定应答数据包。
+     */
+    public void respond(Packet request, Packet response) {
+        PipelineHandler handler = this.handlerMap.remove(request.sn);
+        if (null != handler) {
+            handler.handleResponse(response);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * This file is part of Cube.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2022 Cube Team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package cube.contact.model;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * 打开联系人页的基准测试。
+ * 联系人的排序键从存储里恢复，页面打开时用全部联系人建立索引，然后读取列表和每个索引字母的位置。
+ * 目标是 10000 个联系人在 50 毫秒内完成。
+ */
+public class ContactIndexBenchmark {
+
+    private final static int CONTACTS = 10000;
+
+    private final static long TARGET_MILLIS = 50;
+
+    private final static String[] SYLLABLES = {
+            "an", "bai", "chen", "deng", "fang", "gao", "huang", "jiang", "kong", "li", "ma", "ning",
+            "ou", "peng", "qian", "ren", "sun", "tang", "wang", "xu", "yang", "zhang", "zhao", "zhou"
+    };
+
+    @Test
+    public void openContactsTab() {
+        List<Contact> contacts = makeContacts(CONTACTS);
+
+        long first = openTab(contacts);
+
+        long best = first;
+        for (int i = 0; i < 10; ++i) {
+            best = Math.min(best, openTab(contacts));
+        }
+
+        System.out.println("ContactIndexBenchmark - open tab with " + CONTACTS + " contacts: first "
+                + (first / 1000) + " us, best " + (best / 1000) + " us");
+        assertTrue(best < TARGET_MILLIS * 1000 * 1000);
+    }
+
+    @Test
+    public void refreshWithFewChanges() {
+        List<Contact> contacts = makeContacts(CONTACTS);
+        ContactIndex index = new ContactIndex();
+        index.update(contacts);
+
+        // 修改少量联系人的名称
+        List<Contact> next = new ArrayList<>(contacts);
+        for (int i = 0; i < 20; ++i) {
+            int position = i * (CONTACTS / 20);
+            Contact contact = contacts.get(position);
+            Contact renamed = new Contact(contact.id, "Renamed " + i, "benchmark");
+            renamed.setSortKey(makeSortKey(new String[] { "ren" }, renamed.getName()));
+            next.set(position, renamed);
+        }
+
+        long start = System.nanoTime();
+        assertTrue(index.update(next));
+        long elapsed = System.nanoTime() - start;
+
+        assertFalse(index.update(next));
+        assertSorted(index);
+
+        System.out.println("ContactIndexBenchmark - refresh 20 of " + CONTACTS + " contacts: "
+                + (elapsed / 1000) + " us");
+        assertTrue(elapsed < TARGET_MILLIS * 1000 * 1000);
+    }
+
+    @Test
+    public void letterPositionsMatchList() {
+        ContactIndex index = new ContactIndex();
+        index.update(makeContacts(CONTACTS));
+        assertSorted(index);
+
+        List<Contact> list = index.getList();
+        int total = 0;
+        for (char letter : ContactIndex.LETTERS) {
+            int count = index.countLetter(letter);
+            int position = index.getPositionForLetter(letter);
+            if (0 == count) {
+                assertEquals(-1, position);
+                continue;
+            }
+
+            assertEquals(total, position);
+            assertEquals(letter, ContactIndex.getLetter(list.get(position)));
+            total += count;
+        }
+        assertEquals(CONTACTS, total);
+    }
+
+    private static long openTab(List<Contact> contacts) {
+        long start = System.nanoTime();
+
+        ContactIndex index = new ContactIndex();
+        index.update(contacts);
+        List<Contact> list = index.getList();
+        int sum = list.size();
+        for (char letter : ContactIndex.LETTERS) {
+            sum += index.getPositionForLetter(letter);
+        }
+
+        long elapsed = System.nanoTime() - start;
+        assertTrue(sum > 0);
+        return elapsed;
+    }
+
+    private static void assertSorted(ContactIndex index) {
+        List<Contact> list = index.getList();
+        for (int i = 1; i < list.size(); ++i) {
+            assertTrue(list.get(i - 1).getSortKey().compareTo(list.get(i).getSortKey()) <= 0);
+        }
+    }
+
+    private static List<Contact> makeContacts(int count) {
+        Random random = new Random(20220517);
+        List<Contact> list = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            Contact contact;
+            if (i % 50 == 0) {
+                // 不以字母开头的名称
+                contact = new Contact(10000L + i, "123-" + i, "benchmark");
+                contact.setSortKey(makeSortKey(new String[0], contact.getName()));
+            }
+            else {
+                String[] syllables = new String[2 + random.nextInt(2)];
+                for (int n = 0; n < syllables.length; ++n) {
+                    syllables[n] = SYLLABLES[random.nextInt(SYLLABLES.length)];
+                }
+                contact = new Contact(10000L + i, "Contact " + i, "benchmark");
+                contact.setSortKey(makeSortKey(syllables, contact.getName()));
+            }
+            list.add(contact);
+        }
+        return list;
+    }
+
+    /**
+     * 按 {@code PinYinUtils#getSortKey} 的格式生成排序键，模拟从存储里恢复的数据。
+     */
+    private static String makeSortKey(String[] syllables, String name) {
+        StringBuilder pinyin = new StringBuilder();
+        StringBuilder initials = new StringBuilder();
+        for (String syllable : syllables) {
+            pinyin.append(syllable);
+            initials.append(syllable.charAt(0));
+        }
+        String prefix = (pinyin.length() == 0) ? "~" : "";
+        return prefix + pinyin.toString().toUpperCase(Locale.ROOT) + " "
+                + initials.toString().toUpperCase(Locale.ROOT) + " " + name;
+    }
+}
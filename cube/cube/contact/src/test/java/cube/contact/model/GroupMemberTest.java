@@ -0,0 +1,117 @@
+/*
+ * This file is part of Cube.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2022 Cube Team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package cube.contact.model;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 群组成员维护的测试。
+ * 大群批量移除成员时，移除操作不应随成员数量线性增长。
+ */
+public class GroupMemberTest {
+
+    private final static int MEMBERS = 20000;
+
+    @Test
+    public void removeKeepsJoinOrder() {
+        Group group = makeGroup(10);
+        group.removeMember(3L);
+        group.removeMember(5L);
+
+        assertEquals(9, group.numMembers());
+        assertEquals(ids(0, 1, 2, 4, 6, 7, 8, 9, 10), group.getMemberIdList());
+
+        // 重新加入的成员排在末尾且不重复
+        group.addMember(3L);
+        assertEquals(ids(0, 1, 2, 4, 6, 7, 8, 9, 10, 3), group.getMemberIdList());
+        assertEquals(10, group.numMembers());
+
+        group.removeMember(3L);
+        group.removeMember(3L);
+        assertEquals(9, group.getMemberIdList().size());
+    }
+
+    @Test
+    public void removeAllButOwner() {
+        Group group = makeGroup(MEMBERS);
+        for (long id = 1; id <= MEMBERS; ++id) {
+            group.removeMember(id);
+        }
+
+        assertEquals(1, group.numMembers());
+        assertEquals(ids(0), group.getMemberIdList());
+    }
+
+    @Test
+    public void bulkRemoveBenchmark() {
+        // 预热
+        removeHalf(makeGroup(MEMBERS));
+
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 5; ++i) {
+            Group group = makeGroup(MEMBERS);
+            long start = System.nanoTime();
+            removeHalf(group);
+            best = Math.min(best, System.nanoTime() - start);
+
+            assertEquals(MEMBERS / 2 + 1, group.getMemberIdList().size());
+        }
+
+        System.out.println("GroupMemberTest - remove " + (MEMBERS / 2) + " of " + MEMBERS
+                + " members: " + (best / 1000) + " us");
+        assertTrue(best < 200L * 1000 * 1000);
+    }
+
+    private static void removeHalf(Group group) {
+        // 从列表头部开始移除，对列表逐个删除是最坏情况
+        for (long id = 1; id <= MEMBERS / 2; ++id) {
+            group.removeMember(id);
+        }
+    }
+
+    private static Group makeGroup(int numMembers) {
+        long now = System.currentTimeMillis();
+        Group group = new Group(1000L, "Group", 0L, GroupTag.Public, now, now, GroupState.Normal);
+        for (long id = 1; id <= numMembers; ++id) {
+            group.addMember(id);
+        }
+        return group;
+    }
+
+    private static List<Long> ids(long... values) {
+        List<Long> list = new ArrayList<>(values.length);
+        for (long value : values) {
+            list.add(value);
+        }
+        return list;
+    }
+}
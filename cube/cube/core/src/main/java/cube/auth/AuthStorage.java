@@ -97,29 +97,27 @@ public class AuthStorage extends AbstractStorage {
     }
 
     public void saveToken(AuthToken token) {
-        SQLiteDatabase db = this.getWritableDatabase();
-
-        ContentValues values = new ContentValues();
-        values.put("domain", token.domain);
-        values.put("app_key", token.appKey);
-        values.put("cid", token.cid);
-        values.put("code", token.code);
-        values.put("data", token.toJSON().toString());
-
-        db.insert("token", null, values);
-
-        this.closeWritableDatabase(db);
+        this.write((db) -> {
+            ContentValues values = new ContentValues();
+            values.put("domain", token.domain);
+            values.put("app_key", token.appKey);
+            values.put("cid", token.cid);
+            values.put("code", token.code);
+            values.put("data", token.toJSON().toString());
+
+            db.insert("token", null, values);
+            return null;
+        });
     }
 
     public void updateToken(AuthToken token) {
-        SQLiteDatabase db = this.getWritableDatabase();
-
-        ContentValues values = new ContentValues();
-        values.put("cid", token.cid);
-        values.put("data", token.toJSON().toString());
-        db.update("token", values, "code=?", new String[] { token.code });
-
-        this.closeWritableDatabase(db);
+        this.write((db) -> {
+            ContentValues values = new ContentValues();
+            values.put("cid", token.cid);
+            values.put("data", token.toJSON().toString());
+            db.update("token", values, "code=?", new String[] { token.code });
+            return null;
+        });
     }
 
     @Override
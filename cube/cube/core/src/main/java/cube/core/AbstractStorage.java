@@ -31,28 +31,69 @@ import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.util.Log;
 
-import java.util.LinkedList;
-import java.util.Queue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import cube.util.LatencyHistogram;
 
 /**
  * 存储器数据库连接管理器。
+ * 数据库以 WAL 模式打开，读操作由 {@link SQLiteOpenHelper} 的连接池并发执行，
+ * 写操作通过 {@link #write(WriteTask)} 提交给单一写线程，写线程将排队的写任务合并到同一个事务里提交。
  */
 public abstract class AbstractStorage implements Storage {
 
+    /**
+     * 单次合并提交的最大写任务数量。
+     */
+    private final static int MAX_GROUP_SIZE = 64;
+
     private SQLite sqlite;
 
     private AtomicBoolean opened;
 
-    private Queue<SQLiteDatabase> readableDatabaseQueue;
+    private BlockingQueue<WriteRequest<?>> writeQueue;
+
+    private Thread writerThread;
+
+    private volatile boolean writing;
+
+    private ThreadLocal<Deque<Long>> readTimestamps;
+
+    private LatencyHistogram queryLatency;
+
+    private LatencyHistogram writeLatency;
 
-    private Queue<SQLiteDatabase> writableDatabaseQueue;
+    private LatencyHistogram commitLatency;
+
+    private AtomicLong commitCount;
+
+    private AtomicLong committedTaskCount;
 
     public AbstractStorage() {
         this.sqlite = null;
         this.opened = new AtomicBoolean(false);
-        this.readableDatabaseQueue = new LinkedList<>();
-        this.writableDatabaseQueue = new LinkedList<>();
+        this.writeQueue = new LinkedBlockingQueue<>();
+        this.writing = false;
+        this.readTimestamps = new ThreadLocal<Deque<Long>>() {
+            @Override
+            protected Deque<Long> initialValue() {
+                return new ArrayDeque<>();
+            }
+        };
+        this.queryLatency = new LatencyHistogram("query");
+        this.writeLatency = new LatencyHistogram("write");
+        this.commitLatency = new LatencyHistogram("commit");
+        this.commitCount = new AtomicLong(0);
+        this.committedTaskCount = new AtomicLong(0);
     }
 
     @Override
@@ -60,29 +101,29 @@ public abstract class AbstractStorage implements Storage {
         if (null == this.sqlite) {
             this.sqlite = new SQLite(context, filename, version);
             this.opened.set(true);
-//            (new Thread() {
-//                @Override
-//                public void run() {
-//                    SQLiteDatabase db = sqlite.getReadableDatabase();
-//                    synchronized (readableDatabaseQueue) {
-//                        readableDatabaseQueue.offer(db);
-//                    }
-//                }
-//            }).start();
+
+            this.writing = true;
+            this.writerThread = new Thread(new Writer(), "StorageWriter-" + filename);
+            this.writerThread.setDaemon(true);
+            this.writerThread.start();
         }
     }
 
     @Override
     public void close() {
         if (null != this.sqlite) {
-            while (!this.readableDatabaseQueue.isEmpty()) {
-                SQLiteDatabase db = this.readableDatabaseQueue.poll();
-                db.close();
-            }
-
-            while (!this.writableDatabaseQueue.isEmpty()) {
-                SQLiteDatabase db = this.writableDatabaseQueue.poll();
-                db.close();
+            // 停止写线程，写线程会先处理完队列里的任务
+            this.writing = false;
+            if (null != this.writerThread) {
+                this.writerThread.interrupt();
+                if (Thread.currentThread() != this.writerThread) {
+                    try {
+                        this.writerThread.join(10L * 1000L);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                this.writerThread = null;
             }
 
             this.sqlite.close();
@@ -93,26 +134,116 @@ public abstract class AbstractStorage implements Storage {
     }
 
     public SQLiteDatabase getWritableDatabase() {
-        if (!this.opened.get()) {
-            synchronized (this.opened) {
-                try {
-                    this.opened.wait(10L * 1000L);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-            }
+        this.waitOpened();
+        return this.sqlite.getWritableDatabase();
+    }
+
+    public SQLiteDatabase getReadableDatabase() {
+        this.waitOpened();
+        this.readTimestamps.get().push(System.nanoTime());
+        return this.sqlite.getReadableDatabase();
+    }
+
+    public void closeWritableDatabase(SQLiteDatabase database) {
+        // Nothing - 连接由 SQLiteOpenHelper 的连接池管理
+    }
+
+    public void closeReadableDatabase(SQLiteDatabase database) {
+        Long start = this.readTimestamps.get().poll();
+        if (null != start) {
+            this.queryLatency.record(System.nanoTime() - start);
         }
+    }
 
-        synchronized (this.writableDatabaseQueue) {
-            SQLiteDatabase db = this.writableDatabaseQueue.poll();
-            if (null == db) {
-                db = this.sqlite.getWritableDatabase();
+    /**
+     * 将写任务提交给写线程执行，并等待其所在的事务提交。
+     * 在写线程内调用时直接在当前事务里执行。
+     *
+     * @param task 指定写任务。
+     * @param <T> 任务返回值类型。
+     * @return 返回任务的返回值。
+     */
+    protected <T> T write(WriteTask<T> task) {
+        this.waitOpened();
+
+        if (Thread.currentThread() == this.writerThread) {
+            // 嵌套写操作，直接在当前事务里执行
+            return task.run(this.sqlite.getWritableDatabase());
+        }
+
+        WriteRequest<T> request = new WriteRequest<>(task);
+
+        if (!this.writing) {
+            // 写线程未运行，在当前线程执行
+            this.commit(this.sqlite.getWritableDatabase(), singleton(request));
+        }
+        else {
+            this.writeQueue.offer(request);
+
+            if (!this.writing && this.writeQueue.remove(request)) {
+                // 入队时写线程已停止
+                this.commit(this.sqlite.getWritableDatabase(), singleton(request));
             }
-            return db;
         }
+
+        return request.await();
     }
 
-    public SQLiteDatabase getReadableDatabase() {
+    /**
+     * 获取查询延迟直方图。
+     *
+     * @return
+     */
+    public LatencyHistogram getQueryLatency() {
+        return this.queryLatency;
+    }
+
+    /**
+     * 获取写操作延迟直方图，包括排队等待和事务提交的时间。
+     *
+     * @return
+     */
+    public LatencyHistogram getWriteLatency() {
+        return this.writeLatency;
+    }
+
+    /**
+     * 获取事务提交延迟直方图。
+     *
+     * @return
+     */
+    public LatencyHistogram getCommitLatency() {
+        return this.commitLatency;
+    }
+
+    /**
+     * 获取写线程提交的事务数量。
+     *
+     * @return
+     */
+    public long getCommitCount() {
+        return this.commitCount.get();
+    }
+
+    /**
+     * 获取写线程已提交的写任务数量。
+     *
+     * @return
+     */
+    public long getCommittedTaskCount() {
+        return this.committedTaskCount.get();
+    }
+
+    /**
+     * 获取当前排队等待的写任务数量。
+     *
+     * @return
+     */
+    public int numPendingWrites() {
+        return this.writeQueue.size();
+    }
+
+    private void waitOpened() {
         if (!this.opened.get()) {
             synchronized (this.opened) {
                 try {
@@ -122,26 +253,66 @@ public abstract class AbstractStorage implements Storage {
                 }
             }
         }
+    }
+
+    /**
+     * 在一个事务里执行一组写任务。事务失败时逐个重新执行，避免单个任务的错误影响同组的其他任务。
+     *
+     * @param db
+     * @param group
+     */
+    private void commit(SQLiteDatabase db, List<WriteRequest<?>> group) {
+        long start = System.nanoTime();
 
-        synchronized (this.readableDatabaseQueue) {
-            SQLiteDatabase db = this.readableDatabaseQueue.poll();
-            if (null == db) {
-                db = this.sqlite.getReadableDatabase();
+        boolean success = this.execute(db, group);
+        if (!success && group.size() > 1) {
+            for (WriteRequest<?> request : group) {
+                this.execute(db, singleton(request));
             }
-            return db;
         }
-    }
 
-    public void closeWritableDatabase(SQLiteDatabase database) {
-        synchronized (this.writableDatabaseQueue) {
-            this.writableDatabaseQueue.offer(database);
+        long end = System.nanoTime();
+        this.commitLatency.record(end - start);
+        this.commitCount.incrementAndGet();
+        this.committedTaskCount.addAndGet(group.size());
+
+        for (WriteRequest<?> request : group) {
+            this.writeLatency.record(end - request.timestamp);
+            request.done();
         }
     }
 
-    public void closeReadableDatabase(SQLiteDatabase database) {
-        synchronized (this.readableDatabaseQueue) {
-            this.readableDatabaseQueue.offer(database);
+    private boolean execute(SQLiteDatabase db, List<WriteRequest<?>> group) {
+        boolean success = false;
+        db.beginTransaction();
+        try {
+            for (WriteRequest<?> request : group) {
+                request.execute(db);
+            }
+            db.setTransactionSuccessful();
+            success = true;
+        } catch (Throwable e) {
+            if (group.size() == 1) {
+                group.get(0).error = e;
+            }
+            Log.w(AbstractStorage.class.getSimpleName(), "#execute - " + e.getMessage());
+        } finally {
+            try {
+                db.endTransaction();
+            } catch (RuntimeException e) {
+                success = false;
+                for (WriteRequest<?> request : group) {
+                    request.error = e;
+                }
+            }
         }
+        return success;
+    }
+
+    private static List<WriteRequest<?>> singleton(WriteRequest<?> request) {
+        List<WriteRequest<?>> list = new ArrayList<>(1);
+        list.add(request);
+        return list;
     }
 
     /**
@@ -160,6 +331,122 @@ public abstract class AbstractStorage implements Storage {
      */
     protected abstract void onDatabaseUpgrade(SQLiteDatabase database, int oldVersion, int newVersion);
 
+    /**
+     * 写任务。
+     *
+     * @param <T> 任务返回值类型。
+     */
+    protected interface WriteTask<T> {
+
+        /**
+         * 在写事务里执行任务。
+         *
+         * @param database 可写数据库。
+         * @return 返回任务结果。
+         */
+        T run(SQLiteDatabase database);
+    }
+
+    /**
+     * 排队的写请求。
+     */
+    private static class WriteRequest<T> {
+
+        private final WriteTask<T> task;
+
+        private final long timestamp;
+
+        private final CountDownLatch latch;
+
+        private T result;
+
+        private Throwable error;
+
+        WriteRequest(WriteTask<T> task) {
+            this.task = task;
+            this.timestamp = System.nanoTime();
+            this.latch = new CountDownLatch(1);
+        }
+
+        void execute(SQLiteDatabase db) {
+            this.error = null;
+            this.result = this.task.run(db);
+        }
+
+        void done() {
+            this.latch.countDown();
+        }
+
+        T await() {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    this.latch.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+
+            if (null != this.error) {
+                if (this.error instanceof RuntimeException) {
+                    throw (RuntimeException) this.error;
+                }
+                else if (this.error instanceof Error) {
+                    throw (Error) this.error;
+                }
+                throw new IllegalStateException(this.error);
+            }
+
+            return this.result;
+        }
+    }
+
+    /**
+     * 写线程。
+     */
+    private class Writer implements Runnable {
+
+        @Override
+        public void run() {
+            List<WriteRequest<?>> group = new ArrayList<>(MAX_GROUP_SIZE);
+
+            while (writing || !writeQueue.isEmpty()) {
+                WriteRequest<?> request = null;
+                try {
+                    request = writeQueue.poll(1, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    // 关闭时被中断，继续处理剩余任务
+                }
+
+                if (null == request) {
+                    continue;
+                }
+
+                group.add(request);
+                writeQueue.drainTo(group, MAX_GROUP_SIZE - 1);
+
+                try {
+                    commit(sqlite.getWritableDatabase(), group);
+                } catch (Throwable e) {
+                    // 数据库不可用
+                    for (WriteRequest<?> r : group) {
+                        if (null == r.error) {
+                            r.error = e;
+                        }
+                        r.done();
+                    }
+                }
+
+                group.clear();
+            }
+        }
+    }
+
     /**
      * SQLite 封装。
      */
@@ -167,6 +454,8 @@ public abstract class AbstractStorage implements Storage {
 
         public SQLite(Context context, String name, int version) {
             super(context, name, null, version);
+            // 开启 WAL 模式，读写可并发执行
+            this.setWriteAheadLoggingEnabled(true);
         }
 
         @Override
@@ -27,26 +27,31 @@
 package cube.core;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
-import java.util.Vector;
+import java.util.TreeSet;
 
 import cube.core.model.Entity;
-import cube.core.model.TimeSortable;
 import cube.util.LogUtils;
 
 /**
  * 实体内存生命周期检查器。
  * 用于维护实体在内存里存储的生命周期。
  * 当实体过期或者占用内存空间超过阀值时释放实体引用。
+ *
+ * 容器在增删实体时通过 {@link Ledger} 登记，检查器维护每个容器的占用量和所有实体的到期顺序索引。
+ * 检查时只从到期时间最早的实体开始淘汰，不需要遍历容器。
+ * 实体的寿命只会被延长，索引按登记时的到期时间排序，取出时如果发现寿命已延长再按新的时间放回。
  */
 public final class EntityInspector implements Runnable {
 
+    private final static String TAG = "EntityInspector";
+
     /**
      * 最大内存阀值。
      */
@@ -58,13 +63,34 @@ public final class EntityInspector implements Runnable {
 
     private long lastTime = 0;
 
-    private List<Map<? extends Object, ? extends Entity>> depositedMapArray;
+    /**
+     * 按到期时间排序的实体索引。同时作为台账数据的锁。
+     */
+    private final TreeSet<Node> index;
+
+    /**
+     * 尚未计算内存大小的节点。
+     */
+    private List<Node> unsizedNodes;
+
+    private final List<Ledger> ledgers;
+
+    private long totalMemorySize = 0;
 
-    private List<List<? extends Entity>> depositedListArray;
+    private long sequence = 0;
 
     public EntityInspector() {
-        this.depositedMapArray = new Vector<>();
-        this.depositedListArray = new Vector<>();
+        this.index = new TreeSet<>(new Comparator<Node>() {
+            @Override
+            public int compare(Node node1, Node node2) {
+                if (node1.expiry != node2.expiry) {
+                    return Long.compare(node1.expiry, node2.expiry);
+                }
+                return Long.compare(node1.sequence, node2.sequence);
+            }
+        });
+        this.unsizedNodes = new ArrayList<>();
+        this.ledgers = new ArrayList<>();
     }
 
     /**
@@ -99,8 +125,14 @@ public final class EntityInspector implements Runnable {
             }
         }
 
-        this.depositedMapArray.clear();
-        this.depositedListArray.clear();
+        List<Ledger> list;
+        synchronized (this.index) {
+            list = new ArrayList<>(this.ledgers);
+        }
+
+        for (Ledger ledger : list) {
+            this.withdraw(ledger.container);
+        }
     }
 
     /**
@@ -108,153 +140,389 @@ public final class EntityInspector implements Runnable {
      */
     public void check() {
         if (System.currentTimeMillis() - this.lastTime > this.period) {
-            this.stop();
+            // 仅重启定时器，已存入的容器保持不变
             this.start();
         }
     }
 
     /**
-     * 存入指定映射进行生命周期管理。
+     * 存入指定容器进行生命周期管理。
+     * 检查器为容器创建台账并通过 {@link Container#attach(Ledger)} 交给容器。
      *
-     * @param map
+     * @param container 指定容器。
      */
-    public void depositMap(Map<? extends Object, ? extends Entity> map) {
-        if (!this.depositedMapArray.contains(map)) {
-            this.depositedMapArray.add(map);
+    public void deposit(Container container) {
+        Ledger ledger = null;
+        synchronized (this.index) {
+            for (Ledger current : this.ledgers) {
+                if (current.container == container) {
+                    return;
+                }
+            }
+
+            ledger = new Ledger(this, container);
+            this.ledgers.add(ledger);
         }
+
+        container.attach(ledger);
     }
 
     /**
-     * 解除指定映射的生命周期管理。
+     * 解除指定容器的生命周期管理。
      *
-     * @param map
+     * @param container 指定容器。
      */
-    public void withdrawMap(Map<? extends Object, ? extends Entity> map) {
-        this.depositedMapArray.remove(map);
+    public void withdraw(Container container) {
+        Ledger ledger = null;
+        synchronized (this.index) {
+            Iterator<Ledger> iter = this.ledgers.iterator();
+            while (iter.hasNext()) {
+                Ledger current = iter.next();
+                if (current.container == container) {
+                    ledger = current;
+                    iter.remove();
+                    break;
+                }
+            }
+
+            if (null == ledger) {
+                return;
+            }
+
+            ledger.clear();
+            ledger.disposed = true;
+        }
+
+        container.detach();
     }
 
     /**
-     * 存入指定列表进行生命周期管理。
+     * 获取所有容器的台账。
      *
-     * @param list
+     * @return 返回台账列表。
      */
-    public void depositList(List<? extends Entity> list) {
-        if (!this.depositedListArray.contains(list)) {
-            this.depositedListArray.add(list);
+    public List<Ledger> getLedgers() {
+        synchronized (this.index) {
+            return new ArrayList<>(this.ledgers);
         }
     }
 
     /**
-     * 解除指定列表的生命周期管理。
+     * 获取已登记实体占用的内存总量。
      *
-     * @param list
+     * @return 返回内存大小。单位：byte 。
      */
-    public void withdrawList(List<? extends Entity> list) {
-        this.depositedListArray.remove(list);
+    public long getMemorySize() {
+        synchronized (this.index) {
+            return this.totalMemorySize;
+        }
     }
 
-    private void removeEntity(Entity current) {
-        for (Map<? extends Object, ? extends Entity> map : this.depositedMapArray) {
-            Iterator<? extends Map.Entry<? extends Object, ? extends Entity>> iter = map.entrySet().iterator();
-            while (iter.hasNext()) {
-                Map.Entry<? extends Object, ? extends Entity> e = iter.next();
-                Entity entity = e.getValue();
-                if (entity.equals(current)) {
-                    iter.remove();
-                    return;
+    @Override
+    public void run() {
+        this.lastTime = System.currentTimeMillis();
+
+        // 计算新登记实体的大小，计算过程不持有锁
+        List<Node> unsized = null;
+        synchronized (this.index) {
+            if (!this.unsizedNodes.isEmpty()) {
+                unsized = this.unsizedNodes;
+                this.unsizedNodes = new ArrayList<>();
+            }
+        }
+        if (null != unsized) {
+            int[] sizes = new int[unsized.size()];
+            for (int i = 0; i < sizes.length; ++i) {
+                sizes[i] = unsized.get(i).entity.getEntityMemorySize();
+            }
+
+            synchronized (this.index) {
+                for (int i = 0; i < sizes.length; ++i) {
+                    Node node = unsized.get(i);
+                    if (node.ledger.nodes.get(node.entity) == node) {
+                        node.ledger.resize(node, sizes[i]);
+                    }
                 }
             }
         }
 
-        for (List<? extends Entity> list : this.depositedListArray) {
-            Iterator<? extends Entity> iter = list.iterator();
-            while (iter.hasNext()) {
-                Entity entity = iter.next();
-                if (entity.equals(current)) {
-                    iter.remove();
-                    return;
+        // 选出需要淘汰的实体
+        List<Node> victims = new ArrayList<>();
+        synchronized (this.index) {
+            long size = this.totalMemorySize;
+            if (size < this.maxMemoryThreshold) {
+                // 内存未超过阀值
+                if (LogUtils.isDebugLevel()) {
+                    LogUtils.d(TAG, "Memory usage: " + size + "/" + this.maxMemoryThreshold);
+                }
+                return;
+            }
+
+            while (size >= this.maxMemoryThreshold) {
+                Node node = this.index.pollFirst();
+                if (null == node) {
+                    break;
+                }
+
+                long expiry = node.entity.getSortableTime();
+                if (expiry != node.expiry) {
+                    // 实体寿命已被延长，按新的到期时间放回索引
+                    node.expiry = expiry;
+                    node.sequence = ++this.sequence;
+                    this.index.add(node);
+                    continue;
+                }
+
+                if (expiry > this.lastTime) {
+                    // 剩余的实体都没有超期
+                    this.index.add(node);
+                    break;
+                }
+
+                victims.add(node);
+                size -= node.size;
+            }
+        }
+
+        // 从容器里移除实体，容器回调时不持有检查器的锁
+        for (Node node : victims) {
+            boolean evicted = node.ledger.container.evict(node.entity, node.key);
+            synchronized (this.index) {
+                if (evicted) {
+                    ++node.ledger.evictionCount;
                 }
+                node.ledger.release(node);
             }
         }
+
+        if (LogUtils.isDebugLevel()) {
+            StringBuilder buf = new StringBuilder();
+            buf.append("Clear ").append(victims.size()).append(" entities, memory usage: ")
+                    .append(this.getMemorySize()).append("/").append(this.maxMemoryThreshold);
+            for (Ledger ledger : this.getLedgers()) {
+                buf.append("\n  ").append(ledger.toString());
+            }
+            LogUtils.d(TAG, buf.toString());
+        }
     }
 
-    @Override
-    public void run() {
-        this.lastTime = System.currentTimeMillis();
+    /**
+     * 受检查器管理的实体容器。
+     */
+    public interface Container {
+
+        /**
+         * 获取容器名称，用于统计输出。
+         *
+         * @return 返回容器名称。
+         */
+        String getName();
+
+        /**
+         * 容器被存入检查器时回调。容器需要保存台账，并登记当前已有的实体。
+         *
+         * @param ledger 容器的台账。
+         */
+        void attach(Ledger ledger);
+
+        /**
+         * 容器被解除管理时回调。
+         */
+        void detach();
+
+        /**
+         * 检查器淘汰实体时回调，容器应当移除该实体。
+         *
+         * @param entity 被淘汰的实体。
+         * @param key 登记实体时指定的键。
+         * @return 如果实体在容器里并且被移除返回 {@code true} 。
+         */
+        boolean evict(Entity entity, Object key);
+    }
 
-        long size = 0;
+    /**
+     * 容器台账。记录容器里的实体、占用的内存和淘汰次数。
+     */
+    public final static class Ledger {
 
-        ArrayList<Entity> entityList = new ArrayList<>();
+        private final EntityInspector inspector;
 
-        for (Map<? extends Object, ? extends Entity> map : this.depositedMapArray) {
-            Iterator<? extends Map.Entry<? extends Object, ? extends Entity>> iter = map.entrySet().iterator();
-            while (iter.hasNext()) {
-                Map.Entry<? extends Object, ? extends Entity> e = iter.next();
-                Entity entity = e.getValue();
-                size += entity.getMemorySize();
-                entityList.add(entity);
+        private final Container container;
+
+        private final Map<Entity, Node> nodes;
+
+        private long memorySize = 0;
+
+        private long evictionCount = 0;
+
+        private boolean disposed = false;
+
+        private Ledger(EntityInspector inspector, Container container) {
+            this.inspector = inspector;
+            this.container = container;
+            this.nodes = new IdentityHashMap<>();
+        }
+
+        /**
+         * 登记实体。实体已登记时更新它的到期时间和大小。
+         *
+         * @param entity 指定实体。
+         */
+        public void track(Entity entity) {
+            this.track(entity, null);
+        }
+
+        /**
+         * 登记实体。实体已登记时更新它的到期时间和大小。
+         *
+         * @param entity 指定实体。
+         * @param key 实体在容器里的键，淘汰时传回给容器。
+         */
+        public void track(Entity entity, Object key) {
+            synchronized (this.inspector.index) {
+                if (this.disposed) {
+                    return;
+                }
+
+                Node node = this.nodes.get(entity);
+                if (null == node) {
+                    node = new Node(this, entity, key);
+                    node.expiry = entity.getSortableTime();
+                    node.sequence = ++this.inspector.sequence;
+                    this.nodes.put(entity, node);
+                    this.inspector.index.add(node);
+                    // 大小在检查时计算
+                    this.inspector.unsizedNodes.add(node);
+                    return;
+                }
+
+                if (this.inspector.index.remove(node)) {
+                    node.expiry = entity.getSortableTime();
+                    node.sequence = ++this.inspector.sequence;
+                    this.inspector.index.add(node);
+                }
+
+                if (node.sized) {
+                    this.resize(node, entity.getEntityMemorySize());
+                }
             }
         }
 
-        for (List<? extends Entity> list : this.depositedListArray) {
-            Iterator<? extends Entity> iter = list.iterator();
-            while (iter.hasNext()) {
-                Entity entity = iter.next();
-                size += entity.getMemorySize();
-                entityList.add(entity);
+        /**
+         * 注销实体。
+         *
+         * @param entity 指定实体。
+         */
+        public void untrack(Entity entity) {
+            synchronized (this.inspector.index) {
+                Node node = this.nodes.get(entity);
+                if (null != node) {
+                    this.release(node);
+                }
             }
         }
 
-        if (size < this.maxMemoryThreshold) {
-            // 内存未超过阀值
-            if (LogUtils.isDebugLevel()) {
-                LogUtils.d("EntityInspector", "Memory usage: " + size + "/" + this.maxMemoryThreshold);
+        /**
+         * 注销所有实体。
+         */
+        public void clear() {
+            synchronized (this.inspector.index) {
+                for (Node node : this.nodes.values()) {
+                    this.inspector.index.remove(node);
+                }
+                this.nodes.clear();
+                this.inspector.totalMemorySize -= this.memorySize;
+                this.memorySize = 0;
             }
-            entityList.clear();
-            return;
         }
 
-        if (LogUtils.isDebugLevel()) {
-            LogUtils.d("EntityInspector", "Memory size: " + size + "/" + this.maxMemoryThreshold);
+        public String getName() {
+            return this.container.getName();
         }
 
-        // 按照超时时间排序
-        Collections.sort(entityList, new Comparator<TimeSortable>() {
-            @Override
-            public int compare(TimeSortable entity1, TimeSortable entity2) {
-                return (int) (entity1.getSortableTime() - entity2.getSortableTime());
+        /**
+         * 获取容器内实体占用的内存大小。
+         *
+         * @return 返回内存大小。单位：byte 。
+         */
+        public long getMemorySize() {
+            synchronized (this.inspector.index) {
+                return this.memorySize;
             }
-        });
+        }
 
-        // 计算需要删除哪些实体
-        int position = 0;
-        long delta = 0;
-        while (position < entityList.size()) {
-            Entity entity = entityList.get(position);
+        /**
+         * 获取容器内登记的实体数量。
+         *
+         * @return 返回实体数量。
+         */
+        public int numEntities() {
+            synchronized (this.inspector.index) {
+                return this.nodes.size();
+            }
+        }
 
-            if (entity.getSortableTime() > this.lastTime) {
-                // 数据没有超期
-                --position;
-                break;
+        /**
+         * 获取被检查器淘汰的实体数量。
+         *
+         * @return 返回淘汰数量。
+         */
+        public long getEvictionCount() {
+            synchronized (this.inspector.index) {
+                return this.evictionCount;
             }
+        }
 
-            delta += entity.getMemorySize();
-            if (size - delta < this.maxMemoryThreshold) {
-                break;
+        private void resize(Node node, int size) {
+            long delta = size - node.size;
+            node.size = size;
+            node.sized = true;
+            this.memorySize += delta;
+            this.inspector.totalMemorySize += delta;
+        }
+
+        private void release(Node node) {
+            if (this.nodes.get(node.entity) != node) {
+                return;
             }
-            ++position;
+
+            this.nodes.remove(node.entity);
+            this.inspector.index.remove(node);
+            this.memorySize -= node.size;
+            this.inspector.totalMemorySize -= node.size;
         }
 
-        // 从时间戳最小的实体删除到 position 位置
-        for (int i = 0; i <= position; ++i) {
-            Entity entity = entityList.get(i);
-            this.removeEntity(entity);
+        @Override
+        public String toString() {
+            return this.getName() + " - entities: " + this.numEntities()
+                    + ", memory: " + this.getMemorySize()
+                    + ", evictions: " + this.getEvictionCount();
         }
+    }
 
-        entityList.clear();
+    /**
+     * 索引节点。
+     */
+    private final static class Node {
 
-        if (LogUtils.isDebugLevel()) {
-            LogUtils.d("EntityInspector", "Clear " + (position + 1) + " entities");
+        private final Ledger ledger;
+
+        private final Entity entity;
+
+        private final Object key;
+
+        private long expiry;
+
+        private long sequence;
+
+        private int size = 0;
+
+        private boolean sized = false;
+
+        private Node(Ledger ledger, Entity entity, Object key) {
+            this.ledger = ledger;
+            this.entity = entity;
+            this.key = key;
         }
     }
 }
@@ -0,0 +1,284 @@
+/*
+ * This file is part of Cube.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2022 Cube Team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package cube.core;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 基于 SQLite 全文检索虚拟表的本地索引。
+ * 文档以行 ID 标识，通常直接使用实体 ID 作为行 ID 。
+ * 优先使用 FTS5 模块按相关度排序，系统 SQLite 不支持 FTS5 时退化为 FTS4 模块，此时由调用者指定排序方式。
+ * <p>
+ * SQLite 内置的分词器不能切分中日韩文字，所以文档在写入前由 {@link #tokenize(String)} 预先分词：
+ * 连续的字母和数字作为一个词，每个中日韩文字作为一个词，查询时连续的中日韩文字作为短语匹配。
+ */
+public class FullTextIndex {
+
+    private final String table;
+
+    private volatile Boolean ranked;
+
+    /**
+     * 构造函数。
+     *
+     * @param table 索引表名。
+     */
+    public FullTextIndex(String table) {
+        this.table = table;
+        this.ranked = null;
+    }
+
+    /**
+     * 获取索引表名。
+     *
+     * @return 返回索引表名。
+     */
+    public String getTable() {
+        return this.table;
+    }
+
+    /**
+     * 创建索引表。
+     *
+     * @param database 可写数据库。
+     */
+    public void create(SQLiteDatabase database) {
+        try {
+            database.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS `" + this.table + "` USING fts5(`content`, prefix='2 3')");
+            this.ranked = true;
+        } catch (SQLiteException e) {
+            Log.i(FullTextIndex.class.getSimpleName(), "#create - FTS5 is not available, use FTS4: " + this.table);
+            database.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS `" + this.table + "` USING fts4(`content`, prefix=\"2,3\")");
+            this.ranked = false;
+        }
+    }
+
+    /**
+     * 索引是否支持按相关度排序。
+     *
+     * @param database 数据库。
+     * @return 如果索引表使用 FTS5 模块返回 {@code true} 。
+     */
+    public boolean isRanked(SQLiteDatabase database) {
+        if (null == this.ranked) {
+            boolean result = false;
+            Cursor cursor = database.rawQuery("SELECT `sql` FROM `sqlite_master` WHERE `name`=?",
+                    new String[] { this.table });
+            if (cursor.moveToFirst()) {
+                String sql = cursor.getString(0);
+                result = (null != sql) && sql.toLowerCase(Locale.ROOT).contains("fts5");
+            }
+            cursor.close();
+            this.ranked = result;
+        }
+        return this.ranked;
+    }
+
+    /**
+     * 写入或替换文档。
+     *
+     * @param database 可写数据库。
+     * @param rowId 文档行 ID 。
+     * @param text 文档原始文本。
+     */
+    public void put(SQLiteDatabase database, long rowId, String text) {
+        this.put(database, Collections.singletonMap(rowId, text));
+    }
+
+    /**
+     * 批量写入或替换文档。文本分词后为空的文档从索引里移除。
+     *
+     * @param database 可写数据库。
+     * @param documents 行 ID 到文档原始文本的映射。
+     */
+    public void put(SQLiteDatabase database, Map<Long, String> documents) {
+        if (documents.isEmpty()) {
+            return;
+        }
+
+        SQLiteStatement delete = database.compileStatement("DELETE FROM `" + this.table + "` WHERE `rowid`=?");
+        SQLiteStatement insert = database.compileStatement("INSERT INTO `" + this.table + "` (`rowid`, `content`) VALUES (?, ?)");
+        try {
+            for (Map.Entry<Long, String> entry : documents.entrySet()) {
+                delete.bindLong(1, entry.getKey());
+                delete.executeUpdateDelete();
+
+                String content = (null != entry.getValue()) ? tokenize(entry.getValue()) : "";
+                if (content.length() > 0) {
+                    insert.bindLong(1, entry.getKey());
+                    insert.bindString(2, content);
+                    insert.executeInsert();
+                }
+            }
+        } finally {
+            delete.close();
+            insert.close();
+        }
+    }
+
+    /**
+     * 移除文档。
+     *
+     * @param database 可写数据库。
+     * @param rowId 文档行 ID 。
+     */
+    public void remove(SQLiteDatabase database, long rowId) {
+        database.delete("`" + this.table + "`", "`rowid`=?", new String[] { Long.toString(rowId) });
+    }
+
+    /**
+     * 移除子查询选出的文档。需要在删除实体数据之前调用。
+     *
+     * @param database 可写数据库。
+     * @param selectRowIds 选取行 ID 的子查询语句。
+     * @param bindArgs 子查询的参数。
+     */
+    public void remove(SQLiteDatabase database, String selectRowIds, Object[] bindArgs) {
+        database.execSQL("DELETE FROM `" + this.table + "` WHERE `rowid` IN (" + selectRowIds + ")", bindArgs);
+    }
+
+    /**
+     * 生成匹配查询子句。子句选取索引表的 {@code rowid} 和 {@code score} 两列，
+     * {@code score} 越小相关度越高，FTS4 模块下该列恒为 {@code 0} 。
+     * 子句包含一个查询参数，参数值由 {@link #makeMatchQuery(String)} 生成。
+     *
+     * @param database 数据库。
+     * @return 返回可作为子查询的 SQL 语句。
+     */
+    public String makeMatchClause(SQLiteDatabase database) {
+        String score = this.isRanked(database) ? "`rank`" : "0";
+        return "SELECT `rowid`, " + score + " AS `score` FROM `" + this.table + "` WHERE `" + this.table + "` MATCH ?";
+    }
+
+    /**
+     * 将文本切分为以空格分隔的词序列，所有字母转为小写。
+     *
+     * @param text 指定文本。
+     * @return 返回分词结果。
+     */
+    public static String tokenize(String text) {
+        StringBuilder buf = new StringBuilder(text.length() + 16);
+        boolean inWord = false;
+
+        for (int i = 0, length = text.length(); i < length; ) {
+            int c = text.codePointAt(i);
+            i += Character.charCount(c);
+
+            if (isIdeograph(c)) {
+                if (buf.length() > 0) {
+                    buf.append(' ');
+                }
+                buf.appendCodePoint(c);
+                inWord = false;
+            }
+            else if (Character.isLetterOrDigit(c)) {
+                if (!inWord && buf.length() > 0) {
+                    buf.append(' ');
+                }
+                buf.appendCodePoint(Character.toLowerCase(c));
+                inWord = true;
+            }
+            else {
+                inWord = false;
+            }
+        }
+
+        return buf.toString();
+    }
+
+    /**
+     * 将用户输入的关键词转换为全文检索查询表达式。
+     * 连续的中日韩文字作为短语匹配，其他词按前缀匹配，多个词之间为“与”的关系。
+     *
+     * @param keyword 用户输入的关键词。
+     * @return 返回查询表达式。如果关键词里没有可检索的词返回 {@code null} 值。
+     */
+    public static String makeMatchQuery(String keyword) {
+        StringBuilder query = new StringBuilder();
+        StringBuilder phrase = new StringBuilder();
+        StringBuilder word = new StringBuilder();
+
+        for (int i = 0, length = keyword.length(); i <= length; ) {
+            int c = (i < length) ? keyword.codePointAt(i) : ' ';
+            i += (i < length) ? Character.charCount(c) : 1;
+
+            if (isIdeograph(c)) {
+                flushWord(query, word);
+                if (phrase.length() > 0) {
+                    phrase.append(' ');
+                }
+                phrase.appendCodePoint(c);
+            }
+            else if (Character.isLetterOrDigit(c)) {
+                flushPhrase(query, phrase);
+                word.appendCodePoint(Character.toLowerCase(c));
+            }
+            else {
+                flushPhrase(query, phrase);
+                flushWord(query, word);
+            }
+        }
+
+        return (query.length() > 0) ? query.toString() : null;
+    }
+
+    private static void flushPhrase(StringBuilder query, StringBuilder phrase) {
+        if (phrase.length() > 0) {
+            if (query.length() > 0) {
+                query.append(' ');
+            }
+            query.append('"').append(phrase).append('"');
+            phrase.setLength(0);
+        }
+    }
+
+    private static void flushWord(StringBuilder query, StringBuilder word) {
+        if (word.length() > 0) {
+            if (query.length() > 0) {
+                query.append(' ');
+            }
+            query.append(word).append('*');
+            word.setLength(0);
+        }
+    }
+
+    private static boolean isIdeograph(int c) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(c);
+        return script == Character.UnicodeScript.HAN
+                || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA
+                || script == Character.UnicodeScript.HANGUL;
+    }
+}
@@ -26,7 +26,9 @@
 
 package cube.core;
 
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.content.res.Configuration;
 import android.net.wifi.WifiInfo;
 import android.net.wifi.WifiManager;
 import android.os.Build;
@@ -38,6 +40,7 @@ import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Vector;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -50,13 +53,14 @@ import cube.auth.AuthService;
 import cube.auth.AuthToken;
 import cube.auth.handler.AuthTokenHandler;
 import cube.core.handler.KernelHandler;
+import cube.pipeline.BatchingPipeline;
 import cube.pipeline.CellPipeline;
 import cube.util.LogUtils;
 
 /**
  * 内核。内核管理所有的模块和通信管道。
  */
-public class Kernel implements PipelineListener {
+public class Kernel implements PipelineListener, ComponentCallbacks2 {
 
     private final static int MAX_THREADS = 8;
 
@@ -76,6 +80,8 @@ public class Kernel implements PipelineListener {
 
     private Map<String, Module> moduleMap;
 
+    private Vector<SegmentedCache<?, ?>> caches;
+
     private ExecutorService executor;
 
     private ScheduledExecutorService scheduledExecutor;
@@ -88,6 +94,7 @@ public class Kernel implements PipelineListener {
         this.executor = Executors.newFixedThreadPool(MAX_THREADS);
         this.scheduledExecutor = Executors.newScheduledThreadPool(1);
         this.inspector = new EntityInspector();
+        this.caches = new Vector<>();
         this.defaultInstance = this;
     }
 
@@ -117,12 +124,6 @@ public class Kernel implements PipelineListener {
 
         this.inspector.start();
 
-        this.pipeline = new CellPipeline(context);
-
-        this.context = context;
-
-        this.config = config;
-
         if (null == this.executor) {
             this.executor = Executors.newFixedThreadPool(MAX_THREADS);
         }
@@ -131,6 +132,16 @@ public class Kernel implements PipelineListener {
             this.scheduledExecutor = Executors.newScheduledThreadPool(1);
         }
 
+        this.pipeline = new BatchingPipeline(new CellPipeline(context, this.scheduledExecutor),
+                this.scheduledExecutor);
+
+        this.context = context;
+
+        this.config = config;
+
+        // 监听系统内存整理通知
+        context.getApplicationContext().registerComponentCallbacks(this);
+
         // 处理模块
         this.bundle();
 
@@ -176,6 +187,10 @@ public class Kernel implements PipelineListener {
 
         this.inspector.stop();
 
+        if (null != this.context) {
+            this.context.getApplicationContext().unregisterComponentCallbacks(this);
+        }
+
         for (Module module : this.moduleMap.values()) {
             module.stop();
         }
@@ -283,6 +298,30 @@ public class Kernel implements PipelineListener {
         return this.inspector;
     }
 
+    /**
+     * 登记缓存。缓存容量按照配置里的内存预算设置，并响应系统的内存整理通知。
+     *
+     * @param cache 指定缓存。
+     */
+    public void registerCache(SegmentedCache<?, ?> cache) {
+        if (null != this.config) {
+            cache.setCapacity(this.config.getCacheBudget(cache.getName()));
+        }
+
+        if (!this.caches.contains(cache)) {
+            this.caches.add(cache);
+        }
+    }
+
+    /**
+     * 注销缓存。
+     *
+     * @param cache 指定缓存。
+     */
+    public void unregisterCache(SegmentedCache<?, ?> cache) {
+        this.caches.remove(cache);
+    }
+
     public AuthToken activeToken(Long contactId) {
         AuthService service = (AuthService) this.getModule(AuthService.NAME);
         AuthToken token = service.allocToken(contactId);
@@ -313,6 +352,25 @@ public class Kernel implements PipelineListener {
         return this.scheduledExecutor;
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        LogUtils.d("Kernel", "#onTrimMemory - level: " + level);
+
+        for (SegmentedCache<?, ?> cache : this.caches.toArray(new SegmentedCache<?, ?>[0])) {
+            cache.onTrimMemory(level);
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        this.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration configuration) {
+        // Nothing
+    }
+
     /**
      * 进行数据对象关联
      */
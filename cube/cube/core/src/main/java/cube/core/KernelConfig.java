@@ -26,6 +26,9 @@
 
 package cube.core;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * 内核配置定义。
  */
@@ -56,6 +59,26 @@ public class KernelConfig {
      */
     public boolean pipelineReady;
 
+    /**
+     * 缓存的默认内存预算。单位：byte 。
+     */
+    public final static long DEFAULT_CACHE_BUDGET = 1024 * 1024;
+
+    /**
+     * 联系人缓存的默认内存预算。大群组的成员列表需要足够的空间。单位：byte 。
+     */
+    public final static long DEFAULT_CONTACTS_CACHE_BUDGET = 8 * 1024 * 1024;
+
+    /**
+     * 联系人分区缓存的默认内存预算。上万联系人的分区需要足够的空间。单位：byte 。
+     */
+    public final static long DEFAULT_CONTACT_ZONES_CACHE_BUDGET = 8 * 1024 * 1024;
+
+    /**
+     * 各缓存的内存预算。
+     */
+    private final Map<String, Long> cacheBudgets = new ConcurrentHashMap<>();
+
     /**
      * 构造函数。
      * 仅用于测试。
@@ -66,6 +89,7 @@ public class KernelConfig {
         this.appKey = "shixin-cubeteam-opensource-appkey";
         this.port = 7000;
         this.pipelineReady = false;
+        this.initCacheBudgets();
     }
 
     /**
@@ -81,6 +105,7 @@ public class KernelConfig {
         this.appKey = appKey;
         this.port = 7000;
         this.pipelineReady = false;
+        this.initCacheBudgets();
     }
 
     /**
@@ -97,6 +122,33 @@ public class KernelConfig {
         this.domain = domain;
         this.appKey = appKey;
         this.pipelineReady = false;
+        this.initCacheBudgets();
+    }
+
+    private void initCacheBudgets() {
+        this.cacheBudgets.put("Contacts", DEFAULT_CONTACTS_CACHE_BUDGET);
+        this.cacheBudgets.put("ContactZones", DEFAULT_CONTACT_ZONES_CACHE_BUDGET);
+    }
+
+    /**
+     * 设置指定缓存的内存预算。
+     *
+     * @param cacheName 缓存名称。
+     * @param budget 内存预算。单位：byte 。
+     */
+    public void setCacheBudget(String cacheName, long budget) {
+        this.cacheBudgets.put(cacheName, budget);
+    }
+
+    /**
+     * 获取指定缓存的内存预算。
+     *
+     * @param cacheName 缓存名称。
+     * @return 返回内存预算，未设置时返回 {@link #DEFAULT_CACHE_BUDGET} 。
+     */
+    public long getCacheBudget(String cacheName) {
+        Long budget = this.cacheBudgets.get(cacheName);
+        return (null != budget) ? budget.longValue() : DEFAULT_CACHE_BUDGET;
     }
 
     public String print() {
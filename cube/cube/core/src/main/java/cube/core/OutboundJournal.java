@@ -0,0 +1,156 @@
+/*
+ * This file is part of Cube.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2022 Cube Team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package cube.core;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 数据通道的发送日志。通道未就绪时记录待发送的数据包，以便在连接恢复后按顺序重发。
+ */
+public class OutboundJournal extends AbstractStorage {
+
+    private final static int VERSION = 1;
+
+    public OutboundJournal() {
+        super();
+    }
+
+    /**
+     * 开启存储器。
+     *
+     * @param context 应用程序上下文。
+     */
+    public void open(Context context) {
+        super.open(context, "CubeOutbound.db", VERSION);
+    }
+
+    /**
+     * 追加待发送的数据包。相同序号的数据包只记录一次。
+     *
+     * @param destination 数据包目标。
+     * @param packet 数据包。
+     * @param tokenCode 发送时使用的令牌码。为 {@code null} 时重发时使用当时的令牌码。
+     * @return 如果记录成功返回 {@code true} 。
+     */
+    public boolean append(String destination, Packet packet, String tokenCode) {
+        byte[] data = packet.getRawData();
+
+        ContentValues values = new ContentValues();
+        values.put("sn", packet.sn);
+        values.put("destination", destination);
+        values.put("name", packet.name);
+        values.put("data", (null != data) ? new String(data, StandardCharsets.UTF_8) : null);
+        values.put("token", tokenCode);
+        values.put("timestamp", System.currentTimeMillis());
+
+        return this.write((db) -> {
+            long rowId = db.insertWithOnConflict("outbound", null, values, SQLiteDatabase.CONFLICT_IGNORE);
+
+            return (rowId > 0);
+        });
+    }
+
+    /**
+     * 按记录顺序读取待发送的数据包。
+     *
+     * @param limit 最大读取数量。
+     * @return 返回记录列表。
+     */
+    public List<Entry> read(int limit) {
+        List<Entry> list = new ArrayList<>();
+
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor cursor = db.rawQuery("SELECT * FROM `outbound` ORDER BY `id` ASC LIMIT ?",
+                new String[] { Integer.toString(limit) });
+        while (cursor.moveToNext()) {
+            String data = cursor.getString(cursor.getColumnIndex("data"));
+            Packet packet = new Packet(cursor.getLong(cursor.getColumnIndex("sn")),
+                    cursor.getString(cursor.getColumnIndex("name")),
+                    (null != data) ? data.getBytes(StandardCharsets.UTF_8) : null);
+            list.add(new Entry(cursor.getString(cursor.getColumnIndex("destination")), packet,
+                    cursor.getString(cursor.getColumnIndex("token")),
+                    cursor.getLong(cursor.getColumnIndex("timestamp"))));
+        }
+        cursor.close();
+
+        this.closeReadableDatabase(db);
+
+        return list;
+    }
+
+    /**
+     * 删除已发送的记录。
+     *
+     * @param entries 记录列表。
+     */
+    public void remove(List<Entry> entries) {
+        // 写线程在同一个事务里执行删除
+        this.write((db) -> {
+            for (Entry entry : entries) {
+                db.delete("outbound", "sn=?", new String[] { entry.packet.sn.toString() });
+            }
+            return null;
+        });
+    }
+
+    @Override
+    protected void onDatabaseCreate(SQLiteDatabase database) {
+        database.execSQL("CREATE TABLE IF NOT EXISTS `outbound` (`id` INTEGER PRIMARY KEY AUTOINCREMENT, `sn` BIGINT UNIQUE, `destination` TEXT, `name` TEXT, `data` TEXT, `token` TEXT, `timestamp` BIGINT)");
+    }
+
+    @Override
+    protected void onDatabaseUpgrade(SQLiteDatabase database, int oldVersion, int newVersion) {
+    }
+
+    /**
+     * 发送日志记录。
+     */
+    public class Entry {
+
+        public final String destination;
+
+        public final Packet packet;
+
+        public final String tokenCode;
+
+        public final long timestamp;
+
+        protected Entry(String destination, Packet packet, String tokenCode, long timestamp) {
+            this.destination = destination;
+            this.packet = packet;
+            this.tokenCode = tokenCode;
+            this.timestamp = timestamp;
+        }
+    }
+}
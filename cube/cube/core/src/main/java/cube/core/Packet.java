@@ -29,7 +29,10 @@ package cube.core;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.nio.charset.StandardCharsets;
+
 import cell.util.Utils;
+import cube.util.LogUtils;
 
 /**
  * 数据包描述。
@@ -51,6 +54,11 @@ public class Packet {
      */
     private JSONObject data;
 
+    /**
+     * 数据包负载的原始数据。在首次访问负载时解析。
+     */
+    private byte[] rawData;
+
     /**
      * 数据包应答状态。
      */
@@ -62,7 +70,7 @@ public class Packet {
     public boolean response = false;
 
     public Packet(String name) {
-        this(Utils.generateUnsignedSerialNumber(), name, null);
+        this(Utils.generateUnsignedSerialNumber(), name, (JSONObject) null);
     }
 
     public Packet(String name, JSONObject data) {
@@ -75,27 +83,71 @@ public class Packet {
         this.data = data;
     }
 
+    /**
+     * 构造函数。负载数据在首次访问时才进行解析。
+     *
+     * @param sn 数据包序号。
+     * @param name 数据包包名。
+     * @param rawData 负载的原始 JSON 数据。
+     */
+    public Packet(Long sn, String name, byte[] rawData) {
+        this.sn = sn;
+        this.name = name;
+        this.rawData = rawData;
+    }
+
     public Packet(JSONObject packetJSON) throws JSONException {
         this.sn = packetJSON.getLong("sn");
         this.name = packetJSON.getString("name");
         this.data = packetJSON.getJSONObject("data");
     }
 
-    public void setData(JSONObject data) {
+    public synchronized void setData(JSONObject data) {
         this.data = data;
+        this.rawData = null;
     }
 
-    public JSONObject getData() {
+    public synchronized JSONObject getData() {
+        if (null != this.rawData) {
+            try {
+                this.data = new JSONObject(new String(this.rawData, StandardCharsets.UTF_8));
+            } catch (JSONException e) {
+                LogUtils.w("Packet", "#getData - Payload format error: " + this.name, e);
+            }
+            // 解析后的数据可能被修改，不再保留原始数据
+            this.rawData = null;
+        }
         return this.data;
     }
 
+    /**
+     * 负载数据是否尚未解析。
+     *
+     * @return 如果负载数据尚未解析返回 {@code true} 。
+     */
+    public synchronized boolean hasRawData() {
+        return (null != this.rawData);
+    }
+
+    /**
+     * 获取负载的原始数据。如果负载尚未解析则直接返回原始数据，否则返回序列化后的数据。
+     *
+     * @return 返回负载的原始数据。
+     */
+    public synchronized byte[] getRawData() {
+        if (null != this.rawData) {
+            return this.rawData;
+        }
+        return (null != this.data) ? this.data.toString().getBytes(StandardCharsets.UTF_8) : null;
+    }
+
     /**
      * 提取服务的状态码。
      * @return
      */
     public int extractServiceStateCode() {
         try {
-            return this.data.getInt("code");
+            return this.getData().getInt("code");
         } catch (JSONException e) {
             // Nothing
         }
@@ -108,7 +160,7 @@ public class Packet {
      */
     public JSONObject extractServiceData() {
         try {
-            return this.data.getJSONObject("data");
+            return this.getData().getJSONObject("data");
         } catch (JSONException e) {
             // Nothing
         }
@@ -48,8 +48,14 @@ public abstract class Pipeline {
 
     protected String tokenCode;
 
+    /**
+     * 通道未就绪时写入发送日志的动作。
+     */
+    protected Map<String, Boolean> durableActions;
+
     public Pipeline() {
         this.listeners = new ConcurrentHashMap<>();
+        this.durableActions = new ConcurrentHashMap<>();
     }
 
     public void setRemoteAddress(String address, int port) {
@@ -110,6 +116,24 @@ public abstract class Pipeline {
         return result;
     }
 
+    /**
+     * 添加需要可靠发送的动作。通道未就绪时，该动作的数据包将写入发送日志，并在连接恢复后重发。
+     *
+     * @param destination 指定目标。
+     * @param action 指定动作名。
+     */
+    public void addDurableAction(String destination, String action) {
+        this.durableActions.put(destination + "/" + action, Boolean.TRUE);
+    }
+
+    public void removeDurableAction(String destination, String action) {
+        this.durableActions.remove(destination + "/" + action);
+    }
+
+    public boolean isDurableAction(String destination, String action) {
+        return this.durableActions.containsKey(destination + "/" + action);
+    }
+
     protected void triggerListener(String destination, Packet packet) {
         List<PipelineListener> list = this.listeners.get(destination);
         if (null != list) {
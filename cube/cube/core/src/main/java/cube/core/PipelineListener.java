@@ -28,6 +28,7 @@ package cube.core;
 
 /**
  * 数据通道服务事件监听器。
+ * 接收数据的回调在数据通道的分发线程上按来源顺序执行，不应阻塞等待应答。
  */
 public interface PipelineListener {
 
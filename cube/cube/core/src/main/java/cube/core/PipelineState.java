@@ -69,7 +69,22 @@ public enum PipelineState {
     /**
      * 网关错误。
      */
-    GatewayError(2101, "Gateway server error")
+    GatewayError(2101, "Gateway server error"),
+
+    /**
+     * 等待应答超时。
+     */
+    ResponseTimeout(2102, "Pipeline response timeout"),
+
+    /**
+     * 在途请求过多。
+     */
+    Overload(2103, "Too many inflight requests"),
+
+    /**
+     * 通道未就绪。
+     */
+    NotReady(2104, "Pipeline not ready")
 
     ;
 
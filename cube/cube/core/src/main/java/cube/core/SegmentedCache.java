@@ -0,0 +1,436 @@
+/*
+ * This file is part of Cube.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2022 Cube Team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package cube.core;
+
+import android.content.ComponentCallbacks2;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import cube.core.model.Cacheable;
+import cube.core.model.Entity;
+import cube.util.LatencyHistogram;
+
+/**
+ * 分段 LRU 缓存。
+ * 新数据进入试用段，再次被访问后晋升到保护段；保护段超出容量时最久未访问的数据降级回试用段，
+ * 淘汰总是先从试用段开始。只访问过一次的冷数据不会挤掉反复访问的热数据。
+ * 缓存按数据的内存大小计算容量，超过试用段容量的数据直接进入保护段，超过保护段容量的数据不进入缓存。
+ *
+ * @param <K> 键类型。
+ * @param <V> 值类型。
+ */
+public class SegmentedCache<K, V extends Cacheable> {
+
+    /**
+     * 保护段占总容量的比例。
+     */
+    private final static double PROTECTED_RATIO = 0.8;
+
+    private final String name;
+
+    private long capacity;
+
+    private long protectedCapacity;
+
+    private final LinkedHashMap<K, Node<V>> probation;
+
+    private final LinkedHashMap<K, Node<V>> protection;
+
+    private long probationSize = 0;
+
+    private long protectedSize = 0;
+
+    private long hitCount = 0;
+
+    private long missCount = 0;
+
+    private long evictionCount = 0;
+
+    private long rejectionCount = 0;
+
+    private final LatencyHistogram loadLatency;
+
+    /**
+     * 构造函数。
+     *
+     * @param name 缓存名称，用于读取 {@link KernelConfig} 里的内存预算。
+     */
+    public SegmentedCache(String name) {
+        this(name, KernelConfig.DEFAULT_CACHE_BUDGET);
+    }
+
+    /**
+     * 构造函数。
+     *
+     * @param name 缓存名称。
+     * @param capacity 内存预算。单位：byte 。
+     */
+    public SegmentedCache(String name, long capacity) {
+        this.name = name;
+        this.probation = new LinkedHashMap<>(16, 0.75f, true);
+        this.protection = new LinkedHashMap<>(16, 0.75f, true);
+        this.loadLatency = new LatencyHistogram(name + "-load");
+        this.setCapacity(capacity);
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * 设置内存预算，超出预算的数据立即淘汰。
+     *
+     * @param capacity 内存预算。单位：byte 。
+     */
+    public synchronized void setCapacity(long capacity) {
+        this.capacity = capacity;
+        this.protectedCapacity = (long) (capacity * PROTECTED_RATIO);
+        this.shrinkProtection();
+        this.evict(capacity);
+    }
+
+    public synchronized long getCapacity() {
+        return this.capacity;
+    }
+
+    /**
+     * 获取指定键的数据。
+     *
+     * @param key 指定键。
+     * @return 返回数据，如果没有缓存返回 {@code null} 值。
+     */
+    public synchronized V get(K key) {
+        Node<V> node = this.protection.get(key);
+        if (null != node) {
+            ++this.hitCount;
+            return node.value;
+        }
+
+        node = this.probation.remove(key);
+        if (null != node) {
+            ++this.hitCount;
+            // 再次访问，晋升到保护段
+            this.probationSize -= node.size;
+            this.protection.put(key, node);
+            this.protectedSize += node.size;
+            this.shrinkProtection();
+            return node.value;
+        }
+
+        ++this.missCount;
+        return null;
+    }
+
+    /**
+     * 获取指定键的数据，没有缓存时使用加载器加载并放入缓存。
+     * 加载过程不持有缓存的锁。
+     *
+     * @param key 指定键。
+     * @param loader 数据加载器。
+     * @return 返回数据，如果加载失败返回 {@code null} 值。
+     */
+    public V get(K key, Loader<K, V> loader) {
+        V value = this.get(key);
+        if (null != value) {
+            return value;
+        }
+
+        long start = System.nanoTime();
+        value = loader.load(key);
+        this.loadLatency.record(System.nanoTime() - start);
+
+        if (null != value) {
+            this.put(key, value);
+        }
+        return value;
+    }
+
+    /**
+     * 判断是否缓存了指定键的数据。不影响数据的访问顺序。
+     *
+     * @param key 指定键。
+     * @return 如果缓存了数据返回 {@code true} 。
+     */
+    public synchronized boolean containsKey(K key) {
+        return this.protection.containsKey(key) || this.probation.containsKey(key);
+    }
+
+    /**
+     * 放入数据。已存在的数据原位替换，新数据进入试用段，比试用段大的数据直接进入保护段。
+     *
+     * @param key 指定键。
+     * @param value 指定数据。
+     * @return 返回被替换的数据。
+     */
+    public synchronized V put(K key, V value) {
+        int size = sizeOf(value);
+
+        if (size > this.capacity - this.protectedCapacity) {
+            if (size > this.protectedCapacity) {
+                // 数据比保护段还大，放入会冲掉整个缓存，不缓存
+                ++this.rejectionCount;
+                return this.remove(key);
+            }
+
+            // 数据比试用段大，放入试用段会冲掉整个试用段，直接进入保护段
+            V old = this.remove(key);
+            this.protection.put(key, new Node<>(value, size));
+            this.protectedSize += size;
+            this.shrinkProtection();
+            this.evict(this.capacity);
+            return old;
+        }
+
+        Node<V> node = this.protection.get(key);
+        if (null != node) {
+            V old = node.value;
+            this.protectedSize += size - node.size;
+            node.value = value;
+            node.size = size;
+            this.shrinkProtection();
+            this.evict(this.capacity);
+            return old;
+        }
+
+        node = this.probation.get(key);
+        if (null != node) {
+            V old = node.value;
+            this.probationSize += size - node.size;
+            node.value = value;
+            node.size = size;
+            this.evict(this.capacity);
+            return old;
+        }
+
+        this.probation.put(key, new Node<>(value, size));
+        this.probationSize += size;
+        this.evict(this.capacity);
+        return null;
+    }
+
+    /**
+     * 移除数据。
+     *
+     * @param key 指定键。
+     * @return 返回被移除的数据。
+     */
+    public synchronized V remove(K key) {
+        Node<V> node = this.protection.remove(key);
+        if (null != node) {
+            this.protectedSize -= node.size;
+            return node.value;
+        }
+
+        node = this.probation.remove(key);
+        if (null != node) {
+            this.probationSize -= node.size;
+            return node.value;
+        }
+
+        return null;
+    }
+
+    /**
+     * 清空缓存。
+     */
+    public synchronized void clear() {
+        this.protection.clear();
+        this.probation.clear();
+        this.protectedSize = 0;
+        this.probationSize = 0;
+    }
+
+    public synchronized int size() {
+        return this.protection.size() + this.probation.size();
+    }
+
+    /**
+     * 获取缓存数据占用的内存大小。
+     *
+     * @return 返回内存大小。单位：byte 。
+     */
+    public synchronized long getMemorySize() {
+        return this.protectedSize + this.probationSize;
+    }
+
+    /**
+     * 淘汰数据直到占用的内存不超过指定大小。
+     *
+     * @param size 指定大小。单位：byte 。
+     */
+    public synchronized void trimToSize(long size) {
+        this.evict(Math.max(0, size));
+    }
+
+    /**
+     * 响应系统的内存整理通知。
+     *
+     * @param level 整理级别，见 {@link ComponentCallbacks2} 。
+     */
+    public void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE) {
+            this.clear();
+        }
+        else if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            this.trimToSize(this.getCapacity() / 4);
+        }
+        else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            this.trimToSize(this.getCapacity() / 2);
+        }
+        else {
+            this.trimToSize(this.getCapacity() * 3 / 4);
+        }
+    }
+
+    public synchronized long getHitCount() {
+        return this.hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return this.missCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return this.evictionCount;
+    }
+
+    /**
+     * 获取因数据过大未被缓存的次数。
+     *
+     * @return 返回拒绝次数。
+     */
+    public synchronized long getRejectionCount() {
+        return this.rejectionCount;
+    }
+
+    /**
+     * 获取命中率。
+     *
+     * @return 返回命中率，没有访问时返回 {@code 0} 。
+     */
+    public synchronized double getHitRate() {
+        long total = this.hitCount + this.missCount;
+        return (total == 0) ? 0 : (double) this.hitCount / (double) total;
+    }
+
+    /**
+     * 获取通过加载器加载数据的耗时分布。
+     *
+     * @return 返回延迟直方图。
+     */
+    public LatencyHistogram getLoadLatency() {
+        return this.loadLatency;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder buf = new StringBuilder(this.name);
+        buf.append(" - entries: ").append(this.size());
+        buf.append(", memory: ").append(this.getMemorySize()).append("/").append(this.capacity);
+        buf.append(", hit: ").append(this.hitCount);
+        buf.append(", miss: ").append(this.missCount);
+        buf.append(", evictions: ").append(this.evictionCount);
+        buf.append(", rejections: ").append(this.rejectionCount);
+        buf.append(", load avg: ").append(this.loadLatency.getAverage()).append("us");
+        return buf.toString();
+    }
+
+    /**
+     * 保护段超出容量时将最久未访问的数据降级到试用段。
+     */
+    private void shrinkProtection() {
+        Iterator<Map.Entry<K, Node<V>>> iter = this.protection.entrySet().iterator();
+        while (this.protectedSize > this.protectedCapacity && iter.hasNext()) {
+            Map.Entry<K, Node<V>> e = iter.next();
+            iter.remove();
+            this.protectedSize -= e.getValue().size;
+            this.probation.put(e.getKey(), e.getValue());
+            this.probationSize += e.getValue().size;
+        }
+    }
+
+    /**
+     * 先从试用段、再从保护段淘汰最久未访问的数据，直到占用的内存不超过指定大小。
+     */
+    private void evict(long limit) {
+        Iterator<Map.Entry<K, Node<V>>> iter = this.probation.entrySet().iterator();
+        while (this.protectedSize + this.probationSize > limit && iter.hasNext()) {
+            Node<V> node = iter.next().getValue();
+            iter.remove();
+            this.probationSize -= node.size;
+            ++this.evictionCount;
+        }
+
+        iter = this.protection.entrySet().iterator();
+        while (this.protectedSize + this.probationSize > limit && iter.hasNext()) {
+            Node<V> node = iter.next().getValue();
+            iter.remove();
+            this.protectedSize -= node.size;
+            ++this.evictionCount;
+        }
+    }
+
+    private static int sizeOf(Cacheable value) {
+        if (value instanceof Entity) {
+            return ((Entity) value).getEntityMemorySize();
+        }
+        return value.getMemorySize();
+    }
+
+    /**
+     * 数据加载器。
+     *
+     * @param <K> 键类型。
+     * @param <V> 值类型。
+     */
+    public interface Loader<K, V> {
+
+        /**
+         * 加载指定键的数据。
+         *
+         * @param key 指定键。
+         * @return 返回数据，加载失败返回 {@code null} 值。
+         */
+        V load(K key);
+    }
+
+    private final static class Node<V> {
+
+        private V value;
+
+        private int size;
+
+        private Node(V value, int size) {
+            this.value = value;
+            this.size = size;
+        }
+    }
+}
@@ -30,6 +30,7 @@ import cube.core.Packet;
 
 /**
  * 通道回调描述。
+ * 回调在数据通道的分发线程上执行，不应阻塞等待其他应答。
  */
 public interface PipelineHandler {
 
@@ -73,6 +73,11 @@ public class Entity extends Property implements JSONable, Cacheable, TimeSortabl
      */
     public long entityLifeExpiry;
 
+    /**
+     * 缓存的内存占用大小，小于 {@code 0} 表示需要重新计算。
+     */
+    private volatile int entityMemorySize = -1;
+
     /**
      * 构造函数。
      */
@@ -257,6 +262,35 @@ public class Entity extends Property implements JSONable, Cacheable, TimeSortabl
         return base + string.getBytes(StandardCharsets.UTF_8).length;
     }
 
+    /**
+     * 获取缓存的内存占用大小。仅在实体数据修改后才重新计算 {@link #getMemorySize()} 。
+     *
+     * @return 返回占用内存大小。单位：byte 。
+     */
+    public int getEntityMemorySize() {
+        int size = this.entityMemorySize;
+        if (size < 0) {
+            size = this.getMemorySize();
+            this.entityMemorySize = size;
+        }
+        return size;
+    }
+
+    /**
+     * 实体数据修改后调用，使缓存的内存占用大小失效。
+     */
+    public void resetEntityMemorySize() {
+        this.entityMemorySize = -1;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void onContextUpdated() {
+        this.entityMemorySize = -1;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -50,6 +50,7 @@ public abstract class Property {
      */
     public void setContext(JSONObject context) {
         this.context = context;
+        this.onContextUpdated();
     }
 
     /**
@@ -81,6 +82,8 @@ public abstract class Property {
         } catch (JSONException e) {
             // Nothing
         }
+
+        this.onContextUpdated();
     }
 
     public void set(String name, int value) {
@@ -93,6 +96,8 @@ public abstract class Property {
         } catch (JSONException e) {
             // Nothing
         }
+
+        this.onContextUpdated();
     }
 
     public void set(String name, long value) {
@@ -105,6 +110,8 @@ public abstract class Property {
         } catch (JSONException e) {
             // Nothing
         }
+
+        this.onContextUpdated();
     }
 
     public void set(String name, boolean value) {
@@ -117,6 +124,8 @@ public abstract class Property {
         } catch (JSONException e) {
             // Nothing
         }
+
+        this.onContextUpdated();
     }
 
     public void set(String name, JSONObject value) {
@@ -129,6 +138,8 @@ public abstract class Property {
         } catch (JSONException e) {
             // Nothing
         }
+
+        this.onContextUpdated();
     }
 
     public void set(String name, JSONArray value) {
@@ -141,6 +152,8 @@ public abstract class Property {
         } catch (JSONException e) {
             // Nothing
         }
+
+        this.onContextUpdated();
     }
 
     public String getString(String name) {
@@ -196,4 +209,11 @@ public abstract class Property {
         }
         return null;
     }
+
+    /**
+     * 上下文数据被修改时回调。
+     */
+    protected void onContextUpdated() {
+        // Nothing
+    }
 }
@@ -0,0 +1,510 @@
+/*
+ * This file is part of Cube.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2022 Cube Team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package cube.pipeline;
+
+import org.json.JSONObject;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import cube.core.Packet;
+import cube.core.Pipeline;
+import cube.core.PipelineListener;
+import cube.core.PipelineState;
+import cube.core.handler.PipelineHandler;
+import cube.util.LogUtils;
+
+/**
+ * 请求合并数据通道。
+ * 对注册的动作，将短时间窗口内发往同一目标的请求合并为一个请求发送，
+ * 并将相同的在途请求合并为一次请求（singleflight）。
+ * 其余操作均委托给被装饰的数据通道。
+ */
+public class BatchingPipeline extends Pipeline {
+
+    private final static String TAG = "BatchingPipeline";
+
+    /**
+     * 默认的合并窗口时长。
+     */
+    private final static long DEFAULT_WINDOW = 5L;
+
+    /**
+     * 默认的单次合并的最大请求数量。
+     */
+    private final static int DEFAULT_MAX_BATCH_SIZE = 50;
+
+    private final Pipeline delegate;
+
+    private final ScheduledExecutorService scheduledExecutor;
+
+    private long window;
+
+    private int maxBatchSize;
+
+    /**
+     * 可合并的动作，键为目标与动作组成的键。
+     */
+    private Map<String, PacketBatcher> batcherMap;
+
+    /**
+     * 可进行重复请求合并的动作。
+     */
+    private Map<String, Boolean> coalescingMap;
+
+    /**
+     * 等待合并发送的请求。
+     */
+    private Map<String, Batch> pendingBatchMap;
+
+    /**
+     * 在途的请求，键为请求的去重键。
+     */
+    private Map<String, Flight> flightMap;
+
+    private AtomicLong batchCount;
+
+    private AtomicLong batchedPacketCount;
+
+    private AtomicLong coalescedCount;
+
+    public BatchingPipeline(Pipeline delegate, ScheduledExecutorService scheduledExecutor) {
+        super();
+        this.delegate = delegate;
+        this.scheduledExecutor = scheduledExecutor;
+        this.window = DEFAULT_WINDOW;
+        this.maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+        this.batcherMap = new ConcurrentHashMap<>();
+        this.coalescingMap = new ConcurrentHashMap<>();
+        this.pendingBatchMap = new HashMap<>();
+        this.flightMap = new HashMap<>();
+        this.batchCount = new AtomicLong(0);
+        this.batchedPacketCount = new AtomicLong(0);
+        this.coalescedCount = new AtomicLong(0);
+    }
+
+    /**
+     * 获取被装饰的数据通道。
+     *
+     * @return 返回被装饰的数据通道。
+     */
+    public Pipeline getDelegate() {
+        return this.delegate;
+    }
+
+    /**
+     * 设置合并窗口时长。
+     *
+     * @param window 指定时长，单位：毫秒。
+     */
+    public void setWindow(long window) {
+        this.window = window;
+    }
+
+    /**
+     * 设置单次合并的最大请求数量。
+     *
+     * @param maxBatchSize 指定最大请求数量。
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * 注册可合并发送的动作。
+     *
+     * @param destination 指定目标。
+     * @param action 指定动作名。
+     * @param batcher 指定该动作的合并器。
+     */
+    public void addBatchAction(String destination, String action, PacketBatcher batcher) {
+        this.batcherMap.put(makeKey(destination, action), batcher);
+    }
+
+    public void removeBatchAction(String destination, String action) {
+        this.batcherMap.remove(makeKey(destination, action));
+    }
+
+    /**
+     * 注册可进行重复请求合并的动作。该动作必须是幂等的。
+     *
+     * @param destination 指定目标。
+     * @param action 指定动作名。
+     */
+    public void addCoalescingAction(String destination, String action) {
+        this.coalescingMap.put(makeKey(destination, action), Boolean.TRUE);
+    }
+
+    public void removeCoalescingAction(String destination, String action) {
+        this.coalescingMap.remove(makeKey(destination, action));
+    }
+
+    /**
+     * 返回已发送的合并请求数量。
+     *
+     * @return 返回已发送的合并请求数量。
+     */
+    public long getBatchCount() {
+        return this.batchCount.get();
+    }
+
+    /**
+     * 返回被合并发送的请求数量。
+     *
+     * @return 返回被合并发送的请求数量。
+     */
+    public long getBatchedPacketCount() {
+        return this.batchedPacketCount.get();
+    }
+
+    /**
+     * 返回因重复请求而被合并的请求数量。
+     *
+     * @return 返回被合并的重复请求数量。
+     */
+    public long getCoalescedCount() {
+        return this.coalescedCount.get();
+    }
+
+    @Override
+    public void setRemoteAddress(String address, int port) {
+        super.setRemoteAddress(address, port);
+        this.delegate.setRemoteAddress(address, port);
+    }
+
+    @Override
+    public void setTokenCode(String tokenCode) {
+        super.setTokenCode(tokenCode);
+        this.delegate.setTokenCode(tokenCode);
+    }
+
+    @Override
+    public void addListener(String destination, PipelineListener listener) {
+        this.delegate.addListener(destination, listener);
+    }
+
+    @Override
+    public void addListener(PipelineListener listener) {
+        this.delegate.addListener(listener);
+    }
+
+    @Override
+    public void removeListener(String destination, PipelineListener listener) {
+        this.delegate.removeListener(destination, listener);
+    }
+
+    @Override
+    public void removeListener(PipelineListener listener) {
+        this.delegate.removeListener(listener);
+    }
+
+    @Override
+    public List<PipelineListener> getListeners(String destination) {
+        return this.delegate.getListeners(destination);
+    }
+
+    @Override
+    public List<PipelineListener> getAllListeners() {
+        return this.delegate.getAllListeners();
+    }
+
+    @Override
+    public void addDurableAction(String destination, String action) {
+        this.delegate.addDurableAction(destination, action);
+    }
+
+    @Override
+    public void removeDurableAction(String destination, String action) {
+        this.delegate.removeDurableAction(destination, action);
+    }
+
+    @Override
+    public boolean isDurableAction(String destination, String action) {
+        return this.delegate.isDurableAction(destination, action);
+    }
+
+    @Override
+    public void open() {
+        this.delegate.open();
+    }
+
+    @Override
+    public void close() {
+        this.delegate.close();
+
+        synchronized (this) {
+            this.pendingBatchMap.clear();
+            this.flightMap.clear();
+        }
+    }
+
+    @Override
+    public boolean isReady() {
+        return this.delegate.isReady();
+    }
+
+    @Override
+    public boolean send(String destination, Packet packet) {
+        return this.delegate.send(destination, packet);
+    }
+
+    @Override
+    public boolean send(String destination, Packet packet, PipelineHandler handler) {
+        if (!this.delegate.isReady()) {
+            // 由被装饰的通道决定是否写入发送日志
+            return this.delegate.send(destination, packet, handler);
+        }
+
+        String actionKey = makeKey(destination, packet.name);
+
+        if (this.coalescingMap.containsKey(actionKey)) {
+            String flightKey = makeFlightKey(actionKey, packet);
+            synchronized (this) {
+                Flight flight = this.flightMap.get(flightKey);
+                if (null != flight) {
+                    // 相同请求在途，等待该请求的应答
+                    flight.add(packet, handler);
+                    this.coalescedCount.incrementAndGet();
+                    return true;
+                }
+
+                flight = new Flight(flightKey);
+                flight.add(packet, handler);
+                this.flightMap.put(flightKey, flight);
+
+                // 使用在途请求的句柄替换原句柄
+                handler = flight;
+            }
+        }
+
+        PacketBatcher batcher = this.batcherMap.get(actionKey);
+        if (null == batcher) {
+            if (this.delegate.send(destination, packet, handler)) {
+                return true;
+            }
+
+            if (handler instanceof Flight) {
+                // 发送失败时被装饰的通道不会回调句柄，撤销在途请求
+                ((Flight) handler).abort();
+            }
+            return false;
+        }
+
+        Batch flushing = null;
+        synchronized (this) {
+            Batch batch = this.pendingBatchMap.get(actionKey);
+            if (null == batch) {
+                batch = new Batch(actionKey, destination, batcher);
+                this.pendingBatchMap.put(actionKey, batch);
+
+                final Batch scheduled = batch;
+                this.scheduledExecutor.schedule(() -> {
+                    flush(scheduled);
+                }, this.window, TimeUnit.MILLISECONDS);
+            }
+
+            batch.packets.add(packet);
+            batch.handlers.add(handler);
+
+            if (batch.packets.size() >= this.maxBatchSize) {
+                flushing = batch;
+            }
+        }
+
+        if (null != flushing) {
+            flush(flushing);
+        }
+
+        return true;
+    }
+
+    @Override
+    public void fireNetworkStatusChanged(boolean connected) {
+        this.delegate.fireNetworkStatusChanged(connected);
+    }
+
+    private void flush(Batch batch) {
+        synchronized (this) {
+            if (this.pendingBatchMap.get(batch.key) != batch) {
+                // 已经发送
+                return;
+            }
+            this.pendingBatchMap.remove(batch.key);
+        }
+
+        if (batch.packets.size() == 1) {
+            // 发送失败时被装饰的通道不会回调句柄，由本通道应答
+            if (!this.delegate.send(batch.destination, batch.packets.get(0), batch.handlers.get(0))) {
+                batch.fail(PipelineState.NotReady);
+            }
+            return;
+        }
+
+        Packet batchPacket = batch.batcher.merge(batch.packets);
+
+        this.batchCount.incrementAndGet();
+        this.batchedPacketCount.addAndGet(batch.packets.size());
+
+        boolean sent = this.delegate.send(batch.destination, batchPacket, new PipelineHandler() {
+            @Override
+            public void handleResponse(Packet response) {
+                if (response.state.code != PipelineState.Ok.code) {
+                    batch.fail(response.state);
+                    return;
+                }
+
+                Map<Long, Packet> responseMap = batch.batcher.split(response, batch.packets);
+                for (int i = 0; i < batch.packets.size(); ++i) {
+                    Packet request = batch.packets.get(i);
+                    Packet packet = responseMap.get(request.sn);
+                    if (null == packet) {
+                        LogUtils.w(TAG, "#flush - No response in batch: " + request.name + " - " + request.sn);
+                        packet = makeResponse(request, PipelineState.BadRequest);
+                    }
+                    batch.handlers.get(i).handleResponse(packet);
+                }
+            }
+        });
+
+        if (!sent) {
+            batch.fail(PipelineState.NotReady);
+        }
+    }
+
+    private static String makeKey(String destination, String action) {
+        return destination + "/" + action;
+    }
+
+    /**
+     * 生成在途请求的去重键。使用负载的原始数据，避免解析尚未解析的负载。
+     */
+    private static String makeFlightKey(String actionKey, Packet packet) {
+        byte[] data = packet.getRawData();
+        return (null != data) ? actionKey + "/" + new String(data, StandardCharsets.UTF_8) : actionKey;
+    }
+
+    private static Packet makeResponse(Packet request, PipelineState state) {
+        Packet packet = new Packet(request.sn, request.name, new JSONObject());
+        packet.state = state;
+        packet.response = true;
+        return packet;
+    }
+
+    /**
+     * 等待合并发送的请求。
+     */
+    private class Batch {
+
+        protected final String key;
+
+        protected final String destination;
+
+        protected final PacketBatcher batcher;
+
+        protected final List<Packet> packets;
+
+        protected final List<PipelineHandler> handlers;
+
+        protected Batch(String key, String destination, PacketBatcher batcher) {
+            this.key = key;
+            this.destination = destination;
+            this.batcher = batcher;
+            this.packets = new ArrayList<>();
+            this.handlers = new ArrayList<>();
+        }
+
+        protected void fail(PipelineState state) {
+            for (int i = 0; i < this.packets.size(); ++i) {
+                this.handlers.get(i).handleResponse(makeResponse(this.packets.get(i), state));
+            }
+        }
+    }
+
+    /**
+     * 在途请求。第一个请求实际发送，后续相同的请求共享其应答。
+     */
+    private class Flight implements PipelineHandler {
+
+        protected final String key;
+
+        protected final List<Packet> packets;
+
+        protected final List<PipelineHandler> handlers;
+
+        protected Flight(String key) {
+            this.key = key;
+            this.packets = new ArrayList<>();
+            this.handlers = new ArrayList<>();
+        }
+
+        protected void add(Packet packet, PipelineHandler handler) {
+            this.packets.add(packet);
+            this.handlers.add(handler);
+        }
+
+        /**
+         * 首个请求未能发送时撤销在途请求。首个请求由调用者处理，后续合并的请求应答未就绪。
+         */
+        protected void abort() {
+            synchronized (BatchingPipeline.this) {
+                flightMap.remove(this.key, this);
+            }
+
+            for (int i = 1; i < this.packets.size(); ++i) {
+                this.handlers.get(i).handleResponse(makeResponse(this.packets.get(i), PipelineState.NotReady));
+            }
+        }
+
+        @Override
+        public void handleResponse(Packet response) {
+            synchronized (BatchingPipeline.this) {
+                flightMap.remove(this.key, this);
+            }
+
+            // 在句柄修改负载之前获取原始数据
+            byte[] rawData = (this.packets.size() > 1) ? response.getRawData() : null;
+
+            this.handlers.get(0).handleResponse(response);
+
+            for (int i = 1; i < this.packets.size(); ++i) {
+                // 每个请求使用独立的负载副本，避免句柄之间相互修改
+                Packet request = this.packets.get(i);
+                Packet packet = new Packet(request.sn, request.name, rawData);
+                packet.state = response.state;
+                packet.response = true;
+                this.handlers.get(i).handleResponse(packet);
+            }
+        }
+    }
+}
@@ -32,22 +32,26 @@ import android.util.Log;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import cell.api.Nucleus;
 import cell.api.NucleusConfig;
 import cell.api.Speakable;
 import cell.api.TalkListener;
+import cell.core.talk.LiteralBase;
 import cell.core.talk.Primitive;
+import cell.core.talk.Stuff;
 import cell.core.talk.TalkError;
 import cell.core.talk.dialect.ActionDialect;
 import cell.util.NetworkUtils;
+import cube.core.OutboundJournal;
 import cube.core.Packet;
 import cube.core.Pipeline;
 import cube.core.PipelineListener;
@@ -60,6 +64,41 @@ import cube.util.LogUtils;
  */
 public class CellPipeline extends Pipeline implements TalkListener {
 
+    /**
+     * 默认的应答超时时长。
+     */
+    private final static long DEFAULT_RESPONSE_TIMEOUT = 30L * 1000;
+
+    /**
+     * 默认的最大在途请求数量。
+     */
+    private final static int DEFAULT_MAX_INFLIGHT = 512;
+
+    /**
+     * 记录已超时请求序号的数量，用于识别迟到的应答。
+     */
+    private final static int MAX_EXPIRED_RECORDS = 256;
+
+    /**
+     * 每次从发送日志读取并重发的数据包数量。
+     */
+    private final static int REPLAY_BATCH_SIZE = 50;
+
+    /**
+     * 发送日志记录的有效期。
+     */
+    private final static long JOURNAL_EXPIRY = 3L * 24 * 60 * 60 * 1000;
+
+    /**
+     * 分发引擎的常驻线程数量。
+     */
+    private final static int CORE_DISPATCH_THREADS = 16;
+
+    /**
+     * 分发引擎的最大线程数量。处理句柄阻塞时线程池可扩展到该数量，保证等待的应答仍能被执行。
+     */
+    private final static int MAX_DISPATCH_THREADS = 128;
+
     private boolean opening;
 
     private boolean enabled;
@@ -68,9 +107,51 @@ public class CellPipeline extends Pipeline implements TalkListener {
 
     private Map<Long, ResponseCallback> responseCallbackMap;
 
-    private ExecutorService executor;
+    /**
+     * 入站数据分发引擎。
+     */
+    private DispatchEngine dispatcher;
+
+    private ScheduledExecutorService scheduledExecutor;
+
+    /**
+     * 重连调度器。
+     */
+    private ReconnectScheduler reconnectScheduler;
+
+    /**
+     * 应答超时时间轮。
+     */
+    private TimeoutWheel timeoutWheel;
+
+    private long responseTimeout;
+
+    private int maxInflight;
+
+    /**
+     * 最近超时的请求序号。
+     */
+    private Map<Long, Long> expiredSnMap;
+
+    private AtomicLong expiredCount;
 
-    public CellPipeline(Context context) {
+    private AtomicLong lateResponseCount;
+
+    private AtomicLong rejectedCount;
+
+    /**
+     * 通道未就绪时的发送日志。
+     */
+    private OutboundJournal journal;
+
+    /**
+     * 写入发送日志的数据包的应答句柄。进程重启后丢失。
+     */
+    private Map<Long, PipelineHandler> journalHandlerMap;
+
+    private AtomicBoolean replaying;
+
+    public CellPipeline(Context context, ScheduledExecutorService scheduledExecutor) {
         super();
         this.opening = false;
         this.enabled = false;
@@ -78,8 +159,110 @@ public class CellPipeline extends Pipeline implements TalkListener {
         NucleusConfig config = new NucleusConfig();
         this.nucleus = new Nucleus(context, config);
 
-        this.executor = Executors.newCachedThreadPool();
+        this.dispatcher = new DispatchEngine(CORE_DISPATCH_THREADS, MAX_DISPATCH_THREADS);
+        this.scheduledExecutor = scheduledExecutor;
         this.responseCallbackMap = new ConcurrentHashMap<>();
+
+        this.reconnectScheduler = new ReconnectScheduler(scheduledExecutor, this::reconnect);
+        this.timeoutWheel = new TimeoutWheel(100, 512);
+        this.responseTimeout = DEFAULT_RESPONSE_TIMEOUT;
+        this.maxInflight = DEFAULT_MAX_INFLIGHT;
+        this.expiredSnMap = new LinkedHashMap<Long, Long>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Long> eldest) {
+                return this.size() > MAX_EXPIRED_RECORDS;
+            }
+        };
+        this.expiredCount = new AtomicLong(0);
+        this.lateResponseCount = new AtomicLong(0);
+        this.rejectedCount = new AtomicLong(0);
+
+        this.journal = new OutboundJournal();
+        this.journal.open(context);
+        this.journalHandlerMap = new ConcurrentHashMap<>();
+        this.replaying = new AtomicBoolean(false);
+    }
+
+    @Override
+    public void setTokenCode(String tokenCode) {
+        super.setTokenCode(tokenCode);
+
+        if (null != tokenCode && this.isReady()) {
+            // 令牌就绪后重发日志里的数据
+            this.replayJournal();
+        }
+    }
+
+    /**
+     * 设置应答超时时长。
+     *
+     * @param timeout 指定超时时长，单位：毫秒。
+     */
+    public void setResponseTimeout(long timeout) {
+        this.responseTimeout = timeout;
+    }
+
+    /**
+     * 设置最大在途请求数量。超过该数量的请求将被拒绝。
+     *
+     * @param maxInflight 指定最大在途请求数量。
+     */
+    public void setMaxInflight(int maxInflight) {
+        this.maxInflight = maxInflight;
+    }
+
+    /**
+     * 返回当前等待应答的请求数量。
+     *
+     * @return 返回当前等待应答的请求数量。
+     */
+    public int numInflight() {
+        return this.responseCallbackMap.size();
+    }
+
+    /**
+     * 返回累计超时的请求数量。
+     *
+     * @return 返回累计超时的请求数量。
+     */
+    public long getExpiredCount() {
+        return this.expiredCount.get();
+    }
+
+    /**
+     * 返回累计在超时之后才到达的应答数量。
+     *
+     * @return 返回累计迟到的应答数量。
+     */
+    public long getLateResponseCount() {
+        return this.lateResponseCount.get();
+    }
+
+    /**
+     * 返回累计因在途请求过多被拒绝的请求数量。
+     *
+     * @return 返回累计被拒绝的请求数量。
+     */
+    public long getRejectedCount() {
+        return this.rejectedCount.get();
+    }
+
+    /**
+     * 获取入站数据分发引擎，用于获取队列深度和分发延迟等数据。
+     *
+     * @return 返回分发引擎。
+     */
+    public DispatchEngine getDispatcher() {
+        return this.dispatcher;
+    }
+
+    /**
+     * 获取重连调度器，用于获取重连次数和重连耗时等数据。
+     *
+     * @return 返回重连调度器。
+     */
+    public ReconnectScheduler getReconnectScheduler() {
+        return this.reconnectScheduler;
     }
 
     @Override
@@ -95,10 +278,12 @@ public class CellPipeline extends Pipeline implements TalkListener {
         this.opening = true;
         this.enabled = true;
 
-        if (null == this.executor) {
-            this.executor = Executors.newCachedThreadPool();
+        if (null == this.dispatcher) {
+            this.dispatcher = new DispatchEngine(CORE_DISPATCH_THREADS, MAX_DISPATCH_THREADS);
         }
 
+        this.timeoutWheel.start(this.scheduledExecutor);
+
         this.nucleus.getTalkService().addListener(this);
         this.nucleus.getTalkService().call(this.address, this.port);
     }
@@ -107,15 +292,30 @@ public class CellPipeline extends Pipeline implements TalkListener {
     public void close() {
         this.enabled = false;
 
+        this.reconnectScheduler.cancel();
+
         this.nucleus.getTalkService().hangup(this.address, this.port, true);
         this.nucleus.getTalkService().removeListener(this);
 
-        if (null != this.executor) {
-            this.executor.shutdown();
-            this.executor = null;
+        // 在途请求不会再有应答，在关闭分发引擎之前通知句柄
+        for (Long sn : new ArrayList<>(this.responseCallbackMap.keySet())) {
+            ResponseCallback callback = this.responseCallbackMap.remove(sn);
+            if (null != callback) {
+                callback.cancelTimeout();
+                this.fireSyntheticResponse(callback.sn, callback.name, callback.handler, PipelineState.NotReady);
+            }
         }
 
+        if (null != this.dispatcher) {
+            this.dispatcher.shutdown();
+            this.dispatcher = null;
+        }
+
+        this.timeoutWheel.stop();
         this.responseCallbackMap.clear();
+        synchronized (this.expiredSnMap) {
+            this.expiredSnMap.clear();
+        }
 
         this.tokenCode = null;
     }
@@ -128,24 +328,122 @@ public class CellPipeline extends Pipeline implements TalkListener {
     @Override
     public boolean send(String destination, Packet packet) {
         if (!this.isReady()) {
-            return false;
+            return this.writeJournal(destination, packet, null);
         }
 
-        ActionDialect dialect = this.convertPacketToDialect(packet);
+        ActionDialect dialect = this.convertPacketToDialect(packet, this.tokenCode);
         return this.nucleus.getTalkService().speak(destination, dialect);
     }
 
     @Override
     public boolean send(String destination, Packet packet, PipelineHandler handler) {
         if (!this.isReady()) {
+            return this.writeJournal(destination, packet, handler);
+        }
+
+        return this.sendRequest(destination, packet, handler, this.tokenCode);
+    }
+
+    /**
+     * 发送请求。返回 {@code false} 时不会再回调句柄，由调用者处理失败。
+     */
+    private boolean sendRequest(String destination, Packet packet, PipelineHandler handler, String tokenCode) {
+        if (this.responseCallbackMap.size() >= this.maxInflight) {
+            // 在途请求过多，拒绝请求
+            this.rejectedCount.incrementAndGet();
+            LogUtils.w("CellPipeline", "#send - Too many inflight requests: " + this.responseCallbackMap.size());
             return false;
         }
 
         long timestamp = System.currentTimeMillis();
-        this.responseCallbackMap.put(packet.sn, new ResponseCallback(destination, handler, timestamp));
+        final ResponseCallback callback = new ResponseCallback(packet.sn, packet.name, destination, handler, timestamp);
+        this.responseCallbackMap.put(packet.sn, callback);
+        callback.timeout = this.timeoutWheel.schedule(this.responseTimeout, () -> {
+            onResponseTimeout(callback);
+        });
 
-        ActionDialect dialect = this.convertPacketToDialect(packet);
-        return this.nucleus.getTalkService().speak(destination, dialect);
+        ActionDialect dialect = this.convertPacketToDialect(packet, tokenCode);
+        if (!this.nucleus.getTalkService().speak(destination, dialect)) {
+            // 发送失败，撤销应答回调和超时
+            if (this.responseCallbackMap.remove(packet.sn, callback)) {
+                callback.cancelTimeout();
+            }
+            return false;
+        }
+        return true;
+    }
+
+    private boolean writeJournal(String destination, Packet packet, PipelineHandler handler) {
+        if (!this.isDurableAction(destination, packet.name)) {
+            return false;
+        }
+
+        if (null != handler) {
+            this.journalHandlerMap.put(packet.sn, handler);
+        }
+
+        if (!this.journal.append(destination, packet, this.tokenCode)) {
+            LogUtils.d("CellPipeline", "#writeJournal - Duplicate packet: " + packet.name + " - " + packet.sn);
+        }
+        return true;
+    }
+
+    /**
+     * 按记录顺序重发发送日志里的数据包。
+     */
+    private void replayJournal() {
+        DispatchEngine dispatcher = this.dispatcher;
+        if (null == dispatcher || !this.replaying.compareAndSet(false, true)) {
+            return;
+        }
+
+        dispatcher.execute(() -> {
+            try {
+                long expiry = System.currentTimeMillis() - JOURNAL_EXPIRY;
+                List<OutboundJournal.Entry> list = journal.read(REPLAY_BATCH_SIZE);
+                while (!list.isEmpty() && isReady()) {
+                    List<OutboundJournal.Entry> sent = new ArrayList<>(list.size());
+                    for (OutboundJournal.Entry entry : list) {
+                        if (!isReady()) {
+                            break;
+                        }
+
+                        PipelineHandler handler = journalHandlerMap.remove(entry.packet.sn);
+                        if (entry.timestamp < expiry) {
+                            LogUtils.w("CellPipeline", "#replayJournal - Drop expired packet: " + entry.packet.name);
+                            if (null != handler) {
+                                fireSyntheticResponse(entry.packet.sn, entry.packet.name, handler, PipelineState.ResponseTimeout);
+                            }
+                        }
+                        else {
+                            // 进程重启后没有应答句柄，应答不再派发给监听器
+                            boolean success = sendRequest(entry.destination, entry.packet,
+                                    (null != handler) ? handler : (packet) -> {
+                                        LogUtils.d("CellPipeline", "#replayJournal - Response: " + packet.name + " - " + packet.state.code);
+                                    }, (null != entry.tokenCode) ? entry.tokenCode : tokenCode);
+                            if (!success) {
+                                // 保留在日志里，下次连接时重发
+                                if (null != handler) {
+                                    journalHandlerMap.put(entry.packet.sn, handler);
+                                }
+                                break;
+                            }
+                        }
+                        sent.add(entry);
+                    }
+
+                    journal.remove(sent);
+
+                    if (sent.size() < list.size()) {
+                        break;
+                    }
+
+                    list = journal.read(REPLAY_BATCH_SIZE);
+                }
+            } finally {
+                replaying.set(false);
+            }
+        });
     }
 
     @Override
@@ -156,8 +454,8 @@ public class CellPipeline extends Pipeline implements TalkListener {
 
         if (this.enabled && connected) {
             if (!this.isReady()) {
-                // 重连
-                this.retry(500, false);
+                // 网络恢复，重置退避间隔后重连
+                this.reconnectScheduler.scheduleNow();
             }
         }
     }
@@ -168,17 +466,32 @@ public class CellPipeline extends Pipeline implements TalkListener {
         // 转为数据包格式
         final Packet packet = this.convertDialectToPacket(dialect);
 
+        DispatchEngine dispatcher = this.dispatcher;
+        if (null == dispatcher) {
+            return;
+        }
+
         // 如果有应答回调，则不触发监听器
-        this.executor.execute(() -> {
-            ResponseCallback callback = responseCallbackMap.remove(packet.sn);
-            if (null != callback) {
-                packet.response = true;
+        ResponseCallback callback = this.responseCallbackMap.remove(packet.sn);
+        if (null != callback) {
+            callback.cancelTimeout();
+            packet.response = true;
+            // 应答之间没有顺序要求，并行执行
+            dispatcher.execute(() -> {
                 callback.handler.handleResponse(packet);
-            }
-            else {
+            });
+        }
+        else if (this.isExpired(packet.sn)) {
+            // 迟到的应答，已按超时处理
+            this.lateResponseCount.incrementAndGet();
+            LogUtils.d("CellPipeline", "#onListened - Late response: " + packet.name + " - " + packet.sn);
+        }
+        else {
+            // 同一目标的通知按到达顺序执行
+            dispatcher.execute(cellet, () -> {
                 triggerListener(cellet, packet);
-            }
-        });
+            });
+        }
     }
 
     @Override
@@ -200,6 +513,13 @@ public class CellPipeline extends Pipeline implements TalkListener {
     public void onContacted(Speakable speakable) {
         this.opening = false;
 
+        // 连接成功，重置退避间隔
+        this.reconnectScheduler.reset();
+
+        if (null != this.tokenCode) {
+            this.replayJournal();
+        }
+
         List<PipelineListener> listeners = this.getAllListeners();
         for (PipelineListener listener : listeners) {
             listener.onOpened(this);
@@ -227,41 +547,81 @@ public class CellPipeline extends Pipeline implements TalkListener {
 
         if (this.enabled) {
             if (NetworkUtils.isConnected(this.nucleus.getTag().getContext())) {
-                this.retry(2000, true);
+                this.nucleus.getTalkService().hangup(this.address, this.port, true);
+                this.reconnectScheduler.schedule();
             }
         }
     }
 
-    private void retry(long delay, boolean hangUpBefore) {
+    private void reconnect() {
+        if (!this.enabled) {
+            return;
+        }
+
         Log.i("CellPipeline", "Retry connect : " + this.address + ":" + this.port);
 
-        if (hangUpBefore) {
-            this.nucleus.getTalkService().hangup(this.address, this.port, true);
+        if (!this.nucleus.getTalkService().isCalled(this.address, this.port)) {
+            this.nucleus.getTalkService().call(this.address, this.port);
         }
+    }
 
-        Timer timer = new Timer();
-        timer.schedule(new TimerTask() {
-            @Override
-            public void run() {
-                if (!nucleus.getTalkService().isCalled(address, port)) {
-                    nucleus.getTalkService().call(address, port);
-                }
-            }
-        }, delay);
+    private void onResponseTimeout(ResponseCallback callback) {
+        if (!this.responseCallbackMap.remove(callback.sn, callback)) {
+            // 已收到应答
+            return;
+        }
+
+        this.expiredCount.incrementAndGet();
+        synchronized (this.expiredSnMap) {
+            this.expiredSnMap.put(callback.sn, callback.timestamp);
+        }
+
+        LogUtils.d("CellPipeline", "#onResponseTimeout - " + callback.destination + " - " + callback.name);
+
+        this.fireSyntheticResponse(callback.sn, callback.name, callback.handler, PipelineState.ResponseTimeout);
+    }
+
+    private boolean isExpired(Long sn) {
+        synchronized (this.expiredSnMap) {
+            return (null != this.expiredSnMap.remove(sn));
+        }
+    }
+
+    private void fireSyntheticResponse(Long sn, String name, PipelineHandler handler, PipelineState state) {
+        DispatchEngine dispatcher = this.dispatcher;
+        if (null == dispatcher) {
+            return;
+        }
+
+        final Packet packet = new Packet(sn, name, new JSONObject());
+        packet.state = state;
+        packet.response = true;
+        dispatcher.execute(() -> {
+            handler.handleResponse(packet);
+        });
     }
 
-    private ActionDialect convertPacketToDialect(Packet packet) {
+    private ActionDialect convertPacketToDialect(Packet packet, String tokenCode) {
         ActionDialect dialect = new ActionDialect(packet.name);
         dialect.addParam("sn", packet.sn.longValue());
-        dialect.addParam("data", packet.getData());
-        if (null != this.tokenCode) {
-            dialect.addParam("token", this.tokenCode);
+        if (packet.hasRawData()) {
+            // 负载未被解析，直接使用原始数据
+            byte[] data = packet.getRawData();
+            dialect.commit(new Stuff("data"));
+            dialect.commit(new Stuff(LiteralBase.JSON.getCode(), data, 0, data.length));
+        }
+        else {
+            dialect.addParam("data", packet.getData());
+        }
+        if (null != tokenCode) {
+            dialect.addParam("token", tokenCode);
         }
         return dialect;
     }
 
     private Packet convertDialectToPacket(ActionDialect dialect) {
-        Packet packet = new Packet(dialect.getParamAsLong("sn"), dialect.getName(), dialect.getParamAsJson("data"));
+        // 负载数据延迟到首次访问时解析
+        Packet packet = new Packet(dialect.getParamAsLong("sn"), dialect.getName(), dialect.getParam("data"));
         if (dialect.containsParam("state")) {
             packet.state = extractState(dialect.getParamAsJson("state"));
         }
@@ -281,16 +641,35 @@ public class CellPipeline extends Pipeline implements TalkListener {
 
     private class ResponseCallback {
 
+        public final Long sn;
+
+        public final String name;
+
         public final String destination;
 
         public final PipelineHandler handler;
 
         public final long timestamp;
 
-        public ResponseCallback(String destination, PipelineHandler handler, long timestamp) {
+        /**
+         * 回调在登记超时之前就已发布到应答回调表，关闭管道或收到应答时可能还没有赋值。
+         * 此时超时到期后因回调已被移除而不会生效。
+         */
+        public volatile TimeoutWheel.Timeout timeout;
+
+        public ResponseCallback(Long sn, String name, String destination, PipelineHandler handler, long timestamp) {
+            this.sn = sn;
+            this.name = name;
             this.destination = destination;
             this.handler = handler;
             this.timestamp = timestamp;
         }
+
+        public void cancelTimeout() {
+            TimeoutWheel.Timeout timeout = this.timeout;
+            if (null != timeout) {
+                timeout.cancel();
+            }
+        }
     }
 }
@@ -0,0 +1,300 @@
+/*
+ * This file is part of Cube.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2022 Cube Team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package cube.pipeline;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 数据通道的分发引擎。
+ * 使用有界线程池执行任务，同一目标的串行任务按提交顺序依次执行，不同目标之间并行执行。
+ * 当所有线程都在执行任务时，线程池先扩展到最大线程数量，之后的任务才进入队列排队。
+ * <p>
+ * 分发的任务不应阻塞等待应答。同步等待应答的操作应在业务模块自己的线程上执行，
+ * 否则阻塞的任务占满线程后，它们等待的应答只能在队列里排队直到超时。
+ */
+public class DispatchEngine {
+
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * 各目标的串行通道。
+     */
+    private final Map<String, Lane> laneMap;
+
+    private final AtomicInteger queued;
+
+    private final AtomicLong dispatchedCount;
+
+    private final AtomicLong totalLatency;
+
+    private final AtomicLong maxLatency;
+
+    /**
+     * 构造函数。
+     *
+     * @param coreThreads 指定常驻线程数量。
+     * @param maxThreads 指定最大线程数量。
+     */
+    public DispatchEngine(int coreThreads, int maxThreads) {
+        ElasticQueue queue = new ElasticQueue();
+        this.executor = new ThreadPoolExecutor(coreThreads, maxThreads, 60L, TimeUnit.SECONDS,
+                queue, (runnable, executor) -> {
+                    // 线程数量已达上限，进入队列排队
+                    if (!executor.isShutdown()) {
+                        queue.force(runnable);
+                    }
+                });
+        queue.executor = this.executor;
+        this.executor.allowCoreThreadTimeOut(true);
+        this.laneMap = new ConcurrentHashMap<>();
+        this.queued = new AtomicInteger(0);
+        this.dispatchedCount = new AtomicLong(0);
+        this.totalLatency = new AtomicLong(0);
+        this.maxLatency = new AtomicLong(0);
+    }
+
+    /**
+     * 并行执行任务。
+     *
+     * @param task 指定任务。
+     */
+    public void execute(Runnable task) {
+        final long timestamp = System.currentTimeMillis();
+        this.queued.incrementAndGet();
+        this.executor.execute(() -> {
+            this.queued.decrementAndGet();
+            record(timestamp);
+            task.run();
+        });
+    }
+
+    /**
+     * 在指定目标的串行通道里执行任务。
+     *
+     * @param destination 指定目标。
+     * @param task 指定任务。
+     */
+    public void execute(String destination, Runnable task) {
+        Lane lane = this.laneMap.get(destination);
+        if (null == lane) {
+            lane = new Lane();
+            Lane current = this.laneMap.putIfAbsent(destination, lane);
+            if (null != current) {
+                lane = current;
+            }
+        }
+
+        this.queued.incrementAndGet();
+        lane.offer(new LaneTask(task));
+    }
+
+    /**
+     * 关闭分发引擎。
+     */
+    public void shutdown() {
+        this.executor.shutdown();
+        this.laneMap.clear();
+        this.queued.set(0);
+    }
+
+    /**
+     * 返回等待执行的任务总数。
+     *
+     * @return 返回等待执行的任务总数。
+     */
+    public int numQueued() {
+        return this.queued.get();
+    }
+
+    /**
+     * 返回指定目标等待执行的任务数量。
+     *
+     * @param destination 指定目标。
+     * @return 返回指定目标等待执行的任务数量。
+     */
+    public int numQueued(String destination) {
+        Lane lane = this.laneMap.get(destination);
+        return (null != lane) ? lane.size.get() : 0;
+    }
+
+    /**
+     * 返回已分发的任务数量。
+     *
+     * @return 返回已分发的任务数量。
+     */
+    public long getDispatchedCount() {
+        return this.dispatchedCount.get();
+    }
+
+    /**
+     * 返回任务从提交到开始执行的平均延迟。
+     *
+     * @return 返回平均延迟，单位：毫秒。
+     */
+    public long getAverageLatency() {
+        long count = this.dispatchedCount.get();
+        return (count > 0) ? this.totalLatency.get() / count : 0;
+    }
+
+    /**
+     * 返回任务从提交到开始执行的最大延迟。
+     *
+     * @return 返回最大延迟，单位：毫秒。
+     */
+    public long getMaxLatency() {
+        return this.maxLatency.get();
+    }
+
+    /**
+     * 返回当前线程数量。
+     *
+     * @return 返回当前线程数量。
+     */
+    public int getPoolSize() {
+        return this.executor.getPoolSize();
+    }
+
+    /**
+     * 返回曾经同时存在的最大线程数量。
+     *
+     * @return 返回曾经同时存在的最大线程数量。
+     */
+    public int getLargestPoolSize() {
+        return this.executor.getLargestPoolSize();
+    }
+
+    private void record(long timestamp) {
+        long latency = System.currentTimeMillis() - timestamp;
+        this.dispatchedCount.incrementAndGet();
+        this.totalLatency.addAndGet(latency);
+
+        long max = this.maxLatency.get();
+        while (latency > max && !this.maxLatency.compareAndSet(max, latency)) {
+            max = this.maxLatency.get();
+        }
+    }
+
+    /**
+     * 优先扩展线程的任务队列。
+     * 线程池仅在队列拒绝任务时才创建超出常驻数量的线程，因此在还有空闲线程或线程数量已达上限时才接受任务。
+     */
+    private static class ElasticQueue extends LinkedBlockingQueue<Runnable> {
+
+        protected ThreadPoolExecutor executor;
+
+        @Override
+        public boolean offer(Runnable runnable) {
+            ThreadPoolExecutor executor = this.executor;
+            if (null != executor && executor.getPoolSize() < executor.getMaximumPoolSize()
+                    && executor.getActiveCount() >= executor.getPoolSize()) {
+                // 没有空闲线程，拒绝任务以便创建新线程
+                return false;
+            }
+            return super.offer(runnable);
+        }
+
+        protected void force(Runnable runnable) {
+            super.offer(runnable);
+        }
+    }
+
+    private class LaneTask {
+
+        protected final Runnable task;
+
+        protected final long timestamp;
+
+        protected LaneTask(Runnable task) {
+            this.task = task;
+            this.timestamp = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * 串行通道。同一时刻至多占用一个线程。
+     */
+    private class Lane {
+
+        private final Queue<LaneTask> queue;
+
+        private final AtomicBoolean running;
+
+        protected final AtomicInteger size;
+
+        protected Lane() {
+            this.queue = new ConcurrentLinkedQueue<>();
+            this.running = new AtomicBoolean(false);
+            this.size = new AtomicInteger(0);
+        }
+
+        protected void offer(LaneTask task) {
+            this.size.incrementAndGet();
+            this.queue.offer(task);
+            this.schedule();
+        }
+
+        private void schedule() {
+            if (this.running.compareAndSet(false, true)) {
+                executor.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            LaneTask current = this.queue.poll();
+            while (null != current) {
+                this.size.decrementAndGet();
+                queued.decrementAndGet();
+                record(current.timestamp);
+
+                try {
+                    current.task.run();
+                } catch (Throwable e) {
+                    // 保证后续任务继续执行
+                    e.printStackTrace();
+                }
+
+                current = this.queue.poll();
+            }
+
+            this.running.set(false);
+
+            // 检查在释放运行状态之前新加入的任务
+            if (!this.queue.isEmpty()) {
+                this.schedule();
+            }
+        }
+    }
+}
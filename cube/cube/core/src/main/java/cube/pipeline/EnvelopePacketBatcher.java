@@ -0,0 +1,101 @@
+/*
+ * This file is part of Cube.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2022 Cube Team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package cube.pipeline;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import cube.core.Packet;
+import cube.core.PipelineState;
+import cube.util.LogUtils;
+
+/**
+ * 信封格式的数据包合并器。
+ * 请求负载格式为 {@code {"packets": [{"sn", "name", "data"}, ...]}} ，
+ * 应答负载格式为 {@code {"code", "data": {"packets": [{"sn", "name", "data"}, ...]}}} 。
+ */
+public class EnvelopePacketBatcher implements PacketBatcher {
+
+    private final String batchName;
+
+    /**
+     * 构造函数。
+     *
+     * @param batchName 指定合并请求的动作名。
+     */
+    public EnvelopePacketBatcher(String batchName) {
+        this.batchName = batchName;
+    }
+
+    @Override
+    public Packet merge(List<Packet> packets) {
+        JSONArray array = new JSONArray();
+        JSONObject data = new JSONObject();
+        try {
+            for (Packet packet : packets) {
+                JSONObject json = new JSONObject();
+                json.put("sn", packet.sn.longValue());
+                json.put("name", packet.name);
+                json.put("data", packet.getData());
+                array.put(json);
+            }
+            data.put("packets", array);
+        } catch (JSONException e) {
+            LogUtils.w("EnvelopePacketBatcher", "#merge", e);
+        }
+        return new Packet(this.batchName, data);
+    }
+
+    @Override
+    public Map<Long, Packet> split(Packet response, List<Packet> packets) {
+        Map<Long, Packet> result = new HashMap<>();
+
+        JSONObject data = response.extractServiceData();
+        if (null == data || !data.has("packets")) {
+            return result;
+        }
+
+        try {
+            JSONArray array = data.getJSONArray("packets");
+            for (int i = 0; i < array.length(); ++i) {
+                Packet packet = new Packet(array.getJSONObject(i));
+                packet.state = PipelineState.Ok;
+                packet.response = true;
+                result.put(packet.sn, packet);
+            }
+        } catch (JSONException e) {
+            LogUtils.w("EnvelopePacketBatcher", "#split", e);
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * This file is part of Cube.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2022 Cube Team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package cube.pipeline;
+
+import java.util.List;
+import java.util.Map;
+
+import cube.core.Packet;
+
+/**
+ * 数据包合并器。将同一动作的多个请求合并为一个请求，并将合并后的应答拆分给各请求。
+ */
+public interface PacketBatcher {
+
+    /**
+     * 合并请求数据包。
+     *
+     * @param packets 同一目标、同一动作的请求数据包列表。
+     * @return 返回合并后的数据包。
+     */
+    Packet merge(List<Packet> packets);
+
+    /**
+     * 拆分应答数据包。
+     *
+     * @param response 合并请求的应答数据包。
+     * @param packets 被合并的请求数据包列表。
+     * @return 返回以请求数据包序号为键的应答数据包。
+     */
+    Map<Long, Packet> split(Packet response, List<Packet> packets);
+}
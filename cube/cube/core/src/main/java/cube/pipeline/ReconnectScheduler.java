@@ -0,0 +1,207 @@
+/*
+ * This file is part of Cube.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2022 Cube Team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package cube.pipeline;
+
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 重连调度器。按带随机抖动的指数退避间隔执行重连，连接成功后重置退避。
+ */
+public class ReconnectScheduler {
+
+    private final ScheduledExecutorService scheduledExecutor;
+
+    private final Runnable reconnectTask;
+
+    private final Random random;
+
+    /**
+     * 初始的重连间隔。
+     */
+    private long baseDelay = 1000L;
+
+    /**
+     * 最大的重连间隔。
+     */
+    private long maxDelay = 60L * 1000;
+
+    /**
+     * 连续重连次数。
+     */
+    private int attempt;
+
+    /**
+     * 本次断线开始的时间戳。
+     */
+    private long outageTimestamp;
+
+    private ScheduledFuture<?> future;
+
+    private AtomicLong attemptCount;
+
+    private AtomicLong reconnectedCount;
+
+    private AtomicLong totalReconnectLatency;
+
+    private long lastReconnectLatency;
+
+    /**
+     * 构造函数。
+     *
+     * @param scheduledExecutor 指定调度器。
+     * @param reconnectTask 指定重连任务。
+     */
+    public ReconnectScheduler(ScheduledExecutorService scheduledExecutor, Runnable reconnectTask) {
+        this.scheduledExecutor = scheduledExecutor;
+        this.reconnectTask = reconnectTask;
+        this.random = new Random();
+        this.attempt = 0;
+        this.outageTimestamp = 0;
+        this.attemptCount = new AtomicLong(0);
+        this.reconnectedCount = new AtomicLong(0);
+        this.totalReconnectLatency = new AtomicLong(0);
+        this.lastReconnectLatency = 0;
+    }
+
+    /**
+     * 设置退避间隔。
+     *
+     * @param baseDelay 指定初始间隔，单位：毫秒。
+     * @param maxDelay 指定最大间隔，单位：毫秒。
+     */
+    public void setDelay(long baseDelay, long maxDelay) {
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+    }
+
+    /**
+     * 按照当前的退避间隔安排一次重连。如果已有待执行的重连则忽略。
+     */
+    public synchronized void schedule() {
+        if (null != this.future && !this.future.isDone()) {
+            return;
+        }
+
+        if (0 == this.outageTimestamp) {
+            this.outageTimestamp = System.currentTimeMillis();
+        }
+
+        long delay = this.nextDelay();
+        ++this.attempt;
+
+        this.future = this.scheduledExecutor.schedule(() -> {
+            attemptCount.incrementAndGet();
+            reconnectTask.run();
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 重置退避间隔并尽快重连。用于网络恢复时。
+     */
+    public synchronized void scheduleNow() {
+        this.cancel();
+        this.attempt = 0;
+        this.schedule();
+    }
+
+    /**
+     * 连接成功时调用，重置退避间隔并记录重连耗时。
+     */
+    public synchronized void reset() {
+        this.cancel();
+
+        if (0 != this.outageTimestamp) {
+            this.lastReconnectLatency = System.currentTimeMillis() - this.outageTimestamp;
+            this.totalReconnectLatency.addAndGet(this.lastReconnectLatency);
+            this.reconnectedCount.incrementAndGet();
+        }
+
+        this.attempt = 0;
+        this.outageTimestamp = 0;
+    }
+
+    /**
+     * 取消待执行的重连。
+     */
+    public synchronized void cancel() {
+        if (null != this.future) {
+            this.future.cancel(false);
+            this.future = null;
+        }
+    }
+
+    /**
+     * 返回累计的重连尝试次数。
+     *
+     * @return 返回累计的重连尝试次数。
+     */
+    public long getAttemptCount() {
+        return this.attemptCount.get();
+    }
+
+    /**
+     * 返回累计的重连成功次数。
+     *
+     * @return 返回累计的重连成功次数。
+     */
+    public long getReconnectedCount() {
+        return this.reconnectedCount.get();
+    }
+
+    /**
+     * 返回最近一次从断线到重连成功的耗时。
+     *
+     * @return 返回耗时，单位：毫秒。
+     */
+    public synchronized long getLastReconnectLatency() {
+        return this.lastReconnectLatency;
+    }
+
+    /**
+     * 返回从断线到重连成功的平均耗时。
+     *
+     * @return 返回平均耗时，单位：毫秒。
+     */
+    public long getAverageReconnectLatency() {
+        long count = this.reconnectedCount.get();
+        return (count > 0) ? this.totalReconnectLatency.get() / count : 0;
+    }
+
+    private long nextDelay() {
+        // 指数退避，取间隔的一半加上随机抖动，避免大量终端同时重连
+        long delay = this.baseDelay << Math.min(this.attempt, 16);
+        if (delay <= 0 || delay > this.maxDelay) {
+            delay = this.maxDelay;
+        }
+        long half = delay / 2;
+        return half + (long) (this.random.nextDouble() * half);
+    }
+}
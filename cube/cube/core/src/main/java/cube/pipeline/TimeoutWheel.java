@@ -0,0 +1,221 @@
+/*
+ * This file is part of Cube.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2022 Cube Team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package cube.pipeline;
+
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 哈希时间轮。用于管理大量在途请求的超时。
+ * 每个刻度只检查对应槽位内的任务，添加与取消操作的时间复杂度均为 O(1) 。
+ */
+public class TimeoutWheel {
+
+    /**
+     * 每个刻度的时长，单位：毫秒。
+     */
+    private final long tickDuration;
+
+    private final int mask;
+
+    private final Queue<Timeout>[] buckets;
+
+    /**
+     * 未到期且未取消的任务数量。
+     */
+    private final AtomicInteger pending;
+
+    /**
+     * 最近一次处理完成的刻度。仅在刻度线程里访问。
+     */
+    private long lastTick;
+
+    private ScheduledFuture<?> tickFuture;
+
+    /**
+     * 构造函数。
+     *
+     * @param tickDuration 指定刻度时长，单位：毫秒。
+     * @param ticksPerWheel 指定时间轮的槽位数量，将被调整为 2 的幂。
+     */
+    @SuppressWarnings("unchecked")
+    public TimeoutWheel(long tickDuration, int ticksPerWheel) {
+        this.tickDuration = Math.max(1L, tickDuration);
+
+        int size = 1;
+        while (size < ticksPerWheel) {
+            size <<= 1;
+        }
+        this.mask = size - 1;
+        this.buckets = new Queue[size];
+        for (int i = 0; i < size; ++i) {
+            this.buckets[i] = new ConcurrentLinkedQueue<>();
+        }
+
+        this.pending = new AtomicInteger(0);
+    }
+
+    /**
+     * 启动时间轮。
+     *
+     * @param scheduledExecutor 驱动刻度的调度器。
+     */
+    public synchronized void start(ScheduledExecutorService scheduledExecutor) {
+        if (null != this.tickFuture) {
+            return;
+        }
+
+        this.lastTick = System.currentTimeMillis() / this.tickDuration - 1;
+        this.tickFuture = scheduledExecutor.scheduleAtFixedRate(this::tick,
+                this.tickDuration, this.tickDuration, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 停止时间轮，并丢弃所有未到期的任务。
+     */
+    public synchronized void stop() {
+        if (null != this.tickFuture) {
+            this.tickFuture.cancel(false);
+            this.tickFuture = null;
+        }
+
+        for (Queue<Timeout> bucket : this.buckets) {
+            bucket.clear();
+        }
+        this.pending.set(0);
+    }
+
+    /**
+     * 添加超时任务。
+     *
+     * @param delay 指定超时时长，单位：毫秒。
+     * @param task 超时时执行的任务，在刻度线程里执行。
+     * @return 返回超时句柄，用于取消任务。
+     */
+    public Timeout schedule(long delay, Runnable task) {
+        // 超时时长不小于一个刻度，保证任务不会落入正在处理的槽位
+        long deadline = System.currentTimeMillis() + Math.max(delay, this.tickDuration);
+        Timeout timeout = new Timeout(deadline, task);
+        this.pending.incrementAndGet();
+        this.buckets[(int) ((deadline / this.tickDuration) & this.mask)].offer(timeout);
+        return timeout;
+    }
+
+    /**
+     * 返回未到期的任务数量。
+     *
+     * @return 返回未到期的任务数量。
+     */
+    public int numPending() {
+        return this.pending.get();
+    }
+
+    private void tick() {
+        long now = System.currentTimeMillis();
+        long current = now / this.tickDuration;
+
+        // 仅处理已完全过去的刻度，跳过过多刻度时最多遍历一圈
+        long from = Math.max(this.lastTick + 1, current - this.buckets.length);
+        for (long tick = from; tick < current; ++tick) {
+            Iterator<Timeout> iter = this.buckets[(int) (tick & this.mask)].iterator();
+            while (iter.hasNext()) {
+                Timeout timeout = iter.next();
+                if (timeout.cancelled) {
+                    iter.remove();
+                }
+                else if (timeout.deadline <= now) {
+                    iter.remove();
+                    if (timeout.expire()) {
+                        try {
+                            timeout.task.run();
+                        } catch (Throwable e) {
+                            // 不能中断刻度线程
+                            e.printStackTrace();
+                        }
+                    }
+                }
+            }
+        }
+
+        this.lastTick = current - 1;
+    }
+
+    /**
+     * 超时句柄。
+     */
+    public class Timeout {
+
+        public final long deadline;
+
+        private final Runnable task;
+
+        private volatile boolean cancelled;
+
+        private boolean expired;
+
+        protected Timeout(long deadline, Runnable task) {
+            this.deadline = deadline;
+            this.task = task;
+            this.cancelled = false;
+            this.expired = false;
+        }
+
+        /**
+         * 取消任务。
+         *
+         * @return 如果任务尚未到期返回 {@code true} 。
+         */
+        public boolean cancel() {
+            synchronized (this) {
+                if (this.cancelled || this.expired) {
+                    return false;
+                }
+                this.cancelled = true;
+            }
+
+            pending.decrementAndGet();
+            return true;
+        }
+
+        private boolean expire() {
+            synchronized (this) {
+                if (this.cancelled || this.expired) {
+                    return false;
+                }
+                this.expired = true;
+            }
+
+            pending.decrementAndGet();
+            return true;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * This file is part of Cube.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2022 Cube Team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package cube.util;
+
+import java.util.ArrayDeque;
+
+/**
+ * 定长字节数组缓冲池。
+ * 池里只保存当前长度的数组，请求的长度变化时丢弃旧长度的数组。
+ */
+public class BufferPool {
+
+    private final int maxPooled;
+
+    private final ArrayDeque<byte[]> buffers;
+
+    private int bufferSize;
+
+    /**
+     * 构造函数。
+     *
+     * @param maxPooled 指定池里最多保存的数组数量。
+     */
+    public BufferPool(int maxPooled) {
+        this.maxPooled = maxPooled;
+        this.buffers = new ArrayDeque<>(maxPooled);
+        this.bufferSize = 0;
+    }
+
+    /**
+     * 获取指定长度的数组。数组内容不会被清零。
+     *
+     * @param size 指定数组长度。
+     * @return 返回字节数组。
+     */
+    public synchronized byte[] acquire(int size) {
+        if (size != this.bufferSize) {
+            this.buffers.clear();
+            this.bufferSize = size;
+        }
+
+        byte[] buffer = this.buffers.poll();
+        return (null != buffer) ? buffer : new byte[size];
+    }
+
+    /**
+     * 归还数组。
+     *
+     * @param buffer 指定由 {@link #acquire(int)} 获取的数组。
+     */
+    public synchronized void release(byte[] buffer) {
+        if (buffer.length == this.bufferSize && this.buffers.size() < this.maxPooled) {
+            this.buffers.offer(buffer);
+        }
+    }
+
+    /**
+     * 清空缓冲池。
+     */
+    public synchronized void clear() {
+        this.buffers.clear();
+    }
+
+    /**
+     * 获取池里空闲的数组数量。
+     *
+     * @return 返回空闲的数组数量。
+     */
+    public synchronized int numIdle() {
+        return this.buffers.size();
+    }
+}
@@ -39,7 +39,10 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 /**
  * 文件实用函数库。
@@ -48,6 +51,16 @@ public class FileUtils {
 
     private final static String TAG = "FileUtils";
 
+    /**
+     * 使用内存映射计算摘要的最小文件大小。
+     */
+    private final static long DIGEST_MAP_THRESHOLD = 4 * 1024 * 1024;
+
+    /**
+     * 内存映射的窗口大小。
+     */
+    private final static long DIGEST_MAP_WINDOW = 32 * 1024 * 1024;
+
     private FileUtils() {
     }
 
@@ -174,4 +187,58 @@ public class FileUtils {
             }
         }
     }
+
+    /**
+     * 计算文件的摘要，返回小写十六进制字符串。
+     * 小文件使用流式读取，大文件按窗口内存映射读取，避免数据在用户空间的复制。
+     *
+     * @param file 指定文件。
+     * @param algorithm 指定摘要算法，例如 {@code MD5} 、 {@code SHA-1} 。
+     * @return 返回摘要字符串。
+     * @throws IOException
+     */
+    public static String digest(File file, String algorithm) throws IOException {
+        MessageDigest md = null;
+        try {
+            md = MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+
+        FileInputStream fis = null;
+        try {
+            fis = new FileInputStream(file);
+            long size = file.length();
+            if (size >= DIGEST_MAP_THRESHOLD) {
+                FileChannel channel = fis.getChannel();
+                for (long position = 0; position < size; position += DIGEST_MAP_WINDOW) {
+                    long length = Math.min(DIGEST_MAP_WINDOW, size - position);
+                    md.update(channel.map(FileChannel.MapMode.READ_ONLY, position, length));
+                }
+            }
+            else {
+                byte[] buf = new byte[64 * 1024];
+                int length = 0;
+                while ((length = fis.read(buf)) > 0) {
+                    md.update(buf, 0, length);
+                }
+            }
+        } finally {
+            if (null != fis) {
+                try {
+                    fis.close();
+                } catch (IOException e) {
+                    // Nothing
+                }
+            }
+        }
+
+        byte[] bytes = md.digest();
+        StringBuilder buf = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            buf.append(Character.forDigit((b >> 4) & 0xF, 16));
+            buf.append(Character.forDigit(b & 0xF, 16));
+        }
+        return buf.toString();
+    }
 }
@@ -0,0 +1,190 @@
+/*
+ * This file is part of Cube.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2022 Cube Team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package cube.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 延迟直方图。以微秒为单位按指数分桶统计耗时分布。
+ */
+public class LatencyHistogram {
+
+    /**
+     * 各分桶的上界，单位：微秒。最后一个分桶记录超出上界的所有数据。
+     */
+    private final static long[] BOUNDS = new long[] {
+            100, 250, 500,
+            1000, 2500, 5000,
+            10000, 25000, 50000,
+            100000, 250000, 500000,
+            1000000, 2500000, 5000000
+    };
+
+    private final String name;
+
+    private final AtomicLongArray buckets;
+
+    private final AtomicLong count;
+
+    private final AtomicLong total;
+
+    private final AtomicLong max;
+
+    public LatencyHistogram(String name) {
+        this.name = name;
+        this.buckets = new AtomicLongArray(BOUNDS.length + 1);
+        this.count = new AtomicLong(0);
+        this.total = new AtomicLong(0);
+        this.max = new AtomicLong(0);
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * 记录一次耗时。
+     *
+     * @param nanos 耗时，单位：纳秒。
+     */
+    public void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000L);
+
+        int index = BOUNDS.length;
+        for (int i = 0; i < BOUNDS.length; ++i) {
+            if (micros <= BOUNDS[i]) {
+                index = i;
+                break;
+            }
+        }
+
+        this.buckets.incrementAndGet(index);
+        this.count.incrementAndGet();
+        this.total.addAndGet(micros);
+
+        long current = this.max.get();
+        while (micros > current && !this.max.compareAndSet(current, micros)) {
+            current = this.max.get();
+        }
+    }
+
+    /**
+     * 获取记录总次数。
+     *
+     * @return
+     */
+    public long getCount() {
+        return this.count.get();
+    }
+
+    /**
+     * 获取平均耗时，单位：微秒。
+     *
+     * @return
+     */
+    public long getAverage() {
+        long count = this.count.get();
+        return (count == 0) ? 0 : this.total.get() / count;
+    }
+
+    /**
+     * 获取最大耗时，单位：微秒。
+     *
+     * @return
+     */
+    public long getMax() {
+        return this.max.get();
+    }
+
+    /**
+     * 获取指定百分位所在分桶的上界，单位：微秒。
+     *
+     * @param percentile 百分位，取值范围 {@code (0, 100]} 。
+     * @return 返回耗时上界。超出最大分桶时返回最大耗时。
+     */
+    public long getPercentile(double percentile) {
+        long count = this.count.get();
+        if (count == 0) {
+            return 0;
+        }
+
+        long threshold = (long) Math.ceil(count * Math.min(100.0, percentile) / 100.0);
+        long accumulated = 0;
+        for (int i = 0; i < BOUNDS.length; ++i) {
+            accumulated += this.buckets.get(i);
+            if (accumulated >= threshold) {
+                return BOUNDS[i];
+            }
+        }
+
+        return this.max.get();
+    }
+
+    /**
+     * 获取各分桶的计数快照。
+     *
+     * @return 返回长度为 {@link #getBounds()} 长度加一的数组，最后一项为溢出分桶。
+     */
+    public long[] getBuckets() {
+        long[] result = new long[this.buckets.length()];
+        for (int i = 0; i < result.length; ++i) {
+            result[i] = this.buckets.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * 获取分桶上界，单位：微秒。
+     *
+     * @return
+     */
+    public static long[] getBounds() {
+        return BOUNDS.clone();
+    }
+
+    /**
+     * 清空统计数据。
+     */
+    public void reset() {
+        for (int i = 0; i < this.buckets.length(); ++i) {
+            this.buckets.set(i, 0);
+        }
+        this.count.set(0);
+        this.total.set(0);
+        this.max.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return this.name + " [count=" + this.count.get()
+                + ", avg=" + this.getAverage() + "us"
+                + ", p50=" + this.getPercentile(50) + "us"
+                + ", p99=" + this.getPercentile(99) + "us"
+                + ", max=" + this.max.get() + "us]";
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * This file is part of Cube.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2022 Cube Team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package cube.util;
+
+import java.util.Arrays;
+
+/**
+ * 以 {@code long} 为键的哈希表。
+ * 使用开放寻址和线性探测，键不装箱，删除时回移后续元素，不留下墓碑。
+ * 值可以为 {@code null} ，判断键是否存在应使用 {@link #containsKey(long)} 。
+ * 该类不是线程安全的。
+ *
+ * @param <V> 值类型。
+ */
+public class LongHashMap<V> {
+
+    private final static float LOAD_FACTOR = 0.6f;
+
+    private long[] keys;
+
+    private Object[] values;
+
+    private boolean[] used;
+
+    private int size;
+
+    private int mask;
+
+    private int threshold;
+
+    public LongHashMap() {
+        this(8);
+    }
+
+    /**
+     * 构造函数。
+     *
+     * @param expectedSize 预计的元素数量。
+     */
+    public LongHashMap(int expectedSize) {
+        int capacity = 8;
+        while (capacity * LOAD_FACTOR < expectedSize) {
+            capacity <<= 1;
+        }
+        this.allocate(capacity);
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    public boolean containsKey(long key) {
+        return this.indexOf(key) >= 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int index = this.indexOf(key);
+        return (index >= 0) ? (V) this.values[index] : null;
+    }
+
+    /**
+     * 添加或替换键值对。
+     *
+     * @param key 指定键。
+     * @param value 指定值。
+     * @return 返回被替换的值。
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        int index = hash(key) & this.mask;
+        while (this.used[index]) {
+            if (this.keys[index] == key) {
+                V old = (V) this.values[index];
+                this.values[index] = value;
+                return old;
+            }
+            index = (index + 1) & this.mask;
+        }
+
+        this.keys[index] = key;
+        this.values[index] = value;
+        this.used[index] = true;
+
+        if (++this.size > this.threshold) {
+            this.rehash(this.keys.length << 1);
+        }
+        return null;
+    }
+
+    /**
+     * 移除指定键。
+     *
+     * @param key 指定键。
+     * @return 返回被移除的值。
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        int index = this.indexOf(key);
+        if (index < 0) {
+            return null;
+        }
+
+        V old = (V) this.values[index];
+        --this.size;
+
+        // 回移同一探测序列上的后续元素
+        int hole = index;
+        int cursor = (hole + 1) & this.mask;
+        while (this.used[cursor]) {
+            int home = hash(this.keys[cursor]) & this.mask;
+            // 判断 home 是否不在 (hole, cursor] 区间内
+            if (((cursor - home) & this.mask) >= ((cursor - hole) & this.mask)) {
+                this.keys[hole] = this.keys[cursor];
+                this.values[hole] = this.values[cursor];
+                hole = cursor;
+            }
+            cursor = (cursor + 1) & this.mask;
+        }
+
+        this.used[hole] = false;
+        this.values[hole] = null;
+        return old;
+    }
+
+    public void clear() {
+        if (this.size == 0) {
+            return;
+        }
+
+        Arrays.fill(this.used, false);
+        Arrays.fill(this.values, null);
+        this.size = 0;
+    }
+
+    private int indexOf(long key) {
+        int index = hash(key) & this.mask;
+        while (this.used[index]) {
+            if (this.keys[index] == key) {
+                return index;
+            }
+            index = (index + 1) & this.mask;
+        }
+        return -1;
+    }
+
+    private void allocate(int capacity) {
+        this.keys = new long[capacity];
+        this.values = new Object[capacity];
+        this.used = new boolean[capacity];
+        this.mask = capacity - 1;
+        this.threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void rehash(int capacity) {
+        long[] oldKeys = this.keys;
+        Object[] oldValues = this.values;
+        boolean[] oldUsed = this.used;
+
+        this.allocate(capacity);
+        this.size = 0;
+
+        for (int i = 0; i < oldKeys.length; ++i) {
+            if (oldUsed[i]) {
+                this.put(oldKeys[i], (V) oldValues[i]);
+            }
+        }
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
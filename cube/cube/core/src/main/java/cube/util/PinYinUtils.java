@@ -26,12 +26,202 @@
 
 package cube.util;
 
+import net.sourceforge.pinyin4j.PinyinHelper;
+import net.sourceforge.pinyin4j.format.HanyuPinyinCaseType;
+import net.sourceforge.pinyin4j.format.HanyuPinyinOutputFormat;
+import net.sourceforge.pinyin4j.format.HanyuPinyinToneType;
+import net.sourceforge.pinyin4j.format.HanyuPinyinVCharType;
+import net.sourceforge.pinyin4j.format.exception.BadHanyuPinyinOutputFormatCombination;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
 /**
  * 拼音实用函数。
  */
 public final class PinYinUtils {
 
+    /**
+     * 非字母开头文本的索引字母。
+     */
+    public final static char OTHER_LETTER = '#';
+
+    private final static char OTHER_KEY_PREFIX = '~';
+
+    private final static HanyuPinyinOutputFormat sFormat = new HanyuPinyinOutputFormat();
+
+    static {
+        sFormat.setCaseType(HanyuPinyinCaseType.LOWERCASE);
+        sFormat.setToneType(HanyuPinyinToneType.WITHOUT_TONE);
+        sFormat.setVCharType(HanyuPinyinVCharType.WITH_V);
+    }
+
     private PinYinUtils() {
     }
 
+    /**
+     * 判断字符是否是汉字。
+     *
+     * @param c 指定字符。
+     * @return 如果是汉字返回 {@code true} 。
+     */
+    public static boolean isHanzi(char c) {
+        return c >= 0x4E00 && c <= 0x9FA5;
+    }
+
+    /**
+     * 将文本切分为拼音音节。汉字转为小写无声调的拼音，连续的字母和数字作为一个音节并转为小写，其他字符被忽略。
+     * 多音字取第一个读音。
+     *
+     * @param text 指定文本。
+     * @return 返回按顺序排列的音节列表。
+     */
+    public static List<String> getSyllables(String text) {
+        List<String> result = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+
+        for (int i = 0, length = text.length(); i < length; ++i) {
+            char c = text.charAt(i);
+            if (isHanzi(c)) {
+                if (word.length() > 0) {
+                    result.add(word.toString().toLowerCase(Locale.ROOT));
+                    word.setLength(0);
+                }
+
+                String syllable = toPinyin(c);
+                if (null != syllable) {
+                    result.add(syllable);
+                }
+            }
+            else if (Character.isLetterOrDigit(c)) {
+                word.append(c);
+            }
+            else if (word.length() > 0) {
+                result.add(word.toString().toLowerCase(Locale.ROOT));
+                word.setLength(0);
+            }
+        }
+
+        if (word.length() > 0) {
+            result.add(word.toString().toLowerCase(Locale.ROOT));
+        }
+
+        return result;
+    }
+
+    /**
+     * 获取文本的全拼。例如“张三”返回 {@code zhangsan} 。
+     *
+     * @param text 指定文本。
+     * @return 返回小写的全拼。
+     */
+    public static String getPinyin(String text) {
+        StringBuilder buf = new StringBuilder();
+        for (String syllable : getSyllables(text)) {
+            buf.append(syllable);
+        }
+        return buf.toString();
+    }
+
+    /**
+     * 获取文本的拼音首字母。例如“张三”返回 {@code zs} 。
+     *
+     * @param text 指定文本。
+     * @return 返回小写的拼音首字母。
+     */
+    public static String getInitials(String text) {
+        StringBuilder buf = new StringBuilder();
+        for (String syllable : getSyllables(text)) {
+            buf.append(syllable.charAt(0));
+        }
+        return buf.toString();
+    }
+
+    /**
+     * 生成文本的排序键。排序键由大写全拼、大写拼音首字母和原文组成，以空格分隔，可直接按字符串顺序比较。
+     * 不以字母开头的文本在排序键前增加 {@code '~'} 前缀，使其排在所有字母之后。
+     *
+     * @param text 指定文本。
+     * @return 返回排序键。
+     */
+    public static String getSortKey(String text) {
+        if (null == text) {
+            text = "";
+        }
+
+        StringBuilder pinyin = new StringBuilder();
+        StringBuilder initials = new StringBuilder();
+        for (String syllable : getSyllables(text)) {
+            pinyin.append(syllable);
+            initials.append(syllable.charAt(0));
+        }
+
+        StringBuilder buf = new StringBuilder(pinyin.length() + initials.length() + text.length() + 3);
+        if (pinyin.length() == 0 || !isIndexLetter(Character.toUpperCase(pinyin.charAt(0)))) {
+            buf.append(OTHER_KEY_PREFIX);
+        }
+        buf.append(pinyin.toString().toUpperCase(Locale.ROOT));
+        buf.append(' ');
+        buf.append(initials.toString().toUpperCase(Locale.ROOT));
+        buf.append(' ');
+        buf.append(text);
+        return buf.toString();
+    }
+
+    /**
+     * 获取排序键对应的索引字母。
+     *
+     * @param sortKey 由 {@link #getSortKey(String)} 生成的排序键。
+     * @return 返回 {@code 'A'} 至 {@code 'Z'} 的索引字母，其他文本返回 {@code '#'} 。
+     */
+    public static char getIndexLetter(String sortKey) {
+        if (null == sortKey || sortKey.length() == 0) {
+            return OTHER_LETTER;
+        }
+
+        char c = sortKey.charAt(0);
+        return isIndexLetter(c) ? c : OTHER_LETTER;
+    }
+
+    /**
+     * 判断排序键是否匹配指定的关键词。关键词可以是全拼前缀、拼音首字母前缀或原文的一部分。
+     *
+     * @param sortKey 由 {@link #getSortKey(String)} 生成的排序键。
+     * @param keyword 关键词。
+     * @return 如果匹配返回 {@code true} 。
+     */
+    public static boolean matchSortKey(String sortKey, String keyword) {
+        if (keyword.length() == 0) {
+            return true;
+        }
+
+        int first = sortKey.indexOf(' ');
+        int second = sortKey.indexOf(' ', first + 1);
+        if (first < 0 || second < 0) {
+            return sortKey.contains(keyword);
+        }
+
+        String upper = keyword.toUpperCase(Locale.ROOT);
+        int offset = (sortKey.charAt(0) == OTHER_KEY_PREFIX) ? 1 : 0;
+        return sortKey.startsWith(upper, offset)
+                || sortKey.startsWith(upper, first + 1)
+                || sortKey.substring(second + 1).toUpperCase(Locale.ROOT).contains(upper);
+    }
+
+    private static boolean isIndexLetter(char c) {
+        return c >= 'A' && c <= 'Z';
+    }
+
+    private static String toPinyin(char c) {
+        try {
+            String[] array = PinyinHelper.toHanyuPinyinStringArray(c, sFormat);
+            if (null != array && array.length > 0) {
+                return array[0];
+            }
+        } catch (BadHanyuPinyinOutputFormatCombination e) {
+            // Nothing
+        }
+        return null;
+    }
 }
@@ -0,0 +1,186 @@
+/*
+ * This file is part of Cube.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2022 Cube Team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package cube.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 由生产者设置结果的 Future 。
+ * 结果只能被设置一次，之后的设置将被忽略。
+ *
+ * @param <T> 结果类型。
+ */
+public class ResultFuture<T> implements Future<T> {
+
+    private T result;
+
+    private boolean done;
+
+    private boolean cancelled;
+
+    private List<Listener<T>> listeners;
+
+    public ResultFuture() {
+        this.done = false;
+        this.cancelled = false;
+    }
+
+    /**
+     * 设置结果，并通知所有监听器。
+     *
+     * @param result 结果数据。
+     * @return 如果结果已经设置过或者已经被取消，返回 {@code false} 。
+     */
+    public boolean complete(T result) {
+        List<Listener<T>> list = null;
+        synchronized (this) {
+            if (this.done) {
+                return false;
+            }
+
+            this.result = result;
+            this.done = true;
+            list = this.listeners;
+            this.listeners = null;
+            this.notifyAll();
+        }
+
+        if (null != list) {
+            for (Listener<T> listener : list) {
+                listener.onCompleted(result);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 添加结果监听器。如果结果已经设置，监听器在当前线程里立即被回调。
+     *
+     * @param listener 结果监听器。
+     */
+    public void addListener(Listener<T> listener) {
+        T value = null;
+        synchronized (this) {
+            if (!this.done) {
+                if (null == this.listeners) {
+                    this.listeners = new ArrayList<>(2);
+                }
+                this.listeners.add(listener);
+                return;
+            }
+            value = this.result;
+        }
+
+        listener.onCompleted(value);
+    }
+
+    /**
+     * 立即获取结果。
+     *
+     * @param defaultValue 未完成时返回的值。
+     * @return 返回结果，如果未完成返回 {@code defaultValue} 。
+     */
+    public synchronized T getNow(T defaultValue) {
+        return this.done ? this.result : defaultValue;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        synchronized (this) {
+            if (this.done) {
+                return false;
+            }
+            this.cancelled = true;
+        }
+
+        // 以空值通知监听器
+        this.complete(null);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return this.cancelled;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return this.done;
+    }
+
+    @Override
+    public synchronized T get() throws InterruptedException, ExecutionException {
+        while (!this.done) {
+            this.wait();
+        }
+
+        if (this.cancelled) {
+            throw new CancellationException();
+        }
+        return this.result;
+    }
+
+    @Override
+    public synchronized T get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        long remaining = unit.toNanos(timeout);
+        long deadline = System.nanoTime() + remaining;
+        while (!this.done) {
+            if (remaining <= 0) {
+                throw new TimeoutException();
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            remaining = deadline - System.nanoTime();
+        }
+
+        if (this.cancelled) {
+            throw new CancellationException();
+        }
+        return this.result;
+    }
+
+    /**
+     * 结果监听器。
+     *
+     * @param <T> 结果类型。
+     */
+    public interface Listener<T> {
+
+        /**
+         * 当结果被设置时回调该方法。
+         *
+         * @param result 结果数据。如果 Future 被取消，结果为 {@code null} 值。
+         */
+        void onCompleted(T result);
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * This file is part of Cube.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2022 Cube Team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package cube.core;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * 负载延迟解析的基准测试。
+ * 模拟一次消息拉取的应答：数据包按序号路由给应答句柄，只有少数数据包的负载被读取。
+ */
+public class PacketPayloadBenchmark {
+
+    private final static int PACKETS = 2000;
+
+    private final static int READ_RATIO = 10;
+
+    private final static int ROUNDS = 20;
+
+    @Test
+    public void lazyParseSkipsUnreadPayloads() throws JSONException {
+        byte[] payload = makePayload(50);
+
+        // 预热
+        runEager(payload);
+        runLazy(payload);
+
+        long eager = Long.MAX_VALUE;
+        long lazy = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; ++i) {
+            long start = System.nanoTime();
+            runEager(payload);
+            eager = Math.min(eager, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            runLazy(payload);
+            lazy = Math.min(lazy, System.nanoTime() - start);
+        }
+
+        System.out.println("PacketPayloadBenchmark - " + PACKETS + " packets, payload "
+                + payload.length + " bytes, 1/" + READ_RATIO + " read: eager "
+                + (eager / 1000) + " us, lazy " + (lazy / 1000) + " us");
+    }
+
+    @Test
+    public void unparsedPayloadIsForwardedAsIs() throws JSONException {
+        byte[] payload = makePayload(5);
+        Packet packet = new Packet(1L, "pull", payload);
+
+        assertTrue(packet.hasRawData());
+        assertSame(payload, packet.getRawData());
+        assertTrue(packet.hasRawData());
+
+        JSONObject data = packet.getData();
+        assertFalse(packet.hasRawData());
+        assertEquals(5, data.getJSONArray("messages").length());
+    }
+
+    private static long runEager(byte[] payload) throws JSONException {
+        long sum = 0;
+        for (int i = 0; i < PACKETS; ++i) {
+            JSONObject data = new JSONObject(new String(payload, StandardCharsets.UTF_8));
+            Packet packet = new Packet((long) i, "pull", data);
+            sum += route(packet, i);
+        }
+        return sum;
+    }
+
+    private static long runLazy(byte[] payload) throws JSONException {
+        long sum = 0;
+        for (int i = 0; i < PACKETS; ++i) {
+            Packet packet = new Packet((long) i, "pull", payload);
+            sum += route(packet, i);
+        }
+        return sum;
+    }
+
+    private static long route(Packet packet, int index) throws JSONException {
+        long result = packet.sn;
+        if (index % READ_RATIO == 0) {
+            result += packet.getData().getInt("code");
+        }
+        return result;
+    }
+
+    private static byte[] makePayload(int numMessages) throws JSONException {
+        JSONArray messages = new JSONArray();
+        for (int i = 0; i < numMessages; ++i) {
+            JSONObject message = new JSONObject();
+            message.put("id", 1000000L + i);
+            message.put("from", 50001L);
+            message.put("to", 50002L);
+            message.put("source", 0);
+            message.put("rts", 1650000000000L + i);
+            message.put("payload", new JSONObject().put("type", "text").put("content", "Message content " + i));
+            messages.put(message);
+        }
+
+        JSONObject data = new JSONObject();
+        data.put("code", 0);
+        data.put("messages", messages);
+        return data.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * This file is part of Cube.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2022 Cube Team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package cube.core;
+
+import org.junit.Test;
+
+import cube.core.model.Cacheable;
+
+import static org.junit.Assert.*;
+
+/**
+ * 分段 LRU 缓存测试。
+ */
+public class SegmentedCacheTest {
+
+    @Test
+    public void oversizedEntryGoesToProtection() {
+        // 试用段 200 byte ，保护段 800 byte
+        SegmentedCache<Long, Item> cache = new SegmentedCache<>("Test", 1000);
+        cache.put(1L, new Item(100));
+        cache.put(2L, new Item(500));
+
+        assertNotNull(cache.get(2L));
+        assertNotNull(cache.get(1L));
+        assertEquals(600, cache.getMemorySize());
+        assertEquals(0, cache.getRejectionCount());
+    }
+
+    @Test
+    public void oversizedReplacementKeepsKey() {
+        SegmentedCache<Long, Item> cache = new SegmentedCache<>("Test", 1000);
+        cache.put(1L, new Item(100));
+        Item item = new Item(600);
+        cache.put(1L, item);
+
+        assertSame(item, cache.get(1L));
+        assertEquals(600, cache.getMemorySize());
+    }
+
+    @Test
+    public void entryLargerThanProtectionIsRejected() {
+        SegmentedCache<Long, Item> cache = new SegmentedCache<>("Test", 1000);
+        cache.put(1L, new Item(100));
+        cache.put(1L, new Item(900));
+
+        assertNull(cache.get(1L));
+        assertEquals(0, cache.getMemorySize());
+        assertEquals(1, cache.getRejectionCount());
+    }
+
+    @Test
+    public void contactCachesHaveLargerBudgets() {
+        KernelConfig config = new KernelConfig();
+        assertEquals(KernelConfig.DEFAULT_CACHE_BUDGET, config.getCacheBudget("Test"));
+        assertEquals(KernelConfig.DEFAULT_CONTACTS_CACHE_BUDGET, config.getCacheBudget("Contacts"));
+        assertEquals(KernelConfig.DEFAULT_CONTACT_ZONES_CACHE_BUDGET, config.getCacheBudget("ContactZones"));
+    }
+
+    private static class Item implements Cacheable {
+
+        private final int size;
+
+        Item(int size) {
+            this.size = size;
+        }
+
+        @Override
+        public int getMemorySize() {
+            return this.size;
+        }
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * This file is part of Cube.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2022 Cube Team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package cube.pipeline;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import cube.core.Packet;
+import cube.core.PipelineState;
+
+import static org.junit.Assert.*;
+
+/**
+ * 请求合并数据通道测试。
+ */
+public class BatchingPipelineTest {
+
+    private final static String DESTINATION = "Test";
+
+    private ScheduledExecutorService scheduledExecutor;
+
+    private FakePipeline delegate;
+
+    private BatchingPipeline pipeline;
+
+    @Before
+    public void setUp() {
+        this.scheduledExecutor = Executors.newSingleThreadScheduledExecutor();
+        this.delegate = new FakePipeline();
+        this.pipeline = new BatchingPipeline(this.delegate, this.scheduledExecutor);
+    }
+
+    @After
+    public void tearDown() {
+        this.scheduledExecutor.shutdownNow();
+    }
+
+    @Test
+    public void coalescedRequestsShareOneResponse() {
+        this.pipeline.addCoalescingAction(DESTINATION, "get");
+
+        AtomicInteger first = new AtomicInteger(0);
+        AtomicInteger second = new AtomicInteger(0);
+        assertTrue(this.pipeline.send(DESTINATION, makePacket("get", 1), (response) -> first.incrementAndGet()));
+        assertTrue(this.pipeline.send(DESTINATION, makePacket("get", 1), (response) -> second.incrementAndGet()));
+
+        assertEquals(1, this.delegate.sentPackets.size());
+        assertEquals(1, this.pipeline.getCoalescedCount());
+
+        Packet request = this.delegate.sentPackets.get(0);
+        this.delegate.respond(request, makeResponse(request, PipelineState.Ok));
+
+        assertEquals(1, first.get());
+        assertEquals(1, second.get());
+    }
+
+    @Test
+    public void failedSendReleasesFlight() {
+        this.pipeline.addCoalescingAction(DESTINATION, "get");
+
+        this.delegate.accept = false;
+        AtomicInteger failed = new AtomicInteger(0);
+        assertFalse(this.pipeline.send(DESTINATION, makePacket("get", 1), (response) -> failed.incrementAndGet()));
+        // 发送失败时句柄不被回调
+        assertEquals(0, failed.get());
+
+        this.delegate.accept = true;
+        AtomicInteger handled = new AtomicInteger(0);
+        assertTrue(this.pipeline.send(DESTINATION, makePacket("get", 1), (response) -> handled.incrementAndGet()));
+        assertEquals(1, this.delegate.sentPackets.size());
+
+        Packet request = this.delegate.sentPackets.get(0);
+        this.delegate.respond(request, makeResponse(request, PipelineState.Ok));
+        assertEquals(1, handled.get());
+        assertEquals(0, failed.get());
+    }
+
+    @Test
+    public void batchedRequestsAreMerged() throws InterruptedException {
+        this.pipeline.addBatchAction(DESTINATION, "get", new IdBatcher());
+        this.pipeline.setWindow(20);
+
+        AtomicInteger handled = new AtomicInteger(0);
+        for (int i = 0; i < 10; ++i) {
+            assertTrue(this.pipeline.send(DESTINATION, makePacket("get", i), (response) -> {
+                assertEquals(PipelineState.Ok.code, response.state.code);
+                handled.incrementAndGet();
+            }));
+        }
+
+        waitFor(() -> this.delegate.sentPackets.size() == 1);
+        assertEquals(1, this.pipeline.getBatchCount());
+        assertEquals(10, this.pipeline.getBatchedPacketCount());
+
+        Packet request = this.delegate.sentPackets.get(0);
+        this.delegate.respond(request, makeResponse(request, PipelineState.Ok));
+        assertEquals(10, handled.get());
+    }
+
+    @Test
+    public void singlePacketFlushFailureNotifiesOnce() throws InterruptedException {
+        this.pipeline.addBatchAction(DESTINATION, "get", new IdBatcher());
+        this.pipeline.setWindow(10);
+
+        AtomicInteger handled = new AtomicInteger(0);
+        AtomicInteger stateCode = new AtomicInteger(0);
+        assertTrue(this.pipeline.send(DESTINATION, makePacket("get", 1), (response) -> {
+            stateCode.set(response.state.code);
+            handled.incrementAndGet();
+        }));
+
+        // 在合并窗口结束前通道不可写入
+        this.delegate.accept = false;
+
+        waitFor(() -> handled.get() > 0);
+        Thread.sleep(50);
+        assertEquals(1, handled.get());
+        assertEquals(PipelineState.NotReady.code, stateCode.get());
+    }
+
+    @Test
+    public void flightKeyKeepsPayloadUnparsed() {
+        this.pipeline.addCoalescingAction(DESTINATION, "get");
+
+        byte[] data = "{\"id\":1}".getBytes(StandardCharsets.UTF_8);
+        Packet first = new Packet(1L, "get", data);
+        Packet second = new Packet(2L, "get", data);
+        assertTrue(this.pipeline.send(DESTINATION, first, (response) -> {}));
+        assertTrue(this.pipeline.send(DESTINATION, second, (response) -> {}));
+
+        assertEquals(1, this.delegate.sentPackets.size());
+        assertTrue(first.hasRawData());
+        assertTrue(second.hasRawData());
+    }
+
+    private static Packet makePacket(String name, long id) {
+        JSONObject data = new JSONObject();
+        try {
+            data.put("id", id);
+        } catch (JSONException e) {
+            throw new AssertionError(e);
+        }
+        return new Packet(name, data);
+    }
+
+    private static Packet makeResponse(Packet request, PipelineState state) {
+        Packet response = new Packet(request.sn, request.name, new JSONObject());
+        response.state = state;
+        response.response = true;
+        return response;
+    }
+
+    private static void waitFor(Condition condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (!condition.test()) {
+            assertTrue("Timeout", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    private interface Condition {
+        boolean test();
+    }
+
+    /**
+     * 将多个请求合并为一个 ID 列表请求，应答时为每个请求生成独立应答。
+     */
+    private static class IdBatcher implements PacketBatcher {
+
+        @Override
+        public Packet merge(List<Packet> packets) {
+            JSONObject data = new JSONObject();
+            try {
+                JSONArray ids = new JSONArray();
+                for (Packet packet : packets) {
+                    ids.put(packet.getData().getLong("id"));
+                }
+                data.put("ids", ids);
+            } catch (JSONException e) {
+                throw new AssertionError(e);
+            }
+            return new Packet(packets.get(0).name, data);
+        }
+
+        @Override
+        public Map<Long, Packet> split(Packet response, List<Packet> packets) {
+            Map<Long, Packet> result = new HashMap<>();
+            for (Packet request : packets) {
+                result.put(request.sn, makeResponse(request, response.state));
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * This file is part of Cube.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2022 Cube Team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package cube.pipeline;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * 分发引擎测试。
+ */
+public class DispatchEngineTest {
+
+    private DispatchEngine engine;
+
+    @Before
+    public void setUp() {
+        this.engine = new DispatchEngine(2, 16);
+    }
+
+    @After
+    public void tearDown() {
+        this.engine.shutdown();
+    }
+
+    @Test
+    public void laneKeepsSubmissionOrder() throws InterruptedException {
+        List<Integer> result = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch latch = new CountDownLatch(100);
+        for (int i = 0; i < 100; ++i) {
+            final int value = i;
+            this.engine.execute("Messaging", () -> {
+                result.add(value);
+                latch.countDown();
+            });
+        }
+
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+        for (int i = 0; i < 100; ++i) {
+            assertEquals(i, result.get(i).intValue());
+        }
+    }
+
+    @Test
+    public void blockedTasksDoNotStarveResponses() throws InterruptedException {
+        // 阻塞的任务多于常驻线程数量
+        CountDownLatch response = new CountDownLatch(1);
+        CountDownLatch waiting = new CountDownLatch(8);
+        for (int i = 0; i < 8; ++i) {
+            this.engine.execute(() -> {
+                try {
+                    response.await(2, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    // Nothing
+                }
+                waiting.countDown();
+            });
+        }
+
+        // 阻塞任务等待的应答
+        this.engine.execute(response::countDown);
+
+        assertTrue(response.await(1, TimeUnit.SECONDS));
+        assertTrue(waiting.await(1, TimeUnit.SECONDS));
+        assertTrue(this.engine.getLargestPoolSize() > 2);
+    }
+
+    @Test
+    public void tasksQueueWhenPoolIsFull() throws InterruptedException {
+        DispatchEngine engine = new DispatchEngine(1, 2);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(10);
+        for (int i = 0; i < 10; ++i) {
+            engine.execute(() -> {
+                try {
+                    release.await(2, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    // Nothing
+                }
+                done.countDown();
+            });
+        }
+
+        assertEquals(2, engine.getPoolSize());
+        release.countDown();
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertEquals(2, engine.getLargestPoolSize());
+        engine.shutdown();
+    }
+}
@@ -0,0 +1,374 @@
+/*
+ * This file is part of Cube.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2022 Cube Team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package cube.filestorage;
+
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.TreeMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import cube.core.Packet;
+import cube.filestorage.model.FileAnchor;
+import cube.util.BufferPool;
+import cube.util.LogUtils;
+
+/**
+ * 分块上传器。
+ * 每个文件同时有多个分块请求在传输，读取线程在窗口已满时预读下一个分块。
+ * 分块可以乱序确认，文件锚点的位置只推进到连续确认的偏移量。
+ * 最后一个分块在之前所有分块确认之后才发送，服务器在收到最后一个分块时返回文件码。
+ */
+public class ChunkUploader {
+
+    private final static String TAG = ChunkUploader.class.getSimpleName();
+
+    /**
+     * 每个文件默认的在途分块数量。
+     */
+    public final static int DEFAULT_WINDOW = 4;
+
+    /**
+     * 单个分块最大尝试次数。
+     */
+    private final static int MAX_ATTEMPTS = 2;
+
+    private final int window;
+
+    private final ThreadPoolExecutor executor;
+
+    private final BufferPool bufferPool;
+
+    /**
+     * 构造函数。
+     *
+     * @param window 指定每个文件的在途分块数量。
+     * @param maxThreads 指定发送分块的最大线程数。
+     */
+    public ChunkUploader(int window, int maxThreads) {
+        this.window = Math.max(1, window);
+        this.executor = new ThreadPoolExecutor(maxThreads, maxThreads, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>());
+        this.executor.allowCoreThreadTimeOut(true);
+        // 每个窗口额外需要一个预读缓冲
+        this.bufferPool = new BufferPool(maxThreads + this.window);
+    }
+
+    /**
+     * 上传文件锚点的数据。阻塞直到文件上传完成或失败，结果通过监听器通知。
+     *
+     * @param anchor 指定文件锚点。
+     * @param contactId 指定上传者 ID 。
+     * @param serviceURL 指定服务地址。
+     * @param tokenCode 指定令牌码。
+     * @param blockSize 指定分块大小。
+     * @param listener 指定监听器。
+     */
+    public void upload(FileAnchor anchor, Long contactId, String serviceURL, String tokenCode,
+                       int blockSize, UploadQueue.UploadQueueListener listener) {
+        Session session = new Session(anchor, contactId, serviceURL, tokenCode, listener);
+        Semaphore permits = new Semaphore(this.window);
+
+        long cursor = anchor.position;
+        long fileSize = anchor.getFileSize();
+
+        try {
+            while (!session.isFailed() && cursor < fileSize) {
+                byte[] buf = this.bufferPool.acquire(blockSize);
+                int length = 0;
+                try {
+                    length = readFully(anchor.inputStream, buf);
+                } catch (IOException e) {
+                    this.bufferPool.release(buf);
+                    LogUtils.w(TAG, "#upload", e);
+                    session.fail(FileStorageState.ReadFileFailed.code);
+                    break;
+                }
+
+                if (length <= 0) {
+                    this.bufferPool.release(buf);
+                    break;
+                }
+
+                final long chunkCursor = cursor;
+                final int chunkLength = length;
+                cursor += length;
+
+                if (cursor >= fileSize) {
+                    // 最后一个分块，等待之前的分块全部确认
+                    permits.acquireUninterruptibly(this.window);
+                    try {
+                        if (!session.isFailed()) {
+                            this.send(session, chunkCursor, buf, chunkLength);
+                        }
+                        else {
+                            this.bufferPool.release(buf);
+                        }
+                    } finally {
+                        permits.release(this.window);
+                    }
+                }
+                else {
+                    permits.acquireUninterruptibly();
+                    if (session.isFailed()) {
+                        permits.release();
+                        this.bufferPool.release(buf);
+                        break;
+                    }
+
+                    try {
+                        this.executor.execute(() -> {
+                            try {
+                                send(session, chunkCursor, buf, chunkLength);
+                            } finally {
+                                permits.release();
+                            }
+                        });
+                    } catch (RejectedExecutionException e) {
+                        // 上传器已关闭
+                        permits.release();
+                        this.bufferPool.release(buf);
+                        session.fail(FileStorageState.TransmitFailed.code);
+                        break;
+                    }
+                }
+            }
+        } finally {
+            // 等待在途分块结束
+            permits.acquireUninterruptibly(this.window);
+            permits.release(this.window);
+        }
+
+        if (session.isFailed()) {
+            listener.onUploadFailed(anchor, session.errorCode);
+        }
+        else if (anchor.isFinish() && null != anchor.getFileCode()) {
+            LogUtils.d(TAG, "File anchor : " + anchor.getFileName() + " - " + anchor.getFileCode());
+            // 回调上传结束
+            listener.onUploadCompleted(anchor);
+        }
+        else {
+            // 数据长度与文件大小不符或者服务器没有返回文件码
+            LogUtils.w(TAG, "Upload incomplete : " + anchor.getFileName() + " - " + anchor.position + "/" + fileSize);
+            listener.onUploadFailed(anchor, anchor.isFinish() ?
+                    FileStorageState.TransmitFailed.code : FileStorageState.ReadFileFailed.code);
+        }
+    }
+
+    /**
+     * 关闭上传器。正在上传的文件在发送下一个分块时失败。
+     */
+    public void shutdown() {
+        this.executor.shutdown();
+        this.bufferPool.clear();
+    }
+
+    private void send(Session session, long cursor, byte[] data, int length) {
+        FileAnchor anchor = session.anchor;
+        try {
+            for (int attempt = 1; attempt <= MAX_ATTEMPTS && !session.isFailed(); ++attempt) {
+                FileFormData formData = new FileFormData(session.contactId,
+                        anchor.getFileName(), anchor.getFileSize(), anchor.getLastModified(),
+                        cursor, length);
+                // 设置数据
+                formData.setData(data, 0, length);
+
+                HttpClient client = new HttpClient(session.serviceURL, session.tokenCode,
+                        System.currentTimeMillis());
+                ChunkResponse response = new ChunkResponse();
+                client.requestPost(formData, response);
+
+                if (response.stateCode == HttpURLConnection.HTTP_OK) {
+                    if (null != response.packet
+                            && response.packet.extractServiceStateCode() == FileStorageState.Reject.code) {
+                        // 服务器明确拒绝该分块
+                        LogUtils.w(TAG, "Chunk rejected : " + anchor.getFileName() + " @" + cursor);
+                        session.fail(FileStorageState.Reject.code);
+                        return;
+                    }
+
+                    session.acknowledge(cursor, length, response.packet);
+                    return;
+                }
+                else if (response.stateCode > 0 && response.stateCode < HttpURLConnection.HTTP_INTERNAL_ERROR) {
+                    // 客户端错误不重试
+                    LogUtils.w(TAG, "Chunk rejected : " + anchor.getFileName() + " @" + cursor
+                            + " - " + response.stateCode);
+                    session.fail(mapHttpState(response.stateCode));
+                    return;
+                }
+
+                LogUtils.w(TAG, "Chunk failed : " + anchor.getFileName() + " @" + cursor
+                        + " - " + response.stateCode + " (" + attempt + "/" + MAX_ATTEMPTS + ")");
+            }
+
+            session.fail(FileStorageState.TransmitFailed.code);
+        } catch (Exception e) {
+            LogUtils.w(TAG, "#send", e);
+            session.fail(FileStorageState.TransmitFailed.code);
+        } finally {
+            this.bufferPool.release(data);
+        }
+    }
+
+    /**
+     * 将不重试的 HTTP 状态码转换为文件存储状态码。
+     * 除授权错误之外的客户端错误都视为服务器拒绝该分块。
+     *
+     * @param httpStateCode
+     * @return 返回状态码。
+     */
+    private static int mapHttpState(int httpStateCode) {
+        switch (httpStateCode) {
+            case HttpURLConnection.HTTP_UNAUTHORIZED:
+                return FileStorageState.Unauthorized.code;
+            case HttpURLConnection.HTTP_FORBIDDEN:
+                return FileStorageState.Forbidden.code;
+            default:
+                return FileStorageState.Reject.code;
+        }
+    }
+
+    private static int readFully(InputStream inputStream, byte[] buf) throws IOException {
+        int total = 0;
+        while (total < buf.length) {
+            int length = inputStream.read(buf, total, buf.length - total);
+            if (length < 0) {
+                break;
+            }
+            total += length;
+        }
+        return total;
+    }
+
+    /**
+     * 单个文件的上传会话。
+     */
+    private class Session {
+
+        protected final FileAnchor anchor;
+
+        protected final Long contactId;
+
+        protected final String serviceURL;
+
+        protected final String tokenCode;
+
+        protected final UploadQueue.UploadQueueListener listener;
+
+        /**
+         * 乱序确认的分块，键为分块偏移量。
+         */
+        private final TreeMap<Long, Integer> pendingAcks = new TreeMap<>();
+
+        private volatile boolean failed = false;
+
+        protected int errorCode = 0;
+
+        protected Session(FileAnchor anchor, Long contactId, String serviceURL, String tokenCode,
+                          UploadQueue.UploadQueueListener listener) {
+            this.anchor = anchor;
+            this.contactId = contactId;
+            this.serviceURL = serviceURL;
+            this.tokenCode = tokenCode;
+            this.listener = listener;
+        }
+
+        protected boolean isFailed() {
+            return this.failed;
+        }
+
+        protected synchronized void fail(int errorCode) {
+            if (!this.failed) {
+                this.failed = true;
+                this.errorCode = errorCode;
+            }
+        }
+
+        protected synchronized void acknowledge(long cursor, int length, Packet packet) {
+            this.pendingAcks.put(cursor, length);
+
+            long position = this.anchor.position;
+            Integer size = null;
+            while (null != (size = this.pendingAcks.remove(position))) {
+                position += size;
+            }
+
+            if (null != packet) {
+                JSONObject data = packet.extractServiceData();
+                if (null != data && data.has("fileCode")) {
+                    // 上传完成之后设置文件码
+                    this.anchor.setFileCode(data.optString("fileCode"));
+                }
+            }
+
+            if (position != this.anchor.position) {
+                this.anchor.resetPosition(position);
+
+                // 正在上传数据
+                this.listener.onUploading(this.anchor);
+            }
+        }
+    }
+
+    /**
+     * 同步记录分块应答。
+     */
+    private class ChunkResponse implements HttpClient.RequestListener {
+
+        protected int stateCode = -1;
+
+        protected Packet packet;
+
+        @Override
+        public void onConnected(HttpClient client) {
+            // Nothing
+        }
+
+        @Override
+        public void onProgress(HttpClient client, long totalLength) {
+            // Nothing
+        }
+
+        @Override
+        public void onFailed(HttpClient client, Exception exception) {
+            this.stateCode = -1;
+        }
+
+        @Override
+        public void onCompleted(HttpClient client, int stateCode, Packet packet) {
+            this.stateCode = stateCode;
+            this.packet = packet;
+        }
+    }
+}
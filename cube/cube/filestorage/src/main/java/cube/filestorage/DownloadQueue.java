@@ -28,17 +28,12 @@ package cube.filestorage;
 
 import android.util.MutableInt;
 
-import androidx.annotation.Nullable;
-
-import java.io.FileOutputStream;
-import java.net.HttpURLConnection;
 import java.util.List;
 import java.util.Queue;
 import java.util.Vector;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicInteger;
 
-import cube.core.Packet;
 import cube.filestorage.model.FileAnchor;
 import cube.util.LogUtils;
 
@@ -63,17 +58,31 @@ public class DownloadQueue {
 
     private DownloadQueueListener listener;
 
+    private RangeDownloader downloader;
+
     public DownloadQueue(FileStorage service, MutableInt fileBlockSize) {
         this.service = service;
         this.fileBlockSize = fileBlockSize;
         this.fileAnchorQueue = new ConcurrentLinkedQueue<>();
         this.processingList = new Vector<>();
+        this.downloader = new RangeDownloader(3, 2 * this.concurrentNum);
     }
 
     public void setListener(DownloadQueueListener listener) {
         this.listener = listener;
     }
 
+    /**
+     * 停止队列并关闭分段下载器。
+     */
+    public void stop() {
+        FileAnchor anchor = null;
+        while (null != (anchor = this.fileAnchorQueue.poll())) {
+            this.processingList.remove(anchor);
+        }
+        this.downloader.shutdown();
+    }
+
     public boolean isProcessing(String fileCode) {
         for (FileAnchor anchor : processingList) {
             if (anchor.getFileCode().equals(fileCode)) {
@@ -132,47 +141,44 @@ public class DownloadQueue {
                 // 回调
                 listener.onDownloadStarted(anchor);
 
-                FileOutputStream fos = null;
-                try {
-                    fos = new FileOutputStream(anchor.getFile());
+                // 本地已有摘要相同的文件
+                if (service.dedupeLocalFile(anchor)) {
+                    processingList.remove(anchor);
+                    anchor.resetPosition(anchor.getFileSize());
+                    listener.onDownloadCompleted(anchor);
+                    continue;
+                }
 
-                    HttpClient httpClient = new HttpClient(anchor.getFileURL());
-                    httpClient.requestGet(fos, new HttpClient.RequestListener() {
+                try {
+                    downloader.download(anchor, new DownloadQueueListener() {
                         @Override
-                        public void onConnected(HttpClient client) {
-                            // Nothing
+                        public void onDownloadStarted(FileAnchor fileAnchor) {
+                            listener.onDownloadStarted(fileAnchor);
                         }
 
                         @Override
-                        public void onProgress(HttpClient client, long totalLength) {
-                            listener.onDownloading(anchor.resetPosition(totalLength));
+                        public void onDownloading(FileAnchor fileAnchor) {
+                            listener.onDownloading(fileAnchor);
                         }
 
                         @Override
-                        public void onFailed(HttpClient client, Exception exception) {
-                            processingList.remove(anchor);
-                            listener.onDownloadFailed(anchor, FileStorageState.TransmitFailed.code);
+                        public void onDownloadCompleted(FileAnchor fileAnchor) {
+                            processingList.remove(fileAnchor);
+                            // 成功
+                            listener.onDownloadCompleted(fileAnchor);
                         }
 
                         @Override
-                        public void onCompleted(HttpClient client, int stateCode, @Nullable Packet packet) {
-                            if (stateCode == HttpURLConnection.HTTP_OK) {
-                                processingList.remove(anchor);
-                                // 成功
-                                listener.onDownloadCompleted(anchor);
-                            }
-                            else {
-                                processingList.remove(anchor);
-                                // 失败
-                                listener.onDownloadFailed(anchor, stateCode);
-                            }
+                        public void onDownloadFailed(FileAnchor fileAnchor, int errorCode) {
+                            processingList.remove(fileAnchor);
+                            // 失败
+                            listener.onDownloadFailed(fileAnchor, errorCode);
                         }
                     });
                 } catch (Exception e) {
                     LogUtils.w(TAG, "#process", e);
                     processingList.remove(anchor);
                     listener.onDownloadFailed(anchor, FileStorageState.TransmitFailed.code);
-                    anchor.close();
                 }
             }
 
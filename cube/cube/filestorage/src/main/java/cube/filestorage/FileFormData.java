@@ -54,9 +54,14 @@ public class FileFormData extends FormData {
         this.setContentDisposition(FIELD_SIZE, size);
     }
 
+    /**
+     * 设置分块数据。数据不做复制，表单发送完成之前调用者不能复用该数组。
+     *
+     * @param data 指定数据数组。
+     * @param offset 指定数据起始位置。
+     * @param length 指定数据长度。
+     */
     public void setData(byte[] data, int offset, int length) {
-        byte[] bytes = new byte[length];
-        System.arraycopy(data, offset, bytes, 0, length);
-        this.setFileData(this.filename, bytes);
+        this.setFileData(this.filename, data, offset, length);
     }
 }
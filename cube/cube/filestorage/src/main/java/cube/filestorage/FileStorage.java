@@ -27,7 +27,10 @@
 package cube.filestorage;
 
 import android.os.Environment;
+import android.system.ErrnoException;
+import android.system.Os;
 import android.util.MutableInt;
+import android.util.Pair;
 
 import androidx.annotation.Nullable;
 
@@ -45,6 +48,7 @@ import java.util.Comparator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 import cube.contact.ContactService;
 import cube.contact.ContactServiceEvent;
@@ -78,9 +82,11 @@ import cube.filestorage.model.SharingTag;
 import cube.filestorage.model.Trash;
 import cube.filestorage.model.TrashDirectory;
 import cube.filestorage.model.TrashFile;
+import cube.util.FileUtils;
 import cube.util.LogUtils;
 import cube.util.ObservableEvent;
 import cube.util.Observer;
+import cube.util.ResultFuture;
 import cube.util.URLUtils;
 
 /**
@@ -95,6 +101,14 @@ public class FileStorage extends Module implements Observer, UploadQueue.UploadQ
     /** 阻塞调用方法的超时时间。 */
     private final long blockingTimeout = 10 * 1000;
 
+    /** 上传前按摘要查找服务器文件的超时时间。 */
+    private final long findFileTimeout = 2 * 1000;
+
+    /**
+     * 是否在上传前按摘要查找服务器上的相同文件（秒传）。由配置开启。
+     */
+    private volatile boolean findFileEnabled = false;
+
     private Self self;
 
     private String fileURL = "http://cube.shixincube.com/filestorage/file/";
@@ -191,6 +205,14 @@ public class FileStorage extends Module implements Observer, UploadQueue.UploadQ
         ContactService contactService = (ContactService) this.kernel.getModule(ContactService.NAME);
         contactService.detachWithName(ContactServiceEvent.SelfReady, this);
 
+        if (null != this.uploadQueue) {
+            this.uploadQueue.stop();
+        }
+
+        if (null != this.downloadQueue) {
+            this.downloadQueue.stop();
+        }
+
         if (null != this.storage) {
             this.storage.close();
             this.storage = null;
@@ -216,6 +238,25 @@ public class FileStorage extends Module implements Observer, UploadQueue.UploadQ
 
         this.fileURL = URLUtils.correctFileURL(this.fileURL);
         this.fileSecureURL = URLUtils.correctFileURL(this.fileSecureURL);
+
+        if (null != configData) {
+            // 服务器支持按摘要查找文件时开启秒传
+            this.findFileEnabled = configData.optBoolean("instantUpload", false);
+
+            // 传输超时配置
+            HttpTransport transport = HttpTransport.getDefault();
+            transport.setTimeouts(configData.optInt("httpConnectTimeout", transport.getConnectTimeout()),
+                    configData.optInt("httpReadTimeout", transport.getReadTimeout()));
+        }
+    }
+
+    /**
+     * 获取文件数据传输使用的 HTTP 传输层，用于设置超时和读取传输统计。
+     *
+     * @return 返回 HTTP 传输层。
+     */
+    public HttpTransport getTransport() {
+        return HttpTransport.getDefault();
     }
 
     /**
@@ -964,7 +1005,7 @@ public class FileStorage extends Module implements Observer, UploadQueue.UploadQ
         String filePath = fileLabel.getFilePath();
         if (null != filePath) {
             File file = new File(filePath);
-            if (file.exists() && file.length() > 0) {
+            if (file.exists() && isComplete(file, fileLabel)) {
                 if (LogUtils.isDebugLevel()) {
                     LogUtils.d(TAG, "File exists : " + fileLabel.getFileCode() + " -> " + file.getPath());
                 }
@@ -989,7 +1030,7 @@ public class FileStorage extends Module implements Observer, UploadQueue.UploadQ
 
         // 判断文件码
         File localFile = new File(this.fileCachePath, fileLabel.getFileCode() + "." + fileLabel.getFileType());
-        if (localFile.exists() && localFile.length() > 0) {
+        if (localFile.exists() && isComplete(localFile, fileLabel)) {
             if (LogUtils.isDebugLevel()) {
                 LogUtils.d(TAG, "File exists : " + fileLabel.getFileCode() + " -> " + localFile.getPath());
             }
@@ -1027,6 +1068,21 @@ public class FileStorage extends Module implements Observer, UploadQueue.UploadQ
         }
     }
 
+    /**
+     * 判断本地文件是否是完整的文件数据。
+     *
+     * @param file
+     * @param fileLabel
+     * @return
+     */
+    private boolean isComplete(File file, FileLabel fileLabel) {
+        if (file.length() == 0) {
+            return false;
+        }
+
+        return fileLabel.getFileSize() <= 0 || file.length() == fileLabel.getFileSize();
+    }
+
     /**
      * 上传文件数据到默认目录。
      *
@@ -1143,6 +1199,10 @@ public class FileStorage extends Module implements Observer, UploadQueue.UploadQ
         return this.self;
     }
 
+    protected StructStorage getStorage() {
+        return this.storage;
+    }
+
     protected String getServiceURL() {
         return this.fileURL;
     }
@@ -1216,6 +1276,200 @@ public class FileStorage extends Module implements Observer, UploadQueue.UploadQ
         });
     }
 
+    /**
+     * 获取文件标签。阻塞直到服务器应答或超时。
+     *
+     * @param fileCode
+     * @return 返回文件标签，查询失败时返回 {@code null} 。
+     */
+    protected FileLabel getRemoteFileLabel(String fileCode) {
+        if (!this.pipeline.isReady()) {
+            return null;
+        }
+
+        final ResultFuture<FileLabel> future = new ResultFuture<>();
+        this.getRemoteFileLabel(fileCode, new StableFileLabelHandler() {
+            @Override
+            public void handleSuccess(FileLabel fileLabel) {
+                future.complete(fileLabel);
+            }
+
+            @Override
+            public void handleFailure(ModuleError error, @Nullable FileLabel fileLabel) {
+                future.complete(null);
+            }
+        });
+
+        try {
+            return future.get(this.blockingTimeout, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            LogUtils.d(TAG, "#getRemoteFileLabel timeout : " + fileCode);
+            return null;
+        }
+    }
+
+    /**
+     * 是否可以在上传前按摘要查找服务器上的文件。
+     *
+     * @return 如果配置开启且服务器没有出现超时或不支持的应答返回 {@code true} 。
+     */
+    protected boolean isFindFileEnabled() {
+        return this.findFileEnabled;
+    }
+
+    /**
+     * 按文件摘要查找服务器上已存在的文件。阻塞直到服务器应答或超时。
+     * 查询超时或者服务器不支持查询时关闭查找，之后的上传不再等待。
+     *
+     * @param md5
+     * @param fileSize
+     * @param fileName
+     * @return 返回已存在文件的标签，服务器没有该文件或查询失败时返回 {@code null} 。
+     */
+    protected FileLabel findRemoteFileLabel(String md5, long fileSize, String fileName) {
+        if (!this.findFileEnabled || !this.pipeline.isReady()) {
+            return null;
+        }
+
+        JSONObject payload = new JSONObject();
+        try {
+            payload.put("md5", md5);
+            payload.put("fileSize", fileSize);
+            payload.put("fileName", fileName);
+        } catch (JSONException e) {
+            // Nothing
+        }
+
+        final ResultFuture<FileLabel> future = new ResultFuture<>();
+        Packet requestPacket = new Packet(FileStorageAction.FindFile, payload);
+        boolean sent = this.pipeline.send(FileStorage.NAME, requestPacket, new PipelineHandler() {
+            @Override
+            public void handleResponse(Packet packet) {
+                if (packet.state.code != PipelineState.Ok.code) {
+                    // 服务器不支持该操作
+                    LogUtils.i(TAG, "#findRemoteFileLabel disabled : " + packet.state.code);
+                    findFileEnabled = false;
+                    future.complete(null);
+                    return;
+                }
+
+                if (packet.extractServiceStateCode() != FileStorageState.Ok.code) {
+                    future.complete(null);
+                    return;
+                }
+
+                try {
+                    future.complete(new FileLabel(packet.extractServiceData()));
+                } catch (JSONException e) {
+                    LogUtils.w(TAG, "#findRemoteFileLabel", e);
+                    future.complete(null);
+                }
+            }
+        });
+
+        if (!sent) {
+            return null;
+        }
+
+        try {
+            return future.get(this.findFileTimeout, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            LogUtils.i(TAG, "#findRemoteFileLabel timeout, disabled : " + fileName);
+            this.findFileEnabled = false;
+            return null;
+        }
+    }
+
+    /**
+     * 获取本地文件的 MD5 摘要。优先使用摘要索引，文件变化后重新计算并更新索引。
+     *
+     * @param file
+     * @return 返回摘要，无法读取文件时返回 {@code null} 。
+     */
+    protected String getFileHash(File file) {
+        StructStorage storage = this.storage;
+        if (null == storage) {
+            return null;
+        }
+
+        String path = file.getAbsolutePath();
+        long size = file.length();
+        long lastModified = file.lastModified();
+
+        String md5 = storage.readFileHash(path, size, lastModified);
+        if (null == md5) {
+            try {
+                md5 = FileUtils.digest(file, "MD5");
+                storage.writeFileHash(path, size, lastModified, md5);
+            } catch (IOException e) {
+                LogUtils.w(TAG, "#getFileHash", e);
+            }
+        }
+        return md5;
+    }
+
+    /**
+     * 使用摘要相同的本地文件生成下载目标文件。
+     * 缓存目录里的文件使用硬链接共享数据，其他位置的文件复制数据。
+     *
+     * @param anchor
+     * @return 如果生成了目标文件返回 {@code true} 。
+     */
+    protected boolean dedupeLocalFile(FileAnchor anchor) {
+        StructStorage storage = this.storage;
+        FileLabel label = anchor.fileLabel;
+        if (null == storage || null == label || null == label.getMd5Code() || label.getMd5Code().length() == 0) {
+            return false;
+        }
+
+        File target = anchor.getFile();
+        for (Pair<String, Long> item : storage.readFilesByHash(label.getMd5Code(), label.getFileSize())) {
+            File source = new File(item.first);
+            if (source.equals(target)) {
+                continue;
+            }
+
+            if (!source.exists() || source.length() != label.getFileSize()
+                    || source.lastModified() != item.second.longValue()) {
+                // 文件已变化
+                storage.deleteFileHash(item.first);
+                continue;
+            }
+
+            try {
+                if (target.exists()) {
+                    target.delete();
+                }
+
+                boolean linked = false;
+                if (source.getAbsolutePath().startsWith(this.fileCachePath)) {
+                    try {
+                        Os.link(source.getAbsolutePath(), target.getAbsolutePath());
+                        linked = true;
+                    } catch (ErrnoException e) {
+                        LogUtils.d(TAG, "#dedupeLocalFile link failed : " + e.getMessage());
+                    }
+                }
+
+                if (!linked) {
+                    FileUtils.copy(source, target);
+                }
+
+                storage.writeFileHash(target.getAbsolutePath(), target.length(), target.lastModified(),
+                        label.getMd5Code());
+
+                LogUtils.d(TAG, "#dedupeLocalFile : " + source.getPath() + " -> " + target.getPath()
+                        + (linked ? " (link)" : " (copy)"));
+                return true;
+            } catch (IOException e) {
+                LogUtils.w(TAG, "#dedupeLocalFile", e);
+                target.delete();
+            }
+        }
+
+        return false;
+    }
+
     @Override
     public void onUploadStarted(FileAnchor fileAnchor) {
         UploadFileHandler uploadHandler = fileAnchor.getUploadFileHandler();
@@ -1393,6 +1647,13 @@ public class FileStorage extends Module implements Observer, UploadQueue.UploadQ
         // 设置标签的本地路径
         fileAnchor.fileLabel.setFilePath(fileAnchor.getFilePath());
 
+        // 记录摘要索引，用于去重
+        String md5 = fileAnchor.fileLabel.getMd5Code();
+        File file = fileAnchor.getFile();
+        if (null != this.storage && null != md5 && md5.length() > 0 && null != file) {
+            this.storage.writeFileHash(file.getAbsolutePath(), file.length(), file.lastModified(), md5);
+        }
+
         DownloadFileHandler downloadHandler = fileAnchor.getDownloadHandler();
         if (null != downloadHandler) {
             if (downloadHandler.isInMainThread()) {
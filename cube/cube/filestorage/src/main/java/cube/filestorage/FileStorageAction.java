@@ -41,6 +41,11 @@ public final class FileStorageAction {
      */
     public final static String GetFile = "getFile";
 
+    /**
+     * 按文件摘要查找服务器上已存在的文件。
+     */
+    public final static String FindFile = "findFile";
+
     /**
      * 获取根文件夹。
      */
@@ -127,6 +127,11 @@ public enum FileStorageState {
      */
     DataFormatError(107),
 
+    /**
+     * 文件数据校验失败。
+     */
+    VerifyFailed(108),
+
     /**
      * 未知的状态。
      */
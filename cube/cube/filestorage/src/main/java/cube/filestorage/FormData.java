@@ -26,8 +26,10 @@
 
 package cube.filestorage;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -52,6 +54,11 @@ public class FormData {
 
     private String filename;
     private byte[] binaryData;
+    private int binaryOffset;
+    private int binaryLength;
+
+    private byte[] head;
+    private byte[] tail;
 
     private FormDataInputStream dataStream;
 
@@ -61,25 +68,71 @@ public class FormData {
 
     public void setContentDisposition(String name, String value) {
         this.fieldMap.put(name, value);
+        this.head = null;
     }
 
     public void setContentDisposition(String name, long value) {
-        this.fieldMap.put(name, Long.toString(value));
+        this.setContentDisposition(name, Long.toString(value));
     }
 
     public void setContentDisposition(String name, int value) {
-        this.fieldMap.put(name, Integer.toString(value));
+        this.setContentDisposition(name, Integer.toString(value));
     }
 
     public void setFileData(String filename, byte[] data) {
+        this.setFileData(filename, data, 0, data.length);
+    }
+
+    /**
+     * 设置文件数据。不复制数据，在表单数据发送完成之前不能修改数组内容。
+     *
+     * @param filename 指定文件名。
+     * @param data 指定数据数组。
+     * @param offset 指定数据在数组里的起始位置。
+     * @param length 指定数据长度。
+     */
+    public void setFileData(String filename, byte[] data, int offset, int length) {
         this.filename = filename;
         this.binaryData = data;
+        this.binaryOffset = offset;
+        this.binaryLength = length;
+        this.head = null;
+        this.tail = null;
     }
 
     public String getBoundary() {
         return this.boundary;
     }
 
+    /**
+     * 获取表单数据的总字节长度。
+     *
+     * @return 返回表单数据的总字节长度。
+     */
+    public long getContentLength() {
+        this.encode();
+        long length = this.head.length + this.tail.length;
+        if (null != this.binaryData) {
+            length += this.binaryLength;
+        }
+        return length;
+    }
+
+    /**
+     * 将表单数据写入输出流。文件数据直接从原数组写出，不做中间复制。
+     *
+     * @param outputStream 指定输出流。
+     * @throws IOException 写入失败时抛出。
+     */
+    public void writeTo(OutputStream outputStream) throws IOException {
+        this.encode();
+        outputStream.write(this.head);
+        if (null != this.binaryData) {
+            outputStream.write(this.binaryData, this.binaryOffset, this.binaryLength);
+        }
+        outputStream.write(this.tail);
+    }
+
     public InputStream getInputStream() {
         if (null == this.dataStream) {
             this.dataStream = new FormDataInputStream();
@@ -88,74 +141,127 @@ public class FormData {
     }
 
     public String print() {
-        InputStream is = this.getInputStream();
-        return new String(this.dataStream.buffer.array(), 0, this.dataStream.buffer.limit(), StandardCharsets.UTF_8);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try {
+            this.writeTo(output);
+        } catch (IOException e) {
+            // Nothing
+        }
+        return new String(output.toByteArray(), StandardCharsets.UTF_8);
     }
 
+    private void encode() {
+        if (null != this.head) {
+            return;
+        }
+
+        byte[] boundaryBytes = this.boundary.getBytes(StandardCharsets.UTF_8);
+        FlexibleByteBuffer buffer = new FlexibleByteBuffer();
+
+        // 写入字段
+        Iterator<Map.Entry<String, String>> iterator = this.fieldMap.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, String> entry = iterator.next();
+            String name = entry.getKey();
+            String value = entry.getValue();
+
+            buffer.put(boundaryBytes);
+            buffer.put(sLineBreakBytes);
+            buffer.put(sDispositionPrefixBytes);
+            buffer.put(sQuotation);
+            buffer.put(name.getBytes(StandardCharsets.UTF_8));
+            buffer.put(sQuotation);
+            buffer.put(sLineBreakBytes);
+            buffer.put(sLineBreakBytes);
+
+            buffer.put(value.getBytes(StandardCharsets.UTF_8));
+            buffer.put(sLineBreakBytes);
+        }
+
+        // 写入流的头
+        if (null != this.binaryData) {
+            buffer.put(boundaryBytes);
+            buffer.put(sLineBreakBytes);
+            buffer.put(sDispositionPrefixBytes);
+            buffer.put(sQuotation);
+            buffer.put("file".getBytes(StandardCharsets.UTF_8));
+            buffer.put(sQuotation);
+            buffer.put("; filename=".getBytes(StandardCharsets.UTF_8));
+            buffer.put(sQuotation);
+            buffer.put(this.filename.getBytes(StandardCharsets.UTF_8));
+            buffer.put(sQuotation);
+            buffer.put(sLineBreakBytes);
+
+            buffer.put("Content-Type: application/octet-stream".getBytes(StandardCharsets.UTF_8));
+            buffer.put(sLineBreakBytes);
+            buffer.put(sLineBreakBytes);
+        }
+
+        buffer.flip();
+        this.head = new byte[buffer.limit()];
+        System.arraycopy(buffer.array(), 0, this.head, 0, this.head.length);
+
+        if (null != this.binaryData) {
+            FlexibleByteBuffer tailBuffer = new FlexibleByteBuffer(64);
+            tailBuffer.put(sLineBreakBytes);
+            tailBuffer.put(boundaryBytes);
+            tailBuffer.put("--".getBytes(StandardCharsets.UTF_8));
+            tailBuffer.flip();
+            this.tail = new byte[tailBuffer.limit()];
+            System.arraycopy(tailBuffer.array(), 0, this.tail, 0, this.tail.length);
+        }
+        else {
+            this.tail = new byte[0];
+        }
+    }
+
+    /**
+     * 按顺序读取表单头、文件数据和表单尾，文件数据直接从原数组读取。
+     */
     protected class FormDataInputStream extends InputStream {
 
-        protected FlexibleByteBuffer buffer;
+        private final byte[][] parts;
+        private final int[] offsets;
+        private final int[] lengths;
 
-        public FormDataInputStream() {
-            byte[] boundaryBytes = boundary.getBytes(StandardCharsets.UTF_8);
-            this.buffer = new FlexibleByteBuffer();
-
-            // 写入字段
-            Iterator<Map.Entry<String, String>> iterator = fieldMap.entrySet().iterator();
-            while (iterator.hasNext()) {
-                Map.Entry<String, String> entry = iterator.next();
-                String name = entry.getKey();
-                String value = entry.getValue();
-
-                buffer.put(boundaryBytes);
-                buffer.put(sLineBreakBytes);
-                buffer.put(sDispositionPrefixBytes);
-                buffer.put(sQuotation);
-                buffer.put(name.getBytes(StandardCharsets.UTF_8));
-                buffer.put(sQuotation);
-                buffer.put(sLineBreakBytes);
-                buffer.put(sLineBreakBytes);
-
-                buffer.put(value.getBytes(StandardCharsets.UTF_8));
-                buffer.put(sLineBreakBytes);
-            }
+        private int index = 0;
+        private int position = 0;
 
-            // 写入流
+        public FormDataInputStream() {
+            encode();
             if (null != binaryData) {
-                buffer.put(boundaryBytes);
-                buffer.put(sLineBreakBytes);
-                buffer.put(sDispositionPrefixBytes);
-                buffer.put(sQuotation);
-                buffer.put("file".getBytes(StandardCharsets.UTF_8));
-                buffer.put(sQuotation);
-                buffer.put("; filename=".getBytes(StandardCharsets.UTF_8));
-                buffer.put(sQuotation);
-                buffer.put(filename.getBytes(StandardCharsets.UTF_8));
-                buffer.put(sQuotation);
-                buffer.put(sLineBreakBytes);
-
-                buffer.put("Content-Type: application/octet-stream".getBytes(StandardCharsets.UTF_8));
-                buffer.put(sLineBreakBytes);
-                buffer.put(sLineBreakBytes);
-
-                // 二进制数据
-                buffer.put(binaryData);
-
-                buffer.put(sLineBreakBytes);
-                buffer.put(boundaryBytes);
-                buffer.put("--".getBytes(StandardCharsets.UTF_8));
+                this.parts = new byte[][] { head, binaryData, tail };
+                this.offsets = new int[] { 0, binaryOffset, 0 };
+                this.lengths = new int[] { head.length, binaryLength, tail.length };
+            }
+            else {
+                this.parts = new byte[][] { head, tail };
+                this.offsets = new int[] { 0, 0 };
+                this.lengths = new int[] { head.length, tail.length };
             }
-
-            buffer.flip();
         }
 
         @Override
         public int read() throws IOException {
-            if (this.buffer.position() >= this.buffer.limit()) {
+            byte[] b = new byte[1];
+            return (this.read(b, 0, 1) < 0) ? -1 : (b[0] & 0xFF);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            while (this.index < this.parts.length && this.position >= this.lengths[this.index]) {
+                ++this.index;
+                this.position = 0;
+            }
+
+            if (this.index >= this.parts.length) {
                 return -1;
             }
 
-            return this.buffer.get() & 0xFF;
+            int length = Math.min(len, this.lengths[this.index] - this.position);
+            System.arraycopy(this.parts[this.index], this.offsets[this.index] + this.position, b, off, length);
+            this.position += length;
+            return length;
         }
     }
 }
@@ -31,35 +31,44 @@ import androidx.annotation.Nullable;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedReader;
-import java.io.DataOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.net.ProtocolException;
-import java.net.URL;
+import java.nio.charset.StandardCharsets;
 
 import cube.core.Packet;
 import cube.util.LogUtils;
 
 /**
  * HTTP 客户端封装。
+ * 连接通过 {@link HttpTransport} 打开和释放，请求结束后连接回到连接池供下一次请求复用。
  */
 public class HttpClient {
 
     private final static String TAG = HttpClient.class.getName();
 
+    private final HttpTransport transport;
+
     private String url;
 
     public HttpClient(String url) {
-        this.url = url;
+        this(HttpTransport.getDefault(), url);
     }
 
     public HttpClient(String url, String token, Long sn) {
+        this(HttpTransport.getDefault(), url, token, sn);
+    }
+
+    public HttpClient(HttpTransport transport, String url) {
+        this.transport = transport;
+        this.url = url;
+    }
+
+    public HttpClient(HttpTransport transport, String url, String token, Long sn) {
+        this.transport = transport;
         this.url = url;
         this.url += "?token=" + token;
         this.url += "&sn=" + sn;
@@ -72,24 +81,35 @@ public class HttpClient {
      * @param listener
      */
     public void requestGet(OutputStream responseStream, RequestListener listener) {
-        BufferedInputStream bis = null;
+        this.requestGet(responseStream, -1, -1, listener);
+    }
+
+    /**
+     * GET 方法从服务器获取指定范围的数据。
+     * 指定范围时只有服务器返回 {@code 206} 才写入数据，服务器忽略范围返回 {@code 200} 时不读取数据，由调用者决定如何处理。
+     *
+     * @param responseStream
+     * @param rangeStart 指定范围的起始位置，小于 {@code 0} 时不指定范围。
+     * @param rangeEnd 指定范围的结束位置（包含），小于 {@code 0} 时表示到文件末尾。
+     * @param listener
+     */
+    public void requestGet(OutputStream responseStream, long rangeStart, long rangeEnd, RequestListener listener) {
         HttpURLConnection conn = null;
+        InputStream reader = null;
+        boolean reusable = false;
+        long start = System.nanoTime();
+        long totalLength = 0;
 
         try {
-            URL realURL = new URL(this.url);
-
             // 建立连接
-            conn = (HttpURLConnection) realURL.openConnection();
-            conn.setConnectTimeout(5 * 1000);
-            conn.setReadTimeout(10 * 1000);
-            conn.setRequestMethod("GET");
+            conn = this.transport.open(this.url, "GET");
 
             LogUtils.d(TAG, "Request [GET] : " + this.url);
 
-            conn.setRequestProperty("Accept", "*/*");
-            conn.setRequestProperty("Connection", "Keep-Alive");
-            conn.setRequestProperty("Cache-Control", "no-cache");
-            conn.setRequestProperty("Charset", "UTF-8");
+            boolean ranged = rangeStart >= 0;
+            if (ranged) {
+                conn.setRequestProperty("Range", "bytes=" + rangeStart + "-" + (rangeEnd >= 0 ? rangeEnd : ""));
+            }
 
             // 连接
             conn.connect();
@@ -97,48 +117,42 @@ public class HttpClient {
             // 回调
             listener.onConnected(this);
 
-            long totalLength = 0;
-
             int stateCode = conn.getResponseCode();
-            if (HttpURLConnection.HTTP_OK == stateCode ||
+            boolean readable = ranged ? (HttpURLConnection.HTTP_PARTIAL == stateCode) :
+                    (HttpURLConnection.HTTP_OK == stateCode ||
                     HttpURLConnection.HTTP_CREATED == stateCode ||
-                    HttpURLConnection.HTTP_ACCEPTED == stateCode) {
-                bis = new BufferedInputStream(conn.getInputStream());
-                byte[] buf = new byte[4096];
+                    HttpURLConnection.HTTP_ACCEPTED == stateCode);
+            if (readable) {
+                reader = conn.getInputStream();
+                byte[] buf = new byte[ranged ? 32 * 1024 : 8192];
                 int length = 0;
-                while ((length = bis.read(buf)) > 0) {
+                while ((length = reader.read(buf)) > 0) {
                     responseStream.write(buf, 0, length);
 
                     // 回调
                     listener.onProgress(this, totalLength += length);
                 }
                 responseStream.flush();
+                reusable = true;
+            }
+            else if (stateCode >= HttpURLConnection.HTTP_BAD_REQUEST) {
+                // 错误应答的数据很少，读完以复用连接
+                reader = conn.getErrorStream();
+                this.transport.drain(reader, null);
+                reusable = true;
             }
 
             // 回调
             listener.onCompleted(this, stateCode, null);
 
-        } catch (MalformedURLException e) {
-            LogUtils.w(TAG, e);
-        } catch (ProtocolException e) {
-            LogUtils.w(TAG, e);
         } catch (IOException e) {
             LogUtils.w(TAG, e);
             // 回调
             listener.onFailed(this, e);
         } finally {
-            if (null != bis) {
-                try {
-                    bis.close();
-                } catch (IOException e) {
-                    LogUtils.w(TAG, e);
-                }
-            }
-
-            // 关闭连接
-            if (null != conn) {
-                conn.disconnect();
-            }
+            this.transport.record(0, totalLength, System.nanoTime() - start);
+            // 未读完的应答数据会使连接不能复用，例如服务器忽略范围返回的完整数据
+            this.transport.release(conn, reader, reusable);
         }
     }
 
@@ -150,27 +164,39 @@ public class HttpClient {
      * @param listener
      */
     public void requestPost(InputStream requestStream, String boundary, RequestListener listener) {
-        DataOutputStream writer = null;
-        BufferedReader reader = null;
+        this.post(null, requestStream, boundary, listener);
+    }
 
-        try {
-            URL realURL = new URL(this.url);
+    /**
+     * POST 方法向服务器发送表单数据。
+     * 使用定长流模式直接写出表单，文件数据不经过中间缓冲。
+     *
+     * @param formData
+     * @param listener
+     */
+    public void requestPost(FormData formData, RequestListener listener) {
+        this.post(formData, null, formData.getBoundary(), listener);
+    }
+
+    private void post(FormData formData, InputStream requestStream, String boundary, RequestListener listener) {
+        HttpURLConnection conn = null;
+        OutputStream writer = null;
+        InputStream reader = null;
+        boolean reusable = false;
+        long start = System.nanoTime();
+        long sent = 0;
+        long received = 0;
 
+        try {
             // 建立连接
-            HttpURLConnection conn = (HttpURLConnection) realURL.openConnection();
-            conn.setConnectTimeout(5 * 1000);
-            conn.setReadTimeout(10 * 1000);
-            conn.setRequestMethod("POST");
+            conn = this.transport.open(this.url, "POST");
 
             LogUtils.d(TAG, "Request [POST] : " + this.url);
 
-            // 设置通用的请求属性
-            conn.setRequestProperty("Accept", "*/*");
-            conn.setRequestProperty("Connection", "Keep-Alive");
-            conn.setRequestProperty("Cache-Control", "no-cache");
-//            conn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
             conn.setRequestProperty("Content-Type", "multipart/form-data;boundary=" + boundary);
-            conn.setRequestProperty("Charset", "UTF-8");
+            if (null != formData) {
+                conn.setFixedLengthStreamingMode(formData.getContentLength());
+            }
 
             // 启用输入、输出流
             conn.setDoInput(true);
@@ -179,55 +205,49 @@ public class HttpClient {
             // 回调
             listener.onConnected(this);
 
-            long totalLength = 0;
-
             // 写入数据
-            writer = new DataOutputStream(conn.getOutputStream());
-            int length = 0;
-            byte[] buf = new byte[10240];
-            while ((length = requestStream.read(buf)) > 0) {
-                writer.write(buf, 0, length);
-
-                // 回调
-                listener.onProgress(this, totalLength += length);
+            writer = new BufferedOutputStream(conn.getOutputStream(), 8192);
+            if (null != formData) {
+                formData.writeTo(writer);
+                sent = formData.getContentLength();
+            }
+            else {
+                sent = this.transport.drain(requestStream, writer);
             }
             writer.flush();
 
-            StringBuilder builder = new StringBuilder();
+            // 回调
+            listener.onProgress(this, sent);
 
             int stateCode = conn.getResponseCode();
-            if (HttpURLConnection.HTTP_OK == stateCode ||
-                HttpURLConnection.HTTP_CREATED == stateCode ||
-                HttpURLConnection.HTTP_ACCEPTED == stateCode) {
-
-                reader = new BufferedReader(new InputStreamReader(conn.getInputStream()));
-                String line = null;
-                while ((line = reader.readLine()) != null) {
-                    builder.append(line);
-                }
+            boolean success = (HttpURLConnection.HTTP_OK == stateCode ||
+                    HttpURLConnection.HTTP_CREATED == stateCode ||
+                    HttpURLConnection.HTTP_ACCEPTED == stateCode);
 
-                // 回调
+            // 读完应答数据，连接才能被复用
+            reader = success ? conn.getInputStream() : conn.getErrorStream();
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            received = this.transport.drain(reader, response);
+            reusable = true;
+
+            if (success) {
+                Packet packet = null;
                 try {
-                    listener.onCompleted(this, stateCode, new Packet(new JSONObject(builder.toString())));
+                    packet = new Packet(new JSONObject(new String(response.toByteArray(), StandardCharsets.UTF_8)));
                 } catch (JSONException e) {
-                    e.printStackTrace();
+                    LogUtils.w(TAG, e);
+                    // 回调
+                    listener.onFailed(this, e);
+                    return;
                 }
+
+                // 回调
+                listener.onCompleted(this, stateCode, packet);
             }
             else {
-                reader = new BufferedReader(new InputStreamReader(conn.getErrorStream()));
-                String line = null;
-                while ((line = reader.readLine()) != null) {
-                    builder.append(line);
-                }
-
                 // 回调
                 listener.onCompleted(this, stateCode, null);
             }
-
-            // 关闭连接
-            conn.disconnect();
-        } catch (MalformedURLException e) {
-            LogUtils.w(TAG, e);
         } catch (IOException e) {
             LogUtils.w(TAG, e);
             // 回调
@@ -241,13 +261,8 @@ public class HttpClient {
                 }
             }
 
-            if (null != reader) {
-                try {
-                    reader.close();
-                } catch (IOException e) {
-                    LogUtils.w(TAG, e);
-                }
-            }
+            this.transport.record(sent, received, System.nanoTime() - start);
+            this.transport.release(conn, reader, reusable);
         }
     }
 
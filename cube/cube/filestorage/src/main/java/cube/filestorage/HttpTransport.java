@@ -0,0 +1,260 @@
+/*
+ * This file is part of Cube.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2022 Cube Team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package cube.filestorage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicLong;
+
+import cube.util.LogUtils;
+
+/**
+ * 文件存储服务共享的 HTTP 传输层。
+ * 连接由系统的 {@link HttpURLConnection} 连接池按主机复用，传输层负责统一的超时设置，
+ * 并保证应答数据被读完后只关闭流、不断开连接，使连接能回到连接池。
+ * 传输层同时统计请求数、收发字节数、传输速率和连接复用情况。
+ */
+public class HttpTransport {
+
+    private final static String TAG = HttpTransport.class.getSimpleName();
+
+    private final static HttpTransport sDefault = new HttpTransport();
+
+    private volatile int connectTimeout = 5 * 1000;
+
+    private volatile int readTimeout = 10 * 1000;
+
+    private final AtomicLong numRequests = new AtomicLong(0);
+
+    private final AtomicLong numPooled = new AtomicLong(0);
+
+    private final AtomicLong numDiscarded = new AtomicLong(0);
+
+    private final AtomicLong bytesSent = new AtomicLong(0);
+
+    private final AtomicLong bytesReceived = new AtomicLong(0);
+
+    private final AtomicLong transferNanos = new AtomicLong(0);
+
+    public HttpTransport() {
+    }
+
+    /**
+     * 获取默认的共享传输层。
+     *
+     * @return 返回默认的传输层。
+     */
+    public static HttpTransport getDefault() {
+        return sDefault;
+    }
+
+    /**
+     * 设置超时时间。
+     *
+     * @param connectTimeout 指定连接超时时间，单位：毫秒。
+     * @param readTimeout 指定读数据超时时间，单位：毫秒。
+     */
+    public void setTimeouts(int connectTimeout, int readTimeout) {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    public int getConnectTimeout() {
+        return this.connectTimeout;
+    }
+
+    public int getReadTimeout() {
+        return this.readTimeout;
+    }
+
+    /**
+     * 打开连接并设置通用的请求属性。
+     *
+     * @param url 指定 URL 。
+     * @param method 指定请求方法。
+     * @return 返回连接。
+     * @throws IOException
+     */
+    public HttpURLConnection open(String url, String method) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+        conn.setConnectTimeout(this.connectTimeout);
+        conn.setReadTimeout(this.readTimeout);
+        conn.setRequestMethod(method);
+        conn.setRequestProperty("Accept", "*/*");
+        conn.setRequestProperty("Connection", "Keep-Alive");
+        conn.setRequestProperty("Cache-Control", "no-cache");
+        conn.setRequestProperty("Charset", "UTF-8");
+
+        this.numRequests.incrementAndGet();
+        return conn;
+    }
+
+    /**
+     * 读完输入流里剩余的数据，以便连接能被复用。
+     *
+     * @param inputStream 指定输入流。
+     * @param outputStream 指定输出流，为 {@code null} 时丢弃数据。
+     * @return 返回读取的字节数。
+     * @throws IOException
+     */
+    public long drain(InputStream inputStream, OutputStream outputStream) throws IOException {
+        long total = 0;
+        if (null == inputStream) {
+            return total;
+        }
+
+        byte[] buf = new byte[8192];
+        int length = 0;
+        while ((length = inputStream.read(buf)) > 0) {
+            if (null != outputStream) {
+                outputStream.write(buf, 0, length);
+            }
+            total += length;
+        }
+        return total;
+    }
+
+    /**
+     * 结束一次请求。
+     * 可复用时只关闭输入流，连接回到连接池；不可复用时断开连接。
+     *
+     * @param conn 指定连接。
+     * @param inputStream 指定应答输入流，可以为 {@code null} 。
+     * @param reusable 指定应答数据是否已经完整读取。
+     */
+    public void release(HttpURLConnection conn, InputStream inputStream, boolean reusable) {
+        if (null != inputStream) {
+            try {
+                inputStream.close();
+            } catch (IOException e) {
+                LogUtils.w(TAG, e);
+            }
+        }
+
+        if (null == conn) {
+            return;
+        }
+
+        if (reusable) {
+            this.numPooled.incrementAndGet();
+        }
+        else {
+            this.numDiscarded.incrementAndGet();
+            conn.disconnect();
+        }
+    }
+
+    /**
+     * 记录一次请求的传输量。
+     *
+     * @param sent 指定发送的字节数。
+     * @param received 指定接收的字节数。
+     * @param elapsedNanos 指定请求耗时，单位：纳秒。
+     */
+    public void record(long sent, long received, long elapsedNanos) {
+        this.bytesSent.addAndGet(sent);
+        this.bytesReceived.addAndGet(received);
+        this.transferNanos.addAndGet(elapsedNanos);
+    }
+
+    public long getRequestCount() {
+        return this.numRequests.get();
+    }
+
+    public long getBytesSent() {
+        return this.bytesSent.get();
+    }
+
+    public long getBytesReceived() {
+        return this.bytesReceived.get();
+    }
+
+    /**
+     * 获取单个连接的平均传输速率。
+     *
+     * @return 返回每秒传输的字节数。
+     */
+    public long getBytesPerSecond() {
+        long nanos = this.transferNanos.get();
+        if (nanos <= 0) {
+            return 0;
+        }
+        return (long) ((this.bytesSent.get() + this.bytesReceived.get()) * 1e9 / nanos);
+    }
+
+    /**
+     * 获取放回连接池的连接数量。
+     *
+     * @return 返回放回连接池的连接数量。
+     */
+    public long getPooledCount() {
+        return this.numPooled.get();
+    }
+
+    /**
+     * 获取因错误或数据未读完而断开的连接数量。
+     *
+     * @return 返回断开的连接数量。
+     */
+    public long getDiscardedCount() {
+        return this.numDiscarded.get();
+    }
+
+    /**
+     * 获取连接复用率，即请求结束后连接放回连接池的比例。
+     *
+     * @return 返回 {@code 0} 到 {@code 1} 之间的比例。
+     */
+    public double getReuseRate() {
+        long total = this.numPooled.get() + this.numDiscarded.get();
+        return (total == 0) ? 0 : (double) this.numPooled.get() / (double) total;
+    }
+
+    /**
+     * 重置统计数据。
+     */
+    public void resetMetrics() {
+        this.numRequests.set(0);
+        this.numPooled.set(0);
+        this.numDiscarded.set(0);
+        this.bytesSent.set(0);
+        this.bytesReceived.set(0);
+        this.transferNanos.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "HttpTransport{requests=" + this.getRequestCount()
+                + ", sent=" + this.getBytesSent()
+                + ", received=" + this.getBytesReceived()
+                + ", bytesPerSecond=" + this.getBytesPerSecond()
+                + ", reuseRate=" + this.getReuseRate() + "}";
+    }
+}
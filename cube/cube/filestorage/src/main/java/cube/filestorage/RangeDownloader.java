@@ -0,0 +1,623 @@
+/*
+ * This file is part of Cube.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2022 Cube Team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package cube.filestorage;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import cube.core.Packet;
+import cube.filestorage.model.FileAnchor;
+import cube.filestorage.model.FileLabel;
+import cube.util.FileUtils;
+import cube.util.LogUtils;
+
+/**
+ * 分段下载器。
+ * 数据先写入 {@code .part} 文件，下载进度记录在旁边的 {@code .part.json} 文件里，失败后使用 HTTP Range 续传。
+ * 大文件拆分为多个范围并行下载，各范围通过 {@link FileChannel} 按位置写入。
+ * 所有范围完成后校验文件大小和摘要，校验通过才重命名为目标文件。
+ */
+public class RangeDownloader {
+
+    private final static String TAG = RangeDownloader.class.getSimpleName();
+
+    /**
+     * 未完成下载的数据文件后缀。
+     */
+    public final static String PART_SUFFIX = ".part";
+
+    /**
+     * 下载进度文件后缀。
+     */
+    private final static String STATE_SUFFIX = ".part.json";
+
+    /**
+     * 启用并行范围下载的最小文件大小。
+     */
+    public final static long PARALLEL_THRESHOLD = 4 * 1024 * 1024;
+
+    /**
+     * 单个范围最大尝试次数。
+     */
+    private final static int MAX_ATTEMPTS = 3;
+
+    /**
+     * 进度文件的最小保存间隔，单位：毫秒。
+     */
+    private final static long STATE_SAVE_INTERVAL = 1000;
+
+    private final int maxConnections;
+
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * 构造函数。
+     *
+     * @param maxConnections 指定每个文件的最大连接数。
+     * @param maxThreads 指定下载范围的最大线程数。
+     */
+    public RangeDownloader(int maxConnections, int maxThreads) {
+        this.maxConnections = Math.max(1, maxConnections);
+        this.executor = new ThreadPoolExecutor(maxThreads, maxThreads, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 下载文件锚点对应的文件。阻塞直到下载完成或失败，结果通过监听器通知。
+     *
+     * @param anchor 指定文件锚点。
+     * @param listener 指定监听器。
+     */
+    public void download(FileAnchor anchor, DownloadQueue.DownloadQueueListener listener) {
+        File target = anchor.getFile();
+        File part = new File(target.getPath() + PART_SUFFIX);
+        File stateFile = new File(target.getPath() + STATE_SUFFIX);
+
+        Session session = new Session(anchor, listener, stateFile);
+        if (!session.resume(part)) {
+            part.delete();
+            session.plan(this.maxConnections);
+        }
+
+        anchor.resetPosition(session.total);
+
+        boolean success = this.transfer(session, part);
+        if (!success && session.rangeUnsupported) {
+            // 服务器不支持范围请求，从头整体下载
+            LogUtils.i(TAG, "Range not supported, restart : " + anchor.getFileName());
+            part.delete();
+            session.plan(1);
+            session.ranged = false;
+            anchor.resetPosition(0);
+            success = this.transfer(session, part);
+        }
+
+        if (!success) {
+            session.save();
+            listener.onDownloadFailed(anchor, session.errorCode);
+            return;
+        }
+
+        int stateCode = verify(part, anchor);
+        if (stateCode != FileStorageState.Ok.code) {
+            LogUtils.w(TAG, "Verify failed : " + anchor.getFileName());
+            part.delete();
+            stateFile.delete();
+            listener.onDownloadFailed(anchor, stateCode);
+            return;
+        }
+
+        // 校验通过，替换目标文件
+        if (target.exists()) {
+            target.delete();
+        }
+        if (!part.renameTo(target)) {
+            LogUtils.w(TAG, "Rename failed : " + part.getPath());
+            listener.onDownloadFailed(anchor, FileStorageState.IOException.code);
+            return;
+        }
+        stateFile.delete();
+
+        listener.onDownloadCompleted(anchor);
+    }
+
+    /**
+     * 关闭下载器。正在下载的文件在下载其他范围时失败。
+     */
+    public void shutdown() {
+        this.executor.shutdown();
+    }
+
+    private boolean transfer(Session session, File part) {
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(part, "rw");
+            final FileChannel channel = file.getChannel();
+
+            List<Segment> pending = new ArrayList<>();
+            for (Segment segment : session.segments) {
+                if (!segment.isComplete()) {
+                    pending.add(segment);
+                }
+            }
+
+            if (pending.isEmpty()) {
+                return true;
+            }
+
+            CountDownLatch latch = new CountDownLatch(pending.size() - 1);
+            for (int i = 1; i < pending.size(); ++i) {
+                final Segment segment = pending.get(i);
+                try {
+                    this.executor.execute(() -> {
+                        try {
+                            fetch(session, channel, segment);
+                        } finally {
+                            latch.countDown();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    // 下载器已关闭
+                    session.fail(FileStorageState.TransmitFailed.code);
+                    latch.countDown();
+                }
+            }
+
+            // 当前线程下载第一个范围
+            this.fetch(session, channel, pending.get(0));
+
+            while (latch.getCount() > 0) {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    // Nothing
+                }
+            }
+        } catch (IOException e) {
+            LogUtils.w(TAG, "#transfer", e);
+            session.fail(FileStorageState.IOException.code);
+        } finally {
+            if (null != file) {
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    LogUtils.w(TAG, e);
+                }
+            }
+        }
+
+        return !session.isFailed();
+    }
+
+    private void fetch(Session session, FileChannel channel, Segment segment) {
+        FileAnchor anchor = session.anchor;
+        try {
+            for (int attempt = 1; attempt <= MAX_ATTEMPTS && !session.isFailed(); ++attempt) {
+                boolean whole = !session.ranged || (session.segments.size() == 1 && segment.getOffset() == 0);
+                if (whole) {
+                    // 整体下载不能续传
+                    session.rewind(segment);
+                }
+
+                HttpClient client = new HttpClient(anchor.getFileURL());
+                SegmentResponse response = new SegmentResponse();
+                SegmentOutputStream output = new SegmentOutputStream(session, channel, segment);
+                if (whole) {
+                    client.requestGet(output, response);
+                }
+                else {
+                    client.requestGet(output, segment.getOffset(), segment.end - 1, response);
+                }
+
+                int stateCode = response.stateCode;
+                if (stateCode == HttpURLConnection.HTTP_PARTIAL || (whole && stateCode == HttpURLConnection.HTTP_OK)) {
+                    if (segment.end < 0) {
+                        // 文件大小未知，读完应答即完成
+                        segment.finished = true;
+                    }
+
+                    if (segment.isComplete()) {
+                        return;
+                    }
+                }
+                else if (!whole && stateCode == HttpURLConnection.HTTP_OK) {
+                    session.rangeUnsupported = true;
+                    session.fail(FileStorageState.TransmitFailed.code);
+                    return;
+                }
+                else if (stateCode > 0 && stateCode < HttpURLConnection.HTTP_INTERNAL_ERROR) {
+                    // 客户端错误不重试
+                    LogUtils.w(TAG, "Error : " + stateCode);
+                    session.fail(mapHttpState(stateCode));
+                    return;
+                }
+
+                LogUtils.w(TAG, "Range failed : " + anchor.getFileName() + " @" + segment.getOffset()
+                        + " - " + stateCode + " (" + attempt + "/" + MAX_ATTEMPTS + ")");
+            }
+
+            session.fail(FileStorageState.TransmitFailed.code);
+        } catch (Exception e) {
+            LogUtils.w(TAG, "#fetch", e);
+            session.fail(FileStorageState.TransmitFailed.code);
+        }
+    }
+
+    /**
+     * 将不重试的 HTTP 状态码转换为文件存储状态码。
+     *
+     * @param httpStateCode
+     * @return 返回状态码。
+     */
+    private static int mapHttpState(int httpStateCode) {
+        switch (httpStateCode) {
+            case HttpURLConnection.HTTP_NOT_FOUND:
+            case HttpURLConnection.HTTP_GONE:
+                return FileStorageState.NotFound.code;
+            case HttpURLConnection.HTTP_UNAUTHORIZED:
+                return FileStorageState.Unauthorized.code;
+            case HttpURLConnection.HTTP_FORBIDDEN:
+                return FileStorageState.Forbidden.code;
+            default:
+                return FileStorageState.TransmitFailed.code;
+        }
+    }
+
+    /**
+     * 校验文件大小和摘要。
+     *
+     * @param part
+     * @param anchor
+     * @return 返回状态码。
+     */
+    private static int verify(File part, FileAnchor anchor) {
+        if (anchor.getFileSize() > 0 && part.length() != anchor.getFileSize()) {
+            return FileStorageState.VerifyFailed.code;
+        }
+
+        FileLabel label = anchor.fileLabel;
+        if (null == label) {
+            return FileStorageState.Ok.code;
+        }
+
+        try {
+            String md5 = label.getMd5Code();
+            if (null != md5 && md5.length() > 0) {
+                return md5.equalsIgnoreCase(FileUtils.digest(part, "MD5")) ?
+                        FileStorageState.Ok.code : FileStorageState.VerifyFailed.code;
+            }
+
+            String sha1 = label.getSha1Code();
+            if (null != sha1 && sha1.length() > 0) {
+                return sha1.equalsIgnoreCase(FileUtils.digest(part, "SHA-1")) ?
+                        FileStorageState.Ok.code : FileStorageState.VerifyFailed.code;
+            }
+        } catch (IOException e) {
+            LogUtils.w(TAG, "#verify", e);
+            return FileStorageState.ReadFileFailed.code;
+        }
+
+        return FileStorageState.Ok.code;
+    }
+
+    /**
+     * 文件的数据范围。
+     */
+    private static class Segment {
+
+        /**
+         * 起始位置。
+         */
+        protected final long start;
+
+        /**
+         * 结束位置（不包含），小于 {@code 0} 表示文件大小未知。
+         */
+        protected final long end;
+
+        /**
+         * 已写入的数据长度。
+         */
+        protected long done;
+
+        protected boolean finished = false;
+
+        protected Segment(long start, long end, long done) {
+            this.start = start;
+            this.end = end;
+            this.done = done;
+        }
+
+        protected long getOffset() {
+            return this.start + this.done;
+        }
+
+        protected long getRemaining() {
+            return (this.end < 0) ? Long.MAX_VALUE : this.end - this.start - this.done;
+        }
+
+        protected boolean isComplete() {
+            return this.finished || (this.end >= 0 && this.getRemaining() <= 0);
+        }
+
+        protected JSONObject toJSON() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("start", this.start);
+            json.put("end", this.end);
+            json.put("done", this.done);
+            return json;
+        }
+    }
+
+    /**
+     * 单个文件的下载会话。
+     */
+    private class Session {
+
+        protected final FileAnchor anchor;
+
+        protected final DownloadQueue.DownloadQueueListener listener;
+
+        private final File stateFile;
+
+        protected List<Segment> segments = new ArrayList<>();
+
+        /**
+         * 是否使用范围请求。
+         */
+        protected boolean ranged = true;
+
+        /**
+         * 服务器对范围请求返回了完整数据。
+         */
+        protected volatile boolean rangeUnsupported = false;
+
+        protected long total = 0;
+
+        private volatile boolean failed = false;
+
+        protected int errorCode = 0;
+
+        private long lastSaved;
+
+        protected Session(FileAnchor anchor, DownloadQueue.DownloadQueueListener listener, File stateFile) {
+            this.anchor = anchor;
+            this.listener = listener;
+            this.stateFile = stateFile;
+            this.lastSaved = System.currentTimeMillis();
+        }
+
+        /**
+         * 从进度文件恢复范围。
+         *
+         * @param part
+         * @return 如果可以续传返回 {@code true} 。
+         */
+        protected boolean resume(File part) {
+            if (!part.exists() || !this.stateFile.exists()) {
+                return false;
+            }
+
+            try {
+                JSONObject json = FileUtils.readJSONFile(this.stateFile);
+                if (null == json || !json.optString("fileCode").equals(this.anchor.getFileCode())
+                        || json.optLong("fileSize", -1) != this.anchor.getFileSize()) {
+                    return false;
+                }
+
+                List<Segment> list = new ArrayList<>();
+                long sum = 0;
+                JSONArray array = json.getJSONArray("segments");
+                for (int i = 0; i < array.length(); ++i) {
+                    JSONObject item = array.getJSONObject(i);
+                    Segment segment = new Segment(item.getLong("start"), item.getLong("end"), item.getLong("done"));
+                    if (segment.end < 0) {
+                        // 大小未知的数据不能续传
+                        return false;
+                    }
+                    list.add(segment);
+                    sum += segment.done;
+                }
+
+                this.segments = list;
+                this.total = sum;
+                LogUtils.i(TAG, "Resume download : " + this.anchor.getFileName() + " @" + sum);
+                return true;
+            } catch (JSONException e) {
+                LogUtils.w(TAG, "#resume", e);
+                return false;
+            }
+        }
+
+        /**
+         * 按连接数划分范围。
+         *
+         * @param connections
+         */
+        protected synchronized void plan(int connections) {
+            this.segments = new ArrayList<>();
+            this.total = 0;
+            this.failed = false;
+            this.errorCode = 0;
+            this.rangeUnsupported = false;
+
+            long fileSize = this.anchor.getFileSize();
+            if (fileSize <= 0) {
+                this.segments.add(new Segment(0, -1, 0));
+                return;
+            }
+
+            int num = (fileSize >= PARALLEL_THRESHOLD) ? connections : 1;
+            long size = (fileSize + num - 1) / num;
+            for (long start = 0; start < fileSize; start += size) {
+                this.segments.add(new Segment(start, Math.min(fileSize, start + size), 0));
+            }
+        }
+
+        protected boolean isFailed() {
+            return this.failed;
+        }
+
+        protected synchronized void fail(int errorCode) {
+            if (!this.failed) {
+                this.failed = true;
+                this.errorCode = errorCode;
+            }
+        }
+
+        protected synchronized void rewind(Segment segment) {
+            this.total -= segment.done;
+            segment.done = 0;
+        }
+
+        protected synchronized void progress(Segment segment, int length) {
+            segment.done += length;
+            this.total += length;
+
+            // 正在下载数据
+            this.listener.onDownloading(this.anchor.resetPosition(this.total));
+
+            long now = System.currentTimeMillis();
+            if (now - this.lastSaved >= STATE_SAVE_INTERVAL) {
+                this.lastSaved = now;
+                this.save();
+            }
+        }
+
+        /**
+         * 保存下载进度。
+         */
+        protected synchronized void save() {
+            if (this.anchor.getFileSize() <= 0 || !this.ranged) {
+                return;
+            }
+
+            try {
+                JSONObject json = new JSONObject();
+                json.put("fileCode", this.anchor.getFileCode());
+                json.put("fileSize", this.anchor.getFileSize());
+                JSONArray array = new JSONArray();
+                for (Segment segment : this.segments) {
+                    array.put(segment.toJSON());
+                }
+                json.put("segments", array);
+                FileUtils.writeJSONFile(this.stateFile, json);
+            } catch (JSONException e) {
+                LogUtils.w(TAG, "#save", e);
+            }
+        }
+    }
+
+    /**
+     * 将应答数据按位置写入范围。
+     */
+    private class SegmentOutputStream extends OutputStream {
+
+        private final Session session;
+
+        private final FileChannel channel;
+
+        private final Segment segment;
+
+        protected SegmentOutputStream(Session session, FileChannel channel, Segment segment) {
+            this.session = session;
+            this.channel = channel;
+            this.segment = segment;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            this.write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (this.session.isFailed()) {
+                throw new IOException("Download cancelled");
+            }
+
+            // 丢弃超出范围的数据
+            int length = (int) Math.min(len, this.segment.getRemaining());
+            if (length <= 0) {
+                return;
+            }
+
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, length);
+            long position = this.segment.getOffset();
+            while (buffer.hasRemaining()) {
+                position += this.channel.write(buffer, position);
+            }
+
+            this.session.progress(this.segment, length);
+        }
+    }
+
+    /**
+     * 同步记录范围应答。
+     */
+    private class SegmentResponse implements HttpClient.RequestListener {
+
+        protected int stateCode = -1;
+
+        @Override
+        public void onConnected(HttpClient client) {
+            // Nothing
+        }
+
+        @Override
+        public void onProgress(HttpClient client, long totalLength) {
+            // Nothing
+        }
+
+        @Override
+        public void onFailed(HttpClient client, Exception exception) {
+            this.stateCode = -1;
+        }
+
+        @Override
+        public void onCompleted(HttpClient client, int stateCode, Packet packet) {
+            this.stateCode = stateCode;
+        }
+    }
+}
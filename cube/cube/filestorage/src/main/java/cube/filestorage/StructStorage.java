@@ -30,6 +30,7 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.util.Pair;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -43,13 +44,14 @@ import cube.filestorage.model.FileLabel;
 import cube.filestorage.model.Trash;
 import cube.filestorage.model.TrashDirectory;
 import cube.filestorage.model.TrashFile;
+import cube.filestorage.model.UploadManifest;
 
 /**
  * 文件存储服务的数据存储。
  */
 public class StructStorage extends AbstractStorage {
 
-    private final static int VERSION = 1;
+    private final static int VERSION = 3;
 
     private String domain;
 
@@ -76,64 +78,63 @@ public class StructStorage extends AbstractStorage {
      * @param fileLabel
      */
     public void writeFileLabel(FileLabel fileLabel) {
-        SQLiteDatabase db = this.getWritableDatabase();
-
-        Cursor cursor = db.query("file_label", new String[]{ "id" },
-                "id=?", new String[]{ fileLabel.id.toString() }, null, null, null);
-        if (cursor.moveToFirst()) {
-            cursor.close();
-
-            ContentValues values = new ContentValues();
-            values.put("timestamp", fileLabel.getTimestamp());
-            values.put("owner", fileLabel.getOwnerId());
-            values.put("file_code", fileLabel.getFileCode());
-            values.put("file_name", fileLabel.getFileName());
-            values.put("file_size", fileLabel.getFileSize());
-            values.put("last_modified", fileLabel.getLastModified());
-            values.put("completed_time", fileLabel.getCompletedTime());
-            values.put("expiry_time", fileLabel.getExpiryTime());
-            values.put("file_type", fileLabel.getFileType());
-            values.put("md5", fileLabel.getMd5Code());
-            values.put("sha1", fileLabel.getSha1Code());
-            values.put("file_url", fileLabel.getURL());
-            values.put("file_secure_url", fileLabel.getSecureURL());
-
-            if (null != fileLabel.getFilePath()) {
-                values.put("file_path", fileLabel.getFilePath());
+        this.write((db) -> {
+            Cursor cursor = db.query("file_label", new String[]{ "id" },
+                    "id=?", new String[]{ fileLabel.id.toString() }, null, null, null);
+            if (cursor.moveToFirst()) {
+                cursor.close();
+
+                ContentValues values = new ContentValues();
+                values.put("timestamp", fileLabel.getTimestamp());
+                values.put("owner", fileLabel.getOwnerId());
+                values.put("file_code", fileLabel.getFileCode());
+                values.put("file_name", fileLabel.getFileName());
+                values.put("file_size", fileLabel.getFileSize());
+                values.put("last_modified", fileLabel.getLastModified());
+                values.put("completed_time", fileLabel.getCompletedTime());
+                values.put("expiry_time", fileLabel.getExpiryTime());
+                values.put("file_type", fileLabel.getFileType());
+                values.put("md5", fileLabel.getMd5Code());
+                values.put("sha1", fileLabel.getSha1Code());
+                values.put("file_url", fileLabel.getURL());
+                values.put("file_secure_url", fileLabel.getSecureURL());
+
+                if (null != fileLabel.getFilePath()) {
+                    values.put("file_path", fileLabel.getFilePath());
+                }
+
+                // update
+                db.update("file_label", values,
+                        "id=?", new String[]{ fileLabel.id.toString() });
             }
-
-            // update
-            db.update("file_label", values,
-                    "id=?", new String[]{ fileLabel.id.toString() });
-        }
-        else {
-            cursor.close();
-
-            ContentValues values = new ContentValues();
-            values.put("id", fileLabel.id);
-            values.put("timestamp", fileLabel.getTimestamp());
-            values.put("owner", fileLabel.getOwnerId());
-            values.put("file_code", fileLabel.getFileCode());
-            values.put("file_name", fileLabel.getFileName());
-            values.put("file_size", fileLabel.getFileSize());
-            values.put("last_modified", fileLabel.getLastModified());
-            values.put("completed_time", fileLabel.getCompletedTime());
-            values.put("expiry_time", fileLabel.getExpiryTime());
-            values.put("file_type", fileLabel.getFileType());
-            values.put("md5", fileLabel.getMd5Code());
-            values.put("sha1", fileLabel.getSha1Code());
-            values.put("file_url", fileLabel.getURL());
-            values.put("file_secure_url", fileLabel.getSecureURL());
-
-            if (null != fileLabel.getFilePath()) {
-                values.put("file_path", fileLabel.getFilePath());
+            else {
+                cursor.close();
+
+                ContentValues values = new ContentValues();
+                values.put("id", fileLabel.id);
+                values.put("timestamp", fileLabel.getTimestamp());
+                values.put("owner", fileLabel.getOwnerId());
+                values.put("file_code", fileLabel.getFileCode());
+                values.put("file_name", fileLabel.getFileName());
+                values.put("file_size", fileLabel.getFileSize());
+                values.put("last_modified", fileLabel.getLastModified());
+                values.put("completed_time", fileLabel.getCompletedTime());
+                values.put("expiry_time", fileLabel.getExpiryTime());
+                values.put("file_type", fileLabel.getFileType());
+                values.put("md5", fileLabel.getMd5Code());
+                values.put("sha1", fileLabel.getSha1Code());
+                values.put("file_url", fileLabel.getURL());
+                values.put("file_secure_url", fileLabel.getSecureURL());
+
+                if (null != fileLabel.getFilePath()) {
+                    values.put("file_path", fileLabel.getFilePath());
+                }
+
+                // insert
+                db.insert("file_label", null, values);
             }
-
-            // insert
-            db.insert("file_label", null, values);
-        }
-
-        this.closeWritableDatabase(db);
+            return null;
+        });
     }
 
     /**
@@ -250,66 +251,65 @@ public class StructStorage extends AbstractStorage {
      * @param directory 指定目录。
      */
     public synchronized void writeDirectory(Directory directory) {
-        SQLiteDatabase db = this.getWritableDatabase();
-
-        Cursor cursor = db.query("directory", new String[]{ "id" },
-                "id=?", new String[]{ directory.id.toString() }, null, null, null);
-        if (cursor.moveToFirst()) {
-            cursor.close();
-
-            ContentValues values = new ContentValues();
-            values.put("name", directory.getName());
-            values.put("last_modified", directory.getLastModified());
-            values.put("size", directory.getSize());
-            values.put("hidden", directory.isHidden() ? 1 : 0);
-            values.put("num_dirs", directory.numDirs());
-            values.put("num_files", directory.numFiles());
-            values.put("parent_id", directory.getParentId().longValue());
-            values.put("last", directory.getLast());
-            values.put("expiry", directory.getExpiry());
-            // update
-            db.update("directory", values, "id=?", new String[]{ directory.id.toString() });
-        }
-        else {
-            cursor.close();
-
-            ContentValues values = new ContentValues();
-            values.put("id", directory.id.longValue());
-            values.put("name", directory.getName());
-            values.put("creation", directory.getCreation());
-            values.put("last_modified", directory.getLastModified());
-            values.put("size", directory.getSize());
-            values.put("hidden", directory.isHidden() ? 1 : 0);
-            values.put("num_dirs", directory.numDirs());
-            values.put("num_files", directory.numFiles());
-            values.put("parent_id", directory.getParentId().longValue());
-            values.put("last", directory.getLast());
-            values.put("expiry", directory.getExpiry());
-            // insert
-            db.insert("directory", null, values);
-        }
-
-        // 存入结构
-        cursor = db.query("hierarchy", new String[]{ "sn" },
-                "parent_id=? AND dir_id=?", new String[]{
-                        directory.getParentId().toString(),
-                        directory.id.toString()
-                }, null, null, null);
-        if (cursor.moveToFirst()) {
-            cursor.close();
-        }
-        else {
-            cursor.close();
-
-            ContentValues values = new ContentValues();
-            values.put("parent_id", directory.getParentId());
-            values.put("dir_id", directory.id);
-            values.put("hidden", directory.isHidden() ? 1 : 0);
-            // insert
-            db.insert("hierarchy", null, values);
-        }
+        this.write((db) -> {
+            Cursor cursor = db.query("directory", new String[]{ "id" },
+                    "id=?", new String[]{ directory.id.toString() }, null, null, null);
+            if (cursor.moveToFirst()) {
+                cursor.close();
+
+                ContentValues values = new ContentValues();
+                values.put("name", directory.getName());
+                values.put("last_modified", directory.getLastModified());
+                values.put("size", directory.getSize());
+                values.put("hidden", directory.isHidden() ? 1 : 0);
+                values.put("num_dirs", directory.numDirs());
+                values.put("num_files", directory.numFiles());
+                values.put("parent_id", directory.getParentId().longValue());
+                values.put("last", directory.getLast());
+                values.put("expiry", directory.getExpiry());
+                // update
+                db.update("directory", values, "id=?", new String[]{ directory.id.toString() });
+            }
+            else {
+                cursor.close();
+
+                ContentValues values = new ContentValues();
+                values.put("id", directory.id.longValue());
+                values.put("name", directory.getName());
+                values.put("creation", directory.getCreation());
+                values.put("last_modified", directory.getLastModified());
+                values.put("size", directory.getSize());
+                values.put("hidden", directory.isHidden() ? 1 : 0);
+                values.put("num_dirs", directory.numDirs());
+                values.put("num_files", directory.numFiles());
+                values.put("parent_id", directory.getParentId().longValue());
+                values.put("last", directory.getLast());
+                values.put("expiry", directory.getExpiry());
+                // insert
+                db.insert("directory", null, values);
+            }
 
-        this.closeWritableDatabase(db);
+            // 存入结构
+            cursor = db.query("hierarchy", new String[]{ "sn" },
+                    "parent_id=? AND dir_id=?", new String[]{
+                            directory.getParentId().toString(),
+                            directory.id.toString()
+                    }, null, null, null);
+            if (cursor.moveToFirst()) {
+                cursor.close();
+            }
+            else {
+                cursor.close();
+
+                ContentValues values = new ContentValues();
+                values.put("parent_id", directory.getParentId());
+                values.put("dir_id", directory.id);
+                values.put("hidden", directory.isHidden() ? 1 : 0);
+                // insert
+                db.insert("hierarchy", null, values);
+            }
+            return null;
+        });
     }
 
     /**
@@ -318,20 +318,19 @@ public class StructStorage extends AbstractStorage {
      * @param directory
      */
     public void deleteDirectory(Directory directory) {
-        SQLiteDatabase db = this.getWritableDatabase();
-
-        // delete
-        db.delete("directory", "id=?", new String[]{
-                directory.id.toString()
-        });
+        this.write((db) -> {
+            // delete
+            db.delete("directory", "id=?", new String[]{
+                    directory.id.toString()
+            });
 
-        // delete
-        db.delete("hierarchy", "dir_id=? OR parent_id=?", new String[]{
-                directory.id.toString(),
-                directory.id.toString()
+            // delete
+            db.delete("hierarchy", "dir_id=? OR parent_id=?", new String[]{
+                    directory.id.toString(),
+                    directory.id.toString()
+            });
+            return null;
         });
-
-        this.closeWritableDatabase(db);
     }
 
     /**
@@ -341,15 +340,14 @@ public class StructStorage extends AbstractStorage {
      * @param fileLabel
      */
     public void deleteFile(Directory directory, FileLabel fileLabel) {
-        SQLiteDatabase db = this.getWritableDatabase();
-
-        // delete
-        db.delete("hierarchy", "parent_id=? AND file_code=?", new String[]{
-                directory.id.toString(),
-                fileLabel.getFileCode()
+        this.write((db) -> {
+            // delete
+            db.delete("hierarchy", "parent_id=? AND file_code=?", new String[]{
+                    directory.id.toString(),
+                    fileLabel.getFileCode()
+            });
+            return null;
         });
-
-        this.closeWritableDatabase(db);
     }
 
     /**
@@ -359,26 +357,27 @@ public class StructStorage extends AbstractStorage {
      * @param fileLabel
      */
     public void writeFileLabel(Directory directory, FileLabel fileLabel) {
-        SQLiteDatabase db = this.getWritableDatabase();
-        Cursor cursor = db.query("hierarchy", new String[]{ "sn" },
-                "parent_id=? AND file_code=?", new String[]{
-                        directory.id.toString(),
-                        fileLabel.getFileCode() },
-                null, null, null);
-        if (cursor.moveToFirst()) {
-            cursor.close();
-        }
-        else {
-            cursor.close();
-
-            // 插入数据
-            ContentValues values = new ContentValues();
-            values.put("parent_id", directory.id);
-            values.put("file_code", fileLabel.getFileCode());
-            // insert
-            db.insert("hierarchy", null, values);
-        }
-        this.closeWritableDatabase(db);
+        this.write((db) -> {
+            Cursor cursor = db.query("hierarchy", new String[]{ "sn" },
+                    "parent_id=? AND file_code=?", new String[]{
+                            directory.id.toString(),
+                            fileLabel.getFileCode() },
+                    null, null, null);
+            if (cursor.moveToFirst()) {
+                cursor.close();
+            }
+            else {
+                cursor.close();
+
+                // 插入数据
+                ContentValues values = new ContentValues();
+                values.put("parent_id", directory.id);
+                values.put("file_code", fileLabel.getFileCode());
+                // insert
+                db.insert("hierarchy", null, values);
+            }
+            return null;
+        });
 
         // 写入文件标签
         this.writeFileLabel(fileLabel);
@@ -390,35 +389,34 @@ public class StructStorage extends AbstractStorage {
      * @param trashDirectory
      */
     public void writeTrashDirectory(TrashDirectory trashDirectory) {
-        SQLiteDatabase db = this.getWritableDatabase();
-
-        ContentValues values = new ContentValues();
-        values.put("parent_id", trashDirectory.getDirectory().getParentId().longValue());
-        values.put("timestamp", trashDirectory.getTimestamp());
-        values.put("dir_id", trashDirectory.getDirectory().id.longValue());
-        values.put("data", trashDirectory.toJSON().toString());
-
-        Cursor cursor = db.query("recyclebin", new String[]{ "id" },
-                "id=?", new String[]{
+        this.write((db) -> {
+            ContentValues values = new ContentValues();
+            values.put("parent_id", trashDirectory.getDirectory().getParentId().longValue());
+            values.put("timestamp", trashDirectory.getTimestamp());
+            values.put("dir_id", trashDirectory.getDirectory().id.longValue());
+            values.put("data", trashDirectory.toJSON().toString());
+
+            Cursor cursor = db.query("recyclebin", new String[]{ "id" },
+                    "id=?", new String[]{
+                            trashDirectory.id.toString()
+                    }, null, null, null);
+            if (cursor.moveToFirst()) {
+                cursor.close();
+
+                // update
+                db.update("recyclebin", values, "id=?", new String[]{
                         trashDirectory.id.toString()
-                }, null, null, null);
-        if (cursor.moveToFirst()) {
-            cursor.close();
-
-            // update
-            db.update("recyclebin", values, "id=?", new String[]{
-                    trashDirectory.id.toString()
-            });
-        }
-        else {
-            cursor.close();
-
-            values.put("id", trashDirectory.id.longValue());
-            // insert
-            db.insert("recyclebin", null, values);
-        }
+                });
+            }
+            else {
+                cursor.close();
 
-        this.closeWritableDatabase(db);
+                values.put("id", trashDirectory.id.longValue());
+                // insert
+                db.insert("recyclebin", null, values);
+            }
+            return null;
+        });
     }
 
     /**
@@ -451,31 +449,30 @@ public class StructStorage extends AbstractStorage {
      * 写入废弃文件。
      */
     public void writeTrashFile(TrashFile trashFile) {
-        SQLiteDatabase db = this.getWritableDatabase();
-
-        ContentValues values = new ContentValues();
-        values.put("parent_id", trashFile.getParent().id.longValue());
-        values.put("timestamp", trashFile.getTimestamp());
-        values.put("file_code", trashFile.getFileLabel().getFileCode());
-        values.put("data", trashFile.toJSON().toString());
-
-        Cursor cursor = db.query("recyclebin", new String[]{ "id" },
-                "id=?", new String[]{ trashFile.id.toString() }, null, null, null);
-        if (cursor.moveToFirst()) {
-            cursor.close();
-
-            // update
-            db.update("recyclebin", values, "id=?", new String[]{ trashFile.id.toString() });
-        }
-        else {
-            cursor.close();
-
-            values.put("id", trashFile.id.longValue());
-            // insert
-            db.insert("recyclebin", null, values);
-        }
+        this.write((db) -> {
+            ContentValues values = new ContentValues();
+            values.put("parent_id", trashFile.getParent().id.longValue());
+            values.put("timestamp", trashFile.getTimestamp());
+            values.put("file_code", trashFile.getFileLabel().getFileCode());
+            values.put("data", trashFile.toJSON().toString());
+
+            Cursor cursor = db.query("recyclebin", new String[]{ "id" },
+                    "id=?", new String[]{ trashFile.id.toString() }, null, null, null);
+            if (cursor.moveToFirst()) {
+                cursor.close();
+
+                // update
+                db.update("recyclebin", values, "id=?", new String[]{ trashFile.id.toString() });
+            }
+            else {
+                cursor.close();
 
-        this.closeWritableDatabase(db);
+                values.put("id", trashFile.id.longValue());
+                // insert
+                db.insert("recyclebin", null, values);
+            }
+            return null;
+        });
     }
 
     /**
@@ -510,10 +507,158 @@ public class StructStorage extends AbstractStorage {
      * @param trash
      */
     public void deleteTrash(Trash trash) {
-        SQLiteDatabase db = this.getWritableDatabase();
-        // delete
-        db.delete("recyclebin", "id=?", new String[]{ trash.id.toString() });
-        this.closeWritableDatabase(db);
+        this.write((db) -> {
+            // delete
+            db.delete("recyclebin", "id=?", new String[]{ trash.id.toString() });
+            return null;
+        });
+    }
+
+    /**
+     * 读取指定文件路径的上传清单。
+     *
+     * @param filePath
+     * @return
+     */
+    public UploadManifest readUploadManifest(String filePath) {
+        UploadManifest manifest = null;
+
+        SQLiteDatabase db = this.getReadableDatabase();
+
+        Cursor cursor = db.rawQuery("SELECT * FROM `upload_manifest` WHERE `file_path`=?",
+                new String[]{ filePath });
+        if (cursor.moveToFirst()) {
+            manifest = new UploadManifest(filePath,
+                    cursor.getLong(cursor.getColumnIndex("file_size")),
+                    cursor.getLong(cursor.getColumnIndex("last_modified")),
+                    cursor.getInt(cursor.getColumnIndex("chunk_size")),
+                    cursor.getLong(cursor.getColumnIndex("position")),
+                    cursor.getLong(cursor.getColumnIndex("timestamp")));
+        }
+        cursor.close();
+
+        this.closeReadableDatabase(db);
+
+        return manifest;
+    }
+
+    /**
+     * 写入上传清单。
+     *
+     * @param manifest
+     */
+    public void writeUploadManifest(UploadManifest manifest) {
+        final String filePath = manifest.getFilePath();
+        final long fileSize = manifest.getFileSize();
+        final long lastModified = manifest.getLastModified();
+        final int chunkSize = manifest.getChunkSize();
+        final long position = manifest.getPosition();
+        final long timestamp = manifest.getTimestamp();
+
+        this.write((db) -> {
+            ContentValues values = new ContentValues();
+            values.put("file_path", filePath);
+            values.put("file_size", fileSize);
+            values.put("last_modified", lastModified);
+            values.put("chunk_size", chunkSize);
+            values.put("position", position);
+            values.put("timestamp", timestamp);
+            db.insertWithOnConflict("upload_manifest", null, values, SQLiteDatabase.CONFLICT_REPLACE);
+            return null;
+        });
+    }
+
+    /**
+     * 删除指定文件路径的上传清单。
+     *
+     * @param filePath
+     */
+    public void deleteUploadManifest(String filePath) {
+        this.write((db) -> {
+            db.delete("upload_manifest", "file_path=?", new String[]{ filePath });
+            return null;
+        });
+    }
+
+    /**
+     * 读取本地文件的 MD5 摘要。文件大小或修改时间与记录不符时返回 {@code null} 。
+     *
+     * @param filePath
+     * @param fileSize
+     * @param lastModified
+     * @return
+     */
+    public String readFileHash(String filePath, long fileSize, long lastModified) {
+        String md5 = null;
+
+        SQLiteDatabase db = this.getReadableDatabase();
+
+        Cursor cursor = db.rawQuery("SELECT `md5` FROM `file_hash` WHERE `file_path`=? AND `file_size`=? AND `last_modified`=?",
+                new String[]{ filePath, Long.toString(fileSize), Long.toString(lastModified) });
+        if (cursor.moveToFirst()) {
+            md5 = cursor.getString(0);
+        }
+        cursor.close();
+
+        this.closeReadableDatabase(db);
+
+        return md5;
+    }
+
+    /**
+     * 查找指定摘要和大小的本地文件路径。
+     *
+     * @param md5
+     * @param fileSize
+     * @return 返回文件路径列表，每项为文件路径和记录的修改时间。
+     */
+    public List<Pair<String, Long>> readFilesByHash(String md5, long fileSize) {
+        List<Pair<String, Long>> list = new ArrayList<>();
+
+        SQLiteDatabase db = this.getReadableDatabase();
+
+        Cursor cursor = db.rawQuery("SELECT `file_path`, `last_modified` FROM `file_hash` WHERE `md5`=? AND `file_size`=?",
+                new String[]{ md5, Long.toString(fileSize) });
+        while (cursor.moveToNext()) {
+            list.add(new Pair<>(cursor.getString(0), cursor.getLong(1)));
+        }
+        cursor.close();
+
+        this.closeReadableDatabase(db);
+
+        return list;
+    }
+
+    /**
+     * 写入本地文件的 MD5 摘要。
+     *
+     * @param filePath
+     * @param fileSize
+     * @param lastModified
+     * @param md5
+     */
+    public void writeFileHash(String filePath, long fileSize, long lastModified, String md5) {
+        this.write((db) -> {
+            ContentValues values = new ContentValues();
+            values.put("file_path", filePath);
+            values.put("file_size", fileSize);
+            values.put("last_modified", lastModified);
+            values.put("md5", md5);
+            db.insertWithOnConflict("file_hash", null, values, SQLiteDatabase.CONFLICT_REPLACE);
+            return null;
+        });
+    }
+
+    /**
+     * 删除本地文件的摘要记录。
+     *
+     * @param filePath
+     */
+    public void deleteFileHash(String filePath) {
+        this.write((db) -> {
+            db.delete("file_hash", "file_path=?", new String[]{ filePath });
+            return null;
+        });
     }
 
     private FileLabel readFileLabel(Cursor cursor) {
@@ -561,10 +706,53 @@ public class StructStorage extends AbstractStorage {
 
         // 回收站
         database.execSQL("CREATE TABLE IF NOT EXISTS `recyclebin` (`id` BIGINT PRIMARY KEY, `parent_id` BIGINT, `timestamp` BIGINT, `dir_id` BIGINT DEFAULT 0, `file_code` TEXT DEFAULT NULL, `data` TEXT DEFAULT NULL)");
+
+        this.migrate(database, 1, VERSION);
     }
 
     @Override
     protected void onDatabaseUpgrade(SQLiteDatabase database, int oldVersion, int newVersion) {
+        this.migrate(database, oldVersion, newVersion);
+    }
+
+    /**
+     * 按版本顺序逐级执行数据库迁移。
+     *
+     * @param database
+     * @param oldVersion
+     * @param newVersion
+     */
+    private void migrate(SQLiteDatabase database, int oldVersion, int newVersion) {
+        for (int version = oldVersion + 1; version <= newVersion; ++version) {
+            switch (version) {
+                case 2:
+                    this.migrateToVersion2(database);
+                    break;
+                case 3:
+                    this.migrateToVersion3(database);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * 版本 2 ：上传清单，记录未完成上传的已确认偏移量。
+     *
+     * @param database
+     */
+    private void migrateToVersion2(SQLiteDatabase database) {
+        database.execSQL("CREATE TABLE IF NOT EXISTS `upload_manifest` (`file_path` TEXT PRIMARY KEY, `file_size` BIGINT, `last_modified` BIGINT, `chunk_size` INTEGER, `position` BIGINT, `timestamp` BIGINT)");
+    }
 
+    /**
+     * 版本 3 ：本地文件的摘要索引，用于秒传和缓存去重。
+     *
+     * @param database
+     */
+    private void migrateToVersion3(SQLiteDatabase database) {
+        database.execSQL("CREATE TABLE IF NOT EXISTS `file_hash` (`file_path` TEXT PRIMARY KEY, `file_size` BIGINT, `last_modified` BIGINT, `md5` TEXT)");
+        database.execSQL("CREATE INDEX IF NOT EXISTS `idx_file_hash_md5` ON `file_hash` (`md5`, `file_size`)");
     }
 }
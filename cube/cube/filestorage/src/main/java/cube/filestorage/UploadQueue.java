@@ -28,17 +28,16 @@ package cube.filestorage;
 
 import android.util.MutableInt;
 
-import org.json.JSONException;
-import org.json.JSONObject;
-
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.net.HttpURLConnection;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicInteger;
 
-import cube.core.Packet;
 import cube.filestorage.model.FileAnchor;
+import cube.filestorage.model.FileLabel;
+import cube.filestorage.model.UploadManifest;
 import cube.util.LogUtils;
 
 /**
@@ -48,6 +47,11 @@ public class UploadQueue {
 
     private final static String TAG = UploadQueue.class.getSimpleName();
 
+    /**
+     * 上传清单的最小保存间隔，单位：毫秒。
+     */
+    private final static long MANIFEST_SAVE_INTERVAL = 1000;
+
     private FileStorage service;
 
     private MutableInt fileBlockSize;
@@ -60,16 +64,28 @@ public class UploadQueue {
 
     private UploadQueueListener listener;
 
+    private ChunkUploader uploader;
+
     public UploadQueue(FileStorage service, MutableInt fileBlockSize) {
         this.service = service;
         this.fileBlockSize = fileBlockSize;
         this.fileAnchorQueue = new ConcurrentLinkedQueue<>();
+        this.uploader = new ChunkUploader(ChunkUploader.DEFAULT_WINDOW,
+                ChunkUploader.DEFAULT_WINDOW * this.concurrentNum);
     }
 
     public void setListener(UploadQueueListener listener) {
         this.listener = listener;
     }
 
+    /**
+     * 停止队列并关闭分块上传器。
+     */
+    public void stop() {
+        this.fileAnchorQueue.clear();
+        this.uploader.shutdown();
+    }
+
     /**
      * 将文件锚点入队进行数据上传。
      *
@@ -99,75 +115,32 @@ public class UploadQueue {
                 listener.onUploadStarted(anchor);
 
                 try {
-                    byte[] data = new byte[fileBlockSize.value];
-
-                    MutableInt length = new MutableInt(0);
-                    while ((length.value = anchor.inputStream.read(data)) > 0) {
-                        FileFormData formData = new FileFormData(service.getSelf().id,
-                                anchor.getFileName(), anchor.getFileSize(), anchor.getLastModified(),
-                                anchor.position, length.value);
-                        // 设置数据
-                        formData.setData(data, 0, length.value);
-
-                        HttpClient client = new HttpClient(service.getServiceURL(), service.getTokenCode(),
-                                System.currentTimeMillis());
-                        client.requestPost(formData.getInputStream(), formData.getBoundary(), new HttpClient.RequestListener() {
-                            @Override
-                            public void onConnected(HttpClient client) {
-                                // Nothing
-                            }
-                            @Override
-                            public void onProgress(HttpClient client, long totalLength) {
-                                // Nothing
-                            }
-
-                            @Override
-                            public void onFailed(HttpClient client, Exception exception) {
-                                listener.onUploadFailed(anchor, FileStorageState.TransmitFailed.code);
-                            }
-
-                            @Override
-                            public void onCompleted(HttpClient client, int stateCode, Packet packet) {
-                                if (stateCode == HttpURLConnection.HTTP_OK) {
-                                    anchor.updatePosition(length.value);
-
-                                    // 正在上传数据
-                                    listener.onUploading(anchor);
-
-                                    if (anchor.isFinish()) {
-                                        // 数据上传完成
-                                        try {
-                                            JSONObject data = packet.extractServiceData();
-                                            // 上传完成之后设置文件码
-                                            anchor.setFileCode(data.getString("fileCode"));
-
-                                            LogUtils.d(TAG, "File anchor : " + anchor.getFileName() + " - " + anchor.getFileCode());
-                                        }
-                                        catch (JSONException e) {
-                                            e.printStackTrace();
-                                        }
-
-                                        // 回调上传结束
-                                        listener.onUploadCompleted(anchor);
-                                    }
-                                }
-                                else {
-                                    LogUtils.w(TAG, "Error : " + stateCode);
-                                    listener.onUploadFailed(anchor, FileStorageState.TransmitFailed.code);
-                                }
-                            }
-                        });
+                    if (instantUpload(anchor)) {
+                        continue;
                     }
 
-                    // 关闭流
-                    anchor.close();
+                    int blockSize = fileBlockSize.value;
+                    ManifestListener manifestListener = new ManifestListener(anchor,
+                            prepareManifest(anchor, blockSize));
+                    uploader.upload(anchor, service.getSelf().id, service.getServiceURL(),
+                            service.getTokenCode(), blockSize, manifestListener);
+
+                    if (manifestListener.restart) {
+                        // 服务器拒绝续传位置或续传的文件摘要不一致，从头上传
+                        LogUtils.i(TAG, "Restart upload : " + anchor.getFileName());
+                        rewind(anchor);
+                        uploader.upload(anchor, service.getSelf().id, service.getServiceURL(),
+                                service.getTokenCode(), blockSize,
+                                new ManifestListener(anchor, newManifest(anchor, blockSize)));
+                    }
                 } catch (IOException e) {
                     LogUtils.w(TAG, "#process", e);
                     listener.onUploadFailed(anchor, FileStorageState.ReadFileFailed.code);
-                    anchor.close();
                 } catch (Exception e) {
                     LogUtils.w(TAG, "#process", e);
                     listener.onUploadFailed(anchor, FileStorageState.TransmitFailed.code);
+                } finally {
+                    // 关闭流
                     anchor.close();
                 }
             }
@@ -176,6 +149,229 @@ public class UploadQueue {
         });
     }
 
+    /**
+     * 开启秒传时计算文件摘要并查询服务器，服务器已有相同文件时跳过数据上传。
+     *
+     * @param anchor
+     * @return 如果完成了秒传返回 {@code true} 。
+     */
+    private boolean instantUpload(FileAnchor anchor) {
+        if (!this.service.isFindFileEnabled()) {
+            return false;
+        }
+
+        File file = anchor.getFile();
+        if (null == file || !file.exists()) {
+            return false;
+        }
+
+        String md5 = this.service.getFileHash(file);
+        if (null == md5) {
+            return false;
+        }
+
+        FileLabel fileLabel = this.service.findRemoteFileLabel(md5, anchor.getFileSize(), anchor.getFileName());
+        if (null == fileLabel || null == fileLabel.getFileCode()) {
+            return false;
+        }
+
+        LogUtils.i(TAG, "Instant upload : " + anchor.getFileName() + " - " + fileLabel.getFileCode());
+
+        StructStorage storage = this.service.getStorage();
+        if (null != storage && null != anchor.getFilePath()) {
+            storage.deleteUploadManifest(anchor.getFilePath());
+        }
+
+        anchor.setFileCode(fileLabel.getFileCode());
+        anchor.resetPosition(anchor.getFileSize());
+        this.listener.onUploading(anchor);
+        this.listener.onUploadCompleted(anchor);
+        return true;
+    }
+
+    /**
+     * 读取文件的上传清单，如果可以续传则将文件锚点定位到已确认的位置。
+     *
+     * @param anchor
+     * @param blockSize
+     * @return 返回上传清单，不能记录清单时返回 {@code null} 。
+     * @throws IOException
+     */
+    private UploadManifest prepareManifest(FileAnchor anchor, int blockSize) throws IOException {
+        StructStorage storage = this.service.getStorage();
+        if (null == storage || null == anchor.getFilePath()) {
+            return null;
+        }
+
+        UploadManifest manifest = storage.readUploadManifest(anchor.getFilePath());
+        if (null == manifest) {
+            return newManifest(anchor, blockSize);
+        }
+
+        if (!manifest.isResumable(anchor, blockSize)) {
+            // 文件已变化或分块大小不同，清单失效
+            storage.deleteUploadManifest(anchor.getFilePath());
+            return newManifest(anchor, blockSize);
+        }
+
+        // 跳过已确认的数据
+        long remaining = manifest.getPosition();
+        while (remaining > 0) {
+            long skipped = anchor.inputStream.skip(remaining);
+            if (skipped <= 0) {
+                break;
+            }
+            remaining -= skipped;
+        }
+
+        if (remaining > 0) {
+            rewind(anchor);
+            return newManifest(anchor, blockSize);
+        }
+
+        anchor.resetPosition(manifest.getPosition());
+        LogUtils.i(TAG, "Resume upload : " + anchor.getFileName() + " @" + anchor.position);
+        return manifest;
+    }
+
+    private UploadManifest newManifest(FileAnchor anchor, int blockSize) {
+        if (null == this.service.getStorage() || null == anchor.getFilePath()) {
+            return null;
+        }
+
+        return new UploadManifest(anchor.getFilePath(), anchor.getFileSize(), anchor.getLastModified(),
+                blockSize, 0, System.currentTimeMillis());
+    }
+
+    /**
+     * 重新打开文件输入流并将锚点位置归零。
+     *
+     * @param anchor
+     * @throws IOException
+     */
+    private void rewind(FileAnchor anchor) throws IOException {
+        anchor.close();
+        anchor.bindInputStream(new FileInputStream(anchor.getFile()));
+        anchor.resetPosition(0);
+    }
+
+    /**
+     * 将服务器确认的上传进度记录到上传清单。
+     */
+    private class ManifestListener implements UploadQueueListener {
+
+        private final FileAnchor anchor;
+
+        private final UploadManifest manifest;
+
+        /**
+         * 续传的起始位置。
+         */
+        private final long resumePosition;
+
+        private long lastSaved;
+
+        /**
+         * 续传位置被服务器拒绝，或者续传完成的文件摘要与本地文件不一致，需要从头上传。
+         */
+        protected boolean restart = false;
+
+        protected ManifestListener(FileAnchor anchor, UploadManifest manifest) {
+            this.anchor = anchor;
+            this.manifest = manifest;
+            this.resumePosition = anchor.position;
+            this.lastSaved = System.currentTimeMillis();
+        }
+
+        @Override
+        public void onUploadStarted(FileAnchor fileAnchor) {
+            listener.onUploadStarted(fileAnchor);
+        }
+
+        @Override
+        public void onUploading(FileAnchor fileAnchor) {
+            if (null != this.manifest && !fileAnchor.isFinish()) {
+                this.manifest.updatePosition(fileAnchor.position);
+
+                long now = System.currentTimeMillis();
+                if (now - this.lastSaved >= MANIFEST_SAVE_INTERVAL) {
+                    this.lastSaved = now;
+                    save();
+                }
+            }
+
+            listener.onUploading(fileAnchor);
+        }
+
+        @Override
+        public void onUploadCompleted(FileAnchor fileAnchor) {
+            if (null != this.manifest) {
+                if (this.resumePosition > 0 && !verify(fileAnchor)) {
+                    // 服务器上的文件与本地文件不一致，续传之前的数据不可信
+                    LogUtils.w(TAG, "Resumed upload mismatch : " + fileAnchor.getFileName());
+                    delete();
+                    this.restart = true;
+                    return;
+                }
+
+                delete();
+            }
+
+            listener.onUploadCompleted(fileAnchor);
+        }
+
+        @Override
+        public void onUploadFailed(FileAnchor fileAnchor, int errorCode) {
+            if (null != this.manifest) {
+                if (errorCode == FileStorageState.Reject.code
+                        && this.resumePosition > 0 && fileAnchor.position == this.resumePosition) {
+                    // 服务器拒绝了续传位置，网络故障时保留清单以便下次续传
+                    delete();
+                    this.restart = true;
+                    return;
+                }
+
+                if (fileAnchor.position > 0 && !fileAnchor.isFinish()) {
+                    this.manifest.updatePosition(fileAnchor.position);
+                    save();
+                }
+                else {
+                    delete();
+                }
+            }
+
+            listener.onUploadFailed(fileAnchor, errorCode);
+        }
+
+        /**
+         * 比较服务器文件标签的摘要与本地文件的摘要。
+         * 接受续传的分块不能说明服务器持有之前的全部数据，只有摘要一致才能确认续传的文件完整。
+         */
+        private boolean verify(FileAnchor fileAnchor) {
+            String md5 = service.getFileHash(fileAnchor.getFile());
+            if (null == md5) {
+                return false;
+            }
+
+            FileLabel fileLabel = service.getRemoteFileLabel(fileAnchor.getFileCode());
+            return null != fileLabel && md5.equalsIgnoreCase(fileLabel.getMd5Code());
+        }
+
+        private void save() {
+            StructStorage storage = service.getStorage();
+            if (null != storage) {
+                storage.writeUploadManifest(this.manifest);
+            }
+        }
+
+        private void delete() {
+            StructStorage storage = service.getStorage();
+            if (null != storage) {
+                storage.deleteUploadManifest(this.manifest.getFilePath());
+            }
+        }
+    }
+
     /**
      * 上传事件监听器。
      */
@@ -0,0 +1,123 @@
+/*
+ * This file is part of Cube.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2022 Cube Team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package cube.filestorage.model;
+
+/**
+ * 上传清单。记录未完成上传的文件标识、分块大小和服务器已确认的数据偏移量，用于断点续传。
+ */
+public class UploadManifest {
+
+    /**
+     * 文件的本地路径。
+     */
+    private final String filePath;
+
+    /**
+     * 文件大小，单位：字节。
+     */
+    private final long fileSize;
+
+    /**
+     * 文件最近一次修改时间。
+     */
+    private final long lastModified;
+
+    /**
+     * 分块大小，单位：字节。
+     */
+    private final int chunkSize;
+
+    /**
+     * 服务器已连续确认的数据偏移量。
+     */
+    private long position;
+
+    /**
+     * 清单更新时间。
+     */
+    private long timestamp;
+
+    public UploadManifest(String filePath, long fileSize, long lastModified, int chunkSize,
+                          long position, long timestamp) {
+        this.filePath = filePath;
+        this.fileSize = fileSize;
+        this.lastModified = lastModified;
+        this.chunkSize = chunkSize;
+        this.position = position;
+        this.timestamp = timestamp;
+    }
+
+    public String getFilePath() {
+        return this.filePath;
+    }
+
+    public long getFileSize() {
+        return this.fileSize;
+    }
+
+    public long getLastModified() {
+        return this.lastModified;
+    }
+
+    public int getChunkSize() {
+        return this.chunkSize;
+    }
+
+    public long getPosition() {
+        return this.position;
+    }
+
+    public long getTimestamp() {
+        return this.timestamp;
+    }
+
+    /**
+     * 更新已确认的偏移量。
+     *
+     * @param position 指定偏移量。
+     */
+    public void updatePosition(long position) {
+        this.position = position;
+        this.timestamp = System.currentTimeMillis();
+    }
+
+    /**
+     * 判断清单是否描述指定的文件锚点，并且可以从记录的位置继续上传。
+     *
+     * @param anchor 指定文件锚点。
+     * @param chunkSize 指定当前的分块大小。
+     * @return 如果可以续传返回 {@code true} 。
+     */
+    public boolean isResumable(FileAnchor anchor, int chunkSize) {
+        return this.filePath.equals(anchor.getFilePath())
+                && this.fileSize == anchor.getFileSize()
+                && this.lastModified == anchor.getLastModified()
+                && this.chunkSize == chunkSize
+                && this.position > 0 && this.position < this.fileSize
+                && this.position % chunkSize == 0;
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * This file is part of Cube.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2022 Cube Team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package cube.filestorage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import cube.filestorage.model.FileAnchor;
+import cube.util.LogUtils;
+
+import static org.junit.Assert.*;
+
+/**
+ * 分块上传器的测试。使用本地 HTTP 服务代替文件服务器。
+ */
+public class ChunkUploaderTest {
+
+    private final static int FILE_SIZE = 1000 * 1000 + 123;
+
+    private final static int BLOCK_SIZE = 64 * 1024;
+
+    private byte[] content;
+
+    private FakeUploadServer server;
+
+    private ChunkUploader uploader;
+
+    @Before
+    public void setUp() throws Exception {
+        LogUtils.setLevel(LogUtils.LEVEL_OFF);
+        FakeUploadServer.setDomain("shixincube.com");
+
+        this.content = new byte[FILE_SIZE];
+        new Random(1).nextBytes(this.content);
+        this.server = new FakeUploadServer(FILE_SIZE);
+        this.uploader = new ChunkUploader(ChunkUploader.DEFAULT_WINDOW, 12);
+    }
+
+    @After
+    public void tearDown() {
+        this.uploader.shutdown();
+        this.server.stop();
+    }
+
+    @Test
+    public void uploadsChunksConcurrently() {
+        FileAnchor anchor = new FileAnchor("upload.bin", FILE_SIZE, 0L);
+        anchor.bindInputStream(new ByteArrayInputStream(this.content));
+
+        RecordingListener listener = new RecordingListener();
+        this.uploader.upload(anchor, 1L, this.server.getURL(), "token", BLOCK_SIZE, listener);
+
+        assertEquals("OK " + FakeUploadServer.FILE_CODE, listener.result);
+        assertArrayEquals(this.content, this.server.received);
+        assertEquals((FILE_SIZE + BLOCK_SIZE - 1) / BLOCK_SIZE, this.server.requests.get());
+        assertTrue(this.server.maxInflight.get() > 1);
+        assertTrue(this.server.maxInflight.get() <= ChunkUploader.DEFAULT_WINDOW);
+        // 连接被复用
+        assertTrue(this.server.clientPorts.size() < this.server.requests.get());
+        listener.assertProgress(FILE_SIZE);
+    }
+
+    @Test
+    public void retriesFailedChunk() {
+        this.server.failCursor = BLOCK_SIZE * 3;
+        this.server.failTimes.set(1);
+
+        FileAnchor anchor = new FileAnchor("upload.bin", FILE_SIZE, 0L);
+        anchor.bindInputStream(new ByteArrayInputStream(this.content));
+
+        RecordingListener listener = new RecordingListener();
+        this.uploader.upload(anchor, 1L, this.server.getURL(), "token", BLOCK_SIZE, listener);
+
+        assertEquals("OK " + FakeUploadServer.FILE_CODE, listener.result);
+        assertArrayEquals(this.content, this.server.received);
+        listener.assertProgress(FILE_SIZE);
+    }
+
+    @Test
+    public void stopsAtFirstUnconfirmedChunk() {
+        this.server.failCursor = BLOCK_SIZE * 3;
+        this.server.failTimes.set(Integer.MAX_VALUE);
+
+        FileAnchor anchor = new FileAnchor("upload.bin", FILE_SIZE, 0L);
+        anchor.bindInputStream(new ByteArrayInputStream(this.content));
+
+        RecordingListener listener = new RecordingListener();
+        this.uploader.upload(anchor, 1L, this.server.getURL(), "token", BLOCK_SIZE, listener);
+
+        assertEquals("FAIL " + FileStorageState.TransmitFailed.code, listener.result);
+        // 位置只推进到连续确认的偏移量
+        assertEquals(BLOCK_SIZE * 3, anchor.position);
+    }
+
+    @Test
+    public void rejectedChunkIsNotRetried() {
+        this.server.failCursor = BLOCK_SIZE * 3;
+        this.server.failStatus = 409;
+        this.server.failTimes.set(Integer.MAX_VALUE);
+
+        FileAnchor anchor = new FileAnchor("upload.bin", FILE_SIZE, 0L);
+        anchor.bindInputStream(new ByteArrayInputStream(this.content));
+
+        RecordingListener listener = new RecordingListener();
+        this.uploader.upload(anchor, 1L, this.server.getURL(), "token", BLOCK_SIZE, listener);
+
+        // 被拒绝的分块只请求一次，调用者据此区分服务器拒绝和网络故障
+        assertEquals("FAIL " + FileStorageState.Reject.code, listener.result);
+        assertEquals(Integer.MAX_VALUE - 1, this.server.failTimes.get());
+        assertEquals(BLOCK_SIZE * 3, anchor.position);
+    }
+
+    @Test
+    public void resumesFromAnchorPosition() throws Exception {
+        int resumePosition = BLOCK_SIZE * 3;
+        this.server.preload(this.content, resumePosition);
+
+        FileAnchor anchor = new FileAnchor("upload.bin", FILE_SIZE, 0L);
+        InputStream inputStream = new ByteArrayInputStream(this.content);
+        assertEquals(resumePosition, inputStream.skip(resumePosition));
+        anchor.bindInputStream(inputStream);
+        anchor.resetPosition(resumePosition);
+
+        RecordingListener listener = new RecordingListener();
+        this.uploader.upload(anchor, 1L, this.server.getURL(), "token", BLOCK_SIZE, listener);
+
+        assertEquals("OK " + FakeUploadServer.FILE_CODE, listener.result);
+        assertArrayEquals(this.content, this.server.received);
+        // 只发送续传位置之后的分块
+        assertEquals((FILE_SIZE - resumePosition + BLOCK_SIZE - 1) / BLOCK_SIZE, this.server.requests.get());
+        assertTrue(listener.positions.get(0) > resumePosition);
+        listener.assertProgress(FILE_SIZE);
+    }
+
+    @Test
+    public void failsAfterShutdown() {
+        this.uploader.shutdown();
+
+        FileAnchor anchor = new FileAnchor("upload.bin", FILE_SIZE, 0L);
+        anchor.bindInputStream(new ByteArrayInputStream(this.content));
+
+        RecordingListener listener = new RecordingListener();
+        this.uploader.upload(anchor, 1L, this.server.getURL(), "token", BLOCK_SIZE, listener);
+
+        assertEquals("FAIL " + FileStorageState.TransmitFailed.code, listener.result);
+    }
+
+    /**
+     * 记录上传进度和结果。
+     */
+    protected static class RecordingListener implements UploadQueue.UploadQueueListener {
+
+        protected final List<Long> positions = Collections.synchronizedList(new ArrayList<>());
+
+        protected volatile String result;
+
+        @Override
+        public void onUploadStarted(FileAnchor fileAnchor) {
+            // Nothing
+        }
+
+        @Override
+        public void onUploading(FileAnchor fileAnchor) {
+            this.positions.add(fileAnchor.position);
+        }
+
+        @Override
+        public void onUploadCompleted(FileAnchor fileAnchor) {
+            this.result = "OK " + fileAnchor.getFileCode();
+        }
+
+        @Override
+        public void onUploadFailed(FileAnchor fileAnchor, int errorCode) {
+            this.result = "FAIL " + errorCode;
+        }
+
+        protected void assertProgress(long fileSize) {
+            assertFalse(this.positions.isEmpty());
+            for (int i = 1; i < this.positions.size(); ++i) {
+                assertTrue(this.positions.get(i) > this.positions.get(i - 1));
+            }
+            assertEquals(fileSize, (long) this.positions.get(this.positions.size() - 1));
+        }
+    }
+}
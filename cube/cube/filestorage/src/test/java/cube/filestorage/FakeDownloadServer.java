@@ -0,0 +1,145 @@
+/*
+ * This file is part of Cube.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2022 Cube Team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package cube.filestorage;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 用于测试的本地文件下载服务。支持 HTTP Range 请求，并可以模拟连接中断和不支持范围请求的服务器。
+ */
+public class FakeDownloadServer {
+
+    /**
+     * 服务器行为。
+     */
+    public enum Mode {
+        /** 正常应答。 */
+        Normal,
+        /** 前几个大范围应答只发送部分数据后断开连接。 */
+        Drop,
+        /** 忽略 Range 请求头，总是返回完整数据。 */
+        NoRange,
+        /** 每个应答最多发送 512 KB 数据后断开连接。 */
+        Dead,
+        /** 文件不存在。 */
+        NotFound
+    }
+
+    public volatile Mode mode = Mode.Normal;
+
+    /**
+     * 本次下载服务器发送的数据量。
+     */
+    public final AtomicLong served = new AtomicLong();
+
+    /**
+     * 已模拟的连接中断次数。
+     */
+    public final AtomicInteger drops = new AtomicInteger();
+
+    private final byte[] content;
+
+    private final HttpServer server;
+
+    private final ExecutorService executor;
+
+    public FakeDownloadServer(byte[] content) throws IOException {
+        this.content = content;
+        this.executor = Executors.newFixedThreadPool(16);
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.server.setExecutor(this.executor);
+        this.server.createContext("/file", this::handle);
+        this.server.start();
+    }
+
+    public String getURL() {
+        return "http://127.0.0.1:" + this.server.getAddress().getPort() + "/file";
+    }
+
+    public void stop() {
+        this.server.stop(0);
+        this.executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        if (this.mode == Mode.NotFound) {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+            return;
+        }
+
+        long start = 0;
+        long end = this.content.length - 1;
+        int code = 200;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        if (null != range && this.mode != Mode.NoRange) {
+            // bytes=start-end
+            String[] values = range.substring(6).split("-", -1);
+            start = Long.parseLong(values[0]);
+            if (!values[1].isEmpty()) {
+                end = Long.parseLong(values[1]);
+            }
+            code = 206;
+        }
+
+        int length = (int) (end - start + 1);
+        exchange.sendResponseHeaders(code, length);
+
+        int limit = length;
+        if (this.mode == Mode.Drop && length > 1024 * 1024 && this.drops.get() < 3) {
+            this.drops.incrementAndGet();
+            limit = length / 3;
+        }
+        else if (this.mode == Mode.Dead) {
+            limit = Math.min(length, 512 * 1024);
+        }
+
+        OutputStream output = exchange.getResponseBody();
+        try {
+            output.write(this.content, (int) start, limit);
+            this.served.addAndGet(limit);
+            if (limit < length) {
+                // 发送部分数据后断开
+                output.flush();
+                Thread.sleep(50);
+            }
+        } catch (IOException | InterruptedException e) {
+            // Nothing
+        } finally {
+            exchange.close();
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * This file is part of Cube.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2022 Cube Team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package cube.filestorage;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import cube.auth.AuthService;
+
+/**
+ * 用于测试的本地分块上传服务。按表单里的偏移量写入收到的分块，收到全部数据后应答文件码。
+ */
+public class FakeUploadServer {
+
+    public final static String FILE_CODE = "FakeFileCode";
+
+    public final byte[] received;
+
+    public final AtomicInteger requests = new AtomicInteger();
+
+    public final AtomicInteger maxInflight = new AtomicInteger();
+
+    /**
+     * 发起请求的客户端端口，用于统计使用的连接数量。
+     */
+    public final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 该偏移量的分块请求应答 {@link #failStatus} 错误，{@code -1} 表示不设置。
+     */
+    public volatile long failCursor = -1;
+
+    /**
+     * 对 {@link #failCursor} 应答的 HTTP 状态码。
+     */
+    public volatile int failStatus = 500;
+
+    /**
+     * 对 {@link #failCursor} 应答错误的剩余次数。
+     */
+    public final AtomicInteger failTimes = new AtomicInteger();
+
+    private final AtomicLong total = new AtomicLong();
+
+    private final AtomicInteger inflight = new AtomicInteger();
+
+    private final HttpServer server;
+
+    private final ExecutorService executor;
+
+    public FakeUploadServer(int fileSize) throws IOException {
+        this.received = new byte[fileSize];
+        this.executor = Executors.newFixedThreadPool(16);
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.server.setExecutor(this.executor);
+        this.server.createContext("/upload", this::handle);
+        this.server.start();
+    }
+
+    /**
+     * 设置表单使用的域。域由授权模块在登录时设置，测试里没有授权模块。
+     *
+     * @param domain
+     */
+    public static void setDomain(String domain) throws Exception {
+        Field field = AuthService.class.getDeclaredField("sDomain");
+        field.setAccessible(true);
+        field.set(null, domain);
+    }
+
+    public String getURL() {
+        return "http://127.0.0.1:" + this.server.getAddress().getPort() + "/upload";
+    }
+
+    /**
+     * 模拟服务器已经收到文件的前一部分数据。
+     *
+     * @param content
+     * @param length
+     */
+    public void preload(byte[] content, int length) {
+        System.arraycopy(content, 0, this.received, 0, length);
+        this.total.set(length);
+    }
+
+    public void stop() {
+        this.server.stop(0);
+        this.executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        int current = this.inflight.incrementAndGet();
+        this.maxInflight.accumulateAndGet(current, Math::max);
+        this.requests.incrementAndGet();
+        this.clientPorts.add(exchange.getRemoteAddress().getPort());
+
+        try {
+            byte[] body = readAll(exchange.getRequestBody());
+            String text = new String(body, StandardCharsets.ISO_8859_1);
+            long cursor = Long.parseLong(field(text, FileFormData.FIELD_CURSOR));
+            int size = Integer.parseInt(field(text, FileFormData.FIELD_SIZE));
+            String marker = "application/octet-stream\r\n\r\n";
+            int dataStart = text.indexOf(marker) + marker.length();
+
+            // 打乱分块应答的顺序
+            try {
+                Thread.sleep(new Random().nextInt(20));
+            } catch (InterruptedException e) {
+                // Nothing
+            }
+
+            if (cursor == this.failCursor && this.failTimes.getAndDecrement() > 0) {
+                exchange.sendResponseHeaders(this.failStatus, -1);
+                return;
+            }
+
+            System.arraycopy(body, dataStart, this.received, (int) cursor, size);
+            long total = this.total.addAndGet(size);
+
+            String data = (total == this.received.length) ? "{\"fileCode\":\"" + FILE_CODE + "\"}" : "{}";
+            byte[] response = ("{\"name\":\"" + FileStorage.NAME + "\",\"sn\":1,\"data\":{\"code\":0,\"data\":"
+                    + data + "}}").getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, response.length);
+            exchange.getResponseBody().write(response);
+        } finally {
+            this.inflight.decrementAndGet();
+            exchange.close();
+        }
+    }
+
+    private static String field(String body, String name) {
+        String prefix = "name=\"" + name + "\"\r\n\r\n";
+        int start = body.indexOf(prefix) + prefix.length();
+        return body.substring(start, body.indexOf("\r\n", start));
+    }
+
+    private static byte[] readAll(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int length;
+        while ((length = inputStream.read(buf)) > 0) {
+            output.write(buf, 0, length);
+        }
+        return output.toByteArray();
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * This file is part of Cube.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2022 Cube Team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package cube.filestorage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Random;
+
+import cube.filestorage.model.FileAnchor;
+import cube.util.LogUtils;
+
+import static org.junit.Assert.*;
+
+/**
+ * 共享 HTTP 传输层和流式表单数据的测试。使用本地 HTTP 服务代替文件服务器。
+ */
+public class HttpTransportTest {
+
+    private final static int BLOCK_SIZE = 64 * 1024;
+
+    private final static int FILE_SIZE = BLOCK_SIZE * 16;
+
+    private FakeUploadServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        LogUtils.setLevel(LogUtils.LEVEL_OFF);
+        FakeUploadServer.setDomain("shixincube.com");
+
+        this.server = new FakeUploadServer(FILE_SIZE);
+    }
+
+    @After
+    public void tearDown() {
+        this.server.stop();
+    }
+
+    @Test
+    public void chunksReuseConnections() {
+        byte[] content = new byte[FILE_SIZE];
+        new Random(5).nextBytes(content);
+
+        FileAnchor anchor = new FileAnchor("transport.bin", FILE_SIZE, 0L);
+        anchor.bindInputStream(new ByteArrayInputStream(content));
+
+        HttpTransport transport = HttpTransport.getDefault();
+        transport.resetMetrics();
+
+        ChunkUploader uploader = new ChunkUploader(ChunkUploader.DEFAULT_WINDOW, ChunkUploader.DEFAULT_WINDOW);
+        ChunkUploaderTest.RecordingListener listener = new ChunkUploaderTest.RecordingListener();
+        try {
+            uploader.upload(anchor, 1L, this.server.getURL(), "token", BLOCK_SIZE, listener);
+        } finally {
+            uploader.shutdown();
+        }
+
+        assertEquals("OK " + FakeUploadServer.FILE_CODE, listener.result);
+        assertArrayEquals(content, this.server.received);
+
+        assertEquals(16, this.server.requests.get());
+        assertEquals(16, transport.getRequestCount());
+        // 连接数不超过在途分块数量
+        assertTrue(this.server.clientPorts.size() <= ChunkUploader.DEFAULT_WINDOW);
+        assertEquals(1.0, transport.getReuseRate(), 0.0001);
+        assertTrue(transport.getBytesSent() > FILE_SIZE);
+    }
+
+    @Test
+    public void streamedFormMatchesWrittenForm() throws Exception {
+        byte[] data = new byte[100000];
+        new Random(3).nextBytes(data);
+
+        FileFormData formData = new FileFormData(1L, "form.bin", 5, 6, 7, 90000);
+        formData.setData(data, 5000, 90000);
+
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        formData.writeTo(written);
+
+        ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+        InputStream inputStream = formData.getInputStream();
+        byte[] buf = new byte[777];
+        int length;
+        while ((length = inputStream.read(buf)) > 0) {
+            streamed.write(buf, 0, length);
+        }
+
+        assertArrayEquals(written.toByteArray(), streamed.toByteArray());
+        assertEquals(formData.getContentLength(), written.size());
+        assertTrue(written.size() > 90000);
+    }
+}
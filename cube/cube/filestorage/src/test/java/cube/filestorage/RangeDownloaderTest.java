@@ -0,0 +1,220 @@
+/*
+ * This file is part of Cube.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2022 Cube Team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package cube.filestorage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Random;
+
+import cube.filestorage.model.FileAnchor;
+import cube.filestorage.model.FileLabel;
+import cube.util.LogUtils;
+
+import static org.junit.Assert.*;
+
+/**
+ * 分段下载器的测试。使用本地 HTTP 服务代替文件服务器。
+ */
+public class RangeDownloaderTest {
+
+    private final static int FILE_SIZE = 10 * 1024 * 1024 + 777;
+
+    private byte[] content;
+
+    private String md5;
+
+    private File dir;
+
+    private FakeDownloadServer server;
+
+    private RangeDownloader downloader;
+
+    @Before
+    public void setUp() throws Exception {
+        LogUtils.setLevel(LogUtils.LEVEL_OFF);
+        FakeUploadServer.setDomain("shixincube.com");
+
+        this.content = new byte[FILE_SIZE];
+        new Random(7).nextBytes(this.content);
+
+        StringBuilder buf = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("MD5").digest(this.content)) {
+            buf.append(String.format("%02x", b));
+        }
+        this.md5 = buf.toString();
+
+        this.dir = Files.createTempDirectory("cube-download").toFile();
+        this.server = new FakeDownloadServer(this.content);
+        this.downloader = new RangeDownloader(3, 6);
+    }
+
+    @After
+    public void tearDown() {
+        this.downloader.shutdown();
+        this.server.stop();
+
+        File[] files = this.dir.listFiles();
+        if (null != files) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        this.dir.delete();
+    }
+
+    @Test
+    public void downloadsRangesInParallel() throws Exception {
+        File target = new File(this.dir, "a.bin");
+        RecordingListener listener = this.download(target, this.md5);
+
+        assertEquals("OK", listener.result);
+        assertArrayEquals(this.content, Files.readAllBytes(target.toPath()));
+        assertEquals(FILE_SIZE, this.server.served.get());
+        assertFalse(new File(target.getPath() + RangeDownloader.PART_SUFFIX).exists());
+    }
+
+    @Test
+    public void retriesDroppedRanges() throws Exception {
+        this.server.mode = FakeDownloadServer.Mode.Drop;
+
+        File target = new File(this.dir, "b.bin");
+        RecordingListener listener = this.download(target, this.md5);
+
+        assertEquals("OK", listener.result);
+        assertEquals(3, this.server.drops.get());
+        assertArrayEquals(this.content, Files.readAllBytes(target.toPath()));
+        // 中断的范围从断点继续，只有断开时未送达的数据被重复下载
+        assertTrue(this.server.served.get() < FILE_SIZE + FILE_SIZE / 10);
+    }
+
+    @Test
+    public void fallsBackWithoutRangeSupport() throws Exception {
+        this.server.mode = FakeDownloadServer.Mode.NoRange;
+
+        File target = new File(this.dir, "c.bin");
+        RecordingListener listener = this.download(target, this.md5);
+
+        assertEquals("OK", listener.result);
+        assertArrayEquals(this.content, Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    public void resumesFromPartFile() throws Exception {
+        this.server.mode = FakeDownloadServer.Mode.Dead;
+
+        File target = new File(this.dir, "d.bin");
+        RecordingListener listener = this.download(target, this.md5);
+
+        assertEquals("FAIL " + FileStorageState.TransmitFailed.code, listener.result);
+        assertFalse(target.exists());
+        assertTrue(new File(target.getPath() + RangeDownloader.PART_SUFFIX).exists());
+        long firstServed = this.server.served.get();
+        assertTrue(firstServed > 0);
+
+        this.server.mode = FakeDownloadServer.Mode.Normal;
+        this.server.served.set(0);
+        listener = this.download(target, this.md5);
+
+        assertEquals("OK", listener.result);
+        assertArrayEquals(this.content, Files.readAllBytes(target.toPath()));
+        // 只下载剩余的数据
+        assertTrue(this.server.served.get() >= FILE_SIZE - firstServed);
+        assertTrue(this.server.served.get() < FILE_SIZE);
+    }
+
+    @Test
+    public void rejectsDigestMismatch() throws Exception {
+        File target = new File(this.dir, "e.bin");
+        RecordingListener listener = this.download(target, "00000000000000000000000000000000");
+
+        assertEquals("FAIL " + FileStorageState.VerifyFailed.code, listener.result);
+        assertFalse(target.exists());
+        assertFalse(new File(target.getPath() + RangeDownloader.PART_SUFFIX).exists());
+    }
+
+    @Test
+    public void mapsClientErrorToState() throws Exception {
+        this.server.mode = FakeDownloadServer.Mode.NotFound;
+
+        File target = new File(this.dir, "f.bin");
+        RecordingListener listener = this.download(target, this.md5);
+
+        assertEquals("FAIL " + FileStorageState.NotFound.code, listener.result);
+        assertFalse(target.exists());
+    }
+
+    private RecordingListener download(File target, String md5) throws Exception {
+        FileLabel label = new FileLabel(1L, 0L, 1L, "code-" + target.getName(), target.getPath(),
+                target.getName(), FILE_SIZE, 0L, 0L, 0L, "bin", md5, null, null, null);
+        FileAnchor anchor = new FileAnchor(target.getPath(), target.getName(), FILE_SIZE, 0L);
+        anchor.setFileCode(label.getFileCode());
+        anchor.fileLabel = label;
+
+        // 下载地址由文件标签和令牌生成，测试里直接设置
+        Field field = FileAnchor.class.getDeclaredField("fileURL");
+        field.setAccessible(true);
+        field.set(anchor, this.server.getURL());
+
+        RecordingListener listener = new RecordingListener();
+        this.downloader.download(anchor, listener);
+        return listener;
+    }
+
+    /**
+     * 记录下载结果。
+     */
+    protected static class RecordingListener implements DownloadQueue.DownloadQueueListener {
+
+        protected volatile String result;
+
+        @Override
+        public void onDownloadStarted(FileAnchor fileAnchor) {
+            // Nothing
+        }
+
+        @Override
+        public void onDownloading(FileAnchor fileAnchor) {
+            // Nothing
+        }
+
+        @Override
+        public void onDownloadCompleted(FileAnchor fileAnchor) {
+            this.result = "OK";
+        }
+
+        @Override
+        public void onDownloadFailed(FileAnchor fileAnchor, int errorCode) {
+            this.result = "FAIL " + errorCode;
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * This file is part of Cube.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2022 Cube Team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package cube.messaging;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Locale;
+
+import cube.messaging.model.MessageScope;
+import cube.messaging.model.MessageState;
+
+import static org.junit.Assert.*;
+
+/**
+ * 消息存储的查询计划测试。
+ * 写入合成消息数据，检查常用查询使用了二级索引，并输出查询耗时。
+ */
+@RunWith(AndroidJUnit4.class)
+public class MessagingStorageQueryPlanTest {
+
+    private final static String TAG = "QueryPlanTest";
+
+    private final static long SELF_ID = 10000L;
+
+    private final static int NUM_CONTACTS = 200;
+
+    private final static int NUM_GROUPS = 50;
+
+    private final static int NUM_MESSAGES = 100000;
+
+    private final static long CONTACT_ID = 20001L;
+
+    private final static long GROUP_ID = 30001L;
+
+    private Context context;
+
+    private MessagingStorage storage;
+
+    @Before
+    public void setUp() {
+        this.context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        this.context.deleteDatabase("CubeMessaging_test_" + SELF_ID + ".db");
+
+        this.storage = new MessagingStorage(null);
+        this.storage.open(this.context, SELF_ID, "test");
+
+        this.populate();
+    }
+
+    @After
+    public void tearDown() {
+        this.storage.close();
+        this.context.deleteDatabase("CubeMessaging_test_" + SELF_ID + ".db");
+    }
+
+    @Test
+    public void contactPageUsesSentAndReceivedIndexes() {
+        String scopeCondition = String.format(Locale.ROOT, "(`scope`=%d OR `scope`=%d)",
+                MessageScope.Unlimited, MessageScope.Private);
+        String sql = MessagingStorage.buildContactMessageQuery(scopeCondition, true);
+        String[] args = new String[] {
+                Long.toString(CONTACT_ID), Long.toString(Long.MAX_VALUE),
+                MessageState.Sending.toString(), MessageState.Sent.toString(), MessageState.Read.toString(), "21",
+                Long.toString(CONTACT_ID), Long.toString(CONTACT_ID), Long.toString(Long.MAX_VALUE),
+                MessageState.Sending.toString(), MessageState.Sent.toString(), MessageState.Read.toString(), "21",
+                "21"
+        };
+
+        String plan = this.explain(sql, args);
+        assertTrue(plan, plan.contains("idx_message_source_from_rts"));
+        assertTrue(plan, plan.contains("idx_message_source_to_rts"));
+        assertNoTableScan(plan);
+
+        assertEquals(21, this.measure("Contact page", sql, args));
+    }
+
+    @Test
+    public void groupPageUsesSourceIndex() {
+        String sql = "SELECT * FROM `message` WHERE (`scope`=? OR `scope`=?) AND `rts`<? AND `source`=? AND (`state`=? OR `state`=? OR `state`=?) ORDER BY `rts` DESC LIMIT ?";
+        String[] args = new String[] {
+                Integer.toString(MessageScope.Unlimited), Integer.toString(MessageScope.Private),
+                Long.toString(Long.MAX_VALUE), Long.toString(GROUP_ID),
+                MessageState.Sending.toString(), MessageState.Sent.toString(), MessageState.Read.toString(), "21"
+        };
+
+        String plan = this.explain(sql, args);
+        assertTrue(plan, plan.contains("idx_message_source_rts"));
+        assertNoTableScan(plan);
+
+        assertEquals(21, this.measure("Group page", sql, args));
+    }
+
+    @Test
+    public void unreadCountUsesStateIndex() {
+        String sql = "SELECT COUNT(id) FROM `message` WHERE `source`=0 AND `from`=? AND `state`=? AND scope=0";
+        String[] args = new String[] { Long.toString(CONTACT_ID), MessageState.Sent.toString() };
+
+        String plan = this.explain(sql, args);
+        assertTrue(plan, plan.contains("USING INDEX") || plan.contains("USING COVERING INDEX"));
+        assertNoTableScan(plan);
+
+        this.measure("Unread count", sql, args);
+    }
+
+    @Test
+    public void lastMessageTimeUsesScopeIndex() {
+        String sql = "SELECT `rts` FROM `message` WHERE `scope`=? ORDER BY `rts` DESC LIMIT 1";
+        String[] args = new String[] { Integer.toString(MessageScope.Unlimited) };
+
+        String plan = this.explain(sql, args);
+        assertTrue(plan, plan.contains("idx_message_scope_rts"));
+        assertNoTableScan(plan);
+
+        long start = System.nanoTime();
+        long time = this.storage.queryLastMessageTime();
+        Log.i(TAG, "Last message time: " + (System.nanoTime() - start) / 1000 + " us");
+        assertTrue(time > 0);
+    }
+
+    private void populate() {
+        SQLiteDatabase db = this.storage.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            SQLiteStatement statement = db.compileStatement("INSERT INTO `message` (`id`, `timestamp`, `owner`, `from`, `to`, `source`, `lts`, `rts`, `state`, `scope`, `payload`) VALUES (?,?,?,?,?,?,?,?,?,?,?)");
+            long rts = System.currentTimeMillis() - NUM_MESSAGES * 1000L;
+            for (int i = 0; i < NUM_MESSAGES; ++i) {
+                long peer = CONTACT_ID + (i % NUM_CONTACTS);
+                boolean outgoing = (i % 3 == 0);
+                long source = (i % 4 == 1) ? GROUP_ID + ((i / 4) % NUM_GROUPS) : 0;
+
+                statement.clearBindings();
+                statement.bindLong(1, 1000000L + i);
+                statement.bindLong(2, rts);
+                statement.bindLong(3, SELF_ID);
+                statement.bindLong(4, outgoing ? SELF_ID : peer);
+                statement.bindLong(5, (source != 0) ? 0 : (outgoing ? peer : SELF_ID));
+                statement.bindLong(6, source);
+                statement.bindLong(7, rts);
+                statement.bindLong(8, rts);
+                statement.bindLong(9, (i % 10 == 0) ? MessageState.Sent.code : MessageState.Read.code);
+                statement.bindLong(10, MessageScope.Unlimited);
+                statement.bindString(11, "{\"content\":\"Message " + i + "\"}");
+                statement.executeInsert();
+                rts += 1000L;
+            }
+            statement.close();
+            db.execSQL("ANALYZE");
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private String explain(String sql, String[] args) {
+        StringBuilder buf = new StringBuilder();
+        SQLiteDatabase db = this.storage.getReadableDatabase();
+        Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        int detailIndex = cursor.getColumnIndex("detail");
+        while (cursor.moveToNext()) {
+            buf.append(cursor.getString(detailIndex)).append('\n');
+        }
+        cursor.close();
+        Log.i(TAG, sql + "\n" + buf);
+        return buf.toString();
+    }
+
+    private int measure(String name, String sql, String[] args) {
+        SQLiteDatabase db = this.storage.getReadableDatabase();
+        int count = 0;
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 10; ++i) {
+            long start = System.nanoTime();
+            Cursor cursor = db.rawQuery(sql, args);
+            count = 0;
+            while (cursor.moveToNext()) {
+                ++count;
+            }
+            cursor.close();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        Log.i(TAG, name + ": " + (best / 1000) + " us over " + NUM_MESSAGES + " messages");
+        return count;
+    }
+
+    private static void assertNoTableScan(String plan) {
+        for (String line : plan.split("\n")) {
+            if (line.startsWith("SCAN") && line.contains("message") && !line.contains("INDEX")) {
+                fail("Table scan: " + plan);
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * This file is part of Cube.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2022 Cube Team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package cube.messaging;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import cube.messaging.model.Conversation;
+
+/**
+ * 最近会话清单的变更集。
+ * 按发生顺序记录会话的插入、移除、移动和内容变化，界面层依次应用这些变更即可与会话清单保持一致。
+ */
+public class ConversationChangeSet {
+
+    /**
+     * 变更类型。
+     */
+    public enum Type {
+        /**
+         * 插入会话。
+         */
+        Inserted,
+
+        /**
+         * 移除会话。
+         */
+        Removed,
+
+        /**
+         * 会话位置移动。
+         */
+        Moved,
+
+        /**
+         * 会话位置不变，内容变化。
+         */
+        Changed
+    }
+
+    /**
+     * 单条变更。
+     */
+    public static class Change {
+
+        /**
+         * 变更类型。
+         */
+        public final Type type;
+
+        /**
+         * 变更前的位置，插入操作为 {@code -1} 。
+         */
+        public final int fromIndex;
+
+        /**
+         * 变更后的位置，移除操作为 {@code -1} 。
+         */
+        public final int toIndex;
+
+        /**
+         * 变更的会话。
+         */
+        public final Conversation conversation;
+
+        protected Change(Type type, int fromIndex, int toIndex, Conversation conversation) {
+            this.type = type;
+            this.fromIndex = fromIndex;
+            this.toIndex = toIndex;
+            this.conversation = conversation;
+        }
+    }
+
+    private final long fromVersion;
+
+    private final long toVersion;
+
+    private final List<Change> changes;
+
+    protected ConversationChangeSet(long fromVersion, long toVersion, List<Change> changes) {
+        this.fromVersion = fromVersion;
+        this.toVersion = toVersion;
+        this.changes = Collections.unmodifiableList(new ArrayList<>(changes));
+    }
+
+    /**
+     * 获取变更集起始时会话清单的版本。
+     * 只有持有该版本快照的界面才能直接应用此变更集，否则应当重新加载清单。
+     *
+     * @return 返回清单版本。
+     */
+    public long getFromVersion() {
+        return this.fromVersion;
+    }
+
+    /**
+     * 获取应用变更集后会话清单的版本。
+     *
+     * @return 返回清单版本。
+     */
+    public long getToVersion() {
+        return this.toVersion;
+    }
+
+    /**
+     * 获取按发生顺序排列的变更。
+     *
+     * @return 返回变更列表。
+     */
+    public List<Change> getChanges() {
+        return this.changes;
+    }
+
+    public boolean isEmpty() {
+        return this.changes.isEmpty();
+    }
+}
@@ -58,4 +58,13 @@ public interface ConversationEventListener {
      * @param service 消息服务。
      */
     void onConversationListUpdated(List<Conversation> conversationList, MessagingService service);
+
+    /**
+     * 当最近会话清单里的会话被插入、移除或移动时该方法被回调。
+     * 如果变更集的起始版本与界面持有的快照版本不一致，应当重新加载清单。
+     *
+     * @param changeSet 按发生顺序排列的变更集。
+     * @param service 消息服务。
+     */
+    void onConversationListChanged(ConversationChangeSet changeSet, MessagingService service);
 }
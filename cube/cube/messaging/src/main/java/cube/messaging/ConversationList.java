@@ -0,0 +1,454 @@
+/*
+ * This file is part of Cube.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2022 Cube Team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package cube.messaging;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+import cube.core.EntityInspector;
+import cube.core.model.Entity;
+import cube.messaging.model.Conversation;
+import cube.messaging.model.ConversationState;
+
+/**
+ * 会话列表。
+ * 列表始终按显示顺序排列：关注的会话置顶，其余按时间戳倒序。会话的时间戳或状态变化后调用
+ * {@link #reposition(Conversation)} 只调整该会话的位置，通过二分查找定位，不需要对整个列表重新排序。
+ * 列表同时维护会话 ID 和关键实体 ID 的索引，并按顺序记录位置变更，供界面层增量刷新。
+ * 列表的顺序由会话数据决定，因此不实现 {@link List} 的可变接口，对外通过 {@link #asList()} 提供只读视图。
+ */
+public class ConversationList implements EntityInspector.Container {
+
+    private final static Comparator<Entry> sRankComparator = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry e1, Entry e2) {
+            if (e1.group != e2.group) {
+                return Integer.compare(e1.group, e2.group);
+            }
+
+            if (e1.timestamp != e2.timestamp) {
+                return Long.compare(e2.timestamp, e1.timestamp);
+            }
+
+            return Long.compare(e1.conversation.id, e2.conversation.id);
+        }
+    };
+
+    private final ArrayList<Entry> data;
+
+    private final Map<Long, Entry> idMap;
+
+    private final Map<Long, Conversation> pivotalMap;
+
+    private final List<ConversationChangeSet.Change> changes;
+
+    private long version;
+
+    private long drainedVersion;
+
+    private EntityInspector.Ledger ledger;
+
+    private final View view;
+
+    public ConversationList() {
+        this.data = new ArrayList<>();
+        this.idMap = new HashMap<>();
+        this.pivotalMap = new HashMap<>();
+        this.changes = new ArrayList<>();
+        this.version = 0;
+        this.drainedVersion = 0;
+        this.view = new View();
+    }
+
+    /**
+     * 获取列表的只读视图。
+     *
+     * @return 返回列表的只读视图。
+     */
+    public View asList() {
+        return this.view;
+    }
+
+    /**
+     * 获取指定 ID 的会话。
+     *
+     * @param conversationId 会话 ID 。
+     * @return 返回会话实例，如果不在列表里返回 {@code null} 值。
+     */
+    public synchronized Conversation getById(Long conversationId) {
+        Entry entry = this.idMap.get(conversationId);
+        return (null != entry) ? entry.conversation : null;
+    }
+
+    /**
+     * 获取关键实体是指定 ID 的会话。
+     *
+     * @param pivotalId 联系人或群组 ID 。
+     * @return 返回会话实例，如果不在列表里返回 {@code null} 值。
+     */
+    public synchronized Conversation getByPivotalId(Long pivotalId) {
+        return this.pivotalMap.get(pivotalId);
+    }
+
+    /**
+     * 会话的时间戳或状态变化后调整其在列表里的位置。
+     *
+     * @param conversation 指定会话。
+     * @return 如果会话在列表里返回 {@code true} 。
+     */
+    public synchronized boolean reposition(Conversation conversation) {
+        Entry entry = this.idMap.get(conversation.id);
+        if (null == entry) {
+            return false;
+        }
+
+        int from = this.locate(entry);
+        int group = rankGroup(entry.conversation);
+        long timestamp = entry.conversation.getTimestamp();
+        if (group == entry.group && timestamp == entry.timestamp) {
+            this.record(ConversationChangeSet.Type.Changed, from, from, entry.conversation);
+            return true;
+        }
+
+        this.data.remove(from);
+        entry.group = group;
+        entry.timestamp = timestamp;
+        int to = this.insertionPoint(entry);
+        this.data.add(to, entry);
+
+        this.record((from == to) ? ConversationChangeSet.Type.Changed : ConversationChangeSet.Type.Moved,
+                from, to, entry.conversation);
+        return true;
+    }
+
+    /**
+     * 取出自上次调用以来累积的位置变更。
+     *
+     * @return 返回变更集，如果没有变更返回 {@code null} 值。
+     */
+    public synchronized ConversationChangeSet drainChanges() {
+        if (this.changes.isEmpty()) {
+            return null;
+        }
+
+        ConversationChangeSet changeSet = new ConversationChangeSet(this.drainedVersion, this.version, this.changes);
+        this.changes.clear();
+        this.drainedVersion = this.version;
+        return changeSet;
+    }
+
+    /**
+     * 获取列表当前的版本。每一次变更版本号加一。
+     * 读取版本和复制列表需要在同一个 {@code synchronized (list)} 块内进行。
+     *
+     * @return 返回列表版本。
+     */
+    public synchronized long getVersion() {
+        return this.version;
+    }
+
+    public synchronized Conversation get(int index) {
+        return this.data.get(index).conversation;
+    }
+
+    public synchronized int size() {
+        return this.data.size();
+    }
+
+    public synchronized boolean isEmpty() {
+        return this.data.isEmpty();
+    }
+
+    public synchronized boolean contains(Conversation conversation) {
+        return this.idMap.containsKey(conversation.id);
+    }
+
+    public synchronized int indexOf(Conversation conversation) {
+        Entry entry = this.idMap.get(conversation.id);
+        return (null != entry) ? this.locate(entry) : -1;
+    }
+
+    /**
+     * 复制列表数据，并返回复制时的列表版本。
+     *
+     * @param output 指定复制的目标列表。
+     * @return 返回列表版本。
+     */
+    public synchronized long snapshot(List<Conversation> output) {
+        for (Entry entry : this.data) {
+            output.add(entry.conversation);
+        }
+        return this.version;
+    }
+
+    /**
+     * 按排序位置添加会话。如果会话已经在列表里，则调整它的位置并返回 {@code false} 。
+     *
+     * @param conversation 指定会话。
+     * @return 添加了新会话返回 {@code true} 。
+     */
+    public synchronized boolean add(Conversation conversation) {
+        if (this.idMap.containsKey(conversation.id)) {
+            this.reposition(conversation);
+            return false;
+        }
+
+        Entry entry = new Entry(conversation);
+        int index = this.insertionPoint(entry);
+        this.data.add(index, entry);
+        this.index(entry);
+
+        this.record(ConversationChangeSet.Type.Inserted, -1, index, conversation);
+        return true;
+    }
+
+    /**
+     * 按排序位置添加多个会话。
+     *
+     * @param conversations 指定会话清单。
+     * @return 添加了新会话返回 {@code true} 。
+     */
+    public synchronized boolean addAll(Collection<Conversation> conversations) {
+        boolean changed = false;
+        for (Conversation conversation : conversations) {
+            changed |= this.add(conversation);
+        }
+        return changed;
+    }
+
+    /**
+     * 移除指定位置的会话。
+     *
+     * @param index 指定位置。
+     * @return 返回被移除的会话。
+     */
+    public synchronized Conversation remove(int index) {
+        Entry entry = this.data.remove(index);
+        this.unindex(entry);
+
+        this.record(ConversationChangeSet.Type.Removed, index, -1, entry.conversation);
+        return entry.conversation;
+    }
+
+    /**
+     * 移除指定会话。
+     *
+     * @param conversation 指定会话。
+     * @return 如果会话在列表里返回 {@code true} 。
+     */
+    public synchronized boolean remove(Conversation conversation) {
+        int index = this.indexOf(conversation);
+        if (index < 0) {
+            return false;
+        }
+
+        this.remove(index);
+        return true;
+    }
+
+    public synchronized void clear() {
+        this.data.clear();
+        this.idMap.clear();
+        this.pivotalMap.clear();
+
+        if (null != this.ledger) {
+            this.ledger.clear();
+        }
+
+        // 清空后之前的变更没有意义，跳过一个版本使持有旧快照的界面重新加载
+        ++this.version;
+        this.changes.clear();
+        this.drainedVersion = this.version;
+    }
+
+    private int locate(Entry entry) {
+        return Collections.binarySearch(this.data, entry, sRankComparator);
+    }
+
+    private int insertionPoint(Entry entry) {
+        int index = Collections.binarySearch(this.data, entry, sRankComparator);
+        return (index < 0) ? -(index + 1) : index;
+    }
+
+    private void record(ConversationChangeSet.Type type, int fromIndex, int toIndex, Conversation conversation) {
+        ++this.version;
+        this.changes.add(new ConversationChangeSet.Change(type, fromIndex, toIndex, conversation));
+    }
+
+    @Override
+    public String getName() {
+        return "Conversations";
+    }
+
+    @Override
+    public synchronized void attach(EntityInspector.Ledger ledger) {
+        this.ledger = ledger;
+        for (Entry entry : this.data) {
+            ledger.track(entry.conversation);
+        }
+    }
+
+    @Override
+    public synchronized void detach() {
+        this.ledger = null;
+    }
+
+    @Override
+    public synchronized boolean evict(Entity entity, Object key) {
+        Entry entry = this.idMap.get(entity.id);
+        if (null == entry || entry.conversation != entity) {
+            return false;
+        }
+
+        this.remove(this.locate(entry));
+        return true;
+    }
+
+    private void index(Entry entry) {
+        this.idMap.put(entry.conversation.id, entry);
+        if (null != entry.conversation.getPivotalId()) {
+            this.pivotalMap.put(entry.conversation.getPivotalId(), entry.conversation);
+        }
+
+        if (null != this.ledger) {
+            this.ledger.track(entry.conversation);
+        }
+    }
+
+    private void unindex(Entry entry) {
+        Conversation conversation = entry.conversation;
+        if (this.idMap.get(conversation.id) == entry) {
+            this.idMap.remove(conversation.id);
+        }
+        if (null != conversation.getPivotalId() && this.pivotalMap.get(conversation.getPivotalId()) == conversation) {
+            this.pivotalMap.remove(conversation.getPivotalId());
+        }
+
+        if (null != this.ledger) {
+            this.ledger.untrack(conversation);
+        }
+    }
+
+    /**
+     * 关注的会话排在前面。
+     */
+    private static int rankGroup(Conversation conversation) {
+        ConversationState state = conversation.getState();
+        return (state == ConversationState.Normal || state == ConversationState.Deleted) ? 1 : 0;
+    }
+
+    /**
+     * 会话列表的只读视图。迭代时使用复制的数据，修改操作不被支持。
+     */
+    public class View extends AbstractList<Conversation> implements RandomAccess {
+
+        private View() {
+        }
+
+        /**
+         * 获取列表当前的版本。
+         *
+         * @return 返回列表版本。
+         */
+        public long getVersion() {
+            return ConversationList.this.getVersion();
+        }
+
+        /**
+         * 复制列表数据，并返回复制时的列表版本。
+         *
+         * @param output 指定复制的目标列表。
+         * @return 返回列表版本。
+         */
+        public long snapshot(List<Conversation> output) {
+            return ConversationList.this.snapshot(output);
+        }
+
+        @Override
+        public Conversation get(int index) {
+            return ConversationList.this.get(index);
+        }
+
+        @Override
+        public int size() {
+            return ConversationList.this.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return ConversationList.this.isEmpty();
+        }
+
+        @Override
+        public boolean contains(Object object) {
+            return (object instanceof Conversation) && ConversationList.this.contains((Conversation) object);
+        }
+
+        @Override
+        public int indexOf(Object object) {
+            return (object instanceof Conversation) ? ConversationList.this.indexOf((Conversation) object) : -1;
+        }
+
+        @Override
+        public int lastIndexOf(Object object) {
+            return this.indexOf(object);
+        }
+
+        @Override
+        public Iterator<Conversation> iterator() {
+            List<Conversation> list = new ArrayList<>();
+            ConversationList.this.snapshot(list);
+            return Collections.unmodifiableList(list).iterator();
+        }
+    }
+
+    /**
+     * 列表元素，记录会话入列时的排序键，用于在会话数据变化后仍能定位到原位置。
+     */
+    private static class Entry {
+
+        protected final Conversation conversation;
+
+        protected int group;
+
+        protected long timestamp;
+
+        protected Entry(Conversation conversation) {
+            this.conversation = conversation;
+            this.group = rankGroup(conversation);
+            this.timestamp = conversation.getTimestamp();
+        }
+    }
+}
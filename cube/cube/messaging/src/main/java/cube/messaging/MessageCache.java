@@ -0,0 +1,211 @@
+/*
+ * This file is part of Cube.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2022 Cube Team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package cube.messaging;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import cube.core.EntityInspector;
+import cube.core.model.Entity;
+import cube.messaging.model.Message;
+
+/**
+ * 会话消息缓存。
+ * 按会话 ID 管理消息列表，并维护消息 ID 到所在列表的索引，按 ID 查找消息不需要遍历列表。
+ * 缓存作为一个容器存入实体检查器，消息增删时同步登记到台账。
+ */
+public class MessageCache implements MessageList.Listener, EntityInspector.Container {
+
+    private final Map<Long, MessageList> conversationLists;
+
+    private final Map<Long, MessageList> messageIndex;
+
+    private volatile EntityInspector.Ledger ledger;
+
+    public MessageCache() {
+        this.conversationLists = new ConcurrentHashMap<>();
+        this.messageIndex = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * 获取会话的消息列表。
+     *
+     * @param conversationId 会话 ID 。
+     * @return 返回消息列表，如果没有缓存返回 {@code null} 值。
+     */
+    public MessageList getList(Long conversationId) {
+        return this.conversationLists.get(conversationId);
+    }
+
+    /**
+     * 为会话创建新的消息列表，替换已存在的列表。
+     *
+     * @param conversationId 会话 ID 。
+     * @return 返回新的消息列表。
+     */
+    public MessageList createList(Long conversationId) {
+        MessageList list = new MessageList();
+        list.setListener(this);
+
+        MessageList old = this.conversationLists.put(conversationId, list);
+        if (null != old) {
+            this.detach(old);
+        }
+        return list;
+    }
+
+    /**
+     * 移除会话的消息列表。
+     *
+     * @param conversationId 会话 ID 。
+     * @return 返回被移除的列表。
+     */
+    public MessageList removeList(Long conversationId) {
+        MessageList list = this.conversationLists.remove(conversationId);
+        if (null != list) {
+            this.detach(list);
+        }
+        return list;
+    }
+
+    /**
+     * 获取所有消息列表。
+     *
+     * @return
+     */
+    public Collection<MessageList> getLists() {
+        return this.conversationLists.values();
+    }
+
+    /**
+     * 查找指定 ID 的消息。
+     *
+     * @param messageId 消息 ID 。
+     * @return 返回消息实例，如果没有缓存返回 {@code null} 值。
+     */
+    public Message findMessage(Long messageId) {
+        MessageList list = this.messageIndex.get(messageId);
+        return (null != list) ? list.getMessage(messageId) : null;
+    }
+
+    /**
+     * 查找指定 ID 的消息所在的列表。
+     *
+     * @param messageId 消息 ID 。
+     * @return 返回消息列表，如果没有缓存返回 {@code null} 值。
+     */
+    public MessageList findList(Long messageId) {
+        return this.messageIndex.get(messageId);
+    }
+
+    /**
+     * 缓存的消息数量。
+     *
+     * @return
+     */
+    public int numMessages() {
+        return this.messageIndex.size();
+    }
+
+    /**
+     * 清空缓存。
+     */
+    public void clear() {
+        for (MessageList list : this.conversationLists.values()) {
+            list.setListener(null);
+        }
+        this.conversationLists.clear();
+        this.messageIndex.clear();
+
+        EntityInspector.Ledger ledger = this.ledger;
+        if (null != ledger) {
+            ledger.clear();
+        }
+    }
+
+    private void detach(MessageList list) {
+        list.setListener(null);
+        EntityInspector.Ledger ledger = this.ledger;
+        synchronized (list.messages) {
+            for (Message message : list.messages) {
+                this.messageIndex.remove(message.id, list);
+                if (null != ledger) {
+                    ledger.untrack(message);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void onMessageAdded(MessageList list, Message message) {
+        this.messageIndex.put(message.id, list);
+
+        EntityInspector.Ledger ledger = this.ledger;
+        if (null != ledger) {
+            ledger.track(message);
+        }
+    }
+
+    @Override
+    public void onMessageRemoved(MessageList list, Message message) {
+        this.messageIndex.remove(message.id, list);
+
+        EntityInspector.Ledger ledger = this.ledger;
+        if (null != ledger) {
+            ledger.untrack(message);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "Messages";
+    }
+
+    @Override
+    public void attach(EntityInspector.Ledger ledger) {
+        this.ledger = ledger;
+        for (MessageList list : this.conversationLists.values()) {
+            synchronized (list.messages) {
+                for (Message message : list.messages) {
+                    ledger.track(message);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void detach() {
+        this.ledger = null;
+    }
+
+    @Override
+    public boolean evict(Entity entity, Object key) {
+        MessageList list = this.messageIndex.get(entity.id);
+        return (null != list) && (null != list.removeMessage(entity.id));
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * This file is part of Cube.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2022 Cube Team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package cube.messaging;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import cube.messaging.model.Conversation;
+import cube.messaging.model.Message;
+import cube.util.LogUtils;
+
+/**
+ * 会话消息游标。
+ * 按 ({@code rts}, {@code rowid}) 键集从新到旧分页读取消息，仅保留两页行数据：
+ * 当前页被读到接近末尾时在后台线程预取下一页，行对象在两页之间循环复用，消息实例在读取时才解码。
+ */
+public class MessageCursor {
+
+    private final static String TAG = MessageCursor.class.getSimpleName();
+
+    private final MessagingService service;
+
+    private final MessagingStorage storage;
+
+    private final Conversation conversation;
+
+    private final int pageSize;
+
+    private Row[] current;
+
+    private int currentCount;
+
+    private int position;
+
+    private Row[] next;
+
+    /**
+     * 下一页已加载的行数，{@code -1} 表示尚未加载。
+     */
+    private int nextCount;
+
+    private boolean fetching;
+
+    private boolean noMore;
+
+    private boolean closed;
+
+    private long boundTimestamp;
+
+    private long boundRowId;
+
+    protected MessageCursor(MessagingService service, MessagingStorage storage, Conversation conversation,
+                            int pageSize, long timestamp, long rowId) {
+        this.service = service;
+        this.storage = storage;
+        this.conversation = conversation;
+        this.pageSize = Math.max(1, pageSize);
+        this.current = newPage(this.pageSize);
+        this.next = newPage(this.pageSize);
+        this.currentCount = 0;
+        this.position = 0;
+        this.nextCount = -1;
+        this.fetching = false;
+        this.noMore = false;
+        this.closed = false;
+        this.boundTimestamp = timestamp;
+        this.boundRowId = rowId;
+    }
+
+    /**
+     * 获取游标对应的会话。
+     *
+     * @return
+     */
+    public Conversation getConversation() {
+        return this.conversation;
+    }
+
+    /**
+     * 是否还有更早的消息。当前页读完时会等待下一页加载完成，不要在主线程调用。
+     *
+     * @return
+     */
+    public boolean hasNext() {
+        if (this.position < this.currentCount) {
+            return true;
+        }
+
+        return this.advance();
+    }
+
+    /**
+     * 读取下一条更早的消息。
+     *
+     * @return 返回已填充实体的消息。
+     */
+    public Message next() {
+        if (!this.hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        Row row = this.current[this.position++];
+
+        // 读取到当前页的后四分之一时预取下一页
+        if (this.currentCount - this.position <= this.pageSize / 4) {
+            this.prefetch();
+        }
+
+        Message message = this.storage.decodeMessage(row);
+        return this.service.fillMessage(message);
+    }
+
+    /**
+     * 读取至多指定数量的更早消息。
+     *
+     * @param limit 最大数量。
+     * @return 返回按时间正序排列的消息列表。
+     */
+    public List<Message> next(int limit) {
+        List<Message> list = new ArrayList<>(Math.min(limit, this.pageSize));
+        while (list.size() < limit && this.hasNext()) {
+            list.add(0, this.next());
+        }
+        return list;
+    }
+
+    /**
+     * 关闭游标。
+     */
+    public synchronized void close() {
+        this.closed = true;
+        this.noMore = true;
+        this.currentCount = 0;
+        this.position = 0;
+        this.nextCount = -1;
+    }
+
+    private synchronized boolean advance() {
+        while (this.fetching) {
+            try {
+                this.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        if (this.closed) {
+            return false;
+        }
+
+        if (this.nextCount < 0) {
+            this.nextCount = this.load(this.next);
+        }
+
+        // 交换页
+        Row[] page = this.current;
+        this.current = this.next;
+        this.next = page;
+        this.currentCount = this.nextCount;
+        this.position = 0;
+        this.nextCount = -1;
+
+        return this.currentCount > 0;
+    }
+
+    private void prefetch() {
+        synchronized (this) {
+            if (this.fetching || this.nextCount >= 0 || this.noMore || this.closed) {
+                return;
+            }
+            this.fetching = true;
+        }
+
+        this.service.execute(() -> {
+            int count = 0;
+            try {
+                count = load(next);
+            } catch (Exception e) {
+                LogUtils.w(TAG, "#prefetch", e);
+                count = -1;
+            }
+
+            synchronized (MessageCursor.this) {
+                nextCount = count;
+                fetching = false;
+                MessageCursor.this.notifyAll();
+            }
+        });
+    }
+
+    /**
+     * 加载键集边界之后的一页数据到指定页。调用方需保证同一时刻只有一个加载。
+     *
+     * @param page
+     * @return
+     */
+    private int load(Row[] page) {
+        if (this.noMore) {
+            return 0;
+        }
+
+        int count = this.storage.readMessageRows(this.conversation,
+                this.boundTimestamp, this.boundRowId, page);
+        if (count > 0) {
+            Row last = page[count - 1];
+            this.boundTimestamp = last.rts;
+            this.boundRowId = last.rowId;
+        }
+
+        if (count < page.length) {
+            this.noMore = true;
+        }
+
+        return count;
+    }
+
+    private static Row[] newPage(int size) {
+        Row[] page = new Row[size];
+        for (int i = 0; i < size; ++i) {
+            page[i] = new Row();
+        }
+        return page;
+    }
+
+    /**
+     * 未解码的消息行数据。
+     */
+    protected static class Row {
+
+        protected long rowId;
+
+        protected long id;
+
+        protected long timestamp;
+
+        protected long owner;
+
+        protected long from;
+
+        protected long to;
+
+        protected long source;
+
+        protected long lts;
+
+        protected long rts;
+
+        protected int state;
+
+        protected int scope;
+
+        protected String payload;
+
+        protected String attachment;
+    }
+}
@@ -26,69 +26,276 @@
 
 package cube.messaging;
 
-import java.util.Collections;
+import java.util.AbstractList;
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Vector;
+import java.util.Map;
+import java.util.RandomAccess;
 
 import cube.messaging.model.Message;
 
 /**
  * 消息列表。
  * 用于加速读取消息列表的速度。
+ * 列表按消息时间戳升序存储，插入时二分查找位置，并维护消息 ID 索引。
  */
 public class MessageList implements Comparator<Message> {
 
-    public final List<Message> messages = new Vector<>();
+    public final List<Message> messages = new SortedMessages();
 
     public boolean hasMore = false;
 
     private long lifespan = 5L * 60 * 1000;
 
+    private final Map<Long, Message> idMap = new HashMap<>();
+
+    private volatile Listener listener;
+
     public MessageList() {
     }
 
+    protected void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
     protected void reset(MessageListResult result) {
         hasMore = result.hasMore();
 
         messages.clear();
-        messages.addAll(result.getList());
+        for (Message message : result.getList()) {
+            this.insert(message);
+        }
     }
 
     protected void extendLife(long lifespan) {
-        for (Message message : messages) {
-            message.entityLifeExpiry += lifespan;
+        synchronized (this.messages) {
+            for (Message message : messages) {
+                message.entityLifeExpiry += lifespan;
+            }
         }
     }
 
-    protected void appendMessage(Message message) {
-        if (this.messages.contains(message)) {
-            return;
+    /**
+     * 获取指定 ID 的消息。
+     *
+     * @param messageId
+     * @return
+     */
+    protected Message getMessage(Long messageId) {
+        synchronized (this.messages) {
+            return this.idMap.get(messageId);
         }
+    }
 
-        this.messages.add(message);
+    protected boolean contains(Long messageId) {
+        synchronized (this.messages) {
+            return this.idMap.containsKey(messageId);
+        }
+    }
 
-        this.extendLife(this.lifespan);
+    protected void appendMessage(Message message) {
+        if (this.insert(message)) {
+            // 仅延长新消息的寿命，整表续期由读取列表时完成
+            message.entityLifeExpiry += this.lifespan;
+        }
     }
 
     protected void insertMessages(List<Message> messageList) {
         for (Message message : messageList) {
-            if (this.messages.contains(message)) {
-                continue;
+            if (this.insert(message)) {
+                message.entityLifeExpiry += this.lifespan;
+            }
+        }
+    }
+
+    /**
+     * 移除指定 ID 的消息。
+     *
+     * @param messageId
+     * @return 返回被移除的消息。
+     */
+    protected Message removeMessage(Long messageId) {
+        synchronized (this.messages) {
+            Message message = this.idMap.get(messageId);
+            if (null == message) {
+                return null;
+            }
+
+            int index = this.indexOf(message);
+            if (index >= 0) {
+                this.messages.remove(index);
             }
+            return message;
+        }
+    }
 
-            this.messages.add(message);
+    /**
+     * 获取最后一条满足非指定范围的消息。
+     *
+     * @param excludedScope
+     * @return
+     */
+    protected Message getLastMessage(int excludedScope) {
+        synchronized (this.messages) {
+            for (int i = this.messages.size() - 1; i >= 0; --i) {
+                Message message = this.messages.get(i);
+                if (message.getScope() != excludedScope) {
+                    return message;
+                }
+            }
+            return null;
         }
+    }
 
-        // 排序
-        Collections.sort(this.messages, this);
+    private boolean insert(Message message) {
+        synchronized (this.messages) {
+            if (this.idMap.containsKey(message.id)) {
+                return false;
+            }
 
-        this.extendLife(this.lifespan);
+            ((SortedMessages) this.messages).insert(this.upperBound(message), message);
+            return true;
+        }
+    }
+
+    /**
+     * 在有序列表里查找时间戳大于指定消息的第一个位置。
+     *
+     * @param message
+     * @return
+     */
+    private int upperBound(Message message) {
+        int low = 0;
+        int high = this.messages.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (this.compare(this.messages.get(mid), message) <= 0) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int indexOf(Message message) {
+        // 先定位相同时间戳区间的末尾，再向前查找
+        for (int i = this.upperBound(message) - 1; i >= 0; --i) {
+            Message current = this.messages.get(i);
+            if (current == message) {
+                return i;
+            }
+
+            if (current.getRemoteTimestamp() < message.getRemoteTimestamp()) {
+                break;
+            }
+        }
+
+        return this.messages.indexOf(message);
     }
 
     @Override
     public int compare(Message message1, Message message2) {
         // 时间戳升序
-        return (int) (message1.getRemoteTimestamp() - message2.getRemoteTimestamp());
+        return Long.compare(message1.getRemoteTimestamp(), message2.getRemoteTimestamp());
+    }
+
+    /**
+     * 列表数据变化监听器。
+     */
+    protected interface Listener {
+
+        void onMessageAdded(MessageList list, Message message);
+
+        void onMessageRemoved(MessageList list, Message message);
+    }
+
+    /**
+     * 有序消息存储。对外暴露为 {@link List} 以便实体检查器等通过迭代器移除数据，移除时同步更新索引。
+     */
+    private class SortedMessages extends AbstractList<Message> implements RandomAccess {
+
+        private final ArrayList<Message> data = new ArrayList<>();
+
+        @Override
+        public synchronized Message get(int index) {
+            return this.data.get(index);
+        }
+
+        @Override
+        public synchronized int size() {
+            return this.data.size();
+        }
+
+        @Override
+        public synchronized boolean contains(Object object) {
+            if (object instanceof Message) {
+                return idMap.containsKey(((Message) object).id);
+            }
+            return false;
+        }
+
+        @Override
+        public synchronized Message set(int index, Message message) {
+            Message old = this.data.set(index, message);
+            if (old != message) {
+                if (idMap.get(old.id) == old) {
+                    idMap.remove(old.id);
+                    if (null != listener) {
+                        listener.onMessageRemoved(MessageList.this, old);
+                    }
+                }
+                idMap.put(message.id, message);
+                if (null != listener) {
+                    listener.onMessageAdded(MessageList.this, message);
+                }
+            }
+            return old;
+        }
+
+        @Override
+        public synchronized void add(int index, Message message) {
+            this.insert(index, message);
+        }
+
+        @Override
+        public synchronized Message remove(int index) {
+            Message message = this.data.remove(index);
+            ++this.modCount;
+
+            if (idMap.get(message.id) == message) {
+                idMap.remove(message.id);
+                if (null != listener) {
+                    listener.onMessageRemoved(MessageList.this, message);
+                }
+            }
+            return message;
+        }
+
+        @Override
+        public synchronized void clear() {
+            if (null != listener) {
+                for (Message message : this.data) {
+                    listener.onMessageRemoved(MessageList.this, message);
+                }
+            }
+
+            this.data.clear();
+            idMap.clear();
+            ++this.modCount;
+        }
+
+        private synchronized void insert(int index, Message message) {
+            this.data.add(index, message);
+            ++this.modCount;
+
+            idMap.put(message.id, message);
+            if (null != listener) {
+                listener.onMessageAdded(MessageList.this, message);
+            }
+        }
     }
 }
@@ -102,7 +102,7 @@ public class MessagingObserver implements Observer {
             Group group = (Group) event.getData();
             Conversation conversation = null;
             synchronized (this.service) {
-                for (Conversation conv : this.service.conversations) {
+                for (Conversation conv : this.service.conversations.asList()) {
                     Group cg = conv.getGroup();
                     if (null == cg) {
                         continue;
@@ -124,7 +124,7 @@ public class MessagingObserver implements Observer {
                             // 从列表里删除
                             synchronized (service) {
                                 service.conversations.remove(conversation);
-                                service.conversationMessageListMap.remove(conversation.id);
+                                service.removeMessageList(conversation.id);
                             }
                         }
                     }, new StableFailureHandler() {
@@ -40,6 +40,7 @@ import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
@@ -65,6 +66,7 @@ import cube.core.ModuleError;
 import cube.core.MutableModuleError;
 import cube.core.Packet;
 import cube.core.PipelineState;
+import cube.core.SegmentedCache;
 import cube.core.handler.CompletionHandler;
 import cube.core.handler.DefaultFailureHandler;
 import cube.core.handler.FailureHandler;
@@ -142,7 +144,17 @@ public class MessagingService extends Module {
     private Timer pullTimer;
     private CompletionHandler pullCompletionHandler;
 
-    protected List<Conversation> conversations;
+    protected ConversationList conversations;
+
+    /**
+     * 未读数量有变化、等待批量写入数据库的会话。
+     */
+    private Map<Long, Conversation> unreadDirtyConversations;
+
+    /**
+     * 是否已安排未读数量的写入任务。
+     */
+    private AtomicBoolean unreadFlushScheduled;
 
     /**
      * 预载的最近会话数量。
@@ -155,14 +167,14 @@ public class MessagingService extends Module {
     private int preloadConversationMessageNum;
 
     /**
-     * 会话对应的消息列表。
+     * 会话对应的消息列表缓存。
      */
-    protected Map<Long, MessageList> conversationMessageListMap;
+    protected MessageCache messageCache;
 
     /**
      * 更新对应附录里的文件数据时记录的信息。
      */
-    private Map<String, CacheableFileLabelCapsule> capsuleCache;
+    private SegmentedCache<String, CacheableFileLabelCapsule> capsuleCache;
 
     /**
      * 正在发送的消息清单。
@@ -187,12 +199,14 @@ public class MessagingService extends Module {
         this.preparing = new AtomicBoolean(false);
         this.ready = new AtomicBoolean(false);
         this.lastMessageTime = 0;
-        this.conversations = new Vector<>();
-        this.conversationMessageListMap = new ConcurrentHashMap<>();
+        this.conversations = new ConversationList();
+        this.unreadDirtyConversations = new ConcurrentHashMap<>();
+        this.unreadFlushScheduled = new AtomicBoolean(false);
+        this.messageCache = new MessageCache();
         this.sendingQueue = new ConcurrentLinkedQueue<>();
         this.preloadConversationRecentNum = 5;
         this.preloadConversationMessageNum = 10;
-        this.capsuleCache = new ConcurrentHashMap<>();
+        this.capsuleCache = new SegmentedCache<>("FileLabelCapsules");
         this.conversationMessageListeners = new ConcurrentHashMap<>();
         this.eraseControllers = new ArrayList<>();
     }
@@ -220,14 +234,20 @@ public class MessagingService extends Module {
 
         this.pipeline.addListener(MessagingService.NAME, this.pipelineListener);
 
+        // 已读状态在本地先行更新，通道未就绪时写入发送日志，连接恢复后再同步
+        this.pipeline.addDurableAction(MessagingService.NAME, MessagingAction.Read);
+        // 离线时发送的消息写入发送日志，进程退出后仍能在连接恢复时发出
+        this.pipeline.addDurableAction(MessagingService.NAME, MessagingAction.Push);
+
         // 监听联系人模块
         this.contactService = (ContactService) this.kernel.getModule(ContactService.NAME);
         this.contactService.attach(this.observer);
 
         ThumbnailDownloadManager.getInstance().setExecutor(this.kernel.getExecutor());
 
-        this.kernel.getInspector().depositList(this.conversations);
-        this.kernel.getInspector().depositMap(this.capsuleCache);
+        this.kernel.getInspector().deposit(this.conversations);
+        this.kernel.getInspector().deposit(this.messageCache);
+        this.kernel.registerCache(this.capsuleCache);
 
         // 监听 Ferry 模块
         Module ferryModule = getKernel().getModule("Ferry");
@@ -266,16 +286,18 @@ public class MessagingService extends Module {
         // 拆除插件
         this.dissolve();
 
-        this.kernel.getInspector().withdrawMap(this.capsuleCache);
-        this.kernel.getInspector().withdrawList(this.conversations);
-
-        for (MessageList list : this.conversationMessageListMap.values()) {
-            this.kernel.getInspector().withdrawList(list.messages);
-        }
+        this.kernel.getInspector().withdraw(this.conversations);
+        this.kernel.getInspector().withdraw(this.messageCache);
+        this.kernel.unregisterCache(this.capsuleCache);
 
         this.contactService.detach(this.observer);
 
         this.pipeline.removeListener(MessagingService.NAME, this.pipelineListener);
+        this.pipeline.removeDurableAction(MessagingService.NAME, MessagingAction.Read);
+        this.pipeline.removeDurableAction(MessagingService.NAME, MessagingAction.Push);
+
+        // 写入未保存的未读数量
+        this.flushUnreadCounts();
 
         // 关闭存储
         this.storage.close();
@@ -283,7 +305,7 @@ public class MessagingService extends Module {
         this.sendingQueue.clear();
 
         this.conversations.clear();
-        this.conversationMessageListMap.clear();
+        this.messageCache.clear();
 
         if (this.preparing.get()) {
             synchronized (this.preparing) {
@@ -411,7 +433,7 @@ public class MessagingService extends Module {
      * 获取最近的会话清单。
      *
      * @param maxNum 指定最大记录数量。
-     * @return 返回消息列表。如果返回 {@code null} 值表示消息服务模块未启动。
+     * @return 返回会话列表的只读视图。如果返回 {@code null} 值表示消息服务模块未启动。
      */
     public List<Conversation> getRecentConversations(int maxNum) {
         if (!this.hasStarted()) {
@@ -458,7 +480,8 @@ public class MessagingService extends Module {
 
                 this.conversations.addAll(list);
 
-                this.sortConversationList(this.conversations);
+                // 首次加载由界面读取完整清单，丢弃加载产生的增量变更
+                this.conversations.drainChanges();
 
                 // 进行预载
                 if (this.preloadConversationRecentNum > 0 && this.preloadConversationMessageNum > 0) {
@@ -479,7 +502,7 @@ public class MessagingService extends Module {
             }
         }
 
-        return this.conversations;
+        return this.conversations.asList();
     }
 
     /**
@@ -591,11 +614,10 @@ public class MessagingService extends Module {
      * @param failureHandler 指定操作失败回调句柄。
      */
     protected void destroyConversation(Long conversationId, ConversationHandler successHandler, FailureHandler failureHandler) {
-        for (Conversation conversation : this.conversations) {
-            if (conversation.id.longValue() == conversationId.longValue()) {
-                destroyConversation(conversation, successHandler, failureHandler);
-                return;
-            }
+        Conversation current = this.conversations.getById(conversationId);
+        if (null != current) {
+            destroyConversation(current, successHandler, failureHandler);
+            return;
         }
 
         Conversation conversation = this.storage.readConversation(conversationId);
@@ -688,12 +710,7 @@ public class MessagingService extends Module {
         Conversation conversation = null;
 
         synchronized (this) {
-            for (Conversation conv : this.conversations) {
-                if (conv.id.longValue() == id.longValue()) {
-                    conversation = conv;
-                    break;
-                }
-            }
+            conversation = this.conversations.getById(id);
         }
 
         if (null == conversation) {
@@ -760,12 +777,9 @@ public class MessagingService extends Module {
         Conversation conversation = null;
 
         synchronized (this) {
-            for (Conversation conv : this.conversations) {
-                if (conv.id.longValue() == id.longValue()) {
-                    conversation = conv;
-                    conversation.entityLifeExpiry += LIFESPAN;
-                    break;
-                }
+            conversation = this.conversations.getById(id);
+            if (null != conversation) {
+                conversation.entityLifeExpiry += LIFESPAN;
             }
         }
 
@@ -907,15 +921,19 @@ public class MessagingService extends Module {
                     }
 
                     if (null != conversation) {
-                        // 减未读数据计数
-                        conversation.decrementUnread(1);
-
                         // 检查最近消息
                         Message recent = conversation.getRecentMessage();
                         if (recent.id.longValue() == message.id.longValue()) {
                             recent.setState(message.getState());
+                            conversation.decrementUnread(1);
+                            storage.updateConversation(conversation);
+                            conversations.reposition(conversation);
+                            dispatchConversationChanges();
+                        }
+                        else {
+                            // 减未读数据计数
+                            decrementUnread(conversation, 1);
                         }
-                        storage.updateConversation(conversation);
                     }
                 } catch (Exception e) {
                     e.printStackTrace();
@@ -993,31 +1011,27 @@ public class MessagingService extends Module {
             return;
         }
 
-        MessageList messageList = this.conversationMessageListMap.get(conversation.id);
+        MessageList messageList = this.messageCache.getList(conversation.id);
         if (null != messageList) {
-            for (Message message : messageList.messages) {
-                if (!message.isSelfTyper()) {
-                    // 将对方发送的消息设置为已读
-                    message.setState(MessageState.Read);
+            synchronized (messageList.messages) {
+                for (Message message : messageList.messages) {
+                    if (!message.isSelfTyper()) {
+                        // 将对方发送的消息设置为已读
+                        message.setState(MessageState.Read);
+                    }
                 }
             }
         }
 
         if (null != this.conversations) {
-            Conversation current = null;
-            for (Conversation conv : this.conversations) {
-                if (conv.id.longValue() == conversation.id.longValue()) {
-                    current = conv;
-                    break;
-                }
-            }
-
+            Conversation current = this.conversations.getById(conversation.id);
             if (null != current) {
                 Message recentMessage = current.getRecentMessage();
                 if (!recentMessage.isSelfTyper()) {
                     recentMessage.setState(MessageState.Read);
                 }
                 current.setUnreadCount(0);
+                this.conversations.reposition(current);
             }
         }
 
@@ -1027,6 +1041,8 @@ public class MessagingService extends Module {
         }
         conversation.setUnreadCount(0);
 
+        this.dispatchConversationChanges();
+
         this.execute(() -> {
             // 更新会话
             storage.updateConversation(conversation);
@@ -1047,20 +1063,6 @@ public class MessagingService extends Module {
                 return;
             }
 
-            if (!pipeline.isReady()) {
-                ModuleError error = new ModuleError(MessagingService.NAME, MessagingServiceState.PipelineFault.code);
-                error.data = conversation;
-                if (failureHandler.isInMainThread()) {
-                    executeOnMainThread(() -> {
-                        failureHandler.handleFailure(MessagingService.this, error);
-                    });
-                }
-                else {
-                    failureHandler.handleFailure(MessagingService.this, error);
-                }
-                return;
-            }
-
             JSONArray array = new JSONArray();
             for (Long id : idList) {
                 array.put(id.longValue());
@@ -1083,6 +1085,45 @@ public class MessagingService extends Module {
 
             // 与服务器同步
             Packet requestPacket = new Packet(MessagingAction.Read, payload);
+
+            if (!pipeline.isReady()) {
+                // 通道未就绪，请求写入发送日志，在连接恢复后发送
+                boolean journaled = pipeline.send(MessagingService.NAME, requestPacket, new PipelineHandler() {
+                    @Override
+                    public void handleResponse(Packet packet) {
+                        if (packet.state.code == PipelineState.Ok.code
+                                && packet.extractServiceStateCode() == MessagingServiceState.Ok.code) {
+                            // 更新消息在服务器上的状态
+                            storage.updateMessagesRemoteState(idList, MessageState.Read);
+                        }
+                    }
+                });
+
+                if (journaled) {
+                    if (conversationHandler.isInMainThread()) {
+                        executeOnMainThread(() -> {
+                            conversationHandler.handleConversation(conversation);
+                        });
+                    }
+                    else {
+                        conversationHandler.handleConversation(conversation);
+                    }
+                    return;
+                }
+
+                ModuleError error = new ModuleError(MessagingService.NAME, MessagingServiceState.PipelineFault.code);
+                error.data = conversation;
+                if (failureHandler.isInMainThread()) {
+                    executeOnMainThread(() -> {
+                        failureHandler.handleFailure(MessagingService.this, error);
+                    });
+                }
+                else {
+                    failureHandler.handleFailure(MessagingService.this, error);
+                }
+                return;
+            }
+
             pipeline.send(MessagingService.NAME, requestPacket, new PipelineHandler() {
                 @Override
                 public void handleResponse(Packet packet) {
@@ -1205,16 +1246,16 @@ public class MessagingService extends Module {
 
         // 修改状态
         conversation.setState(ConversationState.Important);
-        // 排序
-        if (!this.conversations.contains(conversation)) {
-            this.conversations.add(conversation);
-        }
-        this.sortConversationList(this.conversations);
+        // 添加或调整位置
+        this.conversations.add(conversation);
 
         if (!this.updateConversation(conversation, conversationHandler, failureHandler)) {
             // 更新流程没有执行，将状态修改为原状态
             conversation.setState(ConversationState.Normal);
+            this.conversations.reposition(conversation);
         }
+
+        this.dispatchConversationChanges();
     }
 
     /**
@@ -1281,16 +1322,16 @@ public class MessagingService extends Module {
 
         // 修改状态
         conversation.setState(ConversationState.Normal);
-        // 排序
-        if (!this.conversations.contains(conversation)) {
-            this.conversations.add(conversation);
-        }
-        this.sortConversationList(this.conversations);
+        // 添加或调整位置
+        this.conversations.add(conversation);
 
         if (!this.updateConversation(conversation, conversationHandler, failureHandler)) {
             // 更新流程没有执行，将状态修改为原状态
             conversation.setState(ConversationState.Important);
+            this.conversations.reposition(conversation);
         }
+
+        this.dispatchConversationChanges();
     }
 
     /**
@@ -1384,9 +1425,6 @@ public class MessagingService extends Module {
                     LogUtils.w(TAG, "#updateConverstion", e);
                 }
 
-                // 更新未读数量
-                conversation.setUnreadCount(storage.countUnread(conversation));
-
                 // 更新数据库
                 storage.updateConversation(conversation);
 
@@ -1394,10 +1432,15 @@ public class MessagingService extends Module {
                     || conversation.getState() == ConversationState.Destroyed) {
                     // 从最近列表删除
                     synchronized (MessagingService.this) {
-                        conversationMessageListMap.remove(conversation.id);
+                        removeMessageList(conversation.id);
                         conversations.remove(conversation);
                     }
                 }
+                else {
+                    conversations.reposition(conversation);
+                }
+
+                dispatchConversationChanges();
 
                 if (conversation.getState() == ConversationState.Destroyed) {
                     // 从数据库里删除所有消息相关数据
@@ -1433,7 +1476,7 @@ public class MessagingService extends Module {
      * @return
      */
     public MessageListResult getRecentMessages(Conversation conversation, int limit) {
-        MessageList list = this.conversationMessageListMap.get(conversation.id);
+        MessageList list = this.messageCache.getList(conversation.id);
         if (null != list) {
             // 延长实体寿命
             list.extendLife(LIFESPAN);
@@ -1460,10 +1503,7 @@ public class MessagingService extends Module {
             }
         }
         else {
-            list = new MessageList();
-            this.conversationMessageListMap.put(conversation.id, list);
-            // 托管列表内的实体生命周期
-            this.kernel.getInspector().depositList(list.messages);
+            list = this.createMessageList(conversation.id);
         }
 
         // 更新寿命
@@ -1543,7 +1583,7 @@ public class MessagingService extends Module {
                         message.getRemoteTimestamp(), limit);
             }
 
-            MessageList list = conversationMessageListMap.get(conversation.id);
+            MessageList list = messageCache.getList(conversation.id);
             if (null != list) {
                 list.insertMessages(result.value.getList());
             }
@@ -1559,6 +1599,63 @@ public class MessagingService extends Module {
         });
     }
 
+    /**
+     * 在本地检索消息。只检索文本消息和超文本消息，不访问服务器。
+     *
+     * @param keyword 检索关键词。
+     * @param conversation 指定检索的会话，为 {@code null} 时检索所有会话。
+     * @param offset 结果偏移量。
+     * @param limit 每页最大结果数量。
+     * @param handler 检索结果句柄。
+     */
+    public void searchLocalMessages(String keyword, Conversation conversation, int offset, int limit,
+                                    MessageListResultHandler handler) {
+        this.execute(() -> {
+            MessageListResult result = storage.searchMessages(keyword, conversation, offset, limit);
+
+            if (handler.isInMainThread()) {
+                executeOnMainThread(() -> {
+                    handler.handleMessageList(result.getList(), result.hasMore());
+                });
+            }
+            else {
+                handler.handleMessageList(result.getList(), result.hasMore());
+            }
+        });
+    }
+
+    /**
+     * 打开会话的消息游标，从最新的消息开始按时间倒序读取。
+     *
+     * @param conversation 指定会话。
+     * @param pageSize 指定每页加载的消息数量。
+     * @return 返回消息游标。
+     */
+    public MessageCursor openMessageCursor(Conversation conversation, int pageSize) {
+        return this.openMessageCursor(conversation, null, pageSize);
+    }
+
+    /**
+     * 打开会话的消息游标，从指定消息之前开始按时间倒序读取。
+     *
+     * @param conversation 指定会话。
+     * @param message 指定起始消息，游标不包含该消息。为 {@code null} 时从最新的消息开始。
+     * @param pageSize 指定每页加载的消息数量。
+     * @return 返回消息游标。
+     */
+    public MessageCursor openMessageCursor(Conversation conversation, Message message, int pageSize) {
+        // 更新寿命
+        conversation.entityLifeExpiry += LIFESPAN;
+
+        if (null == message) {
+            return new MessageCursor(this, this.storage, conversation, pageSize, Long.MAX_VALUE, Long.MAX_VALUE);
+        }
+
+        long rowId = this.storage.queryMessageRowId(message.getId());
+        return new MessageCursor(this, this.storage, conversation, pageSize, message.getRemoteTimestamp(),
+                (rowId > 0) ? rowId : Long.MIN_VALUE);
+    }
+
     /**
      * 擦除消息内容。
      *
@@ -1582,17 +1679,10 @@ public class MessagingService extends Module {
         // 更新数据库
         this.storage.updateMessage(message);
 
-        for (MessageList list : this.conversationMessageListMap.values()) {
-            // 会话里的消息
-            for (Message current : list.messages) {
-                if (current.id.equals(message.id)) {
-                    // 同一个消息
-                    if (current instanceof TypeableMessage) {
-                        ((TypeableMessage) current).erase();
-                    }
-                    break;
-                }
-            }
+        // 会话里的消息
+        Message current = this.messageCache.findMessage(message.id);
+        if (current instanceof TypeableMessage) {
+            ((TypeableMessage) current).erase();
         }
 
         JSONObject packetData = new JSONObject();
@@ -2526,6 +2616,10 @@ public class MessagingService extends Module {
                 // 删除消息并更新数据
                 Conversation conversation = deleteMessageInMemory(message);
                 if (null != conversation) {
+                    if (isUnread(message, oldState)) {
+                        decrementUnread(conversation, 1);
+                    }
+
                     // 更新数据库
                     storage.updateMessageState(conversation, oldState, MessageState.Deleted);
 
@@ -2583,16 +2677,9 @@ public class MessagingService extends Module {
         Long convId = message.isFromGroup() ? message.getSource() : message.getPartnerId();
 
         // 删除消息
-        MessageList list = this.conversationMessageListMap.get(convId);
+        MessageList list = this.messageCache.getList(convId);
         if (null != list) {
-            for (int i = list.messages.size() - 1; i >= 0; --i) {
-                Message msg = list.messages.get(i);
-                if (msg.id.equals(message.id)) {
-                    // 删除
-                    list.messages.remove(i);
-                    break;
-                }
-            }
+            list.removeMessage(message.id);
         }
 
         Conversation conversation = getConversation(convId);
@@ -2605,15 +2692,9 @@ public class MessagingService extends Module {
                 recentMessage = null;
 
                 // 重置最近消息
-                list = this.conversationMessageListMap.get(convId);
+                list = this.messageCache.getList(convId);
                 if (null != list) {
-                    for (int i = list.messages.size() - 1; i >= 0; --i) {
-                        Message msg = list.messages.get(i);
-                        if (msg.getScope() != MessageScope.Private) {
-                            recentMessage = msg;
-                            break;
-                        }
-                    }
+                    recentMessage = list.getLastMessage(MessageScope.Private);
                 }
 
                 if (null == recentMessage) {
@@ -2638,9 +2719,8 @@ public class MessagingService extends Module {
 
     private void tryAddConversation(Conversation conversation) {
         synchronized (this) {
-            if (!this.conversations.contains(conversation)) {
-                this.conversations.add(conversation);
-                this.sortConversationList(this.conversations);
+            if (this.conversations.add(conversation)) {
+                this.dispatchConversationChanges();
             }
         }
     }
@@ -2701,7 +2781,10 @@ public class MessagingService extends Module {
             notifyObservers(event);
         });
 
-        if (!this.pipeline.isReady() && message.getScope() == MessageScope.Unlimited) {
+        if (!this.pipeline.isReady() && message.getScope() == MessageScope.Unlimited
+                && (null != fileAttachment || !this.pipeline.isDurableAction(MessagingService.NAME, MessagingAction.Push))) {
+            // 不能写入发送日志的消息直接失败：附件需要在线上传，或者推送不是持久化操作。
+            // 其他消息保持发送中状态，由管道写入发送日志，连接恢复后重发。
             // 修改状态
             message.setState(MessageState.Fault);
 
@@ -2832,7 +2915,7 @@ public class MessagingService extends Module {
         }
 
         Packet packet = new Packet(MessagingAction.Push, message.toCompactJSON());
-        this.pipeline.send(MessagingService.NAME, packet, new PipelineHandler() {
+        boolean sent = this.pipeline.send(MessagingService.NAME, packet, new PipelineHandler() {
             @Override
             public void handleResponse(Packet responsePacket) {
                 if (responsePacket.state.code != PipelineState.Ok.code) {
@@ -2956,6 +3039,25 @@ public class MessagingService extends Module {
                 }
             }
         });
+
+        if (!sent) {
+            // 未能发送也未能写入发送日志
+            removeSendingMessage(message);
+
+            // 修改状态
+            message.setState(MessageState.Fault);
+
+            // 更新数据库
+            storage.updateMessage(message);
+
+            ModuleError error = new ModuleError(MessagingService.NAME, MessagingServiceState.PipelineFault.code);
+            error.data = message;
+            failureHandler.handleFailure(MessagingService.this, error);
+
+            // 产生事件
+            ObservableEvent event = new ObservableEvent(MessagingServiceEvent.Fault, error);
+            notifyObservers(event);
+        }
     }
 
     private boolean removeSendingMessage(Message message) {
@@ -3084,7 +3186,7 @@ public class MessagingService extends Module {
         this.ready.set(false);
 
         this.conversations.clear();
-        this.conversationMessageListMap.clear();
+        this.messageCache.clear();
 
         this.capsuleCache.clear();
 
@@ -3218,8 +3320,10 @@ public class MessagingService extends Module {
                     JSONArray list = data.getJSONArray("list");
                     for (int i = 0; i < list.length(); ++i) {
                         Conversation conversation = new Conversation(list.getJSONObject(i));
-                        // 更新未读数量
-                        conversation.setUnreadCount(storage.countUnread(conversation));
+                        // 更新未读数量，内存里的计数是最新的
+                        Conversation current = conversations.getById(conversation.id);
+                        conversation.setUnreadCount((null != current) ?
+                                current.getUnreadCount() : storage.countUnread(conversation));
                         fillConversation(conversation);
                         conversationList.add(conversation);
                     }
@@ -3405,34 +3509,23 @@ public class MessagingService extends Module {
     }
 
     private Conversation appendMessageToConversation(Long conversationId, Message message) {
-        MessageList list = this.conversationMessageListMap.get(conversationId);
+        MessageList list = this.messageCache.getList(conversationId);
         if (null != list) {
+            // 仅延长新消息的有效期
             list.appendMessage(message);
-            // 延长有效期
-            list.extendLife(3L * 60 * 1000);
         }
         else {
-            list = new MessageList();
-            this.conversationMessageListMap.put(conversationId, list);
-            // 托管列表内的实体生命周期
-            this.kernel.getInspector().depositList(list.messages);
+            list = this.createMessageList(conversationId);
         }
 
-        Conversation conversation = null;
-        if (null != this.conversations && !this.conversations.isEmpty()) {
-            for (Conversation current : this.conversations) {
-                if (current.getPivotalId().longValue() == conversationId) {
-                    conversation = current;
-                    break;
-                }
-            }
-        }
+        Conversation conversation = this.conversations.getByPivotalId(conversationId);
 
         if (null != conversation) {
             // 跳过私域消息，仅用私域数据更新时间戳，不更新最近消息实体
             if (message.getScope() == MessageScope.Private) {
                 conversation.setTimestamp(message.getLocalTimestamp());
-                this.sortConversationList(this.conversations);
+                this.conversations.reposition(conversation);
+                this.dispatchConversationChanges();
                 this.storage.updateConversationTimestamp(conversation);
                 return conversation;
             }
@@ -3440,20 +3533,106 @@ public class MessagingService extends Module {
             // 追加消息
             list.appendMessage(message);
 
-            // 更新消息
+            // 更新消息和未读数量
             conversation.setRecentMessage(message);
-            this.sortConversationList(this.conversations);
+            conversation.incrementUnread(message.isSelfTyper() ? 0 : 1);
+            this.conversations.reposition(conversation);
+            this.dispatchConversationChanges();
 
-            // 更新会话数据库
+            // 更新会话数据库，未读数量延迟批量写入
             this.storage.updateRecentMessage(conversation);
+            if (!message.isSelfTyper()) {
+                this.markUnreadDirty(conversation);
+            }
+        }
 
-            // 更新未读数量
-            conversation.setUnreadCount(this.storage.countUnread(conversation));
+        return conversation;
+    }
+
+    private Conversation appendMessagesToConversation(Long conversationId, List<Message> messages) {
+        MessageList list = this.messageCache.getList(conversationId);
+        if (null != list) {
+            // 仅延长新消息的有效期
+            list.insertMessages(messages);
+        }
+        else {
+            list = this.createMessageList(conversationId);
+        }
+
+        Conversation conversation = this.conversations.getByPivotalId(conversationId);
+
+        if (null != conversation) {
+            // 找到最近的非私域消息，并计算新增未读数量
+            Message recentMessage = null;
+            int unread = 0;
+            for (Message message : messages) {
+                if (message.getScope() == MessageScope.Private) {
+                    continue;
+                }
+
+                recentMessage = message;
+                if (!message.isSelfTyper()) {
+                    ++unread;
+                }
+            }
+
+            // 仅有私域消息，仅用私域数据更新时间戳，不更新最近消息实体
+            if (null == recentMessage) {
+                conversation.setTimestamp(messages.get(messages.size() - 1).getLocalTimestamp());
+                this.conversations.reposition(conversation);
+                this.dispatchConversationChanges();
+                this.storage.updateConversationTimestamp(conversation);
+                return conversation;
+            }
+
+            // 追加消息
+            list.insertMessages(messages);
+
+            // 更新消息和未读数量
+            conversation.setRecentMessage(recentMessage);
+            conversation.incrementUnread(unread);
+            this.conversations.reposition(conversation);
+            this.dispatchConversationChanges();
+
+            // 更新会话数据库，未读数量延迟批量写入
+            this.storage.updateRecentMessage(conversation);
+            if (unread > 0) {
+                this.markUnreadDirty(conversation);
+            }
         }
 
         return conversation;
     }
 
+    /**
+     * 通知会话收到了一组新消息。观察者只收到该会话最新一条消息的事件。
+     *
+     * @param conversationId
+     * @param messages
+     * @param conversation
+     */
+    private void notifyMessagesReceived(Long conversationId, List<Message> messages, Conversation conversation) {
+        Message lastMessage = messages.get(messages.size() - 1);
+        super.notifyObservers(new ObservableEvent(MessagingServiceEvent.Notify, lastMessage, conversation));
+
+        List<MessageEventListener> listenerList = this.conversationMessageListeners.get(conversationId);
+        if (null != listenerList) {
+            executeOnMainThread(() -> {
+                for (Message message : messages) {
+                    for (MessageEventListener listener : listenerList) {
+                        listener.onMessageReceived(message, this);
+                    }
+                }
+            });
+        }
+
+        if (null != conversation && null != this.conversationEventListener) {
+            executeOnMainThread(() -> {
+                this.conversationEventListener.onConversationMessageUpdated(conversation, this);
+            });
+        }
+    }
+
     /**
      * 从内存里找到对应 ID 的消息。
      *
@@ -3461,16 +3640,36 @@ public class MessagingService extends Module {
      * @return
      */
     private Message findMessageInMemory(Long messageId) {
-        for (MessageList list : this.conversationMessageListMap.values()) {
-            for (Message message : list.messages) {
-                if (message.getId().equals(messageId)) {
-                    list.extendLife(LIFESPAN);
-                    return message;
-                }
-            }
+        MessageList list = this.messageCache.findList(messageId);
+        if (null == list) {
+            return null;
         }
 
-        return null;
+        Message message = list.getMessage(messageId);
+        if (null != message) {
+            // 仅延长被访问消息的寿命
+            message.entityLifeExpiry += LIFESPAN;
+        }
+        return message;
+    }
+
+    /**
+     * 创建会话的消息列表。列表内实体的生命周期由消息缓存托管。
+     *
+     * @param conversationId
+     * @return
+     */
+    private MessageList createMessageList(Long conversationId) {
+        return this.messageCache.createList(conversationId);
+    }
+
+    /**
+     * 移除会话的消息列表。
+     *
+     * @param conversationId
+     */
+    protected void removeMessageList(Long conversationId) {
+        this.messageCache.removeList(conversationId);
     }
 
     protected void triggerNotify(JSONObject data) {
@@ -3508,6 +3707,63 @@ public class MessagingService extends Module {
         }
     }
 
+    /**
+     * 批量处理收到的消息。
+     * 消息在一个事务里写入数据库，每个会话只更新一次，并且只发出一次 {@link MessagingServiceEvent#Notify} 事件。
+     *
+     * @param messages 已填充实体的消息列表。
+     */
+    protected void triggerNotify(List<Message> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+
+        // 数据写入数据库
+        List<Message> inserted = this.storage.writeMessages(messages);
+
+        for (Message message : messages) {
+            if (message.getRemoteTimestamp() > this.lastMessageTime) {
+                this.lastMessageTime = message.getRemoteTimestamp();
+            }
+        }
+
+        if (inserted.isEmpty()) {
+            return;
+        }
+
+        // Hook
+        NotifyHook hook = (NotifyHook) this.pluginSystem.getHook(NotifyHook.NAME);
+
+        // 按会话分组
+        Map<Long, List<Message>> conversationMessages = new LinkedHashMap<>();
+        for (Message message : inserted) {
+            Message compMessage = (null != hook) ? hook.apply(message) : message;
+
+            Long pivotalId = compMessage.isFromGroup() ? compMessage.getSource() : compMessage.getPartnerId();
+            List<Message> list = conversationMessages.get(pivotalId);
+            if (null == list) {
+                list = new ArrayList<>();
+                conversationMessages.put(pivotalId, list);
+            }
+            list.add(compMessage);
+        }
+
+        for (Map.Entry<Long, List<Message>> entry : conversationMessages.entrySet()) {
+            List<Message> list = entry.getValue();
+            Collections.sort(list, new Comparator<Message>() {
+                @Override
+                public int compare(Message message1, Message message2) {
+                    return Long.compare(message1.getRemoteTimestamp(), message2.getRemoteTimestamp());
+                }
+            });
+
+            // 更新会话清单
+            Conversation conversation = this.appendMessagesToConversation(entry.getKey(), list);
+
+            this.notifyMessagesReceived(entry.getKey(), list, conversation);
+        }
+    }
+
     protected void triggerPull(int code, JSONObject data) {
         if (null != this.pullTimer) {
             this.pullTimer.cancel();
@@ -3536,11 +3792,20 @@ public class MessagingService extends Module {
 
             LogUtils.d(TAG, "Pull messages total: " + total);
 
+            List<Message> messageList = new ArrayList<>(messages.length());
             for (int i = 0; i < messages.length(); ++i) {
-                JSONObject json = messages.getJSONObject(i);
-                this.triggerNotify(json);
+                try {
+                    Message message = new Message(this, messages.getJSONObject(i));
+                    // 填充消息相关实体对象
+                    messageList.add(this.fillMessage(message));
+                } catch (JSONException e) {
+                    LogUtils.w(TAG, "#triggerPull", e);
+                }
             }
 
+            // 批量写入
+            this.triggerNotify(messageList);
+
             // 对消息进行状态对比
             // 如果服务器状态与本地状态不一致，将服务器上的状态修改为本地状态
         } catch (JSONException e) {
@@ -3608,12 +3873,21 @@ public class MessagingService extends Module {
                                 + message.getId() + " - state: " + copy.getState().code);
                     }
 
+                    boolean unread = isUnread(message, message.getState());
+
                     // 更新数据库
                     storage.updateMessage(message.getId(), message.getState(), copy.getState());
 
                     // 修改状态
                     message.setState(copy.getState());
 
+                    if (unread) {
+                        Conversation conversation = getConversationByMessage(message);
+                        if (null != conversation) {
+                            decrementUnread(conversation, 1);
+                        }
+                    }
+
                     ObservableEvent event = new ObservableEvent(MessagingServiceEvent.Retract, message);
                     notifyObservers(event);
                 }
@@ -3623,8 +3897,15 @@ public class MessagingService extends Module {
                     }
 
                     // 更新数据库
-                    storage.updateMessage(copy.getId(), MessageState.Sent, copy.getState());
+                    boolean unread = storage.updateMessage(copy.getId(), MessageState.Sent, copy.getState());
                     storage.updateMessage(copy.getId(), MessageState.Read, copy.getState());
+
+                    if (unread && isUnread(copy, MessageState.Sent)) {
+                        Conversation conversation = getConversationByMessage(copy);
+                        if (null != conversation) {
+                            decrementUnread(conversation, 1);
+                        }
+                    }
                 }
             });
         } catch (JSONException e) {
@@ -3806,36 +4087,74 @@ public class MessagingService extends Module {
         }
     }
 
-    private void sortConversationList(List<Conversation> list) {
-        List<Conversation> normalList = new ArrayList<>();
+    /**
+     * 将会话列表累积的变更派发给会话事件监听器。
+     */
+    private void dispatchConversationChanges() {
+        ConversationChangeSet changeSet = this.conversations.drainChanges();
+        ConversationEventListener listener = this.conversationEventListener;
+        if (null != changeSet && null != listener) {
+            executeOnMainThread(() -> {
+                listener.onConversationListChanged(changeSet, this);
+            });
+        }
+    }
+
+    /**
+     * 判断消息在指定状态下是否计入会话未读数量。
+     *
+     * @param message
+     * @param state
+     * @return
+     */
+    private boolean isUnread(Message message, MessageState state) {
+        return !message.isSelfTyper() && state == MessageState.Sent
+                && message.getScope() != MessageScope.Private;
+    }
 
-        // 将 Important 置顶
-        Collections.sort(list, new Comparator<Conversation>() {
-            @Override
-            public int compare(Conversation c1, Conversation c2) {
-                if (c1.getTimestamp() < c2.getTimestamp()) {
-                    return 1;
-                }
-                else if (c1.getTimestamp() > c2.getTimestamp()) {
-                    return -1;
-                }
-                else {
-                    return 0;
-                }
-            }
-        });
+    /**
+     * 减少会话的未读数量，数据库里的计数延迟批量写入。
+     *
+     * @param conversation
+     * @param count
+     */
+    private void decrementUnread(Conversation conversation, int count) {
+        conversation.decrementUnread(count);
+        this.conversations.reposition(conversation);
+        this.dispatchConversationChanges();
 
-        Iterator<Conversation> iterator = list.iterator();
-        while (iterator.hasNext()) {
-            Conversation conversation = iterator.next();
-            if (conversation.getState() == ConversationState.Normal ||
-                conversation.getState() == ConversationState.Deleted) {
-                // 添加到临时表
-                normalList.add(conversation);
-                iterator.remove();
-            }
+        this.markUnreadDirty(conversation);
+    }
+
+    /**
+     * 标记会话的未读数量需要写入数据库。
+     * 未读数量只以绝对值写入，短时间内的多次变化合并为一次批量写入。
+     *
+     * @param conversation
+     */
+    private void markUnreadDirty(Conversation conversation) {
+        this.unreadDirtyConversations.put(conversation.id, conversation);
+        if (this.unreadFlushScheduled.compareAndSet(false, true)) {
+            this.executeDelayed(() -> {
+                flushUnreadCounts();
+            }, 500);
+        }
+    }
+
+    private void flushUnreadCounts() {
+        this.unreadFlushScheduled.set(false);
+
+        if (this.unreadDirtyConversations.isEmpty()) {
+            return;
+        }
+
+        List<Conversation> list = new ArrayList<>();
+        Iterator<Conversation> iter = this.unreadDirtyConversations.values().iterator();
+        while (iter.hasNext()) {
+            list.add(iter.next());
+            iter.remove();
         }
 
-        list.addAll(normalList);
+        this.storage.updateUnreadCounts(list);
     }
 }
@@ -30,16 +30,24 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.util.MutableBoolean;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 
 import cube.core.AbstractStorage;
+import cube.core.FullTextIndex;
+import cube.messaging.extension.HyperTextMessage;
+import cube.messaging.extension.MessageTypeName;
 import cube.messaging.model.Conversation;
 import cube.messaging.model.ConversationReminding;
 import cube.messaging.model.ConversationState;
@@ -54,15 +62,34 @@ import cube.messaging.model.MessageState;
  */
 public class MessagingStorage extends AbstractStorage {
 
-    private final static int VERSION = 1;
+    /**
+     * 数据库版本。
+     * <ul>
+     *     <li>1 - 初始表结构</li>
+     *     <li>2 - 增加消息表和会话表的二级索引</li>
+     *     <li>3 - 增加消息文本的全文索引</li>
+     * </ul>
+     */
+    private final static int VERSION = 3;
+
+    /**
+     * 迁移时批量建立索引的消息数量。
+     */
+    private final static int INDEX_BATCH_SIZE = 1000;
 
     private MessagingService service;
 
     private String domain;
 
+    /**
+     * 消息文本的全文索引。
+     */
+    private final FullTextIndex messageIndex;
+
     public MessagingStorage(MessagingService service) {
         super();
         this.service = service;
+        this.messageIndex = new FullTextIndex("message_fts");
     }
 
     /**
@@ -85,12 +112,14 @@ public class MessagingStorage extends AbstractStorage {
      */
     public void cleanup(long timestamp) {
         String strTimestamp = Long.toString(timestamp);
-        SQLiteDatabase db = this.getWritableDatabase();
-        db.delete("message", "rts<?", new String[]{ strTimestamp });
-        db.delete("conversation", "`timestamp`<?", new String[]{ strTimestamp });
-        db.delete("recent_messager", "`time`<?", new String[]{ strTimestamp });
-        db.delete("draft", "`time`<?", new String[]{ strTimestamp });
-        this.closeWritableDatabase(db);
+        this.write((db) -> {
+            this.messageIndex.remove(db, "SELECT `id` FROM `message` WHERE `rts`<?", new Object[]{ timestamp });
+            db.delete("message", "rts<?", new String[]{ strTimestamp });
+            db.delete("conversation", "`timestamp`<?", new String[]{ strTimestamp });
+            db.delete("recent_messager", "`time`<?", new String[]{ strTimestamp });
+            db.delete("draft", "`time`<?", new String[]{ strTimestamp });
+            return null;
+        });
     }
 
     /**
@@ -271,53 +300,52 @@ public class MessagingStorage extends AbstractStorage {
      * @return 返回 {@code true} 表示插入新数据。
      */
     public boolean writeConversation(Conversation conversation) {
-        boolean insert = false;
-        SQLiteDatabase db = this.getWritableDatabase();
-
-        Cursor cursor = db.query("conversation", new String[]{ "id" },
-                "id=?", new String[]{ conversation.id.toString() }, null, null, null);
-        if (cursor.moveToFirst()) {
-            cursor.close();
+        return this.write((db) -> {
+            boolean insert = false;
 
-            // 更新
-            ContentValues values = new ContentValues();
-            values.put("timestamp", conversation.getTimestamp());
-            values.put("state", conversation.getState().code);
-            values.put("reminding", conversation.getReminding().code);
-            values.put("recent_message", conversation.getRecentMessage().toJSON().toString());
-            values.put("unread", conversation.getUnreadCount());
-            if (null != conversation.getContext()) {
-                values.put("context", conversation.getContext().toString());
-            }
+            Cursor cursor = db.query("conversation", new String[]{ "id" },
+                    "id=?", new String[]{ conversation.id.toString() }, null, null, null);
+            if (cursor.moveToFirst()) {
+                cursor.close();
 
-            // update
-            db.update("conversation", values, "id=?", new String[]{ conversation.id.toString() });
-        }
-        else {
-            cursor.close();
-            insert = true;
+                // 更新
+                ContentValues values = new ContentValues();
+                values.put("timestamp", conversation.getTimestamp());
+                values.put("state", conversation.getState().code);
+                values.put("reminding", conversation.getReminding().code);
+                values.put("recent_message", conversation.getRecentMessage().toJSON().toString());
+                values.put("unread", conversation.getUnreadCount());
+                if (null != conversation.getContext()) {
+                    values.put("context", conversation.getContext().toString());
+                }
 
-            // 插入
-            ContentValues values = new ContentValues();
-            values.put("id", conversation.id);
-            values.put("timestamp", conversation.getTimestamp());
-            values.put("type", conversation.getType().code);
-            values.put("state", conversation.getState().code);
-            values.put("pivotal_id", conversation.getPivotalId());
-            values.put("reminding", conversation.getReminding().code);
-            values.put("recent_message", conversation.getRecentMessage().toJSON().toString());
-            values.put("unread", conversation.getUnreadCount());
-            if (null != conversation.getContext()) {
-                values.put("context", conversation.getContext().toString());
+                // update
+                db.update("conversation", values, "id=?", new String[]{ conversation.id.toString() });
             }
+            else {
+                cursor.close();
+                insert = true;
 
-            // insert
-            db.insert("conversation", null, values);
-        }
+                // 插入
+                ContentValues values = new ContentValues();
+                values.put("id", conversation.id);
+                values.put("timestamp", conversation.getTimestamp());
+                values.put("type", conversation.getType().code);
+                values.put("state", conversation.getState().code);
+                values.put("pivotal_id", conversation.getPivotalId());
+                values.put("reminding", conversation.getReminding().code);
+                values.put("recent_message", conversation.getRecentMessage().toJSON().toString());
+                values.put("unread", conversation.getUnreadCount());
+                if (null != conversation.getContext()) {
+                    values.put("context", conversation.getContext().toString());
+                }
 
-        this.closeWritableDatabase(db);
+                // insert
+                db.insert("conversation", null, values);
+            }
 
-        return insert;
+            return insert;
+        });
     }
 
     /**
@@ -326,27 +354,30 @@ public class MessagingStorage extends AbstractStorage {
      * @param conversation
      */
     public void deleteConversationAndMessages(Conversation conversation) {
-        SQLiteDatabase db = this.getWritableDatabase();
+        this.write((db) -> {
+            // 删除会话
+            db.delete("conversation", "id=?", new String[]{ conversation.id.toString() });
 
-        // 删除会话
-        db.delete("conversation", "id=?", new String[]{ conversation.id.toString() });
-
-        // 删除消息
-        if (conversation.getType() == ConversationType.Contact) {
-            db.delete("message", "`source`=0 AND (`from`=? OR `to`=?)",
-                    new String[]{
-                            conversation.getPivotalId().toString(),
-                            conversation.getPivotalId().toString()
-                    });
-        }
-        else if (conversation.getType() == ConversationType.Group) {
-            db.delete("message", "`source`=?",
-                    new String[]{
-                            conversation.getPivotalId().toString()
-                    });
-        }
-
-        this.closeWritableDatabase(db);
+            // 删除消息
+            if (conversation.getType() == ConversationType.Contact) {
+                this.messageIndex.remove(db, "SELECT `id` FROM `message` WHERE `source`=0 AND (`from`=? OR `to`=?)",
+                        new Object[]{ conversation.getPivotalId(), conversation.getPivotalId() });
+                db.delete("message", "`source`=0 AND (`from`=? OR `to`=?)",
+                        new String[]{
+                                conversation.getPivotalId().toString(),
+                                conversation.getPivotalId().toString()
+                        });
+            }
+            else if (conversation.getType() == ConversationType.Group) {
+                this.messageIndex.remove(db, "SELECT `id` FROM `message` WHERE `source`=?",
+                        new Object[]{ conversation.getPivotalId() });
+                db.delete("message", "`source`=?",
+                        new String[]{
+                                conversation.getPivotalId().toString()
+                        });
+            }
+            return null;
+        });
     }
 
     /**
@@ -355,23 +386,22 @@ public class MessagingStorage extends AbstractStorage {
      * @param conversation
      */
     public void updateConversation(Conversation conversation) {
-        SQLiteDatabase db = this.getWritableDatabase();
-
-        // 更新
-        ContentValues values = new ContentValues();
-        values.put("timestamp", conversation.getTimestamp());
-        values.put("state", conversation.getState().code);
-        values.put("reminding", conversation.getReminding().code);
-        values.put("recent_message", conversation.getRecentMessage().toJSON().toString());
-        values.put("unread", conversation.getUnreadCount());
-        if (null != conversation.getContext()) {
-            values.put("context", conversation.getContext().toString());
-        }
-
-        // update
-        db.update("conversation", values, "id=?", new String[]{ conversation.id.toString() });
+        this.write((db) -> {
+            // 更新
+            ContentValues values = new ContentValues();
+            values.put("timestamp", conversation.getTimestamp());
+            values.put("state", conversation.getState().code);
+            values.put("reminding", conversation.getReminding().code);
+            values.put("recent_message", conversation.getRecentMessage().toJSON().toString());
+            values.put("unread", conversation.getUnreadCount());
+            if (null != conversation.getContext()) {
+                values.put("context", conversation.getContext().toString());
+            }
 
-        this.closeWritableDatabase(db);
+            // update
+            db.update("conversation", values, "id=?", new String[]{ conversation.id.toString() });
+            return null;
+        });
     }
 
     /**
@@ -380,14 +410,35 @@ public class MessagingStorage extends AbstractStorage {
      * @param conversation
      */
     public void updateConversationTimestamp(Conversation conversation) {
-        SQLiteDatabase db = this.getWritableDatabase();
-
-        // 更新
-        ContentValues values = new ContentValues();
-        values.put("timestamp", conversation.getTimestamp());
-        db.update("conversation", values, "id=?", new String[]{ conversation.id.toString() });
+        this.write((db) -> {
+            // 更新
+            ContentValues values = new ContentValues();
+            values.put("timestamp", conversation.getTimestamp());
+            db.update("conversation", values, "id=?", new String[]{ conversation.id.toString() });
+            return null;
+        });
+    }
 
-        this.closeWritableDatabase(db);
+    /**
+     * 批量写入会话的未读数量。
+     *
+     * @param conversations 指定会话清单。
+     */
+    public void updateUnreadCounts(Collection<Conversation> conversations) {
+        this.write((db) -> {
+            SQLiteStatement statement = db.compileStatement("UPDATE `conversation` SET `unread`=? WHERE `id`=?");
+            try {
+                for (Conversation conversation : conversations) {
+                    statement.bindLong(1, conversation.getUnreadCount());
+                    statement.bindLong(2, conversation.id);
+                    statement.executeUpdateDelete();
+                    statement.clearBindings();
+                }
+            } finally {
+                statement.close();
+            }
+            return null;
+        });
     }
 
     /**
@@ -396,52 +447,51 @@ public class MessagingStorage extends AbstractStorage {
      * @param conversations 指定会话清单。
      */
     public void updateConversations(List<Conversation> conversations) {
-        SQLiteDatabase db = this.getWritableDatabase();
-
-        for (Conversation conversation : conversations) {
-            if (conversation.getState() == ConversationState.Deleted) {
-                // 跳过已删除的会话
-                continue;
-            }
-
-            Cursor cursor = db.query("conversation", new String[]{ "id" },
-                    "id=?", new String[]{ conversation.id.toString() }, null, null, null);
-            if (cursor.moveToFirst()) {
-                cursor.close();
-
-                // 更新
-                ContentValues values = new ContentValues();
-                values.put("timestamp", conversation.getTimestamp());
-                values.put("state", conversation.getState().code);
-                values.put("reminding", conversation.getReminding().code);
-                values.put("recent_message", conversation.getRecentMessage().toJSON().toString());
-                values.put("unread", conversation.getUnreadCount());
-                if (null != conversation.getContext()) {
-                    values.put("context", conversation.getContext().toString());
+        this.write((db) -> {
+            for (Conversation conversation : conversations) {
+                if (conversation.getState() == ConversationState.Deleted) {
+                    // 跳过已删除的会话
+                    continue;
                 }
-                db.update("conversation", values, "id=?", new String[]{ conversation.id.toString() });
-            }
-            else {
-                cursor.close();
 
-                // 插入
-                ContentValues values = new ContentValues();
-                values.put("id", conversation.id);
-                values.put("timestamp", conversation.getTimestamp());
-                values.put("type", conversation.getType().code);
-                values.put("state", conversation.getState().code);
-                values.put("pivotal_id", conversation.getPivotalId());
-                values.put("reminding", conversation.getReminding().code);
-                values.put("recent_message", conversation.getRecentMessage().toJSON().toString());
-                values.put("unread", conversation.getUnreadCount());
-                if (null != conversation.getContext()) {
-                    values.put("context", conversation.getContext().toString());
+                Cursor cursor = db.query("conversation", new String[]{ "id" },
+                        "id=?", new String[]{ conversation.id.toString() }, null, null, null);
+                if (cursor.moveToFirst()) {
+                    cursor.close();
+
+                    // 更新
+                    ContentValues values = new ContentValues();
+                    values.put("timestamp", conversation.getTimestamp());
+                    values.put("state", conversation.getState().code);
+                    values.put("reminding", conversation.getReminding().code);
+                    values.put("recent_message", conversation.getRecentMessage().toJSON().toString());
+                    values.put("unread", conversation.getUnreadCount());
+                    if (null != conversation.getContext()) {
+                        values.put("context", conversation.getContext().toString());
+                    }
+                    db.update("conversation", values, "id=?", new String[]{ conversation.id.toString() });
+                }
+                else {
+                    cursor.close();
+
+                    // 插入
+                    ContentValues values = new ContentValues();
+                    values.put("id", conversation.id);
+                    values.put("timestamp", conversation.getTimestamp());
+                    values.put("type", conversation.getType().code);
+                    values.put("state", conversation.getState().code);
+                    values.put("pivotal_id", conversation.getPivotalId());
+                    values.put("reminding", conversation.getReminding().code);
+                    values.put("recent_message", conversation.getRecentMessage().toJSON().toString());
+                    values.put("unread", conversation.getUnreadCount());
+                    if (null != conversation.getContext()) {
+                        values.put("context", conversation.getContext().toString());
+                    }
+                    db.insert("conversation", null, values);
                 }
-                db.insert("conversation", null, values);
             }
-        }
-
-        this.closeWritableDatabase(db);
+            return null;
+        });
     }
 
     /**
@@ -479,53 +529,49 @@ public class MessagingStorage extends AbstractStorage {
     }
 
     /**
-     * 更新指定会的最近消息。
+     * 更新指定会话的最近消息。
+     * 未读数量由 {@link #updateUnreadCounts(Collection)} 按绝对值写入，这里仅在新建会话记录时写入当前的未读数量。
      *
      * @param conversation
      */
     public void updateRecentMessage(Conversation conversation) {
-        SQLiteDatabase db = this.getWritableDatabase();
-
-        Message message = conversation.getRecentMessage();
+        this.write((db) -> {
+            Message message = conversation.getRecentMessage();
 
-        boolean unread = !message.isSelfTyper();
-
-        Cursor cursor = db.query("conversation", new String[]{ "type" },
-                "id=?", new String[]{ conversation.id.toString() }, null, null, null);
-        if (cursor.moveToFirst()) {
-            cursor.close();
-
-            String sql = "UPDATE `conversation` SET `timestamp`=" + conversation.getTimestamp()
-                    + " , `recent_message`=? "
-                    + (unread ? ", `unread`=`unread`+1 " : " ")
-                    + "WHERE `id`=?";
+            Cursor cursor = db.query("conversation", new String[]{ "type" },
+                    "id=?", new String[]{ conversation.id.toString() }, null, null, null);
+            if (cursor.moveToFirst()) {
+                cursor.close();
 
-            db.execSQL(sql, new String[] {
-                    message.toJSON().toString(),
-                    conversation.id.toString()
-            });
-        }
-        else {
-            cursor.close();
+                String sql = "UPDATE `conversation` SET `timestamp`=" + conversation.getTimestamp()
+                        + " , `recent_message`=? WHERE `id`=?";
 
-            // 插入
-            ContentValues values = new ContentValues();
-            values.put("id", conversation.id);
-            values.put("timestamp", conversation.getTimestamp());
-            values.put("type", conversation.getType().code);
-            values.put("state", conversation.getState().code);
-            values.put("pivotal_id", conversation.getPivotalId());
-            values.put("reminding", conversation.getReminding().code);
-            values.put("recent_message", message.toJSON().toString());
-            values.put("unread", unread ? 1 : 0);
-            if (null != conversation.getContext()) {
-                values.put("context", conversation.getContext().toString());
+                db.execSQL(sql, new String[] {
+                        message.toJSON().toString(),
+                        conversation.id.toString()
+                });
             }
+            else {
+                cursor.close();
 
-            db.insert("conversation", null, values);
-        }
+                // 插入
+                ContentValues values = new ContentValues();
+                values.put("id", conversation.id);
+                values.put("timestamp", conversation.getTimestamp());
+                values.put("type", conversation.getType().code);
+                values.put("state", conversation.getState().code);
+                values.put("pivotal_id", conversation.getPivotalId());
+                values.put("reminding", conversation.getReminding().code);
+                values.put("recent_message", message.toJSON().toString());
+                values.put("unread", conversation.getUnreadCount());
+                if (null != conversation.getContext()) {
+                    values.put("context", conversation.getContext().toString());
+                }
 
-        this.closeWritableDatabase(db);
+                db.insert("conversation", null, values);
+            }
+            return null;
+        });
     }
 
     protected Message readMessageNoFillById(Long messageId) {
@@ -552,55 +598,54 @@ public class MessagingStorage extends AbstractStorage {
      * @return
      */
     public List<Long> updateMessageState(Conversation conversation, MessageState currentState, MessageState newState) {
-        List<Long> idList = new ArrayList<>();
+        return this.write((db) -> {
+            List<Long> idList = new ArrayList<>();
 
-        SQLiteDatabase db = this.getWritableDatabase();
+            if (conversation.getType() == ConversationType.Contact) {
+                // 查找符合条件的数据
+                Cursor cursor = db.query("message", new String[]{ "id" },
+                        "source=0 AND scope=0 AND state=? AND `from`=?",
+                        new String[]{
+                                currentState.toString(),
+                                conversation.getPivotalId().toString()
+                        }, null, null, null);
+                while (cursor.moveToNext()) {
+                    Long id = cursor.getLong(0);
+                    idList.add(id);
+                }
+                cursor.close();
 
-        if (conversation.getType() == ConversationType.Contact) {
-            // 查找符合条件的数据
-            Cursor cursor = db.query("message", new String[]{ "id" },
-                    "source=0 AND scope=0 AND state=? AND `from`=?",
-                    new String[]{
-                            currentState.toString(),
-                            conversation.getPivotalId().toString()
-                    }, null, null, null);
-            while (cursor.moveToNext()) {
-                Long id = cursor.getLong(0);
-                idList.add(id);
+                ContentValues values = new ContentValues();
+                values.put("state", newState.code);
+                db.update("message", values, "`source`=0 AND scope=0 AND state=? AND `from`=?",
+                        new String[] {
+                                currentState.toString(),
+                                conversation.getPivotalId().toString()});
             }
-            cursor.close();
+            else if (conversation.getType() == ConversationType.Group) {
+                // 查找符合条件的数据
+                Cursor cursor = db.query("message", new String[]{ "id" },
+                        "scope=0 AND state=? AND source=?",
+                        new String[]{
+                                currentState.toString(),
+                                conversation.getPivotalId().toString()
+                        }, null, null, null);
+                while (cursor.moveToNext()) {
+                    Long id = cursor.getLong(0);
+                    idList.add(id);
+                }
+                cursor.close();
 
-            ContentValues values = new ContentValues();
-            values.put("state", newState.code);
-            db.update("message", values, "`source`=0 AND scope=0 AND state=? AND `from`=?",
-                    new String[] {
-                            currentState.toString(),
-                            conversation.getPivotalId().toString()});
-        }
-        else if (conversation.getType() == ConversationType.Group) {
-            // 查找符合条件的数据
-            Cursor cursor = db.query("message", new String[]{ "id" },
-                    "scope=0 AND state=? AND source=?",
-                    new String[]{
-                            currentState.toString(),
-                            conversation.getPivotalId().toString()
-                    }, null, null, null);
-            while (cursor.moveToNext()) {
-                Long id = cursor.getLong(0);
-                idList.add(id);
+                ContentValues values = new ContentValues();
+                values.put("state", newState.code);
+                db.update("message", values, "scope=0 AND state=? AND source=?",
+                        new String[] {
+                                currentState.toString(),
+                                conversation.getPivotalId().toString()});
             }
-            cursor.close();
-
-            ContentValues values = new ContentValues();
-            values.put("state", newState.code);
-            db.update("message", values, "scope=0 AND state=? AND source=?",
-                    new String[] {
-                            currentState.toString(),
-                            conversation.getPivotalId().toString()});
-        }
 
-        this.closeWritableDatabase(db);
-        return idList;
+            return idList;
+        });
     }
 
     /**
@@ -624,31 +669,30 @@ public class MessagingStorage extends AbstractStorage {
     }
 
     public void updateMessagesRemoteState(List<Long> messageIdList, MessageState state) {
-        SQLiteDatabase db = this.getWritableDatabase();
-        for (Long id : messageIdList) {
-            ContentValues values = new ContentValues();
-            values.put("remote_state", state.code);
-            // update
-            db.update("message", values, "id=?", new String[] {
-                    id.toString()
-            });
-        }
-        this.closeWritableDatabase(db);
+        this.write((db) -> {
+            for (Long id : messageIdList) {
+                ContentValues values = new ContentValues();
+                values.put("remote_state", state.code);
+                // update
+                db.update("message", values, "id=?", new String[] {
+                        id.toString()
+                });
+            }
+            return null;
+        });
     }
 
     public boolean updateMessageAttachment(Long messageId, FileAttachment attachment) {
-        SQLiteDatabase db = this.getWritableDatabase();
+        return this.write((db) -> {
+            ContentValues values = new ContentValues();
+            values.put("attachment", attachment.toJSON().toString());
+            // update
+            int row = db.update("message", values, "id=?", new String[] {
+                    messageId.toString()
+            });
 
-        ContentValues values = new ContentValues();
-        values.put("attachment", attachment.toJSON().toString());
-        // update
-        int row = db.update("message", values, "id=?", new String[] {
-                messageId.toString()
+            return row > 0;
         });
-
-        this.closeWritableDatabase(db);
-
-        return row > 0;
     }
 
     /**
@@ -657,16 +701,18 @@ public class MessagingStorage extends AbstractStorage {
      * @param messageId
      * @param currentState
      * @param newState
+     * @return 如果消息原状态是指定的当前状态并且完成修改返回 {@code true} 。
      */
-    public void updateMessage(Long messageId, MessageState currentState, MessageState newState) {
-        SQLiteDatabase db = this.getWritableDatabase();
-        ContentValues values = new ContentValues();
-        values.put("state", newState.code);
-        db.update("message", values, "id=? AND state=?", new String[]{
-                messageId.toString(),
-                currentState.toString()
+    public boolean updateMessage(Long messageId, MessageState currentState, MessageState newState) {
+        return this.write((db) -> {
+            ContentValues values = new ContentValues();
+            values.put("state", newState.code);
+            int rows = db.update("message", values, "id=? AND state=?", new String[]{
+                    messageId.toString(),
+                    currentState.toString()
+            });
+            return rows > 0;
         });
-        this.closeWritableDatabase(db);
     }
 
     /**
@@ -676,98 +722,198 @@ public class MessagingStorage extends AbstractStorage {
      * @return 返回数据库里是否已存在。
      */
     public boolean updateMessage(Message message) {
-        boolean exists = false;
+        return this.write((db) -> {
+            boolean exists = false;
 
-        SQLiteDatabase db = this.getWritableDatabase();
-        Cursor cursor = db.query("message", new String[]{ "id" },
-                "id=?", new String[]{ message.id.toString() }, null, null, null);
-        if (cursor.moveToFirst()) {
-            cursor.close();
+            Cursor cursor = db.query("message", new String[]{ "id" },
+                    "id=?", new String[]{ message.id.toString() }, null, null, null);
+            if (cursor.moveToFirst()) {
+                cursor.close();
 
-            // 更新消息状态
-            ContentValues values = new ContentValues();
-            values.put("rts", message.getRemoteTimestamp());
-            values.put("state", message.getState().code);
-            values.put("payload", message.getPayload().toString());
+                // 更新消息状态
+                ContentValues values = new ContentValues();
+                values.put("rts", message.getRemoteTimestamp());
+                values.put("state", message.getState().code);
+                values.put("payload", message.getPayload().toString());
 
-            if (null != message.getAttachment()) {
-                values.put("attachment", message.getAttachment().toJSON().toString());
-            }
+                if (null != message.getAttachment()) {
+                    values.put("attachment", message.getAttachment().toJSON().toString());
+                }
 
-            db.update("message", values, "id=?", new String[]{ message.id.toString() });
+                db.update("message", values, "id=?", new String[]{ message.id.toString() });
 
-            exists = true;
-        }
-        else {
-            cursor.close();
+                exists = true;
+            }
+            else {
+                cursor.close();
 
-            // 插入消息数据
-            ContentValues values = new ContentValues();
-            values.put("id", message.id.longValue());
-            values.put("timestamp", message.getTimestamp());
-            values.put("owner", message.getOwner());
-            values.put("`from`", message.getFrom());
-            values.put("`to`", message.getTo());
-            values.put("source", message.getSource());
-            values.put("lts", message.getLocalTimestamp());
-            values.put("rts", message.getRemoteTimestamp());
-            values.put("state", message.getState().code);
-            values.put("remote_state", message.getState().code);
-            values.put("scope", message.getScope());
-            values.put("payload", message.getPayload().toString());
+                // 插入消息数据
+                ContentValues values = new ContentValues();
+                values.put("id", message.id.longValue());
+                values.put("timestamp", message.getTimestamp());
+                values.put("owner", message.getOwner());
+                values.put("`from`", message.getFrom());
+                values.put("`to`", message.getTo());
+                values.put("source", message.getSource());
+                values.put("lts", message.getLocalTimestamp());
+                values.put("rts", message.getRemoteTimestamp());
+                values.put("state", message.getState().code);
+                values.put("remote_state", message.getState().code);
+                values.put("scope", message.getScope());
+                values.put("payload", message.getPayload().toString());
+
+                if (null != message.getAttachment()) {
+                    values.put("attachment", message.getAttachment().toJSON().toString());
+                }
+
+                db.insert("message", null, values);
 
-            if (null != message.getAttachment()) {
-                values.put("attachment", message.getAttachment().toJSON().toString());
+                exists = false;
             }
 
-            db.insert("message", null, values);
+            // 更新全文索引
+            this.messageIndex.put(db, message.id, makeSearchText(message.getPayload()));
 
-            exists = false;
-        }
+            Long messagerId = 0L;
 
-        Long messagerId = 0L;
+            // 更新最近消息
+            if (message.isFromGroup()) {
+                messagerId = message.getSource();
+            }
+            else {
+                messagerId = message.getPartnerId();
+            }
 
-        // 更新最近消息
-        if (message.isFromGroup()) {
-            messagerId = message.getSource();
-        }
-        else {
-            messagerId = message.getPartnerId();
-        }
+            cursor = db.query("recent_messager", new String[]{ "time" },
+                    "messager_id=?", new String[]{ messagerId.toString() }, null, null, null);
+            if (cursor.moveToFirst()) {
+                // 有记录，判断时间戳
+                long time = cursor.getLong(0);
 
-        cursor = db.query("recent_messager", new String[]{ "time" },
-                "messager_id=?", new String[]{ messagerId.toString() }, null, null, null);
-        if (cursor.moveToFirst()) {
-            // 有记录，判断时间戳
-            long time = cursor.getLong(0);
+                cursor.close();
 
-            cursor.close();
+                if (message.getRemoteTimestamp() > time) {
+                    // 更新记录
+                    ContentValues values = new ContentValues();
+                    values.put("time", message.getRemoteTimestamp());
+                    values.put("message_id", message.getId().longValue());
+                    values.put("is_group", message.isFromGroup() ? 1 : 0);
+                    db.update("recent_messager", values,
+                            "messager_id=?", new String[]{ messagerId.toString() });
+                }
+            }
+            else {
+                cursor.close();
 
-            if (message.getRemoteTimestamp() > time) {
-                // 更新记录
+                // 新记录
                 ContentValues values = new ContentValues();
+                values.put("messager_id", messagerId.longValue());
                 values.put("time", message.getRemoteTimestamp());
                 values.put("message_id", message.getId().longValue());
                 values.put("is_group", message.isFromGroup() ? 1 : 0);
-                db.update("recent_messager", values,
-                        "messager_id=?", new String[]{ messagerId.toString() });
+                db.insert("recent_messager", null, values);
             }
-        }
-        else {
-            cursor.close();
 
-            // 新记录
-            ContentValues values = new ContentValues();
-            values.put("messager_id", messagerId.longValue());
-            values.put("time", message.getRemoteTimestamp());
-            values.put("message_id", message.getId().longValue());
-            values.put("is_group", message.isFromGroup() ? 1 : 0);
-            db.insert("recent_messager", null, values);
+            return exists;
+        });
+    }
+
+    /**
+     * 在一个事务里批量写入消息。
+     * 新消息直接插入，已存在的消息更新状态和内容，每个消息相关人的最近消息记录只更新一次。
+     *
+     * @param messages 指定消息列表。
+     * @return 返回数据库里原本不存在的消息列表，保持输入顺序。
+     */
+    public List<Message> writeMessages(List<Message> messages) {
+        if (messages.isEmpty()) {
+            return new ArrayList<>();
         }
 
-        this.closeWritableDatabase(db);
+        return this.write((db) -> {
+            List<Message> inserted = new ArrayList<>();
+
+            SQLiteStatement insert = db.compileStatement("INSERT OR IGNORE INTO `message` (`id`, `timestamp`, `owner`, `from`, `to`, `source`, `lts`, `rts`, `state`, `remote_state`, `scope`, `payload`, `attachment`) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+            SQLiteStatement update = db.compileStatement("UPDATE `message` SET `rts`=?, `state`=?, `payload`=?, `attachment`=COALESCE(?, `attachment`) WHERE `id`=?");
+
+            // 每个消息相关人在本批次里的最近一条消息
+            Map<Long, Message> recentMap = new HashMap<>();
+
+            // 消息的检索文本
+            Map<Long, String> documents = new HashMap<>();
 
-        return exists;
+            try {
+                for (Message message : messages) {
+                    String attachment = (null != message.getAttachment()) ?
+                            message.getAttachment().toJSON().toString() : null;
+
+                    insert.bindLong(1, message.id);
+                    insert.bindLong(2, message.getTimestamp());
+                    insert.bindLong(3, message.getOwner());
+                    insert.bindLong(4, message.getFrom());
+                    insert.bindLong(5, message.getTo());
+                    insert.bindLong(6, message.getSource());
+                    insert.bindLong(7, message.getLocalTimestamp());
+                    insert.bindLong(8, message.getRemoteTimestamp());
+                    insert.bindLong(9, message.getState().code);
+                    insert.bindLong(10, message.getState().code);
+                    insert.bindLong(11, message.getScope());
+                    insert.bindString(12, message.getPayload().toString());
+                    bindStringOrNull(insert, 13, attachment);
+
+                    if (insert.executeInsert() >= 0) {
+                        inserted.add(message);
+                    }
+                    else {
+                        // 已存在，更新消息状态
+                        update.bindLong(1, message.getRemoteTimestamp());
+                        update.bindLong(2, message.getState().code);
+                        update.bindString(3, message.getPayload().toString());
+                        bindStringOrNull(update, 4, attachment);
+                        update.bindLong(5, message.id);
+                        update.executeUpdateDelete();
+                    }
+
+                    documents.put(message.id, makeSearchText(message.getPayload()));
+
+                    Long messagerId = message.isFromGroup() ? message.getSource() : message.getPartnerId();
+                    Message recent = recentMap.get(messagerId);
+                    if (null == recent || message.getRemoteTimestamp() > recent.getRemoteTimestamp()) {
+                        recentMap.put(messagerId, message);
+                    }
+                }
+            } finally {
+                insert.close();
+                update.close();
+            }
+
+            this.messageIndex.put(db, documents);
+
+            SQLiteStatement insertRecent = db.compileStatement("INSERT OR IGNORE INTO `recent_messager` (`messager_id`, `time`, `message_id`, `is_group`) VALUES (?, ?, ?, ?)");
+            SQLiteStatement updateRecent = db.compileStatement("UPDATE `recent_messager` SET `time`=?, `message_id`=?, `is_group`=? WHERE `messager_id`=? AND `time`<?");
+            try {
+                for (Map.Entry<Long, Message> entry : recentMap.entrySet()) {
+                    Message message = entry.getValue();
+                    insertRecent.bindLong(1, entry.getKey());
+                    insertRecent.bindLong(2, message.getRemoteTimestamp());
+                    insertRecent.bindLong(3, message.id);
+                    insertRecent.bindLong(4, message.isFromGroup() ? 1 : 0);
+                    if (insertRecent.executeInsert() < 0) {
+                        updateRecent.bindLong(1, message.getRemoteTimestamp());
+                        updateRecent.bindLong(2, message.id);
+                        updateRecent.bindLong(3, message.isFromGroup() ? 1 : 0);
+                        updateRecent.bindLong(4, entry.getKey());
+                        updateRecent.bindLong(5, message.getRemoteTimestamp());
+                        updateRecent.executeUpdateDelete();
+                    }
+                }
+            } finally {
+                insertRecent.close();
+                updateRecent.close();
+            }
+
+            return inserted;
+        });
     }
 
     /**
@@ -776,14 +922,91 @@ public class MessagingStorage extends AbstractStorage {
      * @param messageId 指定消息 ID 。
      */
     public void deleteMessage(Long messageId) {
-        SQLiteDatabase db = this.getWritableDatabase();
-        db.delete("message", "id=?", new String[] {
-                messageId.toString()
-        });
-        db.delete("recent_messager", "message_id=?", new String[] {
-                messageId.toString()
+        this.write((db) -> {
+            this.messageIndex.remove(db, messageId);
+            db.delete("message", "id=?", new String[] {
+                    messageId.toString()
+            });
+            db.delete("recent_messager", "message_id=?", new String[] {
+                    messageId.toString()
+            });
+            return null;
         });
-        this.closeWritableDatabase(db);
+    }
+
+    /**
+     * 在本地全文索引里检索消息。只检索文本消息和超文本消息，结果按相关度排序，相关度相同时按时间倒序排列。
+     *
+     * @param keyword 检索关键词。
+     * @param conversation 指定检索的会话，为 {@code null} 时检索所有会话。
+     * @param offset 结果偏移量。
+     * @param limit 最大结果数量。
+     * @return 返回检索结果。
+     */
+    public MessageListResult searchMessages(String keyword, Conversation conversation, int offset, int limit) {
+        final List<Message> messageList = new ArrayList<>();
+        final MutableBoolean hasMore = new MutableBoolean(false);
+
+        String query = FullTextIndex.makeMatchQuery(keyword);
+        if (null != query) {
+            List<String> args = new ArrayList<>();
+            args.add(query);
+            args.add(Integer.toString(MessageScope.Unlimited));
+            args.add(Integer.toString(MessageScope.Private));
+            args.add(MessageState.Sending.toString());
+            args.add(MessageState.Sent.toString());
+            args.add(MessageState.Read.toString());
+
+            String conversationCondition = "";
+            if (null != conversation) {
+                if (ConversationType.Contact == conversation.getType()) {
+                    conversationCondition = " AND m.`source`=0 AND (m.`from`=? OR m.`to`=?)";
+                    args.add(conversation.getPivotalId().toString());
+                    args.add(conversation.getPivotalId().toString());
+                }
+                else {
+                    conversationCondition = " AND m.`source`=?";
+                    args.add(conversation.getPivotalId().toString());
+                }
+            }
+
+            // 这里比 limit 多查一条记录以判断是否还有更多消息
+            args.add(Integer.toString(limit + 1));
+            args.add(Integer.toString(offset));
+
+            SQLiteDatabase db = this.getReadableDatabase();
+            Cursor cursor = db.rawQuery("SELECT m.* FROM (" + this.messageIndex.makeMatchClause(db)
+                    + ") AS f JOIN `message` AS m ON m.`id`=f.`rowid` WHERE (m.`scope`=? OR m.`scope`=?) AND (m.`state`=? OR m.`state`=? OR m.`state`=?)"
+                    + conversationCondition + " ORDER BY f.`score`, m.`rts` DESC LIMIT ? OFFSET ?",
+                    args.toArray(new String[0]));
+            while (cursor.moveToNext()) {
+                if (messageList.size() == limit) {
+                    hasMore.value = true;
+                    break;
+                }
+
+                Message message = readMessage(cursor);
+
+                // 填充
+                message = this.service.fillMessage(message);
+                messageList.add(message);
+            }
+            cursor.close();
+            this.closeReadableDatabase(db);
+        }
+
+        return new MessageListResult() {
+
+            @Override
+            public List<Message> getList() {
+                return messageList;
+            }
+
+            @Override
+            public boolean hasMore() {
+                return hasMore.value;
+            }
+        };
     }
 
     /**
@@ -801,18 +1024,23 @@ public class MessagingStorage extends AbstractStorage {
         final MutableBoolean hasMore = new MutableBoolean(false);
 
         // 查询消息记录，这里比 limit 多查一条记录以判断是否还有更多消息。
-        Cursor cursor = db.rawQuery("SELECT * FROM `message` WHERE (`scope`=? OR `scope`=?) AND `rts`<? AND (`from`=? OR `to`=?) AND `source`=0 AND (`state`=? OR `state`=? OR `state`=?) ORDER BY `rts` DESC LIMIT ?"
-            , new String[] {
-                        Integer.toString(MessageScope.Unlimited),
-                        Integer.toString(MessageScope.Private),
-                        Long.toString(timestamp),
-                        contactId.toString(),
-                        contactId.toString(),
-                        MessageState.Sending.toString(),
-                        MessageState.Sent.toString(),
-                        MessageState.Read.toString(),
-                        Integer.toString(limit + 1)
-                });
+        String scopeCondition = String.format(Locale.ROOT, "(`scope`=%d OR `scope`=%d)", MessageScope.Unlimited, MessageScope.Private);
+        Cursor cursor = db.rawQuery(buildContactMessageQuery(scopeCondition, true), new String[] {
+                contactId.toString(),
+                Long.toString(timestamp),
+                MessageState.Sending.toString(),
+                MessageState.Sent.toString(),
+                MessageState.Read.toString(),
+                Integer.toString(limit + 1),
+                contactId.toString(),
+                contactId.toString(),
+                Long.toString(timestamp),
+                MessageState.Sending.toString(),
+                MessageState.Sent.toString(),
+                MessageState.Read.toString(),
+                Integer.toString(limit + 1),
+                Integer.toString(limit + 1)
+        });
 
         while (cursor.moveToNext()) {
             if (messageList.size() == limit) {
@@ -901,6 +1129,146 @@ public class MessagingStorage extends AbstractStorage {
         };
     }
 
+    /**
+     * 查询消息的行 ID 。
+     *
+     * @param messageId 指定消息 ID 。
+     * @return 返回行 ID ，消息不存在时返回 {@code 0} 。
+     */
+    protected long queryMessageRowId(Long messageId) {
+        long rowId = 0;
+
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor cursor = db.rawQuery("SELECT _rowid_ FROM `message` WHERE `id`=?",
+                new String[]{ messageId.toString() });
+        if (cursor.moveToFirst()) {
+            rowId = cursor.getLong(0);
+        }
+        cursor.close();
+        this.closeReadableDatabase(db);
+
+        return rowId;
+    }
+
+    /**
+     * 按键集读取会话在 ({@code rts}, {@code rowid}) 之前的一页消息行，行按时间倒序填充到指定数组。
+     *
+     * @param conversation 指定会话。
+     * @param timestamp 键集边界的时间戳。
+     * @param rowId 键集边界的行 ID 。
+     * @param rows 用于填充数据的行数组，数组长度即为页大小。
+     * @return 返回填充的行数。
+     */
+    protected int readMessageRows(Conversation conversation, long timestamp, long rowId, MessageCursor.Row[] rows) {
+        String pivotalId = conversation.getPivotalId().toString();
+        String strTimestamp = Long.toString(timestamp);
+        String strRowId = Long.toString(rowId);
+        String limit = Integer.toString(rows.length);
+
+        // 行按 (`rts`, rowid) 在索引里有序，键集条件可以直接沿索引定位，不需要排序
+        String condition = "(`scope`=? OR `scope`=?) AND `rts`<=? AND (`rts`<? OR _rowid_<?)"
+                + " AND (`state`=? OR `state`=? OR `state`=?) ORDER BY `rts` DESC, _rowid_ DESC LIMIT ?";
+        String[] conditionArgs = new String[] {
+                Integer.toString(MessageScope.Unlimited),
+                Integer.toString(MessageScope.Private),
+                strTimestamp,
+                strTimestamp,
+                strRowId,
+                MessageState.Sending.toString(),
+                MessageState.Sent.toString(),
+                MessageState.Read.toString(),
+                limit
+        };
+
+        String sql = null;
+        List<String> args = new ArrayList<>();
+        if (conversation.getType() == ConversationType.Group) {
+            sql = "SELECT _rowid_ AS `rid`, * FROM `message` WHERE `source`=? AND " + condition;
+            args.add(pivotalId);
+            Collections.addAll(args, conditionArgs);
+        }
+        else {
+            sql = "SELECT * FROM (SELECT _rowid_ AS `rid`, * FROM `message` WHERE `source`=0 AND `from`=? AND " + condition + ")"
+                    + " UNION ALL SELECT * FROM (SELECT _rowid_ AS `rid`, * FROM `message` WHERE `source`=0 AND `to`=? AND `from`<>? AND " + condition + ")"
+                    + " ORDER BY `rts` DESC, `rid` DESC LIMIT ?";
+            args.add(pivotalId);
+            Collections.addAll(args, conditionArgs);
+            args.add(pivotalId);
+            args.add(pivotalId);
+            Collections.addAll(args, conditionArgs);
+            args.add(limit);
+        }
+
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor cursor = db.rawQuery(sql, args.toArray(new String[0]));
+
+        int count = 0;
+        if (cursor.moveToFirst()) {
+            int ridIndex = cursor.getColumnIndex("rid");
+            int idIndex = cursor.getColumnIndex("id");
+            int timestampIndex = cursor.getColumnIndex("timestamp");
+            int ownerIndex = cursor.getColumnIndex("owner");
+            int fromIndex = cursor.getColumnIndex("from");
+            int toIndex = cursor.getColumnIndex("to");
+            int sourceIndex = cursor.getColumnIndex("source");
+            int ltsIndex = cursor.getColumnIndex("lts");
+            int rtsIndex = cursor.getColumnIndex("rts");
+            int stateIndex = cursor.getColumnIndex("state");
+            int scopeIndex = cursor.getColumnIndex("scope");
+            int payloadIndex = cursor.getColumnIndex("payload");
+            int attachmentIndex = cursor.getColumnIndex("attachment");
+
+            do {
+                MessageCursor.Row row = rows[count++];
+                row.rowId = cursor.getLong(ridIndex);
+                row.id = cursor.getLong(idIndex);
+                row.timestamp = cursor.getLong(timestampIndex);
+                row.owner = cursor.getLong(ownerIndex);
+                row.from = cursor.getLong(fromIndex);
+                row.to = cursor.getLong(toIndex);
+                row.source = cursor.getLong(sourceIndex);
+                row.lts = cursor.getLong(ltsIndex);
+                row.rts = cursor.getLong(rtsIndex);
+                row.state = cursor.getInt(stateIndex);
+                row.scope = cursor.getInt(scopeIndex);
+                row.payload = cursor.getString(payloadIndex);
+                row.attachment = cursor.getString(attachmentIndex);
+            } while (count < rows.length && cursor.moveToNext());
+        }
+
+        cursor.close();
+        this.closeReadableDatabase(db);
+
+        return count;
+    }
+
+    /**
+     * 将行数据解码为消息。
+     *
+     * @param row
+     * @return
+     */
+    protected Message decodeMessage(MessageCursor.Row row) {
+        JSONObject payload = null;
+        try {
+            payload = new JSONObject(row.payload);
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+
+        FileAttachment attachment = null;
+        if (null != row.attachment && row.attachment.length() > 3) {
+            try {
+                attachment = new FileAttachment(new JSONObject(row.attachment));
+            } catch (JSONException e) {
+                e.printStackTrace();
+            }
+        }
+
+        return new Message(row.id, row.timestamp, this.domain, row.owner, row.from, row.to, row.source,
+                row.lts, row.rts, payload, MessageState.parse(row.state), row.scope, attachment);
+    }
+
     private Message queryLastMessageNoFillByContactId(Long contactId, boolean onlyUnlimited) {
         Message message = null;
         SQLiteDatabase db = this.getReadableDatabase();
@@ -913,12 +1281,19 @@ public class MessagingStorage extends AbstractStorage {
             scopeCondition = String.format(Locale.ROOT, "(`scope`=%d OR `scope`=%d)", MessageScope.Unlimited, MessageScope.Private);
         }
 
-        Cursor cursor = db.rawQuery("SELECT * FROM `message` WHERE " + scopeCondition + " AND (`from`=? OR `to`=?) AND `source`=0 AND (`state`=? OR `state`=? OR `state`=?) ORDER BY `rts` DESC LIMIT 1", new String[] {
+        Cursor cursor = db.rawQuery(buildContactMessageQuery(scopeCondition, false), new String[] {
+                contactId.toString(),
+                MessageState.Read.toString(),
+                MessageState.Sent.toString(),
+                MessageState.Sending.toString(),
+                "1",
                 contactId.toString(),
                 contactId.toString(),
                 MessageState.Read.toString(),
                 MessageState.Sent.toString(),
-                MessageState.Sending.toString()
+                MessageState.Sending.toString(),
+                "1",
+                "1"
         });
 
         if (cursor.moveToFirst()) {
@@ -956,6 +1331,34 @@ public class MessagingStorage extends AbstractStorage {
         return message;
     }
 
+    /**
+     * 生成查询与指定联系人之间消息的语句。
+     * 发出的消息和收到的消息分别沿 {@code idx_message_source_from_rts} 和 {@code idx_message_source_to_rts}
+     * 索引按时间倒序读取后再合并，避免 OR 条件导致按时间扫描全部私聊消息。
+     *
+     * @param scopeCondition 范围条件。
+     * @param beforeTimestamp 是否限定 {@code rts} 上界。
+     * @return 返回 SQL 语句，参数依次为：联系人 ID 、[时间戳]、三个状态、子查询数量，
+     * 联系人 ID 、联系人 ID 、[时间戳]、三个状态、子查询数量，总数量。
+     */
+    static String buildContactMessageQuery(String scopeCondition, boolean beforeTimestamp) {
+        String condition = scopeCondition
+                + (beforeTimestamp ? " AND `rts`<?" : "")
+                + " AND (`state`=? OR `state`=? OR `state`=?) ORDER BY `rts` DESC LIMIT ?";
+        return "SELECT * FROM (SELECT * FROM `message` WHERE `source`=0 AND `from`=? AND " + condition + ")"
+                + " UNION ALL SELECT * FROM (SELECT * FROM `message` WHERE `source`=0 AND `to`=? AND `from`<>? AND " + condition + ")"
+                + " ORDER BY `rts` DESC LIMIT ?";
+    }
+
+    private static void bindStringOrNull(SQLiteStatement statement, int index, String value) {
+        if (null == value) {
+            statement.bindNull(index);
+        }
+        else {
+            statement.bindString(index, value);
+        }
+    }
+
     private Message readMessage(Cursor cursor) {
         String payloadString = cursor.getString(cursor.getColumnIndex("payload"));
         JSONObject payload = null;
@@ -1011,10 +1414,126 @@ public class MessagingStorage extends AbstractStorage {
         // time  - 草稿时间
         // data  - JSON 格式的数据
         database.execSQL("CREATE TABLE IF NOT EXISTS `draft` (`owner` BIGINT PRIMARY KEY, `time` BIGINT, `data` TEXT)");
+
+        // 从初始版本开始执行迁移
+        this.migrate(database, 1, VERSION);
     }
 
     @Override
     protected void onDatabaseUpgrade(SQLiteDatabase database, int oldVersion, int newVersion) {
+        this.migrate(database, oldVersion, newVersion);
+    }
+
+    /**
+     * 按版本顺序逐级执行数据库迁移。
+     *
+     * @param database
+     * @param oldVersion 当前数据库版本。
+     * @param newVersion 目标数据库版本。
+     */
+    private void migrate(SQLiteDatabase database, int oldVersion, int newVersion) {
+        for (int version = oldVersion + 1; version <= newVersion; ++version) {
+            switch (version) {
+                case 2:
+                    this.migrateToVersion2(database);
+                    break;
+                case 3:
+                    this.migrateToVersion3(database);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * 版本 2 ：为消息查询的访问路径建立索引。
+     *
+     * @param database
+     */
+    private void migrateToVersion2(SQLiteDatabase database) {
+        // 联系人消息：`source`=0 AND (`from`=? OR `to`=?) ORDER BY `rts` ，发件和收件分别按时间有序检索
+        database.execSQL("CREATE INDEX IF NOT EXISTS `idx_message_source_from_rts` ON `message` (`source`, `from`, `rts`)");
+        database.execSQL("CREATE INDEX IF NOT EXISTS `idx_message_source_to_rts` ON `message` (`source`, `to`, `rts`)");
+
+        // 群组消息：`source`=? ORDER BY `rts`
+        database.execSQL("CREATE INDEX IF NOT EXISTS `idx_message_source_rts` ON `message` (`source`, `rts`)");
+
+        // 未读计数及状态更新：`source`=? AND `state`=?
+        database.execSQL("CREATE INDEX IF NOT EXISTS `idx_message_source_state` ON `message` (`source`, `state`, `scope`)");
+
+        // 最近消息时间：`scope`=? ORDER BY `rts` DESC
+        database.execSQL("CREATE INDEX IF NOT EXISTS `idx_message_scope_rts` ON `message` (`scope`, `rts`)");
+
+        // 最近会话列表：`state`=? ORDER BY `timestamp` DESC
+        database.execSQL("CREATE INDEX IF NOT EXISTS `idx_conversation_state_timestamp` ON `conversation` (`state`, `timestamp`)");
+
+        // 删除消息时清理最近消息记录
+        database.execSQL("CREATE INDEX IF NOT EXISTS `idx_recent_messager_message` ON `recent_messager` (`message_id`)");
+
+        // 更新查询优化器的统计信息
+        database.execSQL("ANALYZE");
+    }
+
+    /**
+     * 版本 3 ：建立消息文本的全文索引，并为已有消息分批建立索引。
+     *
+     * @param database
+     */
+    private void migrateToVersion3(SQLiteDatabase database) {
+        this.messageIndex.create(database);
+
+        Map<Long, String> documents = new HashMap<>();
+        Cursor cursor = database.rawQuery("SELECT `id`, `payload` FROM `message`", null);
+        while (cursor.moveToNext()) {
+            try {
+                String text = makeSearchText(new JSONObject(cursor.getString(1)));
+                if (null != text) {
+                    documents.put(cursor.getLong(0), text);
+                }
+            } catch (JSONException e) {
+                // Nothing
+            }
+
+            if (documents.size() >= INDEX_BATCH_SIZE) {
+                this.messageIndex.put(database, documents);
+                documents.clear();
+            }
+        }
+        cursor.close();
+
+        this.messageIndex.put(database, documents);
+    }
+
+    /**
+     * 从消息负载里提取用于检索的文本。
+     *
+     * @param payload 消息负载。
+     * @return 返回检索文本。不需要检索的消息返回 {@code null} 值。
+     */
+    private static String makeSearchText(JSONObject payload) {
+        if (null == payload || !payload.has("content")) {
+            return null;
+        }
+
+        try {
+            String type = payload.getString("type");
+            String content = payload.getString("content");
+            if (MessageTypeName.Hypertext.equals(type)) {
+                try {
+                    return new HyperTextMessage(content).getSearchableText();
+                } catch (RuntimeException e) {
+                    // 格式错误时按原文检索
+                    return content;
+                }
+            }
+            else if (MessageTypeName.Text.equals(type)) {
+                return content;
+            }
+        } catch (JSONException e) {
+            // Nothing
+        }
 
+        return null;
     }
 }
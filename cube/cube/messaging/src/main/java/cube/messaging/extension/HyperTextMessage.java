@@ -92,6 +92,26 @@ public class HyperTextMessage extends TypeableMessage {
         return this.plaintext;
     }
 
+    /**
+     * 获取用于检索的文本。包含文本内容和提醒的联系人名称，不包含表情符号。
+     *
+     * @return 返回用于检索的文本。
+     */
+    public String getSearchableText() {
+        StringBuilder buf = new StringBuilder();
+        for (FormattedContent fc : this.formattedContents) {
+            if (fc.format == FormattedContentFormat.Text) {
+                buf.append(fc.getText());
+            }
+            else if (fc.format == FormattedContentFormat.At) {
+                buf.append(" ");
+                buf.append(fc.getName());
+                buf.append(" ");
+            }
+        }
+        return buf.toString();
+    }
+
     public List<FormattedContent> getFormattedContents() {
         return new ArrayList<>(this.formattedContents);
     }
@@ -308,6 +308,7 @@ public class Conversation extends Entity {
         if (recentMessage.getRemoteTimestamp() > this.timestamp) {
             this.timestamp = recentMessage.getRemoteTimestamp();
         }
+        this.resetEntityMemorySize();
     }
 
     @Override
@@ -331,6 +332,12 @@ public class Conversation extends Entity {
         }
     }
 
+    public void incrementUnread(int count) {
+        synchronized (this) {
+            this.unreadCount += count;
+        }
+    }
+
     public void decrementUnread(int count) {
         synchronized (this) {
             this.unreadCount -= count;
@@ -444,6 +444,7 @@ public class Message extends Entity {
      */
     public void setAttachment(FileAttachment attachment) {
         this.attachment = attachment;
+        this.resetEntityMemorySize();
     }
 
     /**
@@ -518,6 +519,7 @@ public class Message extends Entity {
      */
     public void resetPayload(JSONObject payload) {
         this.payload = payload;
+        this.resetEntityMemorySize();
     }
 
     /**
@@ -580,7 +582,9 @@ public class Message extends Entity {
             size += this.attachment.getMemorySize();
         }
 
-        size += this.summary.getBytes(StandardCharsets.UTF_8).length;
+        if (null != this.summary) {
+            size += this.summary.getBytes(StandardCharsets.UTF_8).length;
+        }
 
         return size;
     }